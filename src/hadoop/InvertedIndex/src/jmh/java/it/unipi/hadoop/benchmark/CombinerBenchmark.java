@@ -0,0 +1,87 @@
+package it.unipi.hadoop.benchmark;
+
+import it.unipi.hadoop.CombinerTable;
+import it.unipi.hadoop.Tokenizer;
+import it.unipi.hadoop.WordAndDocument;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What CombinerMapper does for each input line: tokenize it, add each word to the
+ *  CombinerTable, and whenever the budget is exhausted serialize every (word, document)
+ *  pair and its count, like the map output collector does, then clear the table.
+ * Each batch covers 100 documents, so the table holds many distinct pairs; with
+ *  a small budget it is flushed several times per batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CombinerBenchmark
+{
+    private static final int LINES = 10000;
+    private static final int LINES_PER_DOCUMENT = 100;
+
+    @Param({ "1", "64" })
+    public int budgetMB;
+
+    private Text[] lines;
+    private CombinerTable table;
+    private final Tokenizer tokenizer = new Tokenizer();
+    private final Text text = new Text();
+    private final WordAndDocument key = new WordAndDocument();
+    private final VIntWritable value = new VIntWritable();
+    private final DataOutputBuffer out = new DataOutputBuffer(1024 * 1024);
+
+    @Setup
+    public void setup()
+    {
+        lines = new ZipfCorpus(50000, 1.0, 42).lines(LINES, 12);
+        table = new CombinerTable(budgetMB * 1024L * 1024);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int mapAndFlush() throws IOException
+    {
+        int flushes = 0;
+        for (int i = 0; i < lines.length; i++)
+        {
+            int docId = i / LINES_PER_DOCUMENT;
+            tokenizer.reset(lines[i]);
+            while (tokenizer.next())
+            {
+                if (table.add(tokenizer.getBytes(), tokenizer.getLength(), docId, 1)) { continue; }
+                flush();
+                flushes++;
+                table.add(tokenizer.getBytes(), tokenizer.getLength(), docId, 1);
+            }
+        }
+        flush();
+        return flushes;
+    }
+
+    private void flush() throws IOException
+    {
+        for (int entry = 0; entry < table.size(); entry++)
+        {
+            table.getWord(entry, text);
+            key.setWord(text);
+            key.setDocId(table.getDocId(entry));
+            value.set(table.getCount(entry));
+
+            // The map output buffer is reused as well, it's not part of what is measured
+            if (out.getLength() > 512 * 1024) { out.reset(); }
+            key.write(out);
+            value.write(out);
+        }
+        table.clear();
+    }
+}
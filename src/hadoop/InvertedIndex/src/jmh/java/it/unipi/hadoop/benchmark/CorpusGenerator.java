@@ -0,0 +1,96 @@
+package it.unipi.hadoop.benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Writes a synthetic corpus of text files (see ZipfCorpus), with a given number
+ *  of files and total size. File sizes follow a log-normal distribution, like
+ *  the sizes of real documents: with a large sigma, most files are small and
+ *  a few are very large. Given the same parameters, the corpus is always the same.
+ *
+ * Usage (built with mvn -P jmh package):
+ *      java -cp target/benchmarks.jar it.unipi.hadoop.benchmark.CorpusGenerator [options] <output folder> <files> <size (MB)>
+ */
+public class CorpusGenerator
+{
+    public static final String VOCABULARY = "invertedindex.corpus.vocabulary";
+    public static final String EXPONENT = "invertedindex.corpus.zipf";
+    public static final String SIZE_SIGMA = "invertedindex.corpus.size.sigma";
+    public static final String SEED = "invertedindex.corpus.seed";
+    public static final int DEFAULT_VOCABULARY = 100000;
+    public static final float DEFAULT_EXPONENT = 1.0f;
+    public static final float DEFAULT_SIZE_SIGMA = 1.0f;
+    public static final long DEFAULT_SEED = 42;
+
+    private static final int WORDS_PER_LINE = 12;
+
+    /**
+     * @param totalBytes approximate size of the whole corpus
+     * @return the actual size of the corpus, in bytes
+     */
+    public static long generate(Configuration conf, Path folder, int files, long totalBytes) throws IOException
+    {
+        long seed = conf.getLong(SEED, DEFAULT_SEED);
+        ZipfCorpus corpus = new ZipfCorpus(conf.getInt(VOCABULARY, DEFAULT_VOCABULARY),
+                conf.getFloat(EXPONENT, DEFAULT_EXPONENT), seed);
+        double sigma = conf.getFloat(SIZE_SIGMA, DEFAULT_SIZE_SIGMA);
+        Random random = new Random(seed);
+
+        FileSystem fs = folder.getFileSystem(conf);
+        fs.mkdirs(folder);
+        double meanSize = (double) totalBytes / files;
+        long written = 0;
+        for (int file = 0; file < files; file++)
+        {
+            // The mean of exp(N(mu, sigma^2)) is exp(mu + sigma^2 / 2)
+            long size = Math.max(1, (long) (meanSize * Math.exp(sigma * random.nextGaussian() - sigma * sigma / 2)));
+            try (FSDataOutputStream out = fs.create(new Path(folder, String.format("doc%07d.txt", file)), true))
+            {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                long fileSize = 0;
+                while (fileSize < size)
+                {
+                    String line = corpus.nextLine(WORDS_PER_LINE);
+                    writer.write(line);
+                    writer.write('\n');
+                    fileSize += line.length() + 1;
+                }
+                writer.flush();
+                written += fileSize;
+            }
+        }
+        return written;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 3)
+        {
+            System.err.println(
+                    "Usage: CorpusGenerator <output folder> <number of files> <total size (MB)>\n" +
+                    " Generic options (-D name=value):\n" +
+                    "  " + VOCABULARY + "   number of distinct words (default: " + DEFAULT_VOCABULARY + ")\n" +
+                    "  " + EXPONENT + "   exponent of Zipf's law (default: " + DEFAULT_EXPONENT + ")\n" +
+                    "  " + SIZE_SIGMA + "   sigma of the log-normal file sizes, 0 for equal sizes " +
+                            "(default: " + DEFAULT_SIZE_SIGMA + ")\n" +
+                    "  " + SEED + "   random seed (default: " + DEFAULT_SEED + ")\n");
+            System.exit(1);
+        }
+        long written = generate(conf, new Path(otherArgs[0]), Integer.parseInt(otherArgs[1]),
+                Long.parseLong(otherArgs[2]) * 1024 * 1024);
+        System.out.println("Written " + otherArgs[1] + " files, " + written + " bytes");
+    }
+}
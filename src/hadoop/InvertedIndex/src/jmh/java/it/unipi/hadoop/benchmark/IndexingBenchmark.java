@@ -0,0 +1,223 @@
+package it.unipi.hadoop.benchmark;
+
+import it.unipi.hadoop.InvertedIndex;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the configurations of the job end to end, on synthetic corpora, under
+ *  the LocalJobRunner (i.e., in this JVM).
+ *
+ * For each number of files, a corpus of the same total size is generated (see
+ *  CorpusGenerator), from a few large files to many small ones, the case
+ *  NameAwareCombineTextInputFormat is meant for. Then the job runs for every
+ *  combination of configuration, number of reducers and max split size, and the
+ *  wall time, the counters of the job and the peak heap usage of the JVM are
+ *  written to <report>.csv and <report>.json.
+ *
+ * It is not a JMH benchmark, but it is built along with them (mvn -P jmh package).
+ *
+ * Usage:
+ *      java -cp target/benchmarks.jar it.unipi.hadoop.benchmark.IndexingBenchmark [options] <work folder> <report path>
+ */
+public class IndexingBenchmark
+{
+    public static final String FILES = "invertedindex.benchmark.files";
+    public static final String SIZE_MB = "invertedindex.benchmark.size.mb";
+    public static final String CONFIGURATIONS = "invertedindex.benchmark.configurations";
+    public static final String REDUCERS = "invertedindex.benchmark.reducers";
+    public static final String SPLIT_MB = "invertedindex.benchmark.split.mb";
+    public static final String REPETITIONS = "invertedindex.benchmark.repetitions";
+
+    private static final TaskCounter[] COUNTERS = {
+            TaskCounter.MAP_INPUT_RECORDS,
+            TaskCounter.MAP_OUTPUT_RECORDS,
+            TaskCounter.MAP_OUTPUT_BYTES,
+            TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES,
+            TaskCounter.SPILLED_RECORDS,
+            TaskCounter.COMBINE_INPUT_RECORDS,
+            TaskCounter.COMBINE_OUTPUT_RECORDS,
+            TaskCounter.REDUCE_INPUT_RECORDS,
+            TaskCounter.GC_TIME_MILLIS
+    };
+
+    /**
+     * Keeps track of the largest heap usage seen while a job runs.
+     * Polling misses the short peaks between two samples, but the LocalJobRunner
+     *  runs the tasks in this JVM, so there is no other way to observe them
+     */
+    private static class HeapSampler extends Thread
+    {
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        HeapSampler() { setDaemon(true); }
+
+        @Override
+        public void run()
+        {
+            Runtime runtime = Runtime.getRuntime();
+            while (running)
+            {
+                peak = Math.max(peak, runtime.totalMemory() - runtime.freeMemory());
+                try { Thread.sleep(5); }
+                catch (InterruptedException e) { return; }
+            }
+        }
+
+        long finish() throws InterruptedException
+        {
+            running = false;
+            join();
+            return peak;
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2)
+        {
+            System.err.println(
+                    "Usage: IndexingBenchmark <work folder> <report path (without extension)>\n" +
+                    " Generic options (-D name=value), lists are comma-separated:\n" +
+                    "  " + FILES + "   number of files of each corpus (default: 10000,100)\n" +
+                    "  " + SIZE_MB + "   total size of each corpus (default: 32)\n" +
+                    "  " + CONFIGURATIONS + "   configurations of InvertedIndex (default: 0,1,2,3)\n" +
+                    "  " + REDUCERS + "   numbers of reducers (default: 1,4)\n" +
+                    "  " + SPLIT_MB + "   max input split sizes (default: 64)\n" +
+                    "  " + REPETITIONS + "   runs of each combination (default: 1)\n" +
+                    " plus the options of CorpusGenerator and InvertedIndex\n");
+            System.exit(1);
+        }
+        Path work = new Path(otherArgs[0]);
+        Path report = new Path(otherArgs[1]);
+        FileSystem fs = work.getFileSystem(conf);
+
+        int[] files = getInts(conf, FILES, "10000,100");
+        long size = conf.getLong(SIZE_MB, 32) * 1024 * 1024;
+        int[] configurations = getInts(conf, CONFIGURATIONS, "0,1,2,3");
+        int[] reducers = getInts(conf, REDUCERS, "1,4");
+        int[] splits = getInts(conf, SPLIT_MB, "64");
+        int repetitions = conf.getInt(REPETITIONS, 1);
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (int corpusFiles : files)
+        {
+            // The corpus only depends on the parameters, so an existing one can be reused
+            Path corpus = new Path(work, "corpus-" + corpusFiles + "-" + (size >> 20) + "MB");
+            if (!fs.exists(corpus)) { CorpusGenerator.generate(conf, corpus, corpusFiles, size); }
+            long corpusBytes = fs.getContentSummary(corpus).getLength();
+
+            for (int configuration : configurations)
+            {
+                for (int numReducers : reducers)
+                {
+                    for (int splitMB : splits)
+                    {
+                        for (int repetition = 0; repetition < repetitions; repetition++)
+                        {
+                            Map<String, Object> result = new LinkedHashMap<>();
+                            result.put("files", corpusFiles);
+                            result.put("corpus_bytes", corpusBytes);
+                            result.put("configuration", configuration);
+                            result.put("reducers", numReducers);
+                            result.put("split_mb", splitMB);
+                            result.put("repetition", repetition);
+                            run(conf, corpus, new Path(work, "output"), configuration, numReducers, splitMB, result);
+                            results.add(result);
+                            System.out.println(result);
+                            writeReport(fs, report, results);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void run(Configuration conf, Path corpus, Path output, int configuration, int numReducers,
+                            int splitMB, Map<String, Object> result) throws Exception
+    {
+        FileSystem fs = output.getFileSystem(conf);
+        fs.delete(output, true);
+
+        // Every run starts from the same (empty) heap
+        System.gc();
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+        long start = System.nanoTime();
+        Job job = InvertedIndex.createJob(new Configuration(conf), new Path[] { corpus }, output,
+                configuration, numReducers, splitMB);
+        boolean succeeded = job.waitForCompletion(false);
+        long wallTime = System.nanoTime() - start;
+        long peakHeap = sampler.finish();
+        InvertedIndex.commit(job, output, succeeded);
+        if (!succeeded) { throw new IOException("The job failed: " + result); }
+
+        result.put("wall_ms", wallTime / 1000000);
+        Counters counters = job.getCounters();
+        for (TaskCounter counter : COUNTERS)
+        {
+            result.put(counter.name().toLowerCase(), counters.findCounter(counter).getValue());
+        }
+        result.put("peak_heap_bytes", peakHeap);
+        fs.delete(output, true);
+    }
+
+    private static int[] getInts(Configuration conf, String name, String defaultValue)
+    {
+        String[] values = conf.get(name, defaultValue).split(",");
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) { ints[i] = Integer.parseInt(values[i].trim()); }
+        return ints;
+    }
+
+    // Rewritten after every run, so that a partial report survives an interrupted benchmark
+    private static void writeReport(FileSystem fs, Path report, List<Map<String, Object>> results) throws IOException
+    {
+        try (FSDataOutputStream out = fs.create(report.suffix(".csv"), true);
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))
+        {
+            writer.println(String.join(",", results.get(0).keySet()));
+            for (Map<String, Object> result : results)
+            {
+                List<String> values = new ArrayList<>();
+                for (Object value : result.values()) { values.add(value.toString()); }
+                writer.println(String.join(",", values));
+            }
+        }
+
+        // Only numbers, so writing the JSON by hand is simple enough
+        try (FSDataOutputStream out = fs.create(report.suffix(".json"), true);
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))
+        {
+            writer.println("[");
+            for (int i = 0; i < results.size(); i++)
+            {
+                List<String> fields = new ArrayList<>();
+                for (Map.Entry<String, Object> field : results.get(i).entrySet())
+                {
+                    fields.add("\"" + field.getKey() + "\": " + field.getValue());
+                }
+                writer.println("  {" + String.join(", ", fields) + "}" + (i + 1 < results.size() ? "," : ""));
+            }
+            writer.println("]");
+        }
+    }
+}
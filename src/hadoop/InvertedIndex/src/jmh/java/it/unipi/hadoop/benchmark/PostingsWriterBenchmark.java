@@ -0,0 +1,95 @@
+package it.unipi.hadoop.benchmark;
+
+import it.unipi.hadoop.BinaryPostingsOutputFormat;
+import it.unipi.hadoop.DocumentDictionary;
+import it.unipi.hadoop.FilenameAndCount;
+import it.unipi.hadoop.TextPostingsOutputFormat;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The output side of MainReducer: a stream of (word, posting) pairs, sorted by word
+ *  and then by document ID, turned into index lines by the text writer or into
+ *  blocks and term entries by the binary one. Document frequencies follow the
+ *  Zipfian corpus, so a few words have postings in most of the documents.
+ * The files are written to a stream that discards them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostingsWriterBenchmark
+{
+    private static final int DOCUMENTS = 2000;
+    private static final int WORDS_PER_DOCUMENT = 300;
+
+    private static final OutputStream DISCARD = new OutputStream()
+    {
+        @Override public void write(int b) { }
+        @Override public void write(byte[] b, int off, int len) { }
+    };
+
+    private DocumentDictionary documents;
+    private Text[] words;
+    private FilenameAndCount[] postings;
+
+    @Setup
+    public void setup()
+    {
+        String[] filenames = new String[DOCUMENTS];
+        for (int docId = 0; docId < DOCUMENTS; docId++) { filenames[docId] = String.format("doc%05d.txt", docId); }
+        documents = new DocumentDictionary(filenames);
+
+        // word -> (docId -> count), sorted like the reducers receive them
+        ZipfCorpus corpus = new ZipfCorpus(50000, 1.0, 42);
+        TreeMap<Text, TreeMap<Integer, Integer>> index = new TreeMap<>();
+        for (int docId = 0; docId < DOCUMENTS; docId++)
+        {
+            for (int i = 0; i < WORDS_PER_DOCUMENT; i++)
+            {
+                index.computeIfAbsent(new Text(corpus.nextWord()), w -> new TreeMap<>()).merge(docId, 1, Integer::sum);
+            }
+        }
+
+        List<Text> wordList = new ArrayList<>();
+        List<FilenameAndCount> postingList = new ArrayList<>();
+        for (Map.Entry<Text, TreeMap<Integer, Integer>> word : index.entrySet())
+        {
+            for (Map.Entry<Integer, Integer> document : word.getValue().entrySet())
+            {
+                FilenameAndCount posting = new FilenameAndCount(document.getValue());
+                posting.setDocId(document.getKey());
+                wordList.add(word.getKey());
+                postingList.add(posting);
+            }
+        }
+        words = wordList.toArray(new Text[0]);
+        postings = postingList.toArray(new FilenameAndCount[0]);
+    }
+
+    @Benchmark
+    public void text() throws IOException, InterruptedException
+    {
+        write(new TextPostingsOutputFormat.TextPostingsWriter(DISCARD, documents));
+    }
+
+    @Benchmark
+    public void binary() throws IOException, InterruptedException
+    {
+        write(new BinaryPostingsOutputFormat.BinaryPostingsWriter(DISCARD, DISCARD));
+    }
+
+    private void write(RecordWriter<Text, FilenameAndCount> writer) throws IOException, InterruptedException
+    {
+        for (int i = 0; i < postings.length; i++) { writer.write(words[i], postings[i]); }
+        writer.close(null);
+    }
+}
@@ -0,0 +1,64 @@
+package it.unipi.hadoop.benchmark;
+
+import it.unipi.hadoop.Tokenizer;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tokenization loop of the mappers, over a batch of Zipfian lines.
+ * Both ways the mappers consume the tokens are measured: reading the bytes
+ *  in place (CombinerMapper) and copying each word into a Text (SimpleMapper)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark
+{
+    // Lines per batch (one benchmark invocation)
+    private static final int LINES = 1000;
+
+    @Param({ "12" })
+    public int wordsPerLine;
+
+    private Text[] lines;
+    private final Tokenizer tokenizer = new Tokenizer();
+    private final Text word = new Text();
+
+    @Setup
+    public void setup()
+    {
+        lines = new ZipfCorpus(50000, 1.0, 42).lines(LINES, wordsPerLine);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void tokenizeInPlace(Blackhole blackhole)
+    {
+        for (Text line : lines)
+        {
+            tokenizer.reset(line);
+            while (tokenizer.next())
+            {
+                blackhole.consume(tokenizer.getBytes());
+                blackhole.consume(tokenizer.getLength());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void tokenizeIntoText(Blackhole blackhole)
+    {
+        for (Text line : lines)
+        {
+            tokenizer.reset(line);
+            while (tokenizer.next(word)) { blackhole.consume(word); }
+        }
+    }
+}
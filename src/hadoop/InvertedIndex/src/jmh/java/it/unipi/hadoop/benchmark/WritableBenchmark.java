@@ -0,0 +1,184 @@
+package it.unipi.hadoop.benchmark;
+
+import it.unipi.hadoop.FilenameAndCount;
+import it.unipi.hadoop.FilenameAndOffset;
+import it.unipi.hadoop.WordAndDocument;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization, deserialization and comparison of the keys and values of the job,
+ *  over batches of realistic instances: Zipfian words, document IDs and counts
+ *  (most words appear once in a document), filenames like "doc00042.txt"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WritableBenchmark
+{
+    private static final int RECORDS = 1000;
+
+    private FilenameAndCount[] counts;
+    private FilenameAndOffset[] offsets;
+    private WordAndDocument[] keys;
+
+    // The same records, serialized one after the other, and where each one starts
+    private byte[] serializedCounts, serializedOffsets, serializedKeys;
+    private int[] keyStarts;
+
+    private final DataOutputBuffer out = new DataOutputBuffer();
+    private final DataInputBuffer in = new DataInputBuffer();
+    private final FilenameAndCount count = new FilenameAndCount();
+    private final FilenameAndOffset offset = new FilenameAndOffset();
+    private final WordAndDocument key = new WordAndDocument();
+    private final WritableComparator keyComparator = WritableComparator.get(WordAndDocument.class);
+
+    @Setup
+    public void setup() throws IOException
+    {
+        ZipfCorpus corpus = new ZipfCorpus(50000, 1.0, 42);
+        Random random = new Random(42);
+        counts = new FilenameAndCount[RECORDS];
+        offsets = new FilenameAndOffset[RECORDS];
+        keys = new WordAndDocument[RECORDS];
+        keyStarts = new int[RECORDS + 1];
+        for (int i = 0; i < RECORDS; i++)
+        {
+            int docId = random.nextInt(100000);
+            counts[i] = new FilenameAndCount(random.nextInt(4) == 0 ? 2 + random.nextInt(20) : 1);
+            counts[i].setDocId(docId);
+
+            offsets[i] = new FilenameAndOffset();
+            offsets[i].setFilename(String.format("doc%05d.txt", random.nextInt(200)));
+            offsets[i].setDocId(docId);
+            offsets[i].setOffset(random.nextInt(1 << 20));
+
+            keys[i] = new WordAndDocument();
+            keys[i].setWord(new Text(corpus.nextWord()));
+            keys[i].setDocId(docId);
+        }
+
+        out.reset();
+        for (FilenameAndCount record : counts) { record.write(out); }
+        serializedCounts = Arrays.copyOf(out.getData(), out.getLength());
+        out.reset();
+        for (FilenameAndOffset record : offsets) { record.write(out); }
+        serializedOffsets = Arrays.copyOf(out.getData(), out.getLength());
+        out.reset();
+        for (int i = 0; i < RECORDS; i++)
+        {
+            keyStarts[i] = out.getLength();
+            keys[i].write(out);
+        }
+        keyStarts[RECORDS] = out.getLength();
+        serializedKeys = Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int filenameAndCountWrite() throws IOException
+    {
+        out.reset();
+        for (FilenameAndCount record : counts) { record.write(out); }
+        return out.getLength();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void filenameAndCountRead(Blackhole blackhole) throws IOException
+    {
+        in.reset(serializedCounts, serializedCounts.length);
+        for (int i = 0; i < RECORDS; i++)
+        {
+            count.readFields(in);
+            blackhole.consume(count.getCount());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int filenameAndOffsetWrite() throws IOException
+    {
+        out.reset();
+        for (FilenameAndOffset record : offsets) { record.write(out); }
+        return out.getLength();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void filenameAndOffsetRead(Blackhole blackhole) throws IOException
+    {
+        in.reset(serializedOffsets, serializedOffsets.length);
+        for (int i = 0; i < RECORDS; i++)
+        {
+            offset.readFields(in);
+            blackhole.consume(offset.getOffset());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int filenameAndOffsetCompareTo()
+    {
+        int sum = 0;
+        for (int i = 1; i < RECORDS; i++) { sum += offsets[i - 1].compareTo(offsets[i]); }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int wordAndDocumentWrite() throws IOException
+    {
+        out.reset();
+        for (WordAndDocument record : keys) { record.write(out); }
+        return out.getLength();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void wordAndDocumentRead(Blackhole blackhole) throws IOException
+    {
+        in.reset(serializedKeys, serializedKeys.length);
+        for (int i = 0; i < RECORDS; i++)
+        {
+            key.readFields(in);
+            blackhole.consume(key.getDocId());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int wordAndDocumentCompareTo()
+    {
+        int sum = 0;
+        for (int i = 1; i < RECORDS; i++) { sum += keys[i - 1].compareTo(keys[i]); }
+        return sum;
+    }
+
+    // What the sort of the map output actually does
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int wordAndDocumentRawCompare()
+    {
+        int sum = 0;
+        for (int i = 1; i < RECORDS; i++)
+        {
+            sum += keyComparator.compare(
+                    serializedKeys, keyStarts[i - 1], keyStarts[i] - keyStarts[i - 1],
+                    serializedKeys, keyStarts[i], keyStarts[i + 1] - keyStarts[i]);
+        }
+        return sum;
+    }
+}
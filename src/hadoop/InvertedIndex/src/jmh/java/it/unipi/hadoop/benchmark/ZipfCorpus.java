@@ -0,0 +1,80 @@
+package it.unipi.hadoop.benchmark;
+
+import org.apache.hadoop.io.Text;
+
+import java.util.*;
+
+/**
+ * A deterministic synthetic corpus whose word frequencies follow Zipf's law,
+ *  like those of natural language: a few short words are very frequent,
+ *  most of the vocabulary shows up a handful of times.
+ * Lines look like the input of the mappers: capitalized, with some punctuation.
+ */
+public class ZipfCorpus
+{
+    private static final String PUNCTUATION = ",.;:!?";
+
+    private final String[] vocabulary;
+    private final double[] cumulative;
+    private final Random random;
+
+    /**
+     * @param vocabularySize number of distinct words
+     * @param exponent Zipf's exponent (about 1 for English)
+     */
+    public ZipfCorpus(int vocabularySize, double exponent, long seed)
+    {
+        random = new Random(seed);
+
+        // Distinct random words; the shortest ones get the lowest (most frequent) ranks
+        Set<String> words = new HashSet<>();
+        StringBuilder word = new StringBuilder();
+        while (words.size() < vocabularySize)
+        {
+            word.setLength(0);
+            int length = 2 + (int) Math.abs(random.nextGaussian() * 4);
+            for (int i = 0; i < length; i++) { word.append((char) ('a' + random.nextInt(26))); }
+            words.add(word.toString());
+        }
+        vocabulary = words.toArray(new String[0]);
+        Arrays.sort(vocabulary, Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+
+        cumulative = new double[vocabularySize];
+        double total = 0;
+        for (int rank = 0; rank < vocabularySize; rank++)
+        {
+            total += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < vocabularySize; rank++) { cumulative[rank] /= total; }
+    }
+
+    public String nextWord()
+    {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        return vocabulary[rank >= 0 ? rank : Math.min(-rank - 1, vocabulary.length - 1)];
+    }
+
+    public String nextLine(int words)
+    {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < words; i++)
+        {
+            if (i > 0) { line.append(' '); }
+            String word = nextWord();
+            line.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+            if (random.nextInt(8) == 0) { line.append(PUNCTUATION.charAt(random.nextInt(PUNCTUATION.length()))); }
+        }
+        return line.toString();
+    }
+
+    public Text[] lines(int count, int wordsPerLine)
+    {
+        Text[] lines = new Text[count];
+        for (int i = 0; i < count; i++)
+        {
+            lines[i] = new Text(nextLine(wordsPerLine));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,85 @@
+package it.unipi.hadoop.search;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the top-k evaluation of RankedSearch with and without MaxScore pruning, on
+ *  random queries of 2 to 5 terms of the index, each picked with a probability proportional
+ *  to its document frequency (like LoadGenerator does), so that most queries contain common terms.
+ *
+ * Every query is run both ways: the results must be identical, and the latency of each
+ *  evaluation and the number of documents it scored are reported.
+ *
+ * It is not a JMH benchmark, but it is built along with them (mvn -P jmh package), in the
+ *  package of RankedSearch; RankedSearchTest checks the same equivalence on a generated index.
+ *
+ * Usage:
+ *      java -cp target/benchmarks.jar it.unipi.hadoop.search.RankingBenchmark <index folder> [queries (1000)] [k (10)]
+ */
+public class RankingBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: RankingBenchmark <index folder> [queries] [k]");
+            System.exit(1);
+        }
+        String folder = args[0];
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        LoadGenerator.Vocabulary vocabulary = LoadGenerator.Vocabulary.read(folder);
+        RankedSearch searcher = new RankedSearch(Index.open(Paths.get(folder)));
+        Random random = new Random(42);
+        String[] workload = new String[queries];
+        for (int i = 0; i < queries; i++) { workload[i] = vocabulary.query(random, 2 + random.nextInt(4)); }
+
+        // Warm up the JIT (and the page cache) on both paths first
+        for (String query : workload)
+        {
+            searcher.searchExhaustive(query, k);
+            searcher.search(query, k);
+        }
+
+        LatencyRecorder exhaustive = new LatencyRecorder();
+        LatencyRecorder pruned = new LatencyRecorder();
+        long exhaustiveScored = 0;
+        long prunedScored = 0;
+        int mismatches = 0;
+        for (String query : workload)
+        {
+            long start = System.nanoTime();
+            RankedSearch.ScoredDocument[] expected = searcher.searchExhaustive(query, k);
+            exhaustive.record(System.nanoTime() - start);
+            exhaustiveScored += searcher.getLastScoredDocuments();
+
+            start = System.nanoTime();
+            RankedSearch.ScoredDocument[] actual = searcher.search(query, k);
+            pruned.record(System.nanoTime() - start);
+            prunedScored += searcher.getLastScoredDocuments();
+
+            if (!Arrays.equals(expected, actual))
+            {
+                mismatches++;
+                System.err.println("Different results for \"" + query.trim() + "\": " +
+                        Arrays.toString(expected) + " vs " + Arrays.toString(actual));
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%d queries, top %d, mismatches: %d%n", queries, k, mismatches);
+        report("Exhaustive", exhaustive, exhaustiveScored, queries);
+        report("MaxScore  ", pruned, prunedScored, queries);
+        if (mismatches > 0) { System.exit(1); }
+    }
+
+    private static void report(String name, LatencyRecorder latencies, long scored, int queries)
+    {
+        System.out.printf(Locale.ROOT, "%s  latency (us): p50 %d, p99 %d, documents scored per query: %.0f%n",
+                name, latencies.getPercentile(50) / 1000, latencies.getPercentile(99) / 1000,
+                (double) scored / queries);
+    }
+}
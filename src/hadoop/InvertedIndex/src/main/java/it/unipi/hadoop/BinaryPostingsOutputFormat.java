@@ -0,0 +1,216 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the postings of each reducer in a compact binary format, split in two files
+ *  (three for a positional index, see below):
+ *
+ *  part-r-NNNNN.postings
+ *      MAGIC, then the postings of every term, one term after the other.
+ *      The postings of a term (sorted by document ID) are grouped in blocks of BLOCK_SIZE,
+ *      the last block being possibly shorter. Each block is made of:
+ *          header:  lastDocId - (lastDocId of the previous block, or 0)
+ *                   length of the payload in bytes
+ *          payload: for each posting, docId - (previous docId, or the previous block's last)
+ *                   and the count
+ *      The header tells whether a block can contain a given document, and how
+ *      many bytes to jump otherwise, so that a reader can skip it without decoding it.
+ *
+ *  part-r-NNNNN.terms (the term dictionary)
+ *      MAGIC, then for each term, in the (sorted) order the reducer received them:
+ *          the length of the term and its UTF-8 bytes
+ *          the offset of its postings in the .postings file
+ *          its document frequency (i.e., the number of postings)
+ *
+ *  A positional index (-D invertedindex.positions=true) starts both files with POSITIONAL_MAGIC
+ *  instead, and adds a third one:
+ *
+ *  part-r-NNNNN.positions
+ *      POSITIONAL_MAGIC, then for each posting, in the same order as the .postings file, the
+ *      positions of the term in the document: count numbers, each one the gap from the previous
+ *      position (the first one is absolute).
+ *  The header of every block ends with the length in bytes of the positions of its postings,
+ *   so that skipping a block skips its positions as well, and every term of the dictionary ends
+ *   with the offset of its positions in the .positions file.
+ *
+ *  All the numbers are written with VarInt.
+ *
+ * The writer keeps at most one block in memory, so it can be fed a term with
+ *  any number of postings, as long as they come sorted by document ID.
+ */
+public class BinaryPostingsOutputFormat extends FileOutputFormat<Text, FilenameAndCount>
+{
+    public static final String POSTINGS_EXTENSION = ".postings";
+    public static final String TERMS_EXTENSION = ".terms";
+    public static final String POSITIONS_EXTENSION = ".positions";
+    public static final int MAGIC = 0x49495031;  // "IIP1"
+    public static final int POSITIONAL_MAGIC = 0x49495032;  // "IIP2"
+    public static final int BLOCK_SIZE = 128;
+
+    @Override
+    public RecordWriter<Text, FilenameAndCount> getRecordWriter(TaskAttemptContext context)
+            throws IOException
+    {
+        Path postings = getDefaultWorkFile(context, POSTINGS_EXTENSION);
+        Path terms = getDefaultWorkFile(context, TERMS_EXTENSION);
+        FileSystem fs = postings.getFileSystem(context.getConfiguration());
+        if (context.getConfiguration().getBoolean(InvertedIndex.POSITIONS, false))
+        {
+            Path positions = getDefaultWorkFile(context, POSITIONS_EXTENSION);
+            return new BinaryPostingsWriter(fs.create(postings, false), fs.create(terms, false),
+                    fs.create(positions, false));
+        }
+        return new BinaryPostingsWriter(fs.create(postings, false), fs.create(terms, false));
+    }
+
+    public static class BinaryPostingsWriter extends RecordWriter<Text, FilenameAndCount>
+    {
+        private final DataOutputStream postings;
+        private final DataOutputStream terms;
+        private final DataOutputStream positions;  // null if the index is not positional
+        private long postingsPosition;
+        private long positionsPosition;
+
+        // The term being written
+        private final Text term = new Text();
+        private boolean termOpen = false;
+        private long termOffset;
+        private long termPositionsOffset;
+        private int documentFrequency;
+        private int lastDocId;
+
+        // The block being filled
+        private final int[] blockDocIds = new int[BLOCK_SIZE];
+        private final int[] blockCounts = new int[BLOCK_SIZE];
+        private int blockSize = 0;
+        private int previousBlockLastDocId;
+        private final DataOutputBuffer payload = new DataOutputBuffer();
+        private final DataOutputBuffer block = new DataOutputBuffer();
+        private final DataOutputBuffer blockPositions = new DataOutputBuffer();
+
+        public BinaryPostingsWriter(OutputStream postings, OutputStream terms) throws IOException
+        {
+            this(postings, terms, null);
+        }
+
+        // Writes a positional index if positions is not null
+        public BinaryPostingsWriter(OutputStream postings, OutputStream terms, OutputStream positions)
+                throws IOException
+        {
+            int magic = positions == null ? MAGIC : POSITIONAL_MAGIC;
+            this.postings = new DataOutputStream(postings);
+            this.terms = new DataOutputStream(terms);
+            this.positions = positions == null ? null : new DataOutputStream(positions);
+            this.postings.writeInt(magic);
+            this.terms.writeInt(magic);
+            if (this.positions != null) { this.positions.writeInt(magic); }
+            postingsPosition = 4;
+            positionsPosition = 4;
+        }
+
+        @Override
+        public void write(Text key, FilenameAndCount value) throws IOException
+        {
+            if (!termOpen || !term.equals(key))
+            {
+                finishTerm();
+                term.set(key);
+                termOpen = true;
+                termOffset = postingsPosition;
+                termPositionsOffset = positionsPosition;
+                documentFrequency = 0;
+                previousBlockLastDocId = 0;
+            }
+            else if (value.getDocId() <= lastDocId)
+            {
+                throw new IOException("The postings of \"" + key + "\" are not sorted by document ID");
+            }
+
+            blockDocIds[blockSize] = value.getDocId();
+            blockCounts[blockSize] = value.getCount();
+            if (positions != null) { writePositions(value); }
+            blockSize++;
+            documentFrequency++;
+            lastDocId = value.getDocId();
+            if (blockSize == BLOCK_SIZE) { flushBlock(); }
+        }
+
+        private void writePositions(FilenameAndCount value) throws IOException
+        {
+            int[] documentPositions = value.getPositions();
+            if (documentPositions == null)
+            {
+                throw new IOException("A positional index needs the positions of every posting");
+            }
+            int previousPosition = 0;
+            for (int i = 0; i < value.getCount(); i++)
+            {
+                VarInt.writeInt(blockPositions, documentPositions[i] - previousPosition);
+                previousPosition = documentPositions[i];
+            }
+        }
+
+        private void flushBlock() throws IOException
+        {
+            if (blockSize == 0) { return; }
+
+            payload.reset();
+            int previousDocId = previousBlockLastDocId;
+            for (int i = 0; i < blockSize; i++)
+            {
+                VarInt.writeInt(payload, blockDocIds[i] - previousDocId);
+                VarInt.writeInt(payload, blockCounts[i]);
+                previousDocId = blockDocIds[i];
+            }
+
+            block.reset();
+            VarInt.writeInt(block, previousDocId - previousBlockLastDocId);
+            VarInt.writeInt(block, payload.getLength());
+            if (positions != null) { VarInt.writeInt(block, blockPositions.getLength()); }
+            block.write(payload.getData(), 0, payload.getLength());
+
+            postings.write(block.getData(), 0, block.getLength());
+            postingsPosition += block.getLength();
+            if (positions != null)
+            {
+                positions.write(blockPositions.getData(), 0, blockPositions.getLength());
+                positionsPosition += blockPositions.getLength();
+                blockPositions.reset();
+            }
+            previousBlockLastDocId = previousDocId;
+            blockSize = 0;
+        }
+
+        private void finishTerm() throws IOException
+        {
+            if (!termOpen) { return; }
+            flushBlock();
+            VarInt.writeInt(terms, term.getLength());
+            terms.write(term.getBytes(), 0, term.getLength());
+            VarInt.writeLong(terms, termOffset);
+            VarInt.writeInt(terms, documentFrequency);
+            if (positions != null) { VarInt.writeLong(terms, termPositionsOffset); }
+            termOpen = false;
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException
+        {
+            finishTerm();
+            postings.close();
+            terms.close();
+            if (positions != null) { positions.close(); }
+        }
+    }
+}
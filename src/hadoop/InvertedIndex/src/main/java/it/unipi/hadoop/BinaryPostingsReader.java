@@ -0,0 +1,169 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.Text;
+
+import java.io.*;
+
+/**
+ * Reads the .terms and .postings files written by BinaryPostingsOutputFormat
+ *  sequentially, from the first to the last term.
+ * The positions of a positional index are only read if the reader is given the .positions
+ *  file (e.g., by SegmentMerger, which copies them). Otherwise such an index can only be
+ *  opened by the readers that do not need them (e.g., CorpusStatistics), not copied (by
+ *  the converter), since the copy would silently lose them
+ */
+public class BinaryPostingsReader implements PostingsReader
+{
+    private final DataInputStream terms;
+    private final DataInputStream postings;
+    private final DataInputStream positions;  // null unless the positions are read
+    private final boolean positional;
+    private long postingsPosition;
+    private long positionsPosition;
+
+    private final Text term = new Text();
+    private byte[] termBytes = new byte[64];
+    private long termOffset;
+    private int documentFrequency;
+
+    private int readPostings;
+    private int blockRemaining;
+    private int docId;
+    private int count;
+    private int[] documentPositions = new int[16];
+
+    public BinaryPostingsReader(InputStream terms, InputStream postings) throws IOException
+    {
+        this(terms, postings, null, false);
+    }
+
+    // Unless ignorePositions, positional indexes are refused
+    public BinaryPostingsReader(InputStream terms, InputStream postings, boolean ignorePositions) throws IOException
+    {
+        this(terms, postings, null, ignorePositions);
+    }
+
+    // Reads a positional index, with the positions of every posting (see getPositions())
+    public BinaryPostingsReader(InputStream terms, InputStream postings, InputStream positions) throws IOException
+    {
+        this(terms, postings, positions, false);
+        if (!positional) { throw new IOException("Not a positional index"); }
+    }
+
+    private BinaryPostingsReader(InputStream terms, InputStream postings, InputStream positions,
+                                 boolean ignorePositions) throws IOException
+    {
+        this.terms = new DataInputStream(new BufferedInputStream(terms));
+        this.postings = new DataInputStream(new BufferedInputStream(postings));
+        this.positions = positions == null ? null : new DataInputStream(new BufferedInputStream(positions));
+        int magic = this.terms.readInt();
+        positional = magic == BinaryPostingsOutputFormat.POSITIONAL_MAGIC;
+        if (positional && positions == null && !ignorePositions)
+        {
+            throw new IOException("Positional indexes can only be searched");
+        }
+        if ((magic != BinaryPostingsOutputFormat.MAGIC && !positional) || this.postings.readInt() != magic
+                || (this.positions != null && positional && this.positions.readInt() != magic))
+        {
+            throw new IOException("Not a binary index");
+        }
+        postingsPosition = 4;
+        positionsPosition = 4;
+    }
+
+    @Override
+    public boolean nextTerm() throws IOException
+    {
+        // Skip what is left of the current term
+        while (nextPosting()) { }
+
+        int length;
+        try { length = VarInt.readInt(terms); }
+        catch (EOFException e) { return false; }
+        if (termBytes.length < length) { termBytes = new byte[length]; }
+        terms.readFully(termBytes, 0, length);
+        term.set(termBytes, 0, length);
+        termOffset = VarInt.readLong(terms);
+        documentFrequency = VarInt.readInt(terms);
+        long termPositionsOffset = positional ? VarInt.readLong(terms) : 0;
+
+        if (termOffset != postingsPosition)
+        {
+            throw new IOException("Unexpected postings offset for \"" + term + "\"");
+        }
+        if (positions != null && termPositionsOffset != positionsPosition)
+        {
+            throw new IOException("Unexpected positions offset for \"" + term + "\"");
+        }
+        readPostings = 0;
+        blockRemaining = 0;
+        docId = 0;
+        return true;
+    }
+
+    @Override
+    public boolean nextPosting() throws IOException
+    {
+        if (readPostings == documentFrequency) { return false; }
+        if (blockRemaining == 0)
+        {
+            // Block header: the last doc ID and the lengths are not needed when reading sequentially
+            postingsPosition += varIntLength(VarInt.readInt(postings));
+            postingsPosition += varIntLength(VarInt.readInt(postings));
+            if (positional) { postingsPosition += varIntLength(VarInt.readInt(postings)); }
+            blockRemaining = Math.min(BinaryPostingsOutputFormat.BLOCK_SIZE, documentFrequency - readPostings);
+        }
+        int gap = VarInt.readInt(postings);
+        count = VarInt.readInt(postings);
+        postingsPosition += varIntLength(gap) + varIntLength(count);
+        docId += gap;
+        if (positions != null) { readPositions(); }
+        readPostings++;
+        blockRemaining--;
+        return true;
+    }
+
+    // The count positions of the posting, stored as gaps
+    private void readPositions() throws IOException
+    {
+        if (documentPositions.length < count)
+        {
+            documentPositions = new int[Math.max(count, 2 * documentPositions.length)];
+        }
+        int position = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int gap = VarInt.readInt(positions);
+            positionsPosition += varIntLength(gap);
+            position += gap;
+            documentPositions[i] = position;
+        }
+    }
+
+    private static int varIntLength(int value)
+    {
+        int length = 1;
+        while ((value & ~0x7F) != 0) { value >>>= 7; length++; }
+        return length;
+    }
+
+    @Override
+    public Text getTerm() { return term; }
+    @Override
+    public int getDocumentFrequency() { return documentFrequency; }
+    @Override
+    public int getDocId() { return docId; }
+    @Override
+    public int getCount() { return count; }
+
+    // The first getCount() positions of the current posting, null unless the reader was given the positions
+    public int[] getPositions() { return positions == null ? null : documentPositions; }
+
+    @Override
+    public void close() throws IOException
+    {
+        terms.close();
+        postings.close();
+        if (positions != null) { positions.close(); }
+    }
+}
@@ -0,0 +1,309 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The (word, document ID) -> count table of the in-mapper combiner.
+ *
+ * A HashMap<WordAndFilename, Integer> needs a String, a key object, a boxed Integer
+ *  and a map entry for every distinct pair, and its real size can only be guessed by
+ *  sampling the heap. This table instead stores:
+ *   - the bytes of all the words, one after the other, in a single byte array (the arena)
+ *   - the offset, length, document ID, count and hash of each entry in parallel int arrays
+ *   - an open-addressing (linear probing) index from hash to entry
+ *  so that a lookup allocates nothing and the memory it uses is known exactly.
+ *
+ * The table never grows beyond the given byte budget: when a new entry does not fit,
+ *  add() returns false and the caller is expected to flush the table and clear() it.
+ */
+public class CombinerTable
+{
+    private static final int INITIAL_ENTRIES = 1024;
+    private static final int INITIAL_ARENA = 16 * 1024;
+
+    // Each entry takes 5 ints (offset, length, docId, count, hash) plus 2 slots of the index
+    private static final int BYTES_PER_ENTRY = 5 * 4 + 2 * 4;
+
+    // The smallest budget a table can be given: room for its initial arrays
+    public static final long MIN_BUDGET = (long) INITIAL_ENTRIES * BYTES_PER_ENTRY + INITIAL_ARENA;
+
+    private final long budget;
+
+    private int[] slots;  // -1 = empty, otherwise the index of an entry
+    private int[] offsets;
+    private int[] lengths;
+    private int[] docIds;
+    private int[] counts;
+    private int[] hashes;
+    private int size;
+
+    private byte[] arena;
+    private int arenaUsed;
+
+    public CombinerTable(long budgetBytes)
+    {
+        if (budgetBytes < MIN_BUDGET)
+        {
+            throw new IllegalArgumentException("The combiner budget must be at least " + MIN_BUDGET + " bytes");
+        }
+        budget = budgetBytes;
+        allocateEntries(INITIAL_ENTRIES);
+        slots = new int[INITIAL_ENTRIES * 2];
+        Arrays.fill(slots, -1);
+        arena = new byte[INITIAL_ARENA];
+    }
+
+    /**
+     * Adds increment to the count of (word, docId)
+     * @return false if the pair is not in the table and there is no room left
+     *  for it within the budget. Nothing is changed in that case
+     */
+    public boolean add(byte[] word, int length, int docId, int increment)
+    {
+        return add(word, 0, length, docId, increment);
+    }
+
+    // The same, for a word that starts at the given offset of the array
+    public boolean add(byte[] word, int start, int length, int docId, int increment)
+    {
+        int hash = hash(word, start, length, docId);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != -1)
+        {
+            int entry = slots[slot];
+            if (hashes[entry] == hash && docIds[entry] == docId && equalWord(entry, word, start, length))
+            {
+                counts[entry] += increment;
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // New entry: make room for it, if the budget allows it
+        if (size == offsets.length)
+        {
+            if (!growEntries()) { return false; }
+            slot = findEmptySlot(hash);
+        }
+        if (arenaUsed + length > arena.length && !growArena(length)) { return false; }
+
+        System.arraycopy(word, start, arena, arenaUsed, length);
+        offsets[size] = arenaUsed;
+        lengths[size] = length;
+        docIds[size] = docId;
+        counts[size] = increment;
+        hashes[size] = hash;
+        slots[slot] = size;
+        arenaUsed += length;
+        size++;
+        return true;
+    }
+
+    public int size() { return size; }
+
+    // Total bytes of the words currently stored
+    public int getWordBytes() { return arenaUsed; }
+
+    // Exact size of the arrays backing the table (object headers aside)
+    public long getMemoryUsage()
+    {
+        return arena.length + 4L * slots.length + 5L * 4 * offsets.length;
+    }
+
+    public void getWord(int entry, Text text) { text.set(arena, offsets[entry], lengths[entry]); }
+    public int getDocId(int entry) { return docIds[entry]; }
+    public int getCount(int entry) { return counts[entry]; }
+
+    // The same as the hashCode() of the word as a Text, i.e., what the HashPartitioner uses
+    public int getWordHash(int entry) { return WritableComparator.hashBytes(arena, offsets[entry], lengths[entry]); }
+
+    /**
+     * Returns the entries sorted by word (byte by byte, like Text) and then by document ID,
+     *  i.e., in the order the reducers receive them after the shuffle.
+     * Comparing the words of all the entries would compare the same few words over and over:
+     *  only the distinct words are sorted, then the entries are ordered by two stable
+     *  counting sorts, by document ID first and by the rank of their word then
+     */
+    public int[] sort()
+    {
+        // The distinct words, each represented by its first entry, found with their own hash index
+        int[] wordOf = new int[size];
+        int[] words = new int[size];
+        int distinct = 0;
+        int[] wordSlots = new int[Math.max(2, Integer.highestOneBit(Math.max(1, size)) * 4)];
+        Arrays.fill(wordSlots, -1);
+        int mask = wordSlots.length - 1;
+        for (int entry = 0; entry < size; entry++)
+        {
+            int slot = getWordHash(entry) & mask;
+            while (wordSlots[slot] != -1 && !sameWord(words[wordSlots[slot]], entry)) { slot = (slot + 1) & mask; }
+            if (wordSlots[slot] == -1)
+            {
+                wordSlots[slot] = distinct;
+                words[distinct++] = entry;
+            }
+            wordOf[entry] = wordSlots[slot];
+        }
+
+        int[] sortedWords = new int[distinct];
+        for (int word = 0; word < distinct; word++) { sortedWords[word] = word; }
+        mergeSort(sortedWords, words, new int[distinct], 0, distinct);
+        int[] ranks = new int[distinct];
+        for (int rank = 0; rank < distinct; rank++) { ranks[sortedWords[rank]] = rank; }
+
+        int minDocId = 0, maxDocId = -1;
+        for (int entry = 0; entry < size; entry++)
+        {
+            minDocId = entry == 0 ? docIds[entry] : Math.min(minDocId, docIds[entry]);
+            maxDocId = Math.max(maxDocId, docIds[entry]);
+        }
+        int firstDocId = minDocId;
+        int[] byDocId = new int[size];
+        countingSort(null, byDocId, maxDocId - minDocId + 1, entry -> docIds[entry] - firstDocId);
+        int[] sorted = new int[size];
+        countingSort(byDocId, sorted, distinct, entry -> ranks[wordOf[entry]]);
+        return sorted;
+    }
+
+    // Stably sorts the entries (all of them, in index order, if null) by the given key in [0, keys)
+    private void countingSort(int[] entries, int[] sorted, int keys, IntUnaryOperator key)
+    {
+        int[] starts = new int[keys + 1];
+        for (int i = 0; i < size; i++) { starts[key.applyAsInt(entries == null ? i : entries[i]) + 1]++; }
+        for (int k = 0; k < keys; k++) { starts[k + 1] += starts[k]; }
+        for (int i = 0; i < size; i++)
+        {
+            int entry = entries == null ? i : entries[i];
+            sorted[starts[key.applyAsInt(entry)]++] = entry;
+        }
+    }
+
+    // Sorts the given distinct words (indexes of words[], i.e., of their first entry) byte by byte
+    private void mergeSort(int[] sorted, int[] words, int[] scratch, int from, int to)
+    {
+        if (to - from < 16)
+        {
+            for (int i = from + 1; i < to; i++)
+            {
+                int word = sorted[i];
+                int j = i;
+                for (; j > from && compareWords(words[sorted[j - 1]], words[word]) > 0; j--) { sorted[j] = sorted[j - 1]; }
+                sorted[j] = word;
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        mergeSort(sorted, words, scratch, from, middle);
+        mergeSort(sorted, words, scratch, middle, to);
+        if (compareWords(words[sorted[middle - 1]], words[sorted[middle]]) <= 0) { return; }
+
+        System.arraycopy(sorted, from, scratch, from, to - from);
+        int left = from, right = middle;
+        for (int i = from; i < to; i++)
+        {
+            if (right == to || (left < middle && compareWords(words[scratch[left]], words[scratch[right]]) <= 0))
+            {
+                sorted[i] = scratch[left++];
+            }
+            else { sorted[i] = scratch[right++]; }
+        }
+    }
+
+    private int compareWords(int a, int b)
+    {
+        return WritableComparator.compareBytes(arena, offsets[a], lengths[a], arena, offsets[b], lengths[b]);
+    }
+
+    private boolean sameWord(int a, int b)
+    {
+        return lengths[a] == lengths[b] && compareWords(a, b) == 0;
+    }
+
+    // Empties the table, keeping the memory already allocated for the next round
+    public void clear()
+    {
+        Arrays.fill(slots, -1);
+        size = 0;
+        arenaUsed = 0;
+    }
+
+    private boolean growEntries()
+    {
+        int capacity = offsets.length * 2;
+        long needed = arena.length + 4L * 2 * capacity + 5L * 4 * capacity;
+        if (capacity < 0 || needed > budget) { return false; }
+
+        int[] oldOffsets = offsets, oldLengths = lengths, oldDocIds = docIds,
+                oldCounts = counts, oldHashes = hashes;
+        allocateEntries(capacity);
+        System.arraycopy(oldOffsets, 0, offsets, 0, size);
+        System.arraycopy(oldLengths, 0, lengths, 0, size);
+        System.arraycopy(oldDocIds, 0, docIds, 0, size);
+        System.arraycopy(oldCounts, 0, counts, 0, size);
+        System.arraycopy(oldHashes, 0, hashes, 0, size);
+
+        // Rebuild the index, keeping its load factor at 0.5
+        slots = new int[capacity * 2];
+        Arrays.fill(slots, -1);
+        for (int entry = 0; entry < size; entry++) { slots[findEmptySlot(hashes[entry])] = entry; }
+        return true;
+    }
+
+    private boolean growArena(int length)
+    {
+        long others = getMemoryUsage() - arena.length;
+        long available = budget - others;
+        long capacity = Math.min(Math.max(2L * arena.length, arenaUsed + length), available);
+        if (capacity < arenaUsed + length || capacity > Integer.MAX_VALUE) { return false; }
+        arena = Arrays.copyOf(arena, (int) capacity);
+        return true;
+    }
+
+    private void allocateEntries(int capacity)
+    {
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        docIds = new int[capacity];
+        counts = new int[capacity];
+        hashes = new int[capacity];
+    }
+
+    private int findEmptySlot(int hash)
+    {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != -1) { slot = (slot + 1) & mask; }
+        return slot;
+    }
+
+    private boolean equalWord(int entry, byte[] word, int start, int length)
+    {
+        if (lengths[entry] != length) { return false; }
+        int offset = offsets[entry];
+        for (int i = 0; i < length; i++)
+        {
+            if (arena[offset + i] != word[start + i]) { return false; }
+        }
+        return true;
+    }
+
+    // Multiplying by 31 like String.hashCode(), then scrambling the bits (MurmurHash3's finalizer)
+    //  since the low bits are used to index the slots
+    private static int hash(byte[] word, int start, int length, int docId)
+    {
+        int h = docId;
+        for (int i = start; i < start + length; i++) { h = 31 * h + word[i]; }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
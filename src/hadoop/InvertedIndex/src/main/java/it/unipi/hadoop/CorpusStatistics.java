@@ -0,0 +1,147 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.*;
+
+/**
+ * The statistics needed to rank documents with BM25:
+ *
+ *  _statistics
+ *      the number of documents, then the length (number of words) of each of them,
+ *      in document ID order, all written with VarInt
+ *
+ *  part-r-NNNNN.scores (binary indexes only)
+ *      for each term of the .terms file, in the same order, the largest value of
+ *      termFrequencyScore() among its postings, as a 4-byte float: multiplied by the idf
+ *      of the term, it's an upper bound of the score of any document for that term,
+ *      which lets the top-k evaluation skip the documents that cannot make it (see RankedSearch)
+ *
+ * The length of a document is the sum of the counts of its postings, and its score for a term
+ *  can only be computed once all the lengths are known: both files are written after the
+ *  index, with two sequential passes over its postings (build()), by every tool that writes one.
+ * The idf is not part of the stored scores, since the postings of a hot term are spread across
+ *  parts (see WordPartitioner) and only the sum of their document frequencies is the real one.
+ */
+public class CorpusStatistics
+{
+    public static final String FILENAME = "_statistics";
+    public static final String SCORES_EXTENSION = ".scores";
+
+    // The usual BM25 parameters: term frequency saturation and length normalization
+    public static final double K1 = 1.2;
+    public static final double B = 0.75;
+
+    private final int[] lengths;
+    private final double averageLength;
+
+    public CorpusStatistics(int[] lengths)
+    {
+        this.lengths = lengths;
+        long total = 0;
+        for (int length : lengths) { total += length; }
+        averageLength = lengths.length == 0 ? 0 : (double) total / lengths.length;
+    }
+
+    public int size() { return lengths.length; }
+    public int getLength(int docId) { return lengths[docId]; }
+    public double getAverageLength() { return averageLength; }
+
+    // The idf of a term found in documentFrequency documents (always positive)
+    public double idf(long documentFrequency)
+    {
+        return Math.log(1 + (lengths.length - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    // The BM25 score of a document for a term that appears count times in it, without the idf
+    public double termFrequencyScore(int count, int docId)
+    {
+        double norm = K1 * (1 - B + B * lengths[docId] / averageLength);
+        return count * (K1 + 1) / (count + norm);
+    }
+
+    /**
+     * Computes the statistics of an index, writing _statistics and (for a binary index)
+     *  the .scores file of every part into its folder
+     */
+    public static CorpusStatistics build(IndexFolder index) throws IOException
+    {
+        // Without the dictionary, the search side would number the documents differently
+        if (!index.hasDocuments()) { throw new IOException(index.getPath() + " has no document dictionary"); }
+        DocumentDictionary documents = index.readDocuments();
+
+        // First pass: the length of each document
+        int[] lengths = new int[documents.size()];
+        for (Path part : index.getParts())
+        {
+            try (PostingsReader reader = index.openPart(part, documents, true))
+            {
+                while (reader.nextTerm())
+                {
+                    while (reader.nextPosting()) { lengths[reader.getDocId()] += reader.getCount(); }
+                }
+            }
+        }
+        CorpusStatistics statistics = new CorpusStatistics(lengths);
+        FileSystem fs = index.getFileSystem();
+        try (FSDataOutputStream out = fs.create(new Path(index.getPath(), FILENAME), true))
+        {
+            statistics.write(out);
+        }
+        if (!index.isBinary()) { return statistics; }
+
+        // Second pass: the maximum score of each term
+        for (Path part : index.getParts())
+        {
+            try (PostingsReader reader = index.openPart(part, documents, true);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                         fs.create(part.suffix(SCORES_EXTENSION), true))))
+            {
+                while (reader.nextTerm())
+                {
+                    double max = 0;
+                    while (reader.nextPosting())
+                    {
+                        max = Math.max(max, statistics.termFrequencyScore(reader.getCount(), reader.getDocId()));
+                    }
+                    out.writeFloat((float) max);
+                }
+            }
+        }
+        return statistics;
+    }
+
+    public static CorpusStatistics read(InputStream in) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+        int[] lengths = new int[VarInt.readInt(input)];
+        for (int docId = 0; docId < lengths.length; docId++) { lengths[docId] = VarInt.readInt(input); }
+        return new CorpusStatistics(lengths);
+    }
+
+    public void write(OutputStream out) throws IOException
+    {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+        VarInt.writeInt(output, lengths.length);
+        for (int length : lengths) { VarInt.writeInt(output, length); }
+        output.flush();
+    }
+
+    // For the indexes built before the statistics existed
+    public static void main(String[] args) throws Exception
+    {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 1)
+        {
+            System.err.println("Usage: CorpusStatistics <index folder>");
+            System.exit(1);
+        }
+        CorpusStatistics statistics = build(new IndexFolder(conf, new Path(otherArgs[0])));
+        System.out.printf("%d documents, %.1f words on average%n", statistics.size(), statistics.getAverageLength());
+    }
+}
@@ -0,0 +1,166 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Maps every input filename to a compact integer document ID, so that the
+ *  mappers and combiners can shuffle a (var)int instead of the full filename.
+ *
+ * The dictionary is built by the driver before the job is submitted, by listing
+ *  the same files NameAwareCombineTextInputFormat will split, and it is shipped to
+ *  the tasks through the distributed cache. It's a plain text file with one filename
+ *  per line: the line number is the document ID. Since the filenames are sorted,
+ *  sorting by document ID is the same as sorting by filename.
+ *
+ * Only the filename (not the full path) identifies a document, exactly like the
+ *  NameAwareRecordReader does, so files with the same name in different folders
+ *  share the same ID and end up merged in the index.
+ */
+public class DocumentDictionary
+{
+    // Name of the dictionary inside the index (output) folder
+    public static final String FILENAME = "_documents";
+
+    // Fragment used to recognize the dictionary among the files of the distributed cache
+    private static final String CACHE_FRAGMENT = "documents";
+
+    // Loading the dictionary once per JVM is enough: every record reader of a task needs it
+    private static String cachedUri;
+    private static DocumentDictionary cached;
+
+    private final String[] filenames;
+
+    public DocumentDictionary(String[] sortedFilenames) { this.filenames = sortedFilenames; }
+
+    public int size() { return filenames.length; }
+    public String getFilename(int docId) { return filenames[docId]; }
+
+    // Returns -1 if the filename is unknown
+    public int getDocId(String filename)
+    {
+        int docId = Arrays.binarySearch(filenames, filename);
+        return docId >= 0 ? docId : -1;
+    }
+
+    /**
+     * Lists the input files of the job, writes their dictionary next to the output folder
+     *  and adds it to the distributed cache.
+     * The dictionary is to be moved inside the output folder with
+     *  {@link #commit(Configuration, Path)} once the job succeeds
+     */
+    public static void prepare(Job job, Path outputFolder) throws IOException
+    {
+        TreeSet<String> names = new TreeSet<>();
+        for (FileStatus status : NameAwareCombineTextInputFormat.listInputFiles(job))
+        {
+            names.add(status.getPath().getName());
+        }
+
+        Path path = getPreparedPath(outputFolder);
+        FileSystem fs = path.getFileSystem(job.getConfiguration());
+        new DocumentDictionary(names.toArray(new String[0])).write(fs, path);
+
+        job.addCacheFile(URI.create(fs.makeQualified(path).toUri() + "#" + CACHE_FRAGMENT));
+    }
+
+    // Where prepare() writes the dictionary, next to the output folder
+    private static Path getPreparedPath(Path outputFolder) { return new Path(outputFolder.toString() + FILENAME); }
+
+    // Moves the dictionary built by prepare() inside the output folder
+    public static void commit(Configuration conf, Path outputFolder) throws IOException
+    {
+        Path dictionary = getPreparedPath(outputFolder);
+        FileSystem fs = dictionary.getFileSystem(conf);
+        if (!fs.rename(dictionary, new Path(outputFolder, FILENAME)))
+        {
+            throw new IOException("Unable to move " + dictionary + " into " + outputFolder);
+        }
+    }
+
+    // Deletes the dictionary built by prepare(), when the job fails
+    public static void discard(Configuration conf, Path outputFolder) throws IOException
+    {
+        Path dictionary = getPreparedPath(outputFolder);
+        dictionary.getFileSystem(conf).delete(dictionary, false);
+    }
+
+    /**
+     * Returns the dictionary shipped with the job. The local copy created by
+     *  the distributed cache is preferred, when available
+     */
+    @SuppressWarnings("deprecation")
+    public static synchronized DocumentDictionary get(JobContext context) throws IOException
+    {
+        URI uri = null;
+        URI[] cacheFiles = context.getCacheFiles();
+        if (cacheFiles != null)
+        {
+            for (URI cacheFile : cacheFiles)
+            {
+                if (CACHE_FRAGMENT.equals(cacheFile.getFragment())) { uri = cacheFile; }
+            }
+        }
+        if (uri == null) { throw new IOException("No document dictionary in the distributed cache"); }
+
+        if (cached != null && uri.toString().equals(cachedUri)) { return cached; }
+
+        Path path = new Path(uri.getScheme(), uri.getAuthority(), uri.getPath());
+        Path[] localFiles = context.getLocalCacheFiles();
+        if (localFiles != null)
+        {
+            for (Path localFile : localFiles)
+            {
+                if (localFile.getName().equals(path.getName())) { path = localFile; }
+            }
+        }
+        Configuration conf = context.getConfiguration();
+        cached = read(path.isAbsoluteAndSchemeAuthorityNull()
+                ? FileSystem.getLocal(conf) : path.getFileSystem(conf), path);
+        cachedUri = uri.toString();
+        return cached;
+    }
+
+    public static DocumentDictionary read(FileSystem fs, Path path) throws IOException
+    {
+        try (InputStream in = fs.open(path)) { return read(in); }
+    }
+
+    public static DocumentDictionary read(InputStream in) throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) { names.add(line); }
+        return new DocumentDictionary(names.toArray(new String[0]));
+    }
+
+    public void write(FileSystem fs, Path path) throws IOException
+    {
+        try (FSDataOutputStream out = fs.create(path, true)) { write(out); }
+    }
+
+    public void write(OutputStream out) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        for (String filename : filenames)
+        {
+            writer.write(filename);
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+}
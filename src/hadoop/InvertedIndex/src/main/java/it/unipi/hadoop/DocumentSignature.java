@@ -0,0 +1,144 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * What DuplicateDetector knows about (a part of) a file:
+ *  - its size and a hash of its content, to find the exact duplicates
+ *  - a MinHash signature of its shingles (runs of SHINGLE consecutive words, cleaned like the
+ *    mappers do), to find the near duplicates: the fraction of the BINS that two signatures have
+ *    in common estimates the Jaccard similarity of their sets of shingles
+ *
+ * The signature is a one-permutation MinHash: every shingle is hashed once, the first bits of
+ *  the hash choose its bin, and each bin keeps the smallest of the other bits it gets.
+ * Both the content hash (a sum of hashes of the lines, each mixed with its offset) and the
+ *  signature (bin by bin minimums) can be merged in any order, so a file can be hashed a
+ *  part at a time, whatever the splits it was read from, and the parts combined later (merge()).
+ */
+public class DocumentSignature implements Writable
+{
+    public static final int SHINGLE = 3;
+    public static final int BINS = 64;
+    private static final int BIN_BITS = 6;
+    public static final int EMPTY = Integer.MAX_VALUE;
+
+    private long length;
+    private long contentHash;
+    private final int[] bins = new int[BINS];
+
+    public DocumentSignature() { clear(); }
+
+    public void clear()
+    {
+        length = 0;
+        contentHash = 0;
+        Arrays.fill(bins, EMPTY);
+    }
+
+    public long getLength() { return length; }
+    public long getContentHash() { return contentHash; }
+    public int getBin(int bin) { return bins[bin]; }
+
+    // Whether at least one shingle was found, i.e., whether the signature means anything
+    public boolean hasShingles()
+    {
+        for (int value : bins) { if (value != EMPTY) { return true; } }
+        return false;
+    }
+
+    // Adds a line (without its line terminator) that starts at the given offset of the file
+    public void addLine(long offset, byte[] bytes, int start, int lineLength)
+    {
+        long hash = 0xcbf29ce484222325L;  // FNV-1a
+        for (int i = start; i < start + lineLength; i++) { hash = (hash ^ bytes[i]) * 0x100000001b3L; }
+        contentHash += mix(hash ^ mix(offset));
+        length += lineLength + 1;
+    }
+
+    // Adds a shingle, given the hash of its words (see hashShingle())
+    public void addShingle(long hash)
+    {
+        int bin = (int) (hash >>> (64 - BIN_BITS));
+        int value = (int) (hash & EMPTY);
+        if (value < bins[bin]) { bins[bin] = value; }
+    }
+
+    public void merge(DocumentSignature other)
+    {
+        length += other.length;
+        contentHash += other.contentHash;
+        for (int bin = 0; bin < BINS; bin++) { bins[bin] = Math.min(bins[bin], other.bins[bin]); }
+    }
+
+    // The hash of a word, and the one of a shingle, from the hashes of its words (oldest first)
+    public static long hashWord(byte[] word, int length)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) { hash = (hash ^ word[i]) * 0x100000001b3L; }
+        return hash;
+    }
+
+    public static long hashShingle(long[] words, int first, int count)
+    {
+        long hash = 0;
+        for (int i = 0; i < count; i++) { hash = mix(hash * 31 + words[(first + i) % words.length]); }
+        return hash;
+    }
+
+    // The finalizer of MurmurHash3, to spread the bits
+    static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93e53a9c4cbL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Fills the empty bins of a copy of the signature, each one with the value of the first
+     *  non-empty bin after it (rotating), so that two sparse signatures can still be compared
+     *  bin by bin ("densified" one-permutation hashing). Must not be called if hasShingles() is false
+     */
+    public int[] densify()
+    {
+        int[] dense = new int[BINS];
+        for (int bin = 0; bin < BINS; bin++)
+        {
+            int source = bin;
+            int distance = 0;
+            while (bins[source] == EMPTY)
+            {
+                source = (source + 1) % BINS;
+                distance++;
+            }
+            // A borrowed value is rehashed by its distance, so that neighbouring empty bins differ
+            dense[bin] = distance == 0 ? bins[bin]
+                    : (int) (mix(bins[source] + 0x9e3779b97f4a7c15L * distance) & EMPTY);
+        }
+        return dense;
+    }
+
+    @Override
+    public void write(DataOutput dataOutput) throws IOException
+    {
+        WritableUtils.writeVLong(dataOutput, length);
+        dataOutput.writeLong(contentHash);
+        for (int value : bins) { WritableUtils.writeVInt(dataOutput, value); }
+    }
+
+    @Override
+    public void readFields(DataInput dataInput) throws IOException
+    {
+        length = WritableUtils.readVLong(dataInput);
+        contentHash = dataInput.readLong();
+        for (int bin = 0; bin < BINS; bin++) { bins[bin] = WritableUtils.readVInt(dataInput); }
+    }
+}
@@ -0,0 +1,382 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Finds the input files that are (near) duplicates of other ones, so that the job only indexes
+ *  one of them, the canonical document: the others never reach a mapper, and are listed in
+ *
+ *  _aliases
+ *      alias  canonical  (one line per duplicate, tab-separated, sorted by alias)
+ *
+ *  which the search side uses to report every filename of a matching document (see Index.getAliases()).
+ *
+ * Before the indexing job, a job with a single reducer reads the same splits, one line at a time:
+ *  - the mappers compute a DocumentSignature of every file (or part of a file) they read
+ *  - the reducer merges the parts of each file, then groups the files: with "exact", the ones with
+ *    the same size and content hash; with "near", also the ones whose signatures estimate a
+ *    Jaccard similarity of their shingles of at least THRESHOLD. Comparing every pair would take
+ *    quadratic time: the candidate pairs are the files that share all the bins of at least one of
+ *    BANDS bands (locality-sensitive hashing), which almost surely finds the pairs above ~0.8
+ *  The canonical document of a group is the file with the smallest name, and a near duplicate
+ *  joins the group of any file it's similar to (the groups are the connected components).
+ *
+ * Only the canonical document is indexed: a query that only matches the words that a near
+ *  duplicate does not share with it misses the duplicate. The groups are found among the files
+ *  of a single job, i.e., within a shard of a sharded index or a segment of an incremental one.
+ */
+public class DuplicateDetector
+{
+    // none (default), exact or near
+    public static final String MODE = "invertedindex.dedup";
+
+    // The estimated Jaccard similarity from which two files are near duplicates
+    public static final String THRESHOLD = "invertedindex.dedup.threshold";
+    public static final float DEFAULT_THRESHOLD = 0.9f;
+
+    // Path of the aliases file of the job (set by configure())
+    public static final String ALIASES = "invertedindex.dedup.aliases";
+
+    public static final String FILENAME = "_aliases";
+
+    // Locality-sensitive hashing: BANDS bands of ROWS bins each
+    private static final int ROWS = 4;
+    private static final int BANDS = DocumentSignature.BINS / ROWS;
+
+    private static final String COUNTERS = "Duplicate Detection";
+
+    /**
+     * Computes the signature of the files of each input split, a part of a file at a time
+     *  (the lines of a part come one after the other)
+     */
+    public static class SignatureMapper extends Mapper<FilenameAndOffset, Text, IntWritable, DocumentSignature>
+    {
+        private final Tokenizer tokenizer = new Tokenizer();
+        private final IntWritable document = new IntWritable(-1);
+        private final DocumentSignature signature = new DocumentSignature();
+        private final long[] words = new long[DocumentSignature.SHINGLE];  // The hashes of the last words
+        private int wordCount;
+
+        @Override
+        public void map(FilenameAndOffset key, Text value, Context context) throws IOException, InterruptedException
+        {
+            if (key.getDocId() != document.get())
+            {
+                flush(context);
+                document.set(key.getDocId());
+            }
+            signature.addLine(key.getOffset(), value.getBytes(), 0, value.getLength());
+            tokenizer.reset(value);
+            while (tokenizer.next())
+            {
+                words[wordCount++ % words.length] = DocumentSignature.hashWord(tokenizer.getBytes(), tokenizer.getLength());
+                if (wordCount >= words.length)
+                {
+                    signature.addShingle(DocumentSignature.hashShingle(words, wordCount % words.length, words.length));
+                }
+            }
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException
+        {
+            if (document.get() < 0) { return; }
+            // A part too short for a single shingle is a shingle itself
+            if (wordCount > 0 && wordCount < words.length)
+            {
+                signature.addShingle(DocumentSignature.hashShingle(words, 0, wordCount));
+            }
+            context.write(document, signature);
+            signature.clear();
+            wordCount = 0;
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException { flush(context); }
+    }
+
+    /**
+     * Gets the signatures of all the files, sorted by document ID (i.e., by filename),
+     *  and writes the aliases once it has them all
+     */
+    public static class ClusteringReducer extends Reducer<IntWritable, DocumentSignature, Text, Text>
+    {
+        private final DocumentSignature merged = new DocumentSignature();
+        private DocumentDictionary documents;
+        private boolean near;
+        private float threshold;
+
+        private int size;
+        private int[] docIds = new int[1024];
+        private long[] lengths = new long[1024];
+        private long[] contentHashes = new long[1024];
+        private int[][] signatures = new int[1024][];  // Densified, null for a file without words
+
+        @Override
+        protected void setup(Context context) throws IOException
+        {
+            documents = DocumentDictionary.get(context);
+            near = context.getConfiguration().get(MODE).equals("near");
+            threshold = context.getConfiguration().getFloat(THRESHOLD, DEFAULT_THRESHOLD);
+        }
+
+        @Override
+        public void reduce(IntWritable key, Iterable<DocumentSignature> values, Context context)
+        {
+            merged.clear();
+            for (DocumentSignature value : values) { merged.merge(value); }
+            if (size == docIds.length)
+            {
+                docIds = Arrays.copyOf(docIds, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                contentHashes = Arrays.copyOf(contentHashes, size * 2);
+                signatures = Arrays.copyOf(signatures, size * 2);
+            }
+            docIds[size] = key.get();
+            lengths[size] = merged.getLength();
+            contentHashes[size] = merged.getContentHash();
+            signatures[size] = near && merged.hasShingles() ? merged.densify() : null;
+            size++;
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException
+        {
+            // Union-find over the files, the root of a group being its first file
+            int[] groups = new int[size];
+            for (int i = 0; i < size; i++) { groups[i] = i; }
+
+            Map<Long, Integer> byContent = new HashMap<>();
+            for (int i = 0; i < size; i++)
+            {
+                Integer first = byContent.putIfAbsent(contentHashes[i] ^ DocumentSignature.mix(lengths[i]), i);
+                if (first != null && lengths[first] == lengths[i] && contentHashes[first] == contentHashes[i])
+                {
+                    union(groups, first, i);
+                }
+            }
+            int exact = 0;
+            for (int i = 0; i < size; i++) { if (find(groups, i) != i) { exact++; } }
+
+            if (near)
+            {
+                for (int band = 0; band < BANDS; band++)
+                {
+                    Map<Long, List<Integer>> buckets = new HashMap<>();
+                    for (int i = 0; i < size; i++)
+                    {
+                        if (signatures[i] == null) { continue; }
+                        List<Integer> bucket = buckets.computeIfAbsent(bandHash(signatures[i], band), b -> new ArrayList<>());
+                        boolean joined = false;
+                        for (int other : bucket)
+                        {
+                            if (find(groups, other) == find(groups, i)) { joined = true; }
+                            else if (similarity(signatures[other], signatures[i]) >= threshold)
+                            {
+                                union(groups, other, i);
+                                joined = true;
+                            }
+                        }
+                        // A file that joined the group of one in the bucket is represented by it
+                        if (!joined) { bucket.add(i); }
+                    }
+                }
+            }
+
+            Text alias = new Text();
+            Text canonical = new Text();
+            int aliases = 0;
+            for (int i = 0; i < size; i++)
+            {
+                int root = find(groups, i);
+                if (root == i) { continue; }
+                alias.set(documents.getFilename(docIds[i]));
+                canonical.set(documents.getFilename(docIds[root]));
+                context.write(alias, canonical);
+                aliases++;
+            }
+            context.getCounter(COUNTERS, "Documents").increment(size);
+            context.getCounter(COUNTERS, "Exact duplicates").increment(exact);
+            context.getCounter(COUNTERS, "Near duplicates").increment(aliases - exact);
+        }
+
+        private static long bandHash(int[] signature, int band)
+        {
+            long hash = band;
+            for (int row = band * ROWS; row < (band + 1) * ROWS; row++) { hash = hash * 0x9e3779b97f4a7c15L + signature[row]; }
+            return hash;
+        }
+
+        private static float similarity(int[] a, int[] b)
+        {
+            int equal = 0;
+            for (int bin = 0; bin < a.length; bin++) { if (a[bin] == b[bin]) { equal++; } }
+            return (float) equal / a.length;
+        }
+
+        private static int find(int[] groups, int i)
+        {
+            while (groups[i] != i)
+            {
+                groups[i] = groups[groups[i]];
+                i = groups[i];
+            }
+            return i;
+        }
+
+        // The root with the smallest index (i.e., filename) becomes the root of both
+        private static void union(int[] groups, int a, int b)
+        {
+            int rootA = find(groups, a);
+            int rootB = find(groups, b);
+            if (rootA < rootB) { groups[rootB] = rootA; }
+            else { groups[rootA] = rootB; }
+        }
+    }
+
+    /**
+     * Leaves the aliases out of the input files of the job (and so out of its document dictionary)
+     */
+    public static class AliasFilter implements PathFilter, Configurable
+    {
+        private Configuration conf;
+        private Set<String> aliases;
+
+        @Override
+        public void setConf(Configuration conf)
+        {
+            this.conf = conf;
+            try
+            {
+                Path file = new Path(conf.get(ALIASES));
+                try (InputStream in = file.getFileSystem(conf).open(file)) { aliases = read(in).keySet(); }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException("Unable to read " + conf.get(ALIASES), e);
+            }
+        }
+
+        @Override
+        public Configuration getConf() { return conf; }
+
+        @Override
+        public boolean accept(Path path) { return !aliases.contains(path.getName()); }
+    }
+
+    /**
+     * If the job is to skip duplicates, runs the detection job over its input (which must be
+     *  already set), writes the aliases next to the output folder, and filters them out of the input.
+     * The aliases are to be moved inside the output folder with commit() once the job succeeds
+     */
+    public static void configure(Job job, Path outputFolder) throws IOException, InterruptedException
+    {
+        Configuration conf = job.getConfiguration();
+        String mode = conf.get(MODE, "none");
+        if (mode.equals("none")) { return; }
+        if (!mode.equals("exact") && !mode.equals("near"))
+        {
+            throw new IllegalArgumentException("Unknown duplicate detection: " + mode);
+        }
+
+        Path signatures = new Path(outputFolder.toString() + "_signatures");
+        Job detection = Job.getInstance(conf, "InvertedIndex duplicate detection");
+        // The content hash needs the offset of every line
+        detection.getConfiguration().setBoolean(NameAwareCombineTextInputFormat.WHOLE_FILES, false);
+        detection.setJarByClass(DuplicateDetector.class);
+        detection.setInputFormatClass(NameAwareCombineTextInputFormat.class);
+        detection.setMapperClass(SignatureMapper.class);
+        detection.setReducerClass(ClusteringReducer.class);
+        detection.setNumReduceTasks(1);
+        detection.setMapOutputKeyClass(IntWritable.class);
+        detection.setMapOutputValueClass(DocumentSignature.class);
+        detection.setOutputKeyClass(Text.class);
+        detection.setOutputValueClass(Text.class);
+        FileOutputFormat.setOutputPath(detection, signatures);
+        DocumentDictionary.prepare(detection, signatures);
+
+        FileSystem fs = signatures.getFileSystem(conf);
+        boolean succeeded;
+        try { succeeded = detection.waitForCompletion(true); }
+        catch (ClassNotFoundException e) { throw new IOException(e); }
+        finally { DocumentDictionary.discard(detection.getConfiguration(), signatures); }
+        if (!succeeded)
+        {
+            fs.delete(signatures, true);
+            throw new IOException("The duplicate detection job failed");
+        }
+
+        Path aliases = getPreparedPath(outputFolder);
+        if (!fs.rename(new Path(signatures, "part-r-00000"), aliases))
+        {
+            throw new IOException("Unable to move the aliases found in " + signatures);
+        }
+        fs.delete(signatures, true);
+        conf.set(ALIASES, fs.makeQualified(aliases).toString());
+        FileInputFormat.setInputPathFilter(job, AliasFilter.class);
+    }
+
+    // Where configure() writes the aliases, next to the output folder
+    private static Path getPreparedPath(Path outputFolder) { return new Path(outputFolder.toString() + FILENAME); }
+
+    // Moves the aliases found by configure() (if any) inside the output folder
+    public static void commit(Configuration conf, Path outputFolder) throws IOException
+    {
+        if (conf.get(ALIASES) == null) { return; }
+        Path aliases = new Path(conf.get(ALIASES));
+        if (!aliases.getFileSystem(conf).rename(aliases, new Path(outputFolder, FILENAME)))
+        {
+            throw new IOException("Unable to move " + aliases + " into " + outputFolder);
+        }
+    }
+
+    // Deletes the aliases found by configure() (if any), when the job fails
+    public static void discard(Configuration conf) throws IOException
+    {
+        if (conf.get(ALIASES) == null) { return; }
+        Path aliases = new Path(conf.get(ALIASES));
+        aliases.getFileSystem(conf).delete(aliases, false);
+    }
+
+    // alias -> canonical, sorted by alias
+    public static SortedMap<String, String> read(InputStream in) throws IOException
+    {
+        SortedMap<String, String> aliases = new TreeMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            int tab = line.indexOf('\t');
+            if (tab > 0) { aliases.put(line.substring(0, tab), line.substring(tab + 1)); }
+        }
+        return aliases;
+    }
+
+    public static void write(FileSystem fs, Path path, SortedMap<String, String> aliases) throws IOException
+    {
+        try (FSDataOutputStream out = fs.create(path, true))
+        {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (Map.Entry<String, String> alias : aliases.entrySet())
+            {
+                writer.write(alias.getKey() + "\t" + alias.getValue() + "\n");
+            }
+            writer.flush();
+        }
+    }
+}
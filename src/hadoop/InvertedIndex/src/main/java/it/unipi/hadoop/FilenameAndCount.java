@@ -1,6 +1,7 @@
 package it.unipi.hadoop;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -8,32 +9,42 @@ import java.io.IOException;
 
  /**
   * Represents the output value of a mapper.
-  * Must be serializable (i.e., implement Hadoop's Writable interface)
+  * Must be serializable (i.e., implement Hadoop's Writable interface).
+  * The file is identified by its document ID (see DocumentDictionary) and both
+  *  numbers are written as variable-length integers, which keeps the shuffle small.
+  *
+  * The reducers of a positional index also hand the positions of the word in the file
+  *  to the output format: they are not serialized, since they never go through the shuffle
   */
 public class FilenameAndCount implements Writable
 {
-    private String filename;
+    private int docId;
     private int count;
+    private int[] positions;
 
     public FilenameAndCount() { }
     public FilenameAndCount(int count) { this.count = count; }
 
-    public String getFilename() { return filename; }
+    public int getDocId() { return docId; }
     public int getCount() { return count; }
-    public void setFilename(String filename) { this.filename = filename; }
+    public void setDocId(int docId) { this.docId = docId; }
     public void setCount(int count) { this.count = count; }
 
+    // The first getCount() positions are valid, null if the index is not positional
+    public int[] getPositions() { return positions; }
+    public void setPositions(int[] positions) { this.positions = positions; }
+
     @Override
     public void write(DataOutput dataOutput) throws IOException
     {
-        dataOutput.writeUTF(filename);
-        dataOutput.writeInt(count);
+        WritableUtils.writeVInt(dataOutput, docId);
+        WritableUtils.writeVInt(dataOutput, count);
     }
 
     @Override
     public void readFields(DataInput dataInput) throws IOException
     {
-        filename = dataInput.readUTF();
-        count = dataInput.readInt();
+        docId = WritableUtils.readVInt(dataInput);
+        count = WritableUtils.readVInt(dataInput);
     }
 }
@@ -1,6 +1,9 @@
 package it.unipi.hadoop;
 
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -9,41 +12,80 @@ import java.util.Objects;
 
 /**
  * Used to replace the default LongWritable key of (Combine)TextInputFormat.
- * Since it's used as a Hadoop key, it must be both serializable and orderable
+ * Since it's used as a Hadoop key, it must be both serializable and orderable.
+ * Besides the filename, it also carries the document ID assigned to the file
+ *  by the DocumentDictionary, which is what the mappers actually emit
+ *
+ * Serialized as the UTF-8 filename (like a Text), the variable-length document ID and the
+ *  variable-length offset, and compared directly on the serialized bytes (see Comparator):
+ *  the filenames are ordered by code point, which is the byte order of their UTF-8 encoding
  */
 public class FilenameAndOffset implements WritableComparable<FilenameAndOffset>
 {
     private String filename;
+    private int docId;
     private long offset;
 
+    static
+    {
+        WritableComparator.define(FilenameAndOffset.class, new Comparator());
+    }
+
     public FilenameAndOffset() { }
 
     public String getFilename() { return filename; }
+    public int getDocId() { return docId; }
+    public long getOffset() { return offset; }
     public void setFilename(String filename) { this.filename = filename; }
+    public void setDocId(int docId) { this.docId = docId; }
     public void setOffset(long offset) { this.offset = offset; }
 
     @Override
     public void write(DataOutput dataOutput) throws IOException
     {
-        dataOutput.writeUTF(filename);
-        dataOutput.writeLong(offset);
+        Text.writeString(dataOutput, filename);
+        WritableUtils.writeVInt(dataOutput, docId);
+        WritableUtils.writeVLong(dataOutput, offset);
     }
 
     @Override
     public void readFields(DataInput in) throws IOException
     {
-        filename = in.readUTF();
-        offset = in.readLong();
+        filename = Text.readString(in);
+        docId = WritableUtils.readVInt(in);
+        offset = WritableUtils.readVLong(in);
     }
 
     @Override
     public int compareTo(FilenameAndOffset o)
     {
-        int cmp = filename.compareTo(o.filename);
+        int cmp = compareCodePoints(filename, o.filename);
         if (cmp != 0) { return cmp; }
         return Long.compare(offset, o.offset);
     }
 
+    /**
+     * Like String.compareTo(), but by code point rather than by UTF-16 unit: the two only differ
+     *  when a character outside of the BMP (a surrogate pair) meets one between U+E000 and U+FFFF
+     */
+    static int compareCodePoints(String a, String b)
+    {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++)
+        {
+            char c1 = a.charAt(i);
+            char c2 = b.charAt(i);
+            if (c1 == c2) { continue; }
+            // The surrogates (U+D800 to U+DFFF) stand for code points above all the others
+            if (Character.isSurrogate(c1) != Character.isSurrogate(c2))
+            {
+                return Character.isSurrogate(c1) ? 1 : -1;
+            }
+            return c1 - c2;
+        }
+        return a.length() - b.length();
+    }
+
     // Not part of the WritableComparable interface but good practice to override for Hadoop keys
     @Override
     public boolean equals(Object o)
@@ -67,4 +109,38 @@ public class FilenameAndOffset implements WritableComparable<FilenameAndOffset>
         result = 31 * result + Long.hashCode(offset);
         return result;
     }
+
+    @Override
+    public String toString() { return filename + "@" + offset; }
+
+    /**
+     * Sorts the serialized keys by filename (in unsigned byte order, like Text), then by offset.
+     * The document ID is skipped: it's a function of the filename
+     */
+    public static class Comparator extends WritableComparator
+    {
+        public Comparator() { super(FilenameAndOffset.class); }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2)
+        {
+            try
+            {
+                int prefix1 = WritableUtils.decodeVIntSize(b1[s1]);
+                int prefix2 = WritableUtils.decodeVIntSize(b2[s2]);
+                int length1 = readVInt(b1, s1);
+                int length2 = readVInt(b2, s2);
+                int cmp = compareBytes(b1, s1 + prefix1, length1, b2, s2 + prefix2, length2);
+                if (cmp != 0) { return cmp; }
+                int docId1 = s1 + prefix1 + length1;
+                int docId2 = s2 + prefix2 + length2;
+                return Long.compare(readVLong(b1, docId1 + WritableUtils.decodeVIntSize(b1[docId1])),
+                        readVLong(b2, docId2 + WritableUtils.decodeVIntSize(b2[docId2])));
+            }
+            catch (IOException e)
+            {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
 }
@@ -0,0 +1,143 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Keeps an index up to date with its input folder without re-indexing all of it.
+ *
+ * Every run compares the input files with the manifest of the index (see Manifest):
+ *  - the files that are new, or whose size or modification time changed, are indexed
+ *    by a regular InvertedIndex job into a new segment
+ *  - the previous version of the changed files, and the files that are gone,
+ *    are marked as deleted in their segments (tombstones)
+ * then the segments are merged according to the tiered merge policy of SegmentMerger.
+ * The job only reads the new data, so the cost of a run depends on how much changed,
+ *  not on the size of the whole corpus.
+ *
+ * Like everywhere else, documents are identified by their filename: files with
+ *  the same name in different folders are a single document.
+ * All the runs on an index must agree on -D invertedindex.positions, so that its segments
+ *  can be merged: a positional index stays positional.
+ */
+public class IncrementalIndexer
+{
+    public static void main(String[] args) throws Exception
+    {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 5)
+        {
+            System.err.println(
+                    "Usage: IncrementalIndexer " +
+                            "<input folder> " +
+                            "<index folder> " +
+                            "<configuration> " +
+                            "<number of reducers> " +
+                            "<max input split size (MB)>\n" +
+                    " The arguments and the options of the job are the ones of InvertedIndex\n" +
+                    " Generic options (-D name=value):\n" +
+                    "  " + SegmentMerger.MERGE_FACTOR + "   segments per tier, 0 not to merge " +
+                            "(default: " + SegmentMerger.DEFAULT_MERGE_FACTOR + ")\n" +
+                    "  " + SegmentMerger.MERGE_FLOOR_MB + "   size of the smallest tier " +
+                            "(default: " + SegmentMerger.DEFAULT_MERGE_FLOOR_MB + ")\n");
+            System.exit(1);
+        }
+        boolean succeeded = run(conf, new Path(otherArgs[0]), new Path(otherArgs[1]), Integer.parseInt(otherArgs[2]),
+                Integer.parseInt(otherArgs[3]), Integer.parseInt(otherArgs[4]));
+        System.exit(succeeded ? 0 : 1);
+    }
+
+    /**
+     * Brings the index up to date with the input folder: indexes the new and modified files into
+     *  a new segment, marks the old versions and the deleted files as deleted, then merges
+     * @param configuration mapper/combiner configuration, see InvertedIndex
+     * @return whether the job succeeded (if not, the index is left as it was)
+     */
+    public static boolean run(Configuration conf, Path input, Path index,
+                              int configuration, int numReducers, int maxInputSplitSizeMB)
+            throws IOException, InterruptedException, ClassNotFoundException
+    {
+        FileSystem fs = index.getFileSystem(conf);
+        Manifest manifest = Manifest.read(fs, index);
+
+        // Segments with and without positions could never be merged (see SegmentMerger)
+        boolean positions = conf.getBoolean(InvertedIndex.POSITIONS, false);
+        for (String segment : manifest.getSegments())
+        {
+            if (new IndexFolder(conf, new Path(index, segment)).isPositional() != positions)
+            {
+                throw new IllegalArgumentException("The segments of " + index + (positions ? " have no" : " have") +
+                        " positions: run with -D " + InvertedIndex.POSITIONS + "=" + !positions);
+            }
+        }
+
+        // The files a full rebuild would index, grouped by name
+        Job listing = Job.getInstance(conf);
+        FileInputFormat.addInputPath(listing, input);
+        TreeMap<String, List<FileStatus>> files = new TreeMap<>();
+        for (FileStatus status : NameAwareCombineTextInputFormat.listInputFiles(listing))
+        {
+            files.computeIfAbsent(status.getPath().getName(), name -> new ArrayList<>()).add(status);
+        }
+
+        List<Path> changedFiles = new ArrayList<>();
+        List<String> changedNames = new ArrayList<>();
+        Map<String, long[]> versions = new HashMap<>();
+        for (Map.Entry<String, List<FileStatus>> file : files.entrySet())
+        {
+            long size = 0;
+            long modificationTime = 0;
+            for (FileStatus status : file.getValue())
+            {
+                size += status.getLen();
+                modificationTime = Math.max(modificationTime, status.getModificationTime());
+            }
+            versions.put(file.getKey(), new long[] { size, modificationTime });
+
+            Manifest.Entry entry = manifest.get(file.getKey());
+            if (entry == null || entry.getSize() != size || entry.getModificationTime() != modificationTime)
+            {
+                changedNames.add(file.getKey());
+                for (FileStatus status : file.getValue()) { changedFiles.add(status.getPath()); }
+            }
+        }
+        List<String> deletedNames = new ArrayList<>();
+        for (String name : manifest.getDocuments())
+        {
+            if (!files.containsKey(name)) { deletedNames.add(name); }
+        }
+        System.out.println(changedNames.size() + " new or modified files, " + deletedNames.size() + " deleted files");
+
+        if (!changedFiles.isEmpty())
+        {
+            String segment = Manifest.newSegmentName(fs, index);
+            if (!InvertedIndex.run(conf, changedFiles.toArray(new Path[0]), new Path(index, segment),
+                    configuration, numReducers, maxInputSplitSizeMB))
+            {
+                return false;
+            }
+            for (String name : changedNames)
+            {
+                long[] version = versions.get(name);
+                manifest.put(name, version[0], version[1], segment);
+            }
+        }
+        for (String name : deletedNames) { manifest.delete(name); }
+
+        // The new segment is only part of the index once it is in the manifest
+        manifest.write(fs, index);
+
+        int merges = SegmentMerger.maybeMerge(conf, index, manifest);
+        System.out.println(merges + " merges, " + manifest.getSegments().size() + " segments");
+        return true;
+    }
+}
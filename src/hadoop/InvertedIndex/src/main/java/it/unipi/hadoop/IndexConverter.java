@@ -0,0 +1,114 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+/**
+ * Converts an index between the text and the binary format, part by part,
+ *  so that the converted index has exactly the same content as the original one.
+ *
+ * Text indexes built without a _documents dictionary (e.g., by CreateIndex.py)
+ *  are given one, collecting the filenames found in their postings
+ */
+public class IndexConverter
+{
+    public static void convert(Configuration conf, Path input, Path output, boolean toBinary)
+            throws IOException, InterruptedException
+    {
+        IndexFolder index = new IndexFolder(conf, input);
+        DocumentDictionary documents = index.hasDocuments() ? index.readDocuments() : collectDocuments(index);
+
+        FileSystem fs = output.getFileSystem(conf);
+        if (fs.exists(output)) { throw new IOException("Output folder " + output + " already exists"); }
+        fs.mkdirs(output);
+        documents.write(fs, new Path(output, DocumentDictionary.FILENAME));
+        SortedMap<String, String> aliases = index.readAliases();
+        if (!aliases.isEmpty()) { DuplicateDetector.write(fs, new Path(output, DuplicateDetector.FILENAME), aliases); }
+
+        for (Path part : index.getParts())
+        {
+            Path converted = new Path(output, index.getPartName(part));
+            RecordWriter<Text, FilenameAndCount> writer = toBinary
+                    ? new BinaryPostingsOutputFormat.BinaryPostingsWriter(
+                            fs.create(converted.suffix(BinaryPostingsOutputFormat.POSTINGS_EXTENSION)),
+                            fs.create(converted.suffix(BinaryPostingsOutputFormat.TERMS_EXTENSION)))
+                    : new TextPostingsOutputFormat.TextPostingsWriter(fs.create(converted), documents);
+
+            FilenameAndCount posting = new FilenameAndCount();
+            try (PostingsReader reader = index.openPart(part, documents))
+            {
+                while (reader.nextTerm())
+                {
+                    while (reader.nextPosting())
+                    {
+                        posting.setDocId(reader.getDocId());
+                        posting.setCount(reader.getCount());
+                        writer.write(reader.getTerm(), posting);
+                    }
+                }
+            }
+            finally
+            {
+                // Also when the part cannot be read, so that the converted files are not left open
+                writer.close(null);
+            }
+        }
+        IndexFolder written = new IndexFolder(conf, output);
+        CorpusStatistics.build(written);
+        TermDictionary.build(written);
+    }
+
+    // Builds the dictionary of a text index from the filenames in its postings
+    private static DocumentDictionary collectDocuments(IndexFolder index) throws IOException
+    {
+        if (index.isBinary()) { throw new IOException("The binary index has no document dictionary"); }
+
+        TreeSet<String> filenames = new TreeSet<>();
+        Text line = new Text();
+        for (Path part : index.getParts())
+        {
+            try (InputStream in = index.openText(part))
+            {
+                LineReader lines = new LineReader(in);
+                for (int number = 1; lines.readLine(line) > 0; number++)
+                {
+                    String[] fields = line.toString().split("\t");
+                    for (int i = 1; i < fields.length; i++)
+                    {
+                        // filename:count, the filename possibly containing colons itself
+                        int colon = fields[i].lastIndexOf(':');
+                        if (colon <= 0)
+                        {
+                            throw new IOException("Malformed posting \"" + fields[i] + "\" in " +
+                                    index.getPartName(part) + ", line " + number);
+                        }
+                        filenames.add(fields[i].substring(0, colon));
+                    }
+                }
+            }
+        }
+        return new DocumentDictionary(filenames.toArray(new String[0]));
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 3 || !(otherArgs[2].equals("text") || otherArgs[2].equals("binary")))
+        {
+            System.err.println("Usage: IndexConverter <index folder> <output folder> <text|binary>");
+            System.exit(1);
+        }
+        convert(conf, new Path(otherArgs[0]), new Path(otherArgs[1]), otherArgs[2].equals("binary"));
+    }
+}
@@ -0,0 +1,133 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An index (i.e., the output folder of the job), made of the part files written by
+ *  the reducers, in either the text or the binary format, and of the _documents dictionary
+ */
+public class IndexFolder
+{
+    private final FileSystem fs;
+    private final Path folder;
+    private final boolean binary;
+    private final Path[] parts;
+
+    public IndexFolder(Configuration conf, Path folder) throws IOException
+    {
+        this.fs = folder.getFileSystem(conf);
+        this.folder = folder;
+
+        // A binary part is identified by its term dictionary, a text part by its name alone
+        List<Path> binaryParts = new ArrayList<>();
+        List<Path> textParts = new ArrayList<>();
+        for (FileStatus status : fs.listStatus(folder))
+        {
+            String name = status.getPath().getName();
+            if (!status.isFile() || !name.startsWith("part-")) { continue; }
+            if (name.endsWith(BinaryPostingsOutputFormat.TERMS_EXTENSION))
+            {
+                String base = name.substring(0, name.length() - BinaryPostingsOutputFormat.TERMS_EXTENSION.length());
+                binaryParts.add(new Path(folder, base));
+            }
+            else if (!name.endsWith(BinaryPostingsOutputFormat.POSTINGS_EXTENSION)
+                    && !name.endsWith(BinaryPostingsOutputFormat.POSITIONS_EXTENSION)
+                    && !name.endsWith(CorpusStatistics.SCORES_EXTENSION)
+                    && !name.endsWith(TermDictionary.EXTENSION))
+            {
+                textParts.add(status.getPath());
+            }
+        }
+        binary = !binaryParts.isEmpty();
+        parts = (binary ? binaryParts : textParts).toArray(new Path[0]);
+        Arrays.sort(parts);
+    }
+
+    public FileSystem getFileSystem() { return fs; }
+    public Path getPath() { return folder; }
+    public boolean isBinary() { return binary; }
+
+    // Whether the index stores the positions of the words (see PositionalIndex)
+    public boolean isPositional() throws IOException
+    {
+        return binary && parts.length > 0
+                && fs.exists(parts[0].suffix(BinaryPostingsOutputFormat.POSITIONS_EXTENSION));
+    }
+
+    // The base path of each part (for binary parts, without the .terms/.postings extension)
+    public Path[] getParts() { return parts; }
+
+    public boolean hasDocuments() throws IOException
+    {
+        return fs.exists(new Path(folder, DocumentDictionary.FILENAME));
+    }
+
+    public DocumentDictionary readDocuments() throws IOException
+    {
+        return DocumentDictionary.read(fs, new Path(folder, DocumentDictionary.FILENAME));
+    }
+
+    // alias -> canonical document (see DuplicateDetector), empty if the index has no aliases
+    public SortedMap<String, String> readAliases() throws IOException
+    {
+        Path aliases = new Path(folder, DuplicateDetector.FILENAME);
+        if (!fs.exists(aliases)) { return new TreeMap<>(); }
+        try (InputStream in = fs.open(aliases)) { return DuplicateDetector.read(in); }
+    }
+
+    public PostingsReader openPart(Path part, DocumentDictionary documents) throws IOException
+    {
+        return openPart(part, documents, false);
+    }
+
+    // Reading a positional index is only allowed with ignorePositions (see BinaryPostingsReader)
+    public PostingsReader openPart(Path part, DocumentDictionary documents, boolean ignorePositions)
+            throws IOException
+    {
+        if (binary)
+        {
+            return new BinaryPostingsReader(
+                    fs.open(part.suffix(BinaryPostingsOutputFormat.TERMS_EXTENSION)),
+                    fs.open(part.suffix(BinaryPostingsOutputFormat.POSTINGS_EXTENSION)), ignorePositions);
+        }
+        return new TextPostingsReader(openText(part), documents);
+    }
+
+    // Opens a part of a positional index, positions included
+    public BinaryPostingsReader openPositionalPart(Path part) throws IOException
+    {
+        return new BinaryPostingsReader(
+                fs.open(part.suffix(BinaryPostingsOutputFormat.TERMS_EXTENSION)),
+                fs.open(part.suffix(BinaryPostingsOutputFormat.POSTINGS_EXTENSION)),
+                fs.open(part.suffix(BinaryPostingsOutputFormat.POSITIONS_EXTENSION)));
+    }
+
+    // The name of a part, without the extension of its compression codec (if any)
+    public String getPartName(Path part)
+    {
+        CompressionCodec codec = binary ? null : new CompressionCodecFactory(fs.getConf()).getCodec(part);
+        return codec == null ? part.getName()
+                : CompressionCodecFactory.removeSuffix(part.getName(), codec.getDefaultExtension());
+    }
+
+    // Opens a text part, decompressing it if needed
+    public InputStream openText(Path part) throws IOException
+    {
+        CompressionCodec codec = new CompressionCodecFactory(fs.getConf()).getCodec(part);
+        InputStream in = fs.open(part);
+        return codec == null ? in : codec.createInputStream(in);
+    }
+}
@@ -1,9 +1,9 @@
 package it.unipi.hadoop;
 
 import java.io.IOException;
-import java.util.*;
 
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Job;
@@ -22,47 +22,59 @@ import org.apache.hadoop.util.GenericOptionsParser;
  */
 public class InvertedIndex
 {
-    // A bit rough but works well
-    private static final String nonLetters = "[^A-Za-z]+";
+    public static final String OUTPUT_FORMAT = "invertedindex.output.format";
+    public static final String PARTITIONER = "invertedindex.partitioner";
+    public static final String HOT_TERMS = "invertedindex.hot.terms";
+    public static final String POSITIONS = "invertedindex.positions";
 
     /**
      * For each input line of text, it splits the line into words,
      *  cleans the words by removing punctuation marks and lowercasing them,
-     *  and then outputs couples Key:word, Value:(filename, 1)
+     *  and then outputs couples Key:(word, filename), Value:1
      *
      *  Example:
      *      Input - Key::FilenameAndOffset, Value::Text (a line)
      *         file1.txt:0  CLOUD!, cloud computing.
      *         file2.txt:0  Cloud -Computing-
-     *     Output - Key::Text (a word), Value::FilenameAndCount
-     *         cloud        (file1.txt, 1)
-     *         cloud        (file1.txt, 1)
-     *         computing    (file1.txt, 1)
-     *         cloud        (file2.txt, 1)
-     *         computing    (file2.txt, 1)
+     *     Output - Key::WordAndDocument, Value::VIntWritable (a count)
+     *         (cloud, file1.txt)        1
+     *         (cloud, file1.txt)        1
+     *         (computing, file1.txt)    1
+     *         (cloud, file2.txt)        1
+     *         (computing, file2.txt)    1
      */
     public static class SimpleMapper
-            extends Mapper<FilenameAndOffset, Text, Text, FilenameAndCount>
+            extends Mapper<FilenameAndOffset, Text, WordAndDocument, VIntWritable>
     {
         // Reusing the same objects for all the map() calls should be more efficient
-        private final Text word = new Text();
-        private final FilenameAndCount one = new FilenameAndCount(1);
+        private final Tokenizer tokenizer = new Tokenizer();
+        private final WordAndDocument word = new WordAndDocument();
+        private final VIntWritable one = new VIntWritable(1);
+        private JobMetrics.Recorder metrics;
+
+        @Override
+        protected void setup(Context context) { metrics = new JobMetrics.Recorder(context); }
 
         public void map(FilenameAndOffset key, Text value, Context context)
                 throws IOException, InterruptedException
         {
-            String filename = key.getFilename();
-            StringTokenizer itr = new StringTokenizer(value.toString());
-            while (itr.hasMoreTokens())
+            word.setDocId(key.getDocId());
+            tokenizer.reset(value);
+            metrics.startLine();
+            int tokens = 0;
+            while (tokenizer.next())
             {
-                String token = itr.nextToken().toLowerCase()
-                        .replaceAll(nonLetters, "");
-                if (token.isEmpty()) { continue; }
-                word.set(token);
-                one.setFilename(filename);
+                word.setWord(tokenizer.getBytes(), tokenizer.getLength());
+                long start = metrics.startOutput();
                 context.write(word, one);
+                metrics.endOutput(start);
+                tokens++;
             }
+            metrics.endLine(tokens);
         }
+
+        @Override
+        protected void cleanup(Context context) { metrics.publish(context, JobMetrics.MAP_TIME); }
     }
 
     /**
@@ -73,72 +85,98 @@ public class InvertedIndex
      *      Input - Key::FilenameAndOffset, Value::Text (a line)
      *         file1.txt:0  CLOUD!, cloud computing.
      *         file2.txt:0  Cloud -Computing-
-     *     Output - Key::Text (a word), Value::FilenameAndCount
-     *         cloud        (file1.txt, 2)
-     *         computing    (file1.txt, 1)
-     *         cloud        (file2.txt, 1)
-     *         computing    (file2.txt, 1)
+     *     Output - Key::WordAndDocument, Value::VIntWritable (a count)
+     *         (cloud, file1.txt)        2
+     *         (computing, file1.txt)    1
+     *         (cloud, file2.txt)        1
+     *         (computing, file2.txt)    1
      */
     public static class CombinerMapper
-            extends Mapper<FilenameAndOffset, Text, Text, FilenameAndCount>
+            extends Mapper<FilenameAndOffset, Text, WordAndDocument, VIntWritable>
     {
-        private final Map<WordAndFilename, Integer> counts = new HashMap<>();
+        /*
+         * Memory management
+         * The table keeps track of the exact number of bytes it allocates, and it is flushed
+         *  whenever a new (word, file) pair would not fit in the configured budget
+         */
+        public static final String BUDGET_MB = "invertedindex.combiner.budget.mb";
+        public static final int DEFAULT_BUDGET_MB = 64;
 
-        // Memory management
-        private final Runtime runtime = Runtime.getRuntime();
-        private int observedLines = 0;
-        private static final int CHECK_FREQUENCY = 10000;
-        private static final float MEMORY_THRESHOLD = 0.8f;
+        private final Tokenizer tokenizer = new Tokenizer();
+        private final Text text = new Text();
+        private final WordAndDocument word = new WordAndDocument();
+        private final VIntWritable result = new VIntWritable();
+        private CombinerTable counts;
+        private JobMetrics.Recorder metrics;
+
+        @Override
+        protected void setup(Context context)
+        {
+            long budget = context.getConfiguration().getLong(BUDGET_MB, DEFAULT_BUDGET_MB) * 1024 * 1024;
+            counts = new CombinerTable(budget);
+            metrics = new JobMetrics.Recorder(context);
+        }
 
         public void map(FilenameAndOffset key, Text value, Context context)
                 throws IOException, InterruptedException
         {
-            String filename = key.getFilename();
-            StringTokenizer itr = new StringTokenizer(value.toString());
-            while (itr.hasMoreTokens())
+            int docId = key.getDocId();
+            tokenizer.reset(value);
+            metrics.startLine();
+            int tokens = 0;
+            while (tokenizer.next())
             {
-                String token = itr.nextToken().toLowerCase()
-                        .replaceAll(nonLetters, "");
-                if (token.isEmpty()) { continue; }
-                WordAndFilename wordAndFilename = new WordAndFilename(token, filename);
-                int previousCount = counts.getOrDefault(wordAndFilename, 0);
-                counts.put(wordAndFilename, previousCount + 1);
-            }
+                byte[] bytes = tokenizer.getBytes();
+                int length = tokenizer.getLength();
+                tokens++;
+                long start = metrics.startOutput();
+                boolean added = counts.add(bytes, length, docId, 1);
+                metrics.endOutput(start);
+                if (added) { continue; }
 
-            if (observedLines % CHECK_FREQUENCY == 0)
-            {
+                // The budget is exhausted
+                context.getCounter("Memory Management",
+                        "Number of in-mapper combiner flushes").increment(1);
                 context.getCounter("Memory Management",
-                        "Number of in-mapper combiner memory checks").increment(1);
-                float memoryUsageRatio =
-                        (float)(runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
-                if (memoryUsageRatio > MEMORY_THRESHOLD)
+                        "Bytes used by the in-mapper combiner at flush time").increment(counts.getMemoryUsage());
+                flushCounts(context);
+                if (!counts.add(bytes, length, docId, 1))
                 {
-                    flushCounts(context);
-                    context.getCounter("Memory Management",
-                            "Number of in-mapper combiner flushes").increment(1);
+                    // A single word larger than the whole budget: nothing to combine it with anyway
+                    word.setWord(bytes, length);
+                    word.setDocId(docId);
+                    result.set(1);
+                    context.write(word, result);
                 }
             }
-            observedLines++;
+            metrics.endLine(tokens);
         }
 
         private void flushCounts(Context context) throws IOException, InterruptedException
         {
-            Text word = new Text();
-            FilenameAndCount result = new FilenameAndCount();
-            for (Map.Entry<WordAndFilename, Integer> entry : counts.entrySet())
+            long start = System.nanoTime();
+            metrics.addToHistogram(JobMetrics.FLUSH_HISTOGRAM, counts.size());
+            context.getCounter("Memory Management",
+                    "Number of (word, file) pairs flushed by the in-mapper combiner").increment(counts.size());
+            context.getCounter("Memory Management",
+                    "Word bytes flushed by the in-mapper combiner").increment(counts.getWordBytes());
+            for (int entry = 0; entry < counts.size(); entry++)
             {
-                word.set(entry.getKey().getWord());
-                result.setFilename(entry.getKey().getFilename());
-                result.setCount(entry.getValue());
+                counts.getWord(entry, text);
+                word.setWord(text);
+                word.setDocId(counts.getDocId(entry));
+                result.set(counts.getCount(entry));
                 context.write(word, result);
             }
             counts.clear();
+            metrics.add(JobMetrics.FLUSH_TIME, (System.nanoTime() - start) / 1000000);
         }
 
         @Override
         protected void cleanup(Context context) throws IOException, InterruptedException
         {
             flushCounts(context);
+            metrics.publish(context, JobMetrics.MAP_TIME);
         }
     }
 
@@ -146,106 +184,138 @@ public class InvertedIndex
      * A discrete combiner logic to be used with SimpleMapper.
      * Can be useful in scenarios in which performing in-mapper
      *  combining is too complex or memory demanding.
+     * Unlike the reducer, the combiner groups the values by the whole key,
+     *  so each reduce() call only has to sum the counts of a single (word, file) pair.
      *
      * Example:
      *     Input - The same as the SimpleMapper's output
-     *         cloud        (file1.txt, 1)
-     *         cloud        (file1.txt, 1)
-     *         computing    (file1.txt, 1)
-     *         cloud        (file2.txt, 1)
-     *         computing    (file2.txt, 1)
+     *         (cloud, file1.txt)        [1, 1]
+     *         (cloud, file2.txt)        [1]
+     *         (computing, file1.txt)    [1]
+     *         (computing, file2.txt)    [1]
      *     Output - The same as the CombinerMapper's output
-     *         cloud        (file1.txt, 2)
-     *         computing    (file1.txt, 1)
-     *         cloud        (file2.txt, 1)
-     *         computing    (file2.txt, 1)
+     *         (cloud, file1.txt)        2
+     *         (cloud, file2.txt)        1
+     *         (computing, file1.txt)    1
+     *         (computing, file2.txt)    1
      */
     public static class ExternalCombiner
-            extends Reducer<Text, FilenameAndCount, Text, FilenameAndCount>
+            extends Reducer<WordAndDocument, VIntWritable, WordAndDocument, VIntWritable>
     {
-        private final FilenameAndCount result = new FilenameAndCount();
+        private final VIntWritable result = new VIntWritable();
+        private JobMetrics.Recorder metrics;
 
-        /*
-         * Same code as the reducer, except it outputs the combined counts
-         *  one by one instead of building and output string
-         */
         @Override
-        public void reduce(Text key, Iterable<FilenameAndCount> values, Context context)
+        protected void setup(Context context) { metrics = new JobMetrics.Recorder(context); }
+
+        @Override
+        public void reduce(WordAndDocument key, Iterable<VIntWritable> values, Context context)
                 throws IOException, InterruptedException
         {
-            Map<String, Integer> counts = new HashMap<>();
-
-            for (FilenameAndCount value : values)
-            {
-                String filename = value.getFilename();
-                int increment = value.getCount();
-                int previousCount = counts.getOrDefault(filename, 0);
-                counts.put(filename, previousCount + increment);
-            }
-
-            for (Map.Entry<String, Integer> entry : counts.entrySet())
+            int count = 0;
+            int combined = 0;
+            for (VIntWritable value : values)
             {
-                result.setFilename(entry.getKey());
-                result.setCount(entry.getValue());
-                context.write(key, result);
+                count += value.get();
+                combined++;
             }
+            metrics.addToHistogram(JobMetrics.COMBINE_HISTOGRAM, combined);
+            result.set(count);
+            context.write(key, result);
         }
+
+        // The time of the combiner is part of the time of the map (or reduce) task running it
+        @Override
+        protected void cleanup(Context context) { metrics.publish(context, null); }
     }
 
     /**
      * For each word, combines the counts received from the mappers
-     *  into a clean, well-formatted output string.
+     *  into a list of postings sorted by document ID.
+     * The shuffle sorts the keys by word and then by document ID, and groups them by word only
+     *  (see WordAndDocument): while iterating over the values of a word, the key holds the
+     *  document ID of the current value, and the pairs of the same document are adjacent.
+     * The postings are therefore written one by one as soon as they are complete, using the
+     *  same memory whatever the number of documents a word appears in, and the output format
+     *  takes care of grouping them by word (e.g., into a clean, well-formatted output line).
      *
      *  Example:
-     *      Input - Key::Text (a word), Value::FilenameAndCount[]
-     *          cloud       [(file1.txt, 2), (file2.txt, 1)]
-     *          computing   [(file1.txt, 1), (file2.txt, 1)]
-     *      Output - Key::Text (a word), Value::Text (a formatted output string)
-     *          cloud       "file1.txt:2 file2.txt:1"
-     *          computing   "file1.txt:1 file2.txt:1"
+     *      Input - Key::WordAndDocument, Value::VIntWritable[]
+     *          (cloud, file1.txt)       [2, 1]       (the key changes while iterating)
+     *              (cloud, file2.txt)
+     *          (computing, file1.txt)   [1, 1]
+     *              (computing, file2.txt)
+     *      Output - Key::Text (a word), Value::FilenameAndCount
+     *          cloud       (file1.txt, 2)
+     *          cloud       (file2.txt, 1)
+     *          computing   (file1.txt, 1)
+     *          computing   (file2.txt, 1)
+     *      Written by TextPostingsOutputFormat as
+     *          cloud       file1.txt:2     file2.txt:1
+     *          computing   file1.txt:1     file2.txt:1
      */
     public static class MainReducer
-            extends Reducer<Text, FilenameAndCount, Text, Text>
+            extends Reducer<WordAndDocument, VIntWritable, Text, FilenameAndCount>
     {
-        private final Text result = new Text();
+        private final FilenameAndCount result = new FilenameAndCount();
+        private JobMetrics.Recorder metrics;
+        private long inputRecords;
+
+        @Override
+        protected void setup(Context context) { metrics = new JobMetrics.Recorder(context); }
 
-        private static String buildOutputLine(Map<String, Integer> counts)
+        @Override
+        public void reduce(WordAndDocument key, Iterable<VIntWritable> values, Context context)
+                throws IOException, InterruptedException
         {
-            StringJoiner joiner = new StringJoiner("\t");
-            for (Map.Entry<String, Integer> entry : counts.entrySet())
+            int docId = -1;
+            int count = 0;
+            int postings = 0;
+            for (VIntWritable value : values)
             {
-                joiner.add(entry.getKey() + ":" + entry.getValue());
+                // Without a combiner, the same document comes once for each (flushed) occurrence
+                if (key.getDocId() != docId)
+                {
+                    if (docId != -1)
+                    {
+                        writePosting(key.getWord(), docId, count, context);
+                        postings++;
+                    }
+                    docId = key.getDocId();
+                    count = 0;
+                }
+                count += value.get();
+                inputRecords++;
             }
-            return joiner.toString();
+            writePosting(key.getWord(), docId, count, context);
+            postings++;
+            metrics.addToHistogram(JobMetrics.POSTINGS_HISTOGRAM, postings);
+            metrics.add(JobMetrics.POSTINGS, postings);
         }
 
         @Override
-        public void reduce(Text key, Iterable<FilenameAndCount> values, Context context)
-                throws IOException, InterruptedException
+        protected void cleanup(Context context) throws IOException, InterruptedException
         {
-            // Every word (reduce call) has its own map of (filename, count)
-            Map<String, Integer> counts = new HashMap<>();
-
-            for (FilenameAndCount value : values)
-            {
-                String filename = value.getFilename();
-                int increment = value.getCount();
-                int previousCount = counts.getOrDefault(filename, 0);
-                counts.put(filename, previousCount + increment);
-            }
+            // To measure the skew between reducers
+            JobMetrics.recordReducerInput(context, inputRecords);
+            metrics.publish(context, JobMetrics.REDUCE_TIME);
+        }
 
-            String outputLine = buildOutputLine(counts);
-            result.set(outputLine);
-            context.write(key, result);
+        private void writePosting(Text word, int docId, int count, Context context)
+                throws IOException, InterruptedException
+        {
+            result.setDocId(docId);
+            result.setCount(count);
+            context.write(word, result);
         }
     }
 
     public static void main(String[] args) throws Exception
     {
         Configuration conf = new Configuration();
-        Job job = Job.getInstance(conf, "InvertedIndex");
 
-        // Parse CLI arguments
+        // Parse CLI arguments (before creating the job, which takes a copy of the
+        //  configuration, so that the generic -D options reach the tasks)
         String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
         if (otherArgs.length != 5)
         {
@@ -260,10 +330,87 @@ public class InvertedIndex
                     "  0) SimpleMapper\n" +
                     "  1) SimpleMapper + ExternalCombiner\n" +
                     "  2) CombinerMapper\n" +
-                    "  3) CombinerMapper + ExternalCombiner\n");
+                    "  3) CombinerMapper + ExternalCombiner\n" +
+                    "  4) PipelinedMapper\n" +
+                    "  5) PipelinedMapper + ExternalCombiner\n" +
+                    " Generic options (-D name=value):\n" +
+                    "  " + CombinerMapper.BUDGET_MB + "   memory budget of the in-mapper combiner " +
+                            "(default: " + CombinerMapper.DEFAULT_BUDGET_MB + ")\n" +
+                    "  " + PipelinedMapper.THREADS + "   tokenizer threads of each PipelinedMapper " +
+                            "(default: the vcores of a map task, or the cores of its node if they are 1)\n" +
+                    "  " + OUTPUT_FORMAT + "   text (default) or binary\n" +
+                    "  " + POSITIONS + "   whether to store the positions of the words, for phrase " +
+                            "queries (default: false, binary output only)\n" +
+                    "  " + PARTITIONER + "   hash (default) or total-order\n" +
+                    "  " + HOT_TERMS + "   number of most frequent words whose postings are " +
+                            "spread across the reducers (default: 0)\n" +
+                    "  " + WordPartitioner.HOT_FANOUT + "   number of reducers each of them is " +
+                            "spread across (default: all)\n" +
+                    "  " + WordSampler.MAX_SPLITS + "   splits read by the total-order sampler " +
+                            "(default: " + WordSampler.DEFAULT_MAX_SPLITS + ")\n" +
+                    "  " + WordSampler.MAX_RECORDS + "   lines read from each sampled split " +
+                            "(default: " + WordSampler.DEFAULT_MAX_RECORDS + ")\n" +
+                    "  " + DuplicateDetector.MODE + "   none (default), exact or near: index a single file " +
+                            "of each group of duplicates, the others are listed in " + DuplicateDetector.FILENAME + "\n" +
+                    "  " + DuplicateDetector.THRESHOLD + "   estimated Jaccard similarity of near " +
+                            "duplicates (default: " + DuplicateDetector.DEFAULT_THRESHOLD + ")\n" +
+                    "  " + NameAwareCombineTextInputFormat.WHOLE_FILES + "   whether to read each small " +
+                            "file as a single record instead of line by line (default: false)\n" +
+                    "  " + NameAwareCombineTextInputFormat.WHOLE_FILE_MAX_KB + "   larger files are " +
+                            "still read line by line (default: " +
+                            NameAwareCombineTextInputFormat.DEFAULT_WHOLE_FILE_MAX_KB + ")\n" +
+                    "  " + JobMetrics.ENABLED + "   whether to collect the metrics of the tasks and write " +
+                            JobMetrics.FILENAME + " (default: true)\n" +
+                    "  " + JobMetrics.SAMPLING + "   one line out of this many is timed " +
+                            "(default: " + JobMetrics.DEFAULT_SAMPLING + ")\n" +
+                    "  " + ShardedIndexer.SHARDS + "   number of shards the documents are split into, " +
+                            "each one indexed by its own job (default: 1)\n" +
+                    "  " + ShardedIndexer.REBUILD + "   comma-separated shards to rebuild in an " +
+                            "existing sharded index (default: all, in a new one)\n" +
+                    "  " + ShardedIndexer.PARALLEL + "   shard jobs running at the same time " +
+                            "(default: number of cores)\n");
             System.exit(1);
         }
 
+        Path[] inputs = { new Path(otherArgs[0]) };
+        Path outputFolder = new Path(otherArgs[1]);
+        int configuration = Integer.parseInt(otherArgs[2]);
+        int numReducers = Integer.parseInt(otherArgs[3]);
+        int maxInputSplitSizeMB = Integer.parseInt(otherArgs[4]);
+        boolean sharded = conf.getInt(ShardedIndexer.SHARDS, 1) > 1 || conf.get(ShardedIndexer.REBUILD) != null;
+        boolean succeeded = sharded
+                ? ShardedIndexer.run(conf, inputs, outputFolder, configuration, numReducers, maxInputSplitSizeMB)
+                : run(conf, inputs, outputFolder, configuration, numReducers, maxInputSplitSizeMB);
+        System.exit(succeeded ? 0 : 1);
+    }
+
+    /**
+     * Indexes the files found in the given input paths (folders or files) into the output folder,
+     *  which will contain the part files written by the reducers and the _documents dictionary
+     * @param configuration mapper/combiner configuration, see the usage message of main()
+     * @return whether the job succeeded
+     */
+    public static boolean run(Configuration conf, Path[] inputs, Path outputFolder,
+                              int configuration, int numReducers, int maxInputSplitSizeMB)
+            throws IOException, InterruptedException, ClassNotFoundException
+    {
+        Job job = createJob(conf, inputs, outputFolder, configuration, numReducers, maxInputSplitSizeMB);
+        boolean succeeded = job.waitForCompletion(true);
+        commit(job, outputFolder, succeeded);
+        return succeeded;
+    }
+
+    /**
+     * Configures (but does not submit) the job of run(), writing the files it needs
+     *  next to the output folder. Once the job is over, they must be moved into the
+     *  output folder (or deleted) with commit()
+     */
+    public static Job createJob(Configuration conf, Path[] inputs, Path outputFolder,
+                                int configuration, int numReducers, int maxInputSplitSizeMB)
+            throws IOException, InterruptedException
+    {
+        Job job = Job.getInstance(conf, "InvertedIndex");
+
         /*
          * CombineTextInputFormat is critical when dealing with a lot of small files.
          * Unfortunately, the default CombineTextInputFormat does not provide the mappers
@@ -272,16 +419,26 @@ public class InvertedIndex
          * Therefore, we had to re-define the class to keep track of the filenames.
          */
         job.setInputFormatClass(NameAwareCombineTextInputFormat.class);
-        int maxInputSplitSize = Integer.parseInt(otherArgs[4]) * 1024 * 1024;
+        long maxInputSplitSize = maxInputSplitSizeMB * 1024L * 1024;
         NameAwareCombineTextInputFormat.setMaxInputSplitSize(job, maxInputSplitSize);
 
-        FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
-        FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
+        FileInputFormat.setInputPaths(job, inputs);
+        FileOutputFormat.setOutputPath(job, outputFolder);
+
+        // Optional: leave the (near) duplicates of other files out, before they get a document ID
+        DuplicateDetector.configure(job, outputFolder);
+
+        /*
+         * Shuffling the full filename for every (word, file) pair is a waste of bytes.
+         * Before submitting the job, every input file is given a compact integer ID,
+         *  and the dictionary is shipped to the tasks through the distributed cache.
+         * Mappers and combiners only deal with IDs, the reducers turn them back into filenames.
+         */
+        DocumentDictionary.prepare(job, outputFolder);
 
         job.setJarByClass(InvertedIndex.class);
         job.setReducerClass(MainReducer.class);
 
-        int configuration = Integer.parseInt(otherArgs[2]);
         switch (configuration)
         {
             case 0:
@@ -297,21 +454,97 @@ public class InvertedIndex
             case 3:
                 job.setMapperClass(CombinerMapper.class);
                 job.setCombinerClass(ExternalCombiner.class);
+                break;
+            case 4:
+                PipelinedMapper.checkBudget(conf);
+                PipelinedMapper.warnWorkers(conf);
+                job.setMapperClass(PipelinedMapper.class);
+                break;
+            case 5:
+                PipelinedMapper.checkBudget(conf);
+                PipelinedMapper.warnWorkers(conf);
+                job.setMapperClass(PipelinedMapper.class);
+                job.setCombinerClass(ExternalCombiner.class);
         }
 
         // Define the (Key, Value) output types of the mappers
-        job.setMapOutputKeyClass(Text.class);
-        job.setMapOutputValueClass(FilenameAndCount.class);
+        job.setMapOutputKeyClass(WordAndDocument.class);
+        job.setMapOutputValueClass(VIntWritable.class);
+
+        // A positional index has the same configurations, with positions instead of counts
+        boolean positions = conf.getBoolean(POSITIONS, false);
+        if (positions) { PositionalIndex.configure(job, configuration); }
+
+        // Secondary sort: the postings of a word reach its reduce() call sorted by document ID
+        job.setGroupingComparatorClass(WordAndDocument.GroupingComparator.class);
 
         // Define the (Key, Value) output types of the reducers
         job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
+        job.setOutputValueClass(FilenameAndCount.class);
 
-            // Optional: use more than one reducer
-        int numReducers = Integer.parseInt(otherArgs[3]);
+        // The reducers emit sorted postings, that can be written either as text or as binary
+        String outputFormat = conf.get(OUTPUT_FORMAT, "text");
+        switch (outputFormat)
+        {
+            case "text":
+                // Only the binary format has room for the positions
+                if (positions) { throw new IllegalArgumentException(POSITIONS + " requires the binary output format"); }
+                job.setOutputFormatClass(TextPostingsOutputFormat.class);
+                break;
+            case "binary":
+                job.setOutputFormatClass(BinaryPostingsOutputFormat.class);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown output format: " + outputFormat);
+        }
+
+        // Optional: use more than one reducer
         job.setNumReduceTasks(numReducers);
 
-        // Start the job
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
+        /*
+         * Hashing spreads the words evenly, but not their postings: with a Zipfian vocabulary
+         *  the reducer that happens to get the most frequent words finishes long after the others.
+         * The total-order partitioner gives each reducer a range of the sorted vocabulary,
+         *  chosen by sampling the input so that every range holds about the same number of postings.
+         * Either way, a single word that appears in almost every document is enough to make
+         *  its reducer a straggler: the postings of the hottest words can be spread across reducers.
+         */
+        job.setPartitionerClass(WordPartitioner.class);
+        String partitioner = conf.get(PARTITIONER, "hash");
+        if (!partitioner.equals("hash") && !partitioner.equals("total-order"))
+        {
+            throw new IllegalArgumentException("Unknown partitioner: " + partitioner);
+        }
+        WordSampler.configure(job, outputFolder, partitioner.equals("total-order"), conf.getInt(HOT_TERMS, 0));
+
+        return job;
+    }
+
+    // Moves the files written by createJob() into the output folder, or deletes them if the job failed
+    public static void commit(Job job, Path outputFolder, boolean succeeded) throws IOException
+    {
+        // Keep the dictionary inside the index, so that the document IDs can be resolved later on
+        if (succeeded) { DocumentDictionary.commit(job.getConfiguration(), outputFolder); }
+        else { DocumentDictionary.discard(job.getConfiguration(), outputFolder); }
+
+        // The files that were not indexed, since they are duplicates of indexed ones
+        if (succeeded) { DuplicateDetector.commit(job.getConfiguration(), outputFolder); }
+        else { DuplicateDetector.discard(job.getConfiguration()); }
+
+        // Likewise, the split points and the hot terms tell which parts hold a word
+        if (succeeded) { WordPartitioner.commit(job.getConfiguration(), outputFolder); }
+        else { WordPartitioner.discard(job.getConfiguration()); }
+
+        // The document lengths and the maximum score of each term, for ranked queries,
+        //  and the front-coded term dictionaries, for the lookups of the query tools
+        if (succeeded)
+        {
+            IndexFolder index = new IndexFolder(job.getConfiguration(), outputFolder);
+            CorpusStatistics.build(index);
+            TermDictionary.build(index);
+        }
+
+        // Where the time went, and how well the work was spread
+        if (succeeded) { JobMetrics.writeReport(job, outputFolder); }
     }
 }
@@ -0,0 +1,331 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.*;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Instrumentation of the mappers, the combiner and the reducer of the job, and the
+ *  _metrics.json report written into the output folder once the job is over.
+ *
+ * Each task keeps its metrics in a Recorder, in plain fields, and only publishes them
+ *  as counters in cleanup(): the framework sums the counters of all the tasks, so the
+ *  report can be built from the job counters alone, whatever runs the job.
+ * Histograms are counter groups with one counter per power of four ("16-63" counts the
+ *  values from 16 to 63, the last bucket everything larger), created only for the buckets
+ *  that are actually used.
+ * The framework fails a job with more than mapreduce.job.counters.max counters (120 by default):
+ *  the number of counters must not depend on the job, so a histogram has at most BUCKETS, and
+ *  the input of each reducer is left in a side file of its output instead (see recordReducerInput()).
+ * Measuring where the time of a mapper goes needs a clock read for every word, so only
+ *  one line out of SAMPLING is timed; counting is always done, and costs next to nothing.
+ */
+public class JobMetrics
+{
+    public static final String ENABLED = "invertedindex.metrics";
+    public static final String SAMPLING = "invertedindex.metrics.sampling";
+    public static final int DEFAULT_SAMPLING = 64;
+    public static final String FILENAME = "_metrics.json";
+
+    // Counter groups
+    public static final String GROUP = "Indexing Metrics";
+    public static final String FLUSH_HISTOGRAM = "Pairs per in-mapper combiner flush";
+    public static final String COMBINE_HISTOGRAM = "Values per combined pair";
+    public static final String POSTINGS_HISTOGRAM = "Postings per word";
+
+    // At most this many counters per histogram
+    static final int BUCKETS = 16;
+
+    // The side file of a reducer (see recordReducerInput())
+    private static final String REDUCER_INPUT_PREFIX = "_metrics-";
+
+    // Counters of GROUP
+    public static final String LINES = "Lines";
+    public static final String TOKENS = "Tokens";
+    public static final String MAP_TIME = "Map task time (ms)";
+    public static final String SAMPLED_LINES = "Sampled lines";
+    public static final String SAMPLED_LINE_TIME = "Sampled line time (us)";
+    public static final String SAMPLED_OUTPUT_TIME = "Sampled output time (us)";
+    public static final String FLUSH_TIME = "In-mapper combiner flush time (ms)";
+    public static final String REDUCE_TIME = "Reduce task time (ms)";
+    public static final String POSTINGS = "Postings";
+
+    /**
+     * The metrics of a task. The mappers call startLine(), then startOutput() and endOutput()
+     *  around the output of every word (a context.write(), or the in-mapper table), then
+     *  endLine(): the time of a sampled line that is not spent in the output is spent tokenizing
+     */
+    public static class Recorder
+    {
+        private final boolean enabled;
+        private final int sampling;
+        private final long start = System.nanoTime();
+        private final Map<String, Long> counters = new LinkedHashMap<>();
+        private final Map<String, long[]> histograms = new LinkedHashMap<>();
+
+        private long lines;
+        private long tokens;
+        private boolean sampled;
+        private long lineStart;
+        private long sampledLines;
+        private long sampledLineNanos;
+        private long sampledOutputNanos;
+
+        public Recorder(TaskAttemptContext context)
+        {
+            Configuration conf = context.getConfiguration();
+            enabled = conf.getBoolean(ENABLED, true);
+            sampling = Math.max(1, conf.getInt(SAMPLING, DEFAULT_SAMPLING));
+        }
+
+        // Whether the line is timed
+        public boolean startLine()
+        {
+            sampled = enabled && lines++ % sampling == 0;
+            if (sampled) { lineStart = System.nanoTime(); }
+            return sampled;
+        }
+
+        public long startOutput() { return sampled ? System.nanoTime() : 0; }
+
+        public void endOutput(long outputStart) { if (sampled) { sampledOutputNanos += System.nanoTime() - outputStart; } }
+
+        public void endLine(int lineTokens)
+        {
+            tokens += lineTokens;
+            if (sampled)
+            {
+                sampledLineNanos += System.nanoTime() - lineStart;
+                sampledLines++;
+            }
+        }
+
+        public void add(String counter, long value) { counters.merge(counter, value, Long::sum); }
+
+        // Counts a value in the histogram (a counter group)
+        public void addToHistogram(String group, long value)
+        {
+            histograms.computeIfAbsent(group, g -> new long[BUCKETS])[bucket(value)]++;
+        }
+
+        /**
+         * Publishes the metrics as counters, adding the time elapsed since the recorder was
+         *  created to the given counter (e.g., the map task time), if any
+         */
+        public void publish(TaskAttemptContext context, String timeCounter)
+        {
+            if (!enabled) { return; }
+            if (timeCounter != null) { add(timeCounter, (System.nanoTime() - start) / 1000000); }
+            if (lines > 0)
+            {
+                add(LINES, lines);
+                add(TOKENS, tokens);
+                add(SAMPLED_LINES, sampledLines);
+                add(SAMPLED_LINE_TIME, sampledLineNanos / 1000);
+                add(SAMPLED_OUTPUT_TIME, sampledOutputNanos / 1000);
+            }
+            for (Map.Entry<String, Long> counter : counters.entrySet())
+            {
+                context.getCounter(GROUP, counter.getKey()).increment(counter.getValue());
+            }
+            for (Map.Entry<String, long[]> histogram : histograms.entrySet())
+            {
+                long[] buckets = histogram.getValue();
+                for (int bucket = 0; bucket < buckets.length; bucket++)
+                {
+                    if (buckets[bucket] == 0) { continue; }
+                    context.getCounter(histogram.getKey(), bucketName(bucket)).increment(buckets[bucket]);
+                }
+            }
+            lines = tokens = sampledLines = sampledLineNanos = sampledOutputNanos = 0;
+            counters.clear();
+            histograms.clear();
+        }
+    }
+
+    // Bucket 0 holds 0, bucket b > 0 the values from 4^(b-1) to 4^b - 1, and the last one all the larger values too
+    static int bucket(long value)
+    {
+        if (value <= 0) { return 0; }
+        return Math.min(BUCKETS - 1, 1 + (63 - Long.numberOfLeadingZeros(value)) / 2);
+    }
+
+    static String bucketName(int bucket)
+    {
+        if (bucket == 0) { return "0"; }
+        long low = 1L << (2 * (bucket - 1));
+        return bucket == BUCKETS - 1 ? low + "+" : low + "-" + (4 * low - 1);
+    }
+
+    public static String reducerName(int partition) { return String.format("r-%05d", partition); }
+
+    /**
+     * Records the number of input records of a reducer, to measure the skew between reducers:
+     *  a file in the output of the task, committed along with it (so only the successful attempt
+     *  counts), which writeReport() reads and deletes
+     */
+    public static void recordReducerInput(TaskInputOutputContext<?, ?, ?, ?> context, long records)
+            throws IOException, InterruptedException
+    {
+        if (!context.getConfiguration().getBoolean(ENABLED, true)) { return; }
+        int partition = context.getTaskAttemptID().getTaskID().getId();
+        Path file = new Path(FileOutputFormat.getWorkOutputPath(context), REDUCER_INPUT_PREFIX + reducerName(partition));
+        try (FSDataOutputStream out = file.getFileSystem(context.getConfiguration()).create(file, true))
+        {
+            out.writeLong(records);
+        }
+    }
+
+    /**
+     * Writes the report of a completed job into its output folder: the figures derived from
+     *  the counters (throughput, reduction ratios, skew, ...), the histograms, and all the counters
+     */
+    public static void writeReport(Job job, Path outputFolder) throws IOException
+    {
+        Configuration conf = job.getConfiguration();
+        if (!conf.getBoolean(ENABLED, true)) { return; }
+        Counters counters = job.getCounters();
+        long lines = counters.findCounter(GROUP, LINES).getValue();
+        long tokens = counters.findCounter(GROUP, TOKENS).getValue();
+        long mapTime = counters.findCounter(GROUP, MAP_TIME).getValue();
+        long sampledLineTime = counters.findCounter(GROUP, SAMPLED_LINE_TIME).getValue();
+        long sampledOutputTime = counters.findCounter(GROUP, SAMPLED_OUTPUT_TIME).getValue();
+        long mapOutput = counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue();
+        long combineInput = counters.findCounter(TaskCounter.COMBINE_INPUT_RECORDS).getValue();
+        long combineOutput = counters.findCounter(TaskCounter.COMBINE_OUTPUT_RECORDS).getValue();
+
+        // Every reducer, including the ones that got nothing
+        FileSystem fs = outputFolder.getFileSystem(conf);
+        int reducers = job.getNumReduceTasks();
+        long[] reducerInput = new long[reducers];
+        for (int partition = 0; partition < reducers; partition++)
+        {
+            Path file = new Path(outputFolder, REDUCER_INPUT_PREFIX + reducerName(partition));
+            if (!fs.exists(file)) { continue; }
+            try (FSDataInputStream in = fs.open(file)) { reducerInput[partition] = in.readLong(); }
+            fs.delete(file, false);
+        }
+        long maxInput = 0;
+        long totalInput = 0;
+        for (long input : reducerInput)
+        {
+            maxInput = Math.max(maxInput, input);
+            totalInput += input;
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("lines", lines);
+        map.put("tokens", tokens);
+        map.put("task_time_ms", mapTime);
+        map.put("tokens_per_second", ratio(tokens * 1000, mapTime));
+        map.put("output_records", mapOutput);
+        map.put("in_mapper_reduction_ratio", ratio(tokens, mapOutput));
+        map.put("sampled_lines", counters.findCounter(GROUP, SAMPLED_LINES).getValue());
+        map.put("tokenization_time_fraction", ratio(sampledLineTime - sampledOutputTime, sampledLineTime));
+        map.put("output_time_fraction", ratio(sampledOutputTime, sampledLineTime));
+        map.put("flush_time_ms", counters.findCounter(GROUP, FLUSH_TIME).getValue());
+        map.put("flush_pairs_histogram", histogram(counters, FLUSH_HISTOGRAM));
+        report.put("map", map);
+
+        Map<String, Object> combine = new LinkedHashMap<>();
+        combine.put("input_records", combineInput);
+        combine.put("output_records", combineOutput);
+        combine.put("reduction_ratio", ratio(combineInput, combineOutput));
+        combine.put("values_per_pair_histogram", histogram(counters, COMBINE_HISTOGRAM));
+        report.put("combine", combine);
+
+        Map<String, Object> reduce = new LinkedHashMap<>();
+        reduce.put("input_records", counters.findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue());
+        reduce.put("words", counters.findCounter(TaskCounter.REDUCE_INPUT_GROUPS).getValue());
+        reduce.put("postings", counters.findCounter(GROUP, POSTINGS).getValue());
+        reduce.put("task_time_ms", counters.findCounter(GROUP, REDUCE_TIME).getValue());
+        reduce.put("input_records_per_reducer", reducerInput);
+        // The slowest reducer over the average one: 1 is a perfect balance
+        reduce.put("skew", totalInput == 0 ? 0 : ratio(maxInput * reducers, totalInput));
+        reduce.put("postings_per_word_histogram", histogram(counters, POSTINGS_HISTOGRAM));
+        report.put("reduce", reduce);
+
+        Map<String, Object> all = new LinkedHashMap<>();
+        for (CounterGroup group : counters)
+        {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (Counter counter : group) { values.put(counter.getName(), counter.getValue()); }
+            all.put(group.getName(), values);
+        }
+        report.put("counters", all);
+
+        try (FSDataOutputStream out = fs.create(new Path(outputFolder, FILENAME), true);
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))
+        {
+            writeJson(writer, report, "");
+            writer.println();
+        }
+    }
+
+    private static double ratio(long numerator, long denominator)
+    {
+        return denominator == 0 ? 0 : Math.round(1000.0 * numerator / denominator) / 1000.0;
+    }
+
+    // The buckets of a histogram, from the smallest values to the largest ones
+    private static Map<String, Object> histogram(Counters counters, String group)
+    {
+        TreeMap<Integer, Long> buckets = new TreeMap<>();
+        for (Counter counter : counters.getGroup(group))
+        {
+            String name = counter.getName();
+            int dash = name.indexOf('-');
+            long low = Long.parseLong(dash < 0 ? name.replace("+", "") : name.substring(0, dash));
+            buckets.put(bucket(low), counter.getValue());
+        }
+        Map<String, Object> histogram = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Long> bucket : buckets.entrySet())
+        {
+            histogram.put(bucketName(bucket.getKey()), bucket.getValue());
+        }
+        return histogram;
+    }
+
+    // Only maps, numbers, strings and arrays of longs: simple enough to be written by hand
+    private static void writeJson(PrintWriter writer, Object value, String indent)
+    {
+        if (value instanceof Map)
+        {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (map.isEmpty())
+            {
+                writer.print("{}");
+                return;
+            }
+            writer.println("{");
+            Iterator<? extends Map.Entry<?, ?>> entries = map.entrySet().iterator();
+            while (entries.hasNext())
+            {
+                Map.Entry<?, ?> entry = entries.next();
+                writer.print(indent + "  " + quote(entry.getKey().toString()) + ": ");
+                writeJson(writer, entry.getValue(), indent + "  ");
+                writer.println(entries.hasNext() ? "," : "");
+            }
+            writer.print(indent + "}");
+        }
+        else if (value instanceof long[]) { writer.print(Arrays.toString((long[]) value)); }
+        else if (value instanceof Number) { writer.print(value); }
+        else { writer.print(quote(value.toString())); }
+    }
+
+    private static String quote(String string)
+    {
+        return "\"" + string.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
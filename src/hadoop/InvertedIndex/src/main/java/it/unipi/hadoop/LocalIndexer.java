@@ -0,0 +1,622 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds the same index as the InvertedIndex job, in this JVM and without the Hadoop
+ *  runtime: for a corpus that fits on a single machine, submitting a job (even to the
+ *  LocalJobRunner) costs more than the indexing itself.
+ *
+ * The input files are cut into chunks, and the chunks are indexed in parallel by a
+ *  ForkJoinPool, whose idle threads steal the chunks left to the busy ones. Each thread
+ *  counts the (word, document) pairs of its chunks in its own CombinerTable, with the
+ *  same Tokenizer the mappers use; whenever the table is full, its entries are sorted
+ *  and spilled to a run file, like the map output is. Once every chunk is indexed, the
+ *  runs (the spilled ones and what is left in the tables) are merged, one partition of
+ *  the words at a time, again in parallel, and written by the same output formats.
+ *
+ * The words are partitioned like the HashPartitioner does, so with -D invertedindex.local.parts=N
+ *  the output folder holds the very same files the job writes with N reducers
+ *  (and the default partitioner, without hot terms).
+ */
+public class LocalIndexer
+{
+    public static final String THREADS = "invertedindex.local.threads";
+    public static final String PARTS = "invertedindex.local.parts";
+    public static final String CHUNK_MB = "invertedindex.local.chunk.mb";
+    public static final String BUDGET_MB = "invertedindex.local.budget.mb";
+    public static final int DEFAULT_CHUNK_MB = 32;
+    public static final int DEFAULT_BUDGET_MB = 128;
+
+    private static final String SPILLS_FOLDER = "_spills";
+    private static final int READ_BUFFER = 1024 * 1024;
+    private static final int SPILL_BUFFER = 64 * 1024;
+
+    // A range of an input file; a compressed file can only be read from the start, so it is a single chunk
+    private static class Chunk
+    {
+        final Path path;
+        final int docId;
+        final long start;
+        final long length;
+        final CompressionCodec codec;
+
+        Chunk(Path path, int docId, long start, long length, CompressionCodec codec)
+        {
+            this.path = path;
+            this.docId = docId;
+            this.start = start;
+            this.length = length;
+            this.codec = codec;
+        }
+    }
+
+    /**
+     * A sorted sequence of (word, document, count) entries, grouped by partition.
+     * Either spilled to a file (at the given offsets) or still in the table of a thread
+     */
+    private static class Run
+    {
+        final Path file;
+        final long[] offsets;
+        final CombinerTable table;
+        final int[] entries;
+        final int[] partitionStarts;  // The entries of partition p are [starts[p], starts[p + 1])
+
+        Run(Path file, long[] offsets, CombinerTable table, int[] entries, int[] partitionStarts)
+        {
+            this.file = file;
+            this.offsets = offsets;
+            this.table = table;
+            this.entries = entries;
+            this.partitionStarts = partitionStarts;
+        }
+
+        int size(int partition) { return partitionStarts[partition + 1] - partitionStarts[partition]; }
+    }
+
+    // Reads the entries of a partition of a run, one at a time
+    private static class RunReader
+    {
+        final Run run;
+        final int partition;
+        final Text word = new Text();
+        int docId;
+        int count;
+        private int read;
+        private DataInputStream in;
+
+        RunReader(FileSystem fs, Run run, int partition) throws IOException
+        {
+            this.run = run;
+            this.partition = partition;
+            if (run.file != null)
+            {
+                FSDataInputStream file = fs.open(run.file);
+                file.seek(run.offsets[partition]);
+                in = new DataInputStream(new BufferedInputStream(file, SPILL_BUFFER));
+            }
+        }
+
+        boolean next() throws IOException
+        {
+            if (read == run.size(partition)) { return false; }
+            if (in == null)
+            {
+                int entry = run.entries[run.partitionStarts[partition] + read];
+                run.table.getWord(entry, word);
+                docId = run.table.getDocId(entry);
+                count = run.table.getCount(entry);
+            }
+            else
+            {
+                word.readWithKnownLength(in, VarInt.readInt(in));
+                docId = VarInt.readInt(in);
+                count = VarInt.readInt(in);
+            }
+            read++;
+            return true;
+        }
+
+        void close() throws IOException
+        {
+            if (in != null) { in.close(); }
+        }
+    }
+
+    // The state of a thread of the pool: its table, its read buffer and the runs it spilled
+    private class Worker
+    {
+        final int id;
+        final CombinerTable table = new CombinerTable(budget);
+        final Tokenizer tokenizer = new Tokenizer();
+        final List<Run> runs = new ArrayList<>();
+        byte[] buffer = new byte[READ_BUFFER];
+
+        Worker(int id) { this.id = id; }
+
+        void index(Chunk chunk) throws IOException
+        {
+            FSDataInputStream file = fs.open(chunk.path);
+            InputStream in = file;
+
+            // A word belongs to the chunk its first byte is in: if the chunk starts in the middle
+            //  of a word, the bytes up to the first delimiter were indexed with the previous chunk
+            boolean skip = false;
+            if (chunk.codec != null) { in = chunk.codec.createInputStream(file); }
+            else if (chunk.start > 0)
+            {
+                file.seek(chunk.start - 1);
+                skip = !Tokenizer.isDelimiter((byte) file.read());
+            }
+
+            // The words never contain a delimiter, so the chunk is tokenized up to the last delimiter
+            //  read so far, and the rest (the beginning of a word) is kept for the next round
+            try
+            {
+                long remaining = chunk.length;
+                int length = 0;
+                while (true)
+                {
+                    if (length == buffer.length) { buffer = Arrays.copyOf(buffer, 2 * buffer.length); }
+                    boolean pastEnd = remaining == 0;
+                    int limit = pastEnd ? buffer.length - length : (int) Math.min(buffer.length - length, remaining);
+                    int read = in.read(buffer, length, limit);
+                    if (read == -1)
+                    {
+                        if (!skip) { add(chunk.docId, length); }
+                        return;
+                    }
+                    int from = length;
+                    length += read;
+                    if (!pastEnd) { remaining -= read; }
+
+                    if (skip)
+                    {
+                        int delimiter = firstDelimiter(from, length);
+                        if (delimiter == -1)
+                        {
+                            // The whole chunk is in the middle of a word
+                            if (remaining == 0) { return; }
+                            length = 0;
+                            continue;
+                        }
+                        System.arraycopy(buffer, delimiter, buffer, 0, length - delimiter);
+                        length -= delimiter;
+                        from = 0;
+                        skip = false;
+                    }
+
+                    if (pastEnd)
+                    {
+                        // Completing the word the chunk ends with
+                        int delimiter = firstDelimiter(from, length);
+                        if (delimiter != -1)
+                        {
+                            add(chunk.docId, delimiter);
+                            return;
+                        }
+                    }
+                    else if (remaining == 0)
+                    {
+                        if (Tokenizer.isDelimiter(buffer[length - 1]))
+                        {
+                            add(chunk.docId, length);
+                            return;
+                        }
+                    }
+                    else
+                    {
+                        int delimiter = lastDelimiter(from, length);
+                        if (delimiter != -1)
+                        {
+                            add(chunk.docId, delimiter + 1);
+                            System.arraycopy(buffer, delimiter + 1, buffer, 0, length - delimiter - 1);
+                            length -= delimiter + 1;
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        private int firstDelimiter(int from, int to)
+        {
+            for (int i = from; i < to; i++)
+            {
+                if (Tokenizer.isDelimiter(buffer[i])) { return i; }
+            }
+            return -1;
+        }
+
+        private int lastDelimiter(int from, int to)
+        {
+            for (int i = to - 1; i >= from; i--)
+            {
+                if (Tokenizer.isDelimiter(buffer[i])) { return i; }
+            }
+            return -1;
+        }
+
+        // Counts the words of the first length bytes of the buffer
+        private void add(int docId, int length) throws IOException
+        {
+            tokenizer.reset(buffer, 0, length);
+            while (tokenizer.next())
+            {
+                byte[] bytes = tokenizer.getBytes();
+                int wordLength = tokenizer.getLength();
+                if (table.add(bytes, wordLength, docId, 1)) { continue; }
+
+                spill();
+                if (!table.add(bytes, wordLength, docId, 1))
+                {
+                    throw new IOException("A word of " + wordLength + " bytes does not fit in the table, " +
+                            "increase " + BUDGET_MB);
+                }
+            }
+        }
+
+        // Sorts the entries of the table by partition, word and document ID
+        Run sort()
+        {
+            int[] sorted = table.sort();
+            int[] partitions = new int[sorted.length];
+            int[] starts = new int[parts + 1];
+            for (int entry = 0; entry < sorted.length; entry++)
+            {
+                partitions[entry] = (table.getWordHash(entry) & Integer.MAX_VALUE) % parts;
+                starts[partitions[entry] + 1]++;
+            }
+            for (int partition = 0; partition < parts; partition++) { starts[partition + 1] += starts[partition]; }
+
+            // Grouping the sorted entries by partition keeps them sorted within each partition
+            int[] entries = new int[sorted.length];
+            int[] next = Arrays.copyOf(starts, parts);
+            for (int entry : sorted) { entries[next[partitions[entry]]++] = entry; }
+            return new Run(null, null, table, entries, starts);
+        }
+
+        void spill() throws IOException
+        {
+            Run sorted = sort();
+            Path file = new Path(spills, "spill-" + id + "-" + runs.size());
+            long[] offsets = new long[parts];
+            long position = 0;
+            DataOutputBuffer block = new DataOutputBuffer(SPILL_BUFFER);
+            Text word = new Text();
+            try (FSDataOutputStream out = fs.create(file, true))
+            {
+                for (int partition = 0; partition < parts; partition++)
+                {
+                    offsets[partition] = position + block.getLength();
+                    for (int i = sorted.partitionStarts[partition]; i < sorted.partitionStarts[partition + 1]; i++)
+                    {
+                        int entry = sorted.entries[i];
+                        table.getWord(entry, word);
+                        VarInt.writeInt(block, word.getLength());
+                        block.write(word.getBytes(), 0, word.getLength());
+                        VarInt.writeInt(block, table.getDocId(entry));
+                        VarInt.writeInt(block, table.getCount(entry));
+                        if (block.getLength() >= SPILL_BUFFER)
+                        {
+                            out.write(block.getData(), 0, block.getLength());
+                            position += block.getLength();
+                            block.reset();
+                        }
+                    }
+                }
+                out.write(block.getData(), 0, block.getLength());
+            }
+            runs.add(new Run(file, offsets, null, null, sorted.partitionStarts));
+            table.clear();
+        }
+    }
+
+    // Indexes a range of the chunks, splitting it in halves that idle threads can steal
+    private class IndexTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Chunk> chunks;
+        private final int from;
+        private final int to;
+
+        IndexTask(List<Chunk> chunks, int from, int to)
+        {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > 1)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new IndexTask(chunks, from, middle), new IndexTask(chunks, middle, to));
+                return;
+            }
+            try { workers.get().index(chunks.get(from)); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+    }
+
+    private final Configuration conf;
+    private final FileSystem fs;
+    private final int threads;
+    private final int parts;
+    private final long chunkSize;
+    private final long budget;
+    private final boolean binary;
+    private Path spills;
+
+    private final List<Worker> allWorkers = new ArrayList<>();
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(() ->
+    {
+        synchronized (allWorkers)
+        {
+            Worker worker = new Worker(allWorkers.size());
+            allWorkers.add(worker);
+            return worker;
+        }
+    });
+
+    public LocalIndexer(Configuration conf, Path outputFolder) throws IOException
+    {
+        this.conf = conf;
+        this.fs = outputFolder.getFileSystem(conf);
+        threads = conf.getInt(THREADS, Runtime.getRuntime().availableProcessors());
+        parts = conf.getInt(PARTS, threads);
+        chunkSize = conf.getLong(CHUNK_MB, DEFAULT_CHUNK_MB) * 1024 * 1024;
+        budget = conf.getLong(BUDGET_MB, DEFAULT_BUDGET_MB) * 1024 * 1024;
+        String outputFormat = conf.get(InvertedIndex.OUTPUT_FORMAT, "text");
+        if (!outputFormat.equals("text") && !outputFormat.equals("binary"))
+        {
+            throw new IllegalArgumentException("Unknown output format: " + outputFormat);
+        }
+        binary = outputFormat.equals("binary");
+        if (conf.getBoolean(InvertedIndex.POSITIONS, false))
+        {
+            throw new IllegalArgumentException("Positional indexes are only built by InvertedIndex");
+        }
+    }
+
+    /**
+     * Indexes the files found in the given input paths (folders or files) into the output folder,
+     *  which will contain the part files and the _documents dictionary, like the job's
+     */
+    public void run(Path[] inputs, Path outputFolder) throws IOException, InterruptedException
+    {
+        if (fs.exists(outputFolder))
+        {
+            throw new FileAlreadyExistsException("Output directory " + outputFolder + " already exists");
+        }
+
+        List<FileStatus> files = new ArrayList<>();
+        for (Path input : inputs) { listFiles(input, files); }
+        TreeSet<String> names = new TreeSet<>();
+        for (FileStatus file : files) { names.add(file.getPath().getName()); }
+        DocumentDictionary documents = new DocumentDictionary(names.toArray(new String[0]));
+
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+        List<Chunk> chunks = new ArrayList<>();
+        for (FileStatus file : files)
+        {
+            int docId = documents.getDocId(file.getPath().getName());
+            CompressionCodec codec = codecs.getCodec(file.getPath());
+            if (codec != null)
+            {
+                chunks.add(new Chunk(file.getPath(), docId, 0, Long.MAX_VALUE, codec));
+                continue;
+            }
+            for (long start = 0; start < file.getLen(); start += chunkSize)
+            {
+                chunks.add(new Chunk(file.getPath(), docId, start, Math.min(chunkSize, file.getLen() - start), null));
+            }
+        }
+
+        fs.mkdirs(outputFolder);
+        spills = new Path(outputFolder, SPILLS_FOLDER);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            if (!chunks.isEmpty()) { pool.invoke(new IndexTask(chunks, 0, chunks.size())); }
+
+            // What is left in the tables is merged straight from memory, once sorted
+            List<Callable<Run>> sorts = new ArrayList<>();
+            for (Worker worker : allWorkers) { sorts.add(worker::sort); }
+            List<Run> runs = new ArrayList<>();
+            for (Future<Run> sorted : pool.invokeAll(sorts)) { runs.add(sorted.get()); }
+            for (Worker worker : allWorkers) { runs.addAll(worker.runs); }
+
+            List<Callable<Void>> merges = new ArrayList<>();
+            for (int partition = 0; partition < parts; partition++)
+            {
+                int part = partition;
+                merges.add(() ->
+                {
+                    merge(runs, part, documents, outputFolder);
+                    return null;
+                });
+            }
+            for (Future<Void> merge : pool.invokeAll(merges)) { merge.get(); }
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException) { throw (IOException) e.getCause(); }
+            throw new IOException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+            fs.delete(spills, true);
+        }
+
+        documents.write(fs, new Path(outputFolder, DocumentDictionary.FILENAME));
+        IndexFolder index = new IndexFolder(conf, outputFolder);
+        CorpusStatistics.build(index);
+        TermDictionary.build(index);
+        fs.create(new Path(outputFolder, "_SUCCESS")).close();
+        System.out.println("Indexed " + files.size() + " files (" + chunks.size() + " chunks) with " +
+                allWorkers.size() + " threads, " + getSpills() + " spills");
+    }
+
+    /**
+     * Adds the files found in the given path (a glob, like the input paths of the job), listing
+     *  its folders and skipping the hidden files, like FileInputFormat does: the subfolders of a
+     *  folder are only walked with -D mapreduce.input.fileinputformat.input.dir.recursive=true.
+     *  FileInputFormat also asks each file for its permissions, which the local file system can
+     *  only get by running a command per file: with many small files, that takes longer than indexing them
+     */
+    private void listFiles(Path input, List<FileStatus> files) throws IOException
+    {
+        FileStatus[] matches = fs.globStatus(input, LocalIndexer::isVisible);
+        if (matches == null || matches.length == 0) { throw new IOException("Input path does not exist: " + input); }
+        boolean recursive = conf.getBoolean(FileInputFormat.INPUT_DIR_RECURSIVE, false);
+        for (FileStatus match : matches)
+        {
+            if (!match.isDirectory())
+            {
+                files.add(match);
+                continue;
+            }
+            Deque<FileStatus> pending = new ArrayDeque<>(Arrays.asList(fs.listStatus(match.getPath(), LocalIndexer::isVisible)));
+            while (!pending.isEmpty())
+            {
+                FileStatus status = pending.poll();
+                if (!status.isDirectory()) { files.add(status); }
+                else if (recursive) { pending.addAll(Arrays.asList(fs.listStatus(status.getPath(), LocalIndexer::isVisible))); }
+            }
+        }
+    }
+
+    private static boolean isVisible(Path path)
+    {
+        String name = path.getName();
+        return !name.startsWith("_") && !name.startsWith(".");
+    }
+
+    // The runs spilled to files by the last run()
+    int getSpills()
+    {
+        int spilled = 0;
+        for (Worker worker : allWorkers) { spilled += worker.runs.size(); }
+        return spilled;
+    }
+
+    // Merges a partition of all the runs into its part file, like the reducer of that partition
+    private void merge(List<Run> runs, int partition, DocumentDictionary documents, Path outputFolder)
+            throws IOException, InterruptedException
+    {
+        Path part = new Path(outputFolder, String.format("part-r-%05d", partition));
+        RecordWriter<Text, FilenameAndCount> writer = binary
+                ? new BinaryPostingsOutputFormat.BinaryPostingsWriter(
+                        fs.create(part.suffix(BinaryPostingsOutputFormat.POSTINGS_EXTENSION), false),
+                        fs.create(part.suffix(BinaryPostingsOutputFormat.TERMS_EXTENSION), false))
+                : new TextPostingsOutputFormat.TextPostingsWriter(fs.create(part, false), documents);
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) ->
+        {
+            int cmp = a.word.compareTo(b.word);
+            return cmp != 0 ? cmp : Integer.compare(a.docId, b.docId);
+        });
+        List<RunReader> readers = new ArrayList<>();
+        try
+        {
+            for (Run run : runs)
+            {
+                if (run.size(partition) == 0) { continue; }
+                RunReader reader = new RunReader(fs, run, partition);
+                readers.add(reader);
+                if (reader.next()) { queue.add(reader); }
+            }
+
+            // The same (word, document) pair is in more than one run if its document was
+            //  indexed in more than one chunk, or before and after a spill
+            Text word = new Text();
+            FilenameAndCount posting = new FilenameAndCount();
+            while (!queue.isEmpty())
+            {
+                RunReader reader = queue.poll();
+                word.set(reader.word);
+                int docId = reader.docId;
+                int count = reader.count;
+                if (reader.next()) { queue.add(reader); }
+                while (!queue.isEmpty() && queue.peek().docId == docId && queue.peek().word.equals(word))
+                {
+                    RunReader other = queue.poll();
+                    count += other.count;
+                    if (other.next()) { queue.add(other); }
+                }
+
+                posting.setDocId(docId);
+                posting.setCount(count);
+                writer.write(word, posting);
+            }
+        }
+        finally
+        {
+            for (RunReader reader : readers) { reader.close(); }
+        }
+        writer.close(null);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2)
+        {
+            System.err.println(
+                    "Usage: LocalIndexer <input folder> <output folder>\n" +
+                    " Generic options (-D name=value):\n" +
+                    "  " + THREADS + "   indexing threads (default: number of cores)\n" +
+                    "  " + PARTS + "   part files, like the reducers of the job (default: number of threads)\n" +
+                    "  " + CHUNK_MB + "   size of the chunks the files are cut into " +
+                            "(default: " + DEFAULT_CHUNK_MB + ")\n" +
+                    "  " + BUDGET_MB + "   memory budget of the table of each thread " +
+                            "(default: " + DEFAULT_BUDGET_MB + ")\n" +
+                    "  " + InvertedIndex.OUTPUT_FORMAT + "   text (default) or binary\n");
+            System.exit(1);
+        }
+
+        Path outputFolder = new Path(otherArgs[1]);
+        long start = System.nanoTime();
+        new LocalIndexer(conf, outputFolder).run(new Path[] { new Path(otherArgs[0]) }, outputFolder);
+        System.out.println("Done in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
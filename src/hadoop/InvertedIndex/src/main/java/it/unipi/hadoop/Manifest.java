@@ -0,0 +1,224 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The state of an index built incrementally (see IncrementalIndexer), which is
+ *  a folder of immutable segments, each one a regular index folder:
+ *
+ *      index/
+ *          _manifest           name  size  modification time  segment
+ *                              (one line per document currently indexed, tab-separated)
+ *                              an empty line, then
+ *                              segment  name
+ *                              (one line per document of a segment that has been deleted
+ *                               or modified, and must not be read from that segment anymore)
+ *          segment-00000/      part-r-*, _documents, ... (output of InvertedIndex or SegmentMerger)
+ *          segment-00001/
+ *
+ * The segments in use are the ones the manifest refers to: any other segment folder
+ *  is a leftover of a failed run, or of a merge, and is deleted on the next write().
+ * The documents and the tombstones are a single file, written aside and renamed over the
+ *  previous one (see replace()): a reader, or a run that crashed, sees either the old or
+ *  the new state of the index, never a new segment without the tombstones that go with it.
+ */
+public class Manifest
+{
+    public static final String FILENAME = "_manifest";
+    // Where the tombstones used to be written, before they were part of the manifest
+    private static final String LEGACY_TOMBSTONES = "_tombstones";
+    public static final String SEGMENT_PREFIX = "segment-";
+
+    public static class Entry
+    {
+        private final long size;
+        private final long modificationTime;
+        private final String segment;
+
+        public Entry(long size, long modificationTime, String segment)
+        {
+            this.size = size;
+            this.modificationTime = modificationTime;
+            this.segment = segment;
+        }
+
+        public long getSize() { return size; }
+        public long getModificationTime() { return modificationTime; }
+        public String getSegment() { return segment; }
+    }
+
+    // Document name -> where (and which version of) it is indexed
+    private final TreeMap<String, Entry> documents = new TreeMap<>();
+
+    // Segment -> names of its documents that are not valid anymore
+    private final TreeMap<String, TreeSet<String>> tombstones = new TreeMap<>();
+
+    public Entry get(String name) { return documents.get(name); }
+    public Set<String> getDocuments() { return documents.keySet(); }
+
+    public void put(String name, long size, long modificationTime, String segment)
+    {
+        delete(name);
+        documents.put(name, new Entry(size, modificationTime, segment));
+    }
+
+    // Forgets a document, leaving a tombstone in the segment that contains it
+    public void delete(String name)
+    {
+        Entry entry = documents.remove(name);
+        if (entry != null) { tombstones.computeIfAbsent(entry.segment, s -> new TreeSet<>()).add(name); }
+    }
+
+    public boolean isDeleted(String segment, String name)
+    {
+        Set<String> names = tombstones.get(segment);
+        return names != null && names.contains(name);
+    }
+
+    public boolean hasTombstones() { return !tombstones.isEmpty(); }
+
+    // The segments in use, sorted by name (i.e., from the oldest to the newest)
+    public List<String> getSegments()
+    {
+        TreeSet<String> segments = new TreeSet<>(tombstones.keySet());
+        for (Entry entry : documents.values()) { segments.add(entry.segment); }
+        return new ArrayList<>(segments);
+    }
+
+    /**
+     * Replaces the given segments with the one they have been merged into:
+     *  their documents now belong to it, and their tombstones are not needed anymore
+     */
+    public void replaceSegments(Collection<String> merged, String segment)
+    {
+        for (Map.Entry<String, Entry> document : documents.entrySet())
+        {
+            Entry entry = document.getValue();
+            if (merged.contains(entry.segment))
+            {
+                document.setValue(new Entry(entry.size, entry.modificationTime, segment));
+            }
+        }
+        tombstones.keySet().removeAll(merged);
+    }
+
+    // A name for a new segment, following any segment folder of the index (in use or not)
+    public static String newSegmentName(FileSystem fs, Path index) throws IOException
+    {
+        int last = -1;
+        if (fs.exists(index))
+        {
+            for (FileStatus status : fs.listStatus(index))
+            {
+                String name = status.getPath().getName();
+                if (status.isDirectory() && name.startsWith(SEGMENT_PREFIX))
+                {
+                    last = Math.max(last, Integer.parseInt(name.substring(SEGMENT_PREFIX.length())));
+                }
+            }
+        }
+        return String.format("%s%05d", SEGMENT_PREFIX, last + 1);
+    }
+
+    // Returns an empty manifest if the index does not exist yet
+    public static Manifest read(FileSystem fs, Path index) throws IOException
+    {
+        Path file = new Path(index, FILENAME);
+        if (!fs.exists(file)) { return new Manifest(); }
+        Manifest manifest;
+        try (InputStream in = fs.open(file)) { manifest = read(in); }
+
+        Path legacy = new Path(index, LEGACY_TOMBSTONES);
+        if (fs.exists(legacy))
+        {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(legacy), StandardCharsets.UTF_8)))
+            {
+                String line;
+                while ((line = reader.readLine()) != null) { manifest.addTombstone(line.split("\t")); }
+            }
+        }
+        return manifest;
+    }
+
+    // Parses a _manifest file
+    public static Manifest read(InputStream in) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty())
+        {
+            String[] fields = line.split("\t");
+            manifest.documents.put(fields[0],
+                    new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+        }
+        while ((line = reader.readLine()) != null) { manifest.addTombstone(line.split("\t")); }
+        return manifest;
+    }
+
+    private void addTombstone(String[] fields)
+    {
+        tombstones.computeIfAbsent(fields[0], s -> new TreeSet<>()).add(fields[1]);
+    }
+
+    /**
+     * Publishes the manifest (documents and tombstones at once), then deletes the segment folders
+     *  not in use anymore
+     */
+    public void write(FileSystem fs, Path index) throws IOException
+    {
+        fs.mkdirs(index);
+
+        Path file = new Path(index, FILENAME);
+        Path temporary = file.suffix(".tmp");
+        try (FSDataOutputStream out = fs.create(temporary, true))
+        {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (Map.Entry<String, Entry> document : documents.entrySet())
+            {
+                Entry entry = document.getValue();
+                writer.write(document.getKey() + "\t" + entry.size + "\t" + entry.modificationTime
+                        + "\t" + entry.segment + "\n");
+            }
+            writer.write('\n');
+            for (Map.Entry<String, TreeSet<String>> segment : tombstones.entrySet())
+            {
+                for (String name : segment.getValue()) { writer.write(segment.getKey() + "\t" + name + "\n"); }
+            }
+            writer.flush();
+        }
+        replace(fs, temporary, file);
+        // Its tombstones are in the manifest now
+        fs.delete(new Path(index, LEGACY_TOMBSTONES), false);
+
+        Set<String> segments = new HashSet<>(getSegments());
+        for (FileStatus status : fs.listStatus(index))
+        {
+            String name = status.getPath().getName();
+            if (status.isDirectory() && name.startsWith(SEGMENT_PREFIX) && !segments.contains(name))
+            {
+                fs.delete(status.getPath(), true);
+            }
+        }
+    }
+
+    /**
+     * Renames a file over another one in a single step, so that there is no moment without it.
+     * A local rename already replaces an existing file, an HDFS one refuses to (and returns
+     *  false): FileContext asks the file system for an overwriting rename, which HDFS does atomically
+     */
+    private static void replace(FileSystem fs, Path temporary, Path file) throws IOException
+    {
+        if (fs.rename(temporary, file)) { return; }
+        FileContext.getFileContext(fs.getUri(), fs.getConf()).rename(temporary, file, Options.Rename.OVERWRITE);
+    }
+}
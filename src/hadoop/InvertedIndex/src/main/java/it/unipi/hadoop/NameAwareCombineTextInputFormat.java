@@ -1,7 +1,10 @@
 package it.unipi.hadoop;
 
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
@@ -9,20 +12,55 @@ import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
 import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Implements the CombineFileInputFormat (abstract class) to use the
  *  NameAwareRecordReader instead of the default CombineFileRecordReader,
- *  which does not keep track of the filename
+ *  which does not keep track of the filename.
+ * With WHOLE_FILES, the small files are read whole instead, one record each (see WholeFileRecordReader)
  */
 public class NameAwareCombineTextInputFormat
         extends CombineFileInputFormat<FilenameAndOffset, Text>
 {
+    public static final String WHOLE_FILES = "invertedindex.input.whole.files";
+    public static final String WHOLE_FILE_MAX_KB = "invertedindex.input.whole.file.max.kb";
+    public static final long DEFAULT_WHOLE_FILE_MAX_KB = 1024;
+
     @Override
     public RecordReader<FilenameAndOffset, Text> createRecordReader
             (InputSplit split, TaskAttemptContext context) throws IOException
     {
+        if (context.getConfiguration().getBoolean(WHOLE_FILES, false)) { return new WholeFileRecordReader(); }
         return new CombineFileRecordReader<>
                 ((CombineFileSplit)split, context, NameAwareRecordReader.class);
     }
+
+    /**
+     * The position of a word is its index among the words of the whole file, which a mapper
+     *  can only count if it reads the file from the start: a positional index never splits files
+     */
+    @Override
+    protected boolean isSplitable(JobContext context, Path file)
+    {
+        return !context.getConfiguration().getBoolean(InvertedIndex.POSITIONS, false)
+                && super.isSplitable(context, file);
+    }
+
+    /**
+     * Lists the same input files that getSplits() would combine.
+     * Used by the driver to assign a document ID to each file before submitting the job.
+     * Unless the input is recursive, listStatus() also returns the subfolders of an input folder,
+     *  which getSplits() skips: they are no documents
+     */
+    public static List<FileStatus> listInputFiles(JobContext job) throws IOException
+    {
+        List<FileStatus> files = new ArrayList<>();
+        for (FileStatus status : new NameAwareCombineTextInputFormat().listStatus(job))
+        {
+            if (!status.isDirectory()) { files.add(status); }
+        }
+        return files;
+    }
 }
@@ -1,5 +1,6 @@
 package it.unipi.hadoop;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
@@ -23,6 +24,7 @@ public class NameAwareRecordReader
 {
     private final LineRecordReader lineReader;
     private final FilenameAndOffset key;
+    private final Path path;
 
     /*
      * split: An object representing multiple files or parts of files grouped together
@@ -48,18 +50,28 @@ public class NameAwareRecordReader
                 split.getLocations()
         );
 
-        // Set the key's filename (will stay constant for the whole FileSplit)
-        String filename = split.getPath(index).getName();
-        key.setFilename(filename);
+        // Set the key's filename (will stay constant for the whole FileSplit), its document ID is set by initialize()
+        path = split.getPath(index);
+        key.setFilename(path.getName());
 
         // Feed the FileSplit to a standard lineReader
         lineReader.initialize(fileSplit, context);
     }
 
     @Override
-    public void initialize(InputSplit split, TaskAttemptContext context)
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException
     {
-        // Everything is already initialized in the constructor
+        // Everything else is already initialized in the constructor
+        int docId = DocumentDictionary.get(context).getDocId(key.getFilename());
+        if (docId < 0) { throw unknownDocument(path); }
+        key.setDocId(docId);
+    }
+
+    // A file that was not listed when the job started (e.g., added to the input folder since then)
+    static IOException unknownDocument(Path path)
+    {
+        return new IOException("Unknown document \"" + path.getName() + "\": " + path +
+                " is not in the document dictionary of the job");
     }
 
     // Advances to the next line of the input split
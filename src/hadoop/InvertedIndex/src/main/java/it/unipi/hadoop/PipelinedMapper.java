@@ -0,0 +1,402 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Produces the same pairs as a CombinerMapper, using THREADS cores instead of one:
+ *
+ *      task thread  --batches of lines-->  THREADS workers  --words, by hash-->  THREADS combiner tables
+ *                                                                                        |
+ *                                                      emitter thread  <--full tables----+
+ *
+ * - the task thread only pulls records from the record reader, copying them into batches:
+ *   the batches are recycled through two bounded queues (a ring), so the reader stops
+ *   when the workers are behind instead of filling the heap
+ * - each worker tokenizes whole batches, and routes every word to a shard of the in-mapper
+ *   combiner by its hash: a word (and so a (word, document) pair) always lands in the same
+ *   table, so the shards combine as much as a single table would. The words of a batch are
+ *   added to each table at once, under its lock, so that the workers seldom wait for each other
+ * - a single emitter thread serializes the context.write() calls: when a table is out of
+ *   budget it's handed over to the emitter, and the worker goes on with the spare one of
+ *   its shard, which the emitter returns as soon as it has been flushed
+ *
+ * The combiner budget (CombinerMapper.BUDGET_MB) is split among all the tables, spares included:
+ *  checkBudget() tells up front whether each of them still gets at least CombinerTable.MIN_BUDGET.
+ * By default there are as many workers as the vcores of the map task (mapreduce.map.cpu.vcores),
+ *  not as the cores of the node, which are shared with the other containers. Hadoop gives a map
+ *  task a single vcore unless told otherwise, though, which would leave a single worker: if the
+ *  vcores are not raised, the workers are as many as the cores of the node (and warnWorkers()
+ *  tells so when the job is submitted).
+ * The counters of the in-mapper combiner are the ones of CombinerMapper. The metrics of the
+ *  sampled lines only cover the tokenization: the words reach the tables a batch at a time.
+ */
+public class PipelinedMapper extends Mapper<FilenameAndOffset, Text, WordAndDocument, VIntWritable>
+{
+    // Number of tokenizer workers, and of combiner tables (default: the vcores of the map task, if above 1)
+    public static final String THREADS = "invertedindex.map.threads";
+
+    // A batch is handed to the workers once it holds this many bytes (or lines)
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final int BATCH_LINES = 1024;
+
+    // Batches per worker: the one it's tokenizing, plus one waiting for it
+    private static final int BATCHES_PER_WORKER = 2;
+
+    // Marks the end of the input for a worker, and of the output for the emitter
+    private static final Batch END_OF_INPUT = new Batch();
+    private static final Flush END_OF_OUTPUT = new Flush(null, null, false);
+
+    // All created before any of them is started, so the list never changes while stop() reads it
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile Throwable failure;
+
+    // Lines copied out of the records, one after the other
+    private static final class Batch
+    {
+        byte[] bytes = new byte[BATCH_BYTES];
+        int length;
+        final int[] docIds = new int[BATCH_LINES];
+        final int[] ends = new int[BATCH_LINES];
+        int lines;
+
+        void add(int docId, Text line)
+        {
+            if (length + line.getLength() > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, Math.max(length + line.getLength(), bytes.length * 2));
+            }
+            System.arraycopy(line.getBytes(), 0, bytes, length, line.getLength());
+            length += line.getLength();
+            docIds[lines] = docId;
+            ends[lines++] = length;
+        }
+
+        boolean isFull() { return length >= BATCH_BYTES || lines == BATCH_LINES; }
+
+        void clear() { length = lines = 0; }
+    }
+
+    // The words a worker found in a batch for one of the shards, waiting to be added to its table
+    private static final class Words
+    {
+        byte[] bytes = new byte[4096];
+        int length;
+        int[] ends = new int[512];
+        int[] docIds = new int[512];
+        int size;
+
+        void add(byte[] word, int wordLength, int docId)
+        {
+            if (length + wordLength > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, Math.max(length + wordLength, bytes.length * 2));
+            }
+            System.arraycopy(word, 0, bytes, length, wordLength);
+            length += wordLength;
+            if (size == ends.length)
+            {
+                ends = Arrays.copyOf(ends, size * 2);
+                docIds = Arrays.copyOf(docIds, size * 2);
+            }
+            docIds[size] = docId;
+            ends[size++] = length;
+        }
+
+        void clear() { length = size = 0; }
+    }
+
+    // What the emitter writes: a whole table, or a single word larger than the budget of a table
+    private static final class Flush
+    {
+        final Shard shard;
+        final CombinerTable table;
+        final boolean exhausted;  // Flushed because it was out of budget, and to be returned to the shard
+        byte[] word;
+        int docId;
+
+        Flush(Shard shard, CombinerTable table, boolean exhausted)
+        {
+            this.shard = shard;
+            this.table = table;
+            this.exhausted = exhausted;
+        }
+    }
+
+    // A table of the in-mapper combiner, and the spare one that takes its place while it's flushed
+    private static final class Shard
+    {
+        private CombinerTable table;
+        private final BlockingQueue<CombinerTable> spare = new ArrayBlockingQueue<>(1);
+
+        Shard(long budget)
+        {
+            table = new CombinerTable(budget);
+            spare.add(new CombinerTable(budget));
+        }
+
+        synchronized void addAll(Words words, BlockingQueue<Flush> output) throws InterruptedException
+        {
+            int start = 0;
+            for (int i = 0; i < words.size; i++)
+            {
+                int length = words.ends[i] - start;
+                if (!table.add(words.bytes, start, length, words.docIds[i], 1))
+                {
+                    output.put(new Flush(this, table, true));
+                    table = spare.take();
+                    if (!table.add(words.bytes, start, length, words.docIds[i], 1))
+                    {
+                        // A single word larger than the whole table: nothing to combine it with anyway
+                        Flush single = new Flush(this, null, false);
+                        single.word = Arrays.copyOfRange(words.bytes, start, start + length);
+                        single.docId = words.docIds[i];
+                        output.put(single);
+                    }
+                }
+                start = words.ends[i];
+            }
+        }
+    }
+
+    /**
+     * The number of workers: THREADS if set, otherwise the vcores of the task (at most the cores
+     *  of this node) or, if they were left at Hadoop's default of 1, the cores of this node
+     */
+    static int getWorkers(Configuration conf)
+    {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int vcores = conf.getInt(MRJobConfig.MAP_CPU_VCORES, MRJobConfig.DEFAULT_MAP_CPU_VCORES);
+        return Math.max(1, conf.getInt(THREADS, vcores > 1 ? Math.min(vcores, cores) : cores));
+    }
+
+    // Warns that the workers will take all the cores of each node, if neither THREADS nor the vcores were set
+    public static void warnWorkers(Configuration conf)
+    {
+        if (conf.get(THREADS) != null
+                || conf.getInt(MRJobConfig.MAP_CPU_VCORES, MRJobConfig.DEFAULT_MAP_CPU_VCORES) > 1) { return; }
+        System.err.println("Warning: " + MRJobConfig.MAP_CPU_VCORES + " is 1, so each PipelinedMapper runs " +
+                "as many workers as the cores of its node, which it shares with the other containers: " +
+                "set " + THREADS + " or " + MRJobConfig.MAP_CPU_VCORES);
+    }
+
+    /**
+     * Throws an IllegalArgumentException if the combiner budget, split among the 2 tables of
+     *  each worker, leaves a table less than CombinerTable.MIN_BUDGET bytes
+     */
+    public static void checkBudget(Configuration conf)
+    {
+        long budget = conf.getLong(InvertedIndex.CombinerMapper.BUDGET_MB,
+                InvertedIndex.CombinerMapper.DEFAULT_BUDGET_MB) * 1024 * 1024;
+        int workers = getWorkers(conf);
+        if (budget / (2L * workers) < CombinerTable.MIN_BUDGET)
+        {
+            throw new IllegalArgumentException("A combiner budget (" + InvertedIndex.CombinerMapper.BUDGET_MB +
+                    ") of " + budget + " bytes leaves " + budget / (2L * workers) + " bytes to each of the " +
+                    2 * workers + " tables of " + workers + " workers (" + THREADS + "), less than the " +
+                    CombinerTable.MIN_BUDGET + " bytes a table needs: raise the budget or lower the threads");
+        }
+    }
+
+    @Override
+    public void run(Context context) throws IOException, InterruptedException
+    {
+        checkBudget(context.getConfiguration());
+        int workers = getWorkers(context.getConfiguration());
+        long budget = context.getConfiguration().getLong(InvertedIndex.CombinerMapper.BUDGET_MB,
+                InvertedIndex.CombinerMapper.DEFAULT_BUDGET_MB) * 1024 * 1024;
+        JobMetrics.Recorder metrics = new JobMetrics.Recorder(context);
+
+        Shard[] shards = new Shard[workers];
+        for (int i = 0; i < shards.length; i++) { shards[i] = new Shard(budget / (2L * shards.length)); }
+
+        int batches = BATCHES_PER_WORKER * workers;
+        BlockingQueue<Batch> free = new ArrayBlockingQueue<>(batches);
+        BlockingQueue<Batch> full = new ArrayBlockingQueue<>(batches + workers);
+        for (int i = 0; i < batches; i++) { free.add(new Batch()); }
+        BlockingQueue<Flush> output = new LinkedBlockingQueue<>();
+
+        JobMetrics.Recorder[] workerMetrics = new JobMetrics.Recorder[workers];
+        for (int i = 0; i < workers; i++)
+        {
+            JobMetrics.Recorder recorder = workerMetrics[i] = new JobMetrics.Recorder(context);
+            create("tokenizer-" + i, () -> tokenize(free, full, shards, output, recorder));
+        }
+        JobMetrics.Recorder emitterMetrics = new JobMetrics.Recorder(context);
+        Thread emitter = create("emitter", () -> emit(output, context, emitterMetrics));
+
+        boolean completed = false;
+        try
+        {
+            for (Thread thread : threads) { thread.start(); }
+
+            // This thread is the reader
+            Batch batch = free.take();
+            while (context.nextKeyValue())
+            {
+                batch.add(context.getCurrentKey().getDocId(), context.getCurrentValue());
+                if (!batch.isFull()) { continue; }
+                full.put(batch);
+                batch = free.take();
+            }
+            if (batch.lines > 0) { full.put(batch); }
+            for (int i = 0; i < workers; i++) { full.put(END_OF_INPUT); }
+            for (Thread thread : threads)
+            {
+                if (thread != emitter) { thread.join(); }
+            }
+
+            // Whatever is left in the tables, then the end of the output
+            if (failure == null)
+            {
+                for (Shard shard : shards) { output.put(new Flush(shard, shard.table, false)); }
+            }
+            output.put(END_OF_OUTPUT);
+            emitter.join();
+            completed = failure == null;
+        }
+        catch (InterruptedException e)
+        {
+            if (failure == null) { throw e; }
+        }
+        finally
+        {
+            if (!completed) { stop(); }
+        }
+        if (failure != null) { throw new IOException("The pipelined mapper failed", failure); }
+
+        for (JobMetrics.Recorder recorder : workerMetrics) { recorder.publish(context, null); }
+        emitterMetrics.publish(context, null);
+        metrics.publish(context, JobMetrics.MAP_TIME);
+    }
+
+    private void tokenize(BlockingQueue<Batch> free, BlockingQueue<Batch> full, Shard[] shards,
+                          BlockingQueue<Flush> output, JobMetrics.Recorder metrics) throws InterruptedException
+    {
+        Tokenizer tokenizer = new Tokenizer();
+        Words[] words = new Words[shards.length];
+        for (int i = 0; i < words.length; i++) { words[i] = new Words(); }
+        while (true)
+        {
+            Batch batch = full.take();
+            if (batch == END_OF_INPUT) { return; }
+
+            int start = 0;
+            for (int line = 0; line < batch.lines; line++)
+            {
+                metrics.startLine();
+                int docId = batch.docIds[line];
+                tokenizer.reset(batch.bytes, start, batch.ends[line] - start);
+                int tokens = 0;
+                while (tokenizer.next())
+                {
+                    byte[] bytes = tokenizer.getBytes();
+                    int length = tokenizer.getLength();
+                    int shard = (WritableComparator.hashBytes(bytes, length) & Integer.MAX_VALUE) % shards.length;
+                    words[shard].add(bytes, length, docId);
+                    tokens++;
+                }
+                metrics.endLine(tokens);
+                start = batch.ends[line];
+            }
+            batch.clear();
+            free.put(batch);
+
+            for (int shard = 0; shard < shards.length; shard++)
+            {
+                if (words[shard].size == 0) { continue; }
+                shards[shard].addAll(words[shard], output);
+                words[shard].clear();
+            }
+        }
+    }
+
+    // The only thread that writes to the context (and updates its counters)
+    private static void emit(BlockingQueue<Flush> output, Context context, JobMetrics.Recorder metrics)
+            throws IOException, InterruptedException
+    {
+        Text text = new Text();
+        WordAndDocument word = new WordAndDocument();
+        VIntWritable result = new VIntWritable();
+        while (true)
+        {
+            Flush flush = output.take();
+            if (flush == END_OF_OUTPUT) { return; }
+            if (flush.table == null)
+            {
+                word.setWord(flush.word, flush.word.length);
+                word.setDocId(flush.docId);
+                result.set(1);
+                context.write(word, result);
+                continue;
+            }
+
+            long start = System.nanoTime();
+            CombinerTable counts = flush.table;
+            if (flush.exhausted)
+            {
+                context.getCounter("Memory Management",
+                        "Number of in-mapper combiner flushes").increment(1);
+                context.getCounter("Memory Management",
+                        "Bytes used by the in-mapper combiner at flush time").increment(counts.getMemoryUsage());
+            }
+            metrics.addToHistogram(JobMetrics.FLUSH_HISTOGRAM, counts.size());
+            context.getCounter("Memory Management",
+                    "Number of (word, file) pairs flushed by the in-mapper combiner").increment(counts.size());
+            context.getCounter("Memory Management",
+                    "Word bytes flushed by the in-mapper combiner").increment(counts.getWordBytes());
+            for (int entry = 0; entry < counts.size(); entry++)
+            {
+                counts.getWord(entry, text);
+                word.setWord(text);
+                word.setDocId(counts.getDocId(entry));
+                result.set(counts.getCount(entry));
+                context.write(word, result);
+            }
+            counts.clear();
+            metrics.add(JobMetrics.FLUSH_TIME, (System.nanoTime() - start) / 1000000);
+            if (flush.exhausted) { flush.shard.spare.put(counts); }
+        }
+    }
+
+    private interface Task
+    {
+        void run() throws Exception;
+    }
+
+    // Creates a thread of the pipeline, started by run(): if it fails, the whole pipeline stops
+    private Thread create(String name, Task task)
+    {
+        Thread caller = Thread.currentThread();
+        Thread thread = new Thread(() ->
+        {
+            try { task.run(); }
+            catch (Throwable t)
+            {
+                if (failure == null) { failure = t; }
+                stop();
+                caller.interrupt();
+            }
+        }, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        return thread;
+    }
+
+    private void stop()
+    {
+        for (Thread thread : threads) { thread.interrupt(); }
+    }
+}
@@ -0,0 +1,301 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The mappers, combiner and reducer of a positional index (-D invertedindex.positions=true):
+ *  besides the number of occurrences of a word in a file, the index stores their positions,
+ *  so that phrase and proximity queries can be answered from the index alone.
+ *
+ * The position of a word is its index among the (non-empty, cleaned) words of the file.
+ * Files are never split (see NameAwareCombineTextInputFormat), so a mapper reads every
+ *  line of a file, in order, and can count the words that come before each one.
+ *
+ * They mirror the classes of InvertedIndex, with Positions instead of counts as map output
+ *  values: the count of a posting is the number of its positions. The job is otherwise
+ *  the same, and a non-positional index is built exactly as before.
+ */
+public class PositionalIndex
+{
+    /**
+     * Emits the position of every word of every line
+     *
+     *  Example:
+     *      Input - Key::FilenameAndOffset, Value::Text (a line)
+     *         file1.txt:0   CLOUD!, cloud computing.
+     *         file1.txt:25  Cloud -Computing-
+     *     Output - Key::WordAndDocument, Value::Positions
+     *         (cloud, file1.txt)        [0]
+     *         (cloud, file1.txt)        [1]
+     *         (computing, file1.txt)    [2]
+     *         (cloud, file1.txt)        [3]
+     *         (computing, file1.txt)    [4]
+     */
+    public static class PositionalMapper
+            extends Mapper<FilenameAndOffset, Text, WordAndDocument, Positions>
+    {
+        private final Tokenizer tokenizer = new Tokenizer();
+        private final WordAndDocument word = new WordAndDocument();
+        private final Positions position = new Positions();
+        private JobMetrics.Recorder metrics;
+
+        // The file being read, and the position of its next word
+        private int docId = -1;
+        private int nextPosition;
+
+        @Override
+        protected void setup(Context context) { metrics = new JobMetrics.Recorder(context); }
+
+        public void map(FilenameAndOffset key, Text value, Context context)
+                throws IOException, InterruptedException
+        {
+            if (key.getDocId() != docId || key.getOffset() == 0)
+            {
+                docId = key.getDocId();
+                nextPosition = 0;
+            }
+            word.setDocId(docId);
+            tokenizer.reset(value);
+            metrics.startLine();
+            int tokens = 0;
+            while (tokenizer.next())
+            {
+                word.setWord(tokenizer.getBytes(), tokenizer.getLength());
+                position.clear();
+                position.add(nextPosition++);
+                long start = metrics.startOutput();
+                context.write(word, position);
+                metrics.endOutput(start);
+                tokens++;
+            }
+            metrics.endLine(tokens);
+        }
+
+        @Override
+        protected void cleanup(Context context) { metrics.publish(context, JobMetrics.MAP_TIME); }
+    }
+
+    /**
+     * Behaves like a PositionalMapper, but collects the positions of each word of
+     *  a file and emits them all together once the file is over, or whenever
+     *  the memory budget of the in-mapper combiner is exhausted.
+     *
+     *  Example:
+     *     Output - Key::WordAndDocument, Value::Positions
+     *         (cloud, file1.txt)        [0, 1, 3]
+     *         (computing, file1.txt)    [2, 4]
+     */
+    public static class PositionalCombinerMapper
+            extends Mapper<FilenameAndOffset, Text, WordAndDocument, Positions>
+    {
+        /*
+         * Memory management
+         * The budget is approximate: the arrays (the bytes of a word, the positions) are counted
+         *  with their actual capacity, the objects around them with their size on a 64-bit JVM
+         *  with compressed references (a HashMap node and its share of the table, a Text and a
+         *  Positions, and the headers of their arrays), which may differ on other JVMs
+         */
+        private static final int BYTES_PER_WORD = 32 + 8 + 24 + 24 + 2 * 16;
+
+        private final Tokenizer tokenizer = new Tokenizer();
+        private final WordAndDocument word = new WordAndDocument();
+        private final Map<Text, Positions> positions = new HashMap<>();
+        private final Text lookup = new Text();
+        private long budget;
+        private long memory;
+        private JobMetrics.Recorder metrics;
+
+        private int docId = -1;
+        private int nextPosition;
+
+        @Override
+        protected void setup(Context context)
+        {
+            budget = context.getConfiguration().getLong(InvertedIndex.CombinerMapper.BUDGET_MB,
+                    InvertedIndex.CombinerMapper.DEFAULT_BUDGET_MB) * 1024 * 1024;
+            metrics = new JobMetrics.Recorder(context);
+        }
+
+        // Arrays take 8-byte multiples
+        private static long align(long bytes) { return (bytes + 7) & ~7L; }
+
+        public void map(FilenameAndOffset key, Text value, Context context)
+                throws IOException, InterruptedException
+        {
+            if (key.getDocId() != docId || key.getOffset() == 0)
+            {
+                flushPositions(context);
+                docId = key.getDocId();
+                nextPosition = 0;
+            }
+            tokenizer.reset(value);
+            metrics.startLine();
+            int tokens = 0;
+            while (tokenizer.next())
+            {
+                long start = metrics.startOutput();
+                lookup.set(tokenizer.getBytes(), 0, tokenizer.getLength());
+                Positions list = positions.get(lookup);
+                if (list == null)
+                {
+                    list = new Positions();
+                    positions.put(new Text(lookup), list);
+                    memory += BYTES_PER_WORD + align(lookup.getLength()) + align(4L * list.getArray().length);
+                }
+                int capacity = list.getArray().length;
+                list.add(nextPosition++);
+                memory += 4L * (list.getArray().length - capacity);
+                metrics.endOutput(start);
+                tokens++;
+
+                if (memory > budget)
+                {
+                    context.getCounter("Memory Management",
+                            "Number of in-mapper combiner flushes").increment(1);
+                    context.getCounter("Memory Management",
+                            "Bytes used by the in-mapper combiner at flush time").increment(memory);
+                    flushPositions(context);
+                }
+            }
+            metrics.endLine(tokens);
+        }
+
+        private void flushPositions(Context context) throws IOException, InterruptedException
+        {
+            if (positions.isEmpty()) { return; }
+            long start = System.nanoTime();
+            metrics.addToHistogram(JobMetrics.FLUSH_HISTOGRAM, positions.size());
+            word.setDocId(docId);
+            for (Map.Entry<Text, Positions> entry : positions.entrySet())
+            {
+                word.setWord(entry.getKey());
+                context.write(word, entry.getValue());
+            }
+            positions.clear();
+            memory = 0;
+            metrics.add(JobMetrics.FLUSH_TIME, (System.nanoTime() - start) / 1000000);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException
+        {
+            flushPositions(context);
+            metrics.publish(context, JobMetrics.MAP_TIME);
+        }
+    }
+
+    /**
+     * Merges the positions of the same (word, file) pair, like ExternalCombiner sums their counts
+     */
+    public static class PositionalCombiner
+            extends Reducer<WordAndDocument, Positions, WordAndDocument, Positions>
+    {
+        private final Positions result = new Positions();
+        private JobMetrics.Recorder metrics;
+
+        @Override
+        protected void setup(Context context) { metrics = new JobMetrics.Recorder(context); }
+
+        @Override
+        public void reduce(WordAndDocument key, Iterable<Positions> values, Context context)
+                throws IOException, InterruptedException
+        {
+            result.clear();
+            int combined = 0;
+            for (Positions value : values)
+            {
+                result.addAll(value);
+                combined++;
+            }
+            metrics.addToHistogram(JobMetrics.COMBINE_HISTOGRAM, combined);
+            result.sort();
+            context.write(key, result);
+        }
+
+        // The time of the combiner is part of the time of the map (or reduce) task running it
+        @Override
+        protected void cleanup(Context context) { metrics.publish(context, null); }
+    }
+
+    /**
+     * Like MainReducer: streams the postings of each word, sorted by document ID, but every
+     *  posting carries the (sorted) positions of the word in the file, and its count is their number
+     */
+    public static class PositionalReducer
+            extends Reducer<WordAndDocument, Positions, Text, FilenameAndCount>
+    {
+        private final FilenameAndCount result = new FilenameAndCount();
+        private final Positions positions = new Positions();
+        private JobMetrics.Recorder metrics;
+        private long inputRecords;
+
+        @Override
+        protected void setup(Context context) { metrics = new JobMetrics.Recorder(context); }
+
+        @Override
+        public void reduce(WordAndDocument key, Iterable<Positions> values, Context context)
+                throws IOException, InterruptedException
+        {
+            int docId = -1;
+            int postings = 0;
+            for (Positions value : values)
+            {
+                if (key.getDocId() != docId)
+                {
+                    if (docId != -1)
+                    {
+                        writePosting(key.getWord(), docId, context);
+                        postings++;
+                    }
+                    docId = key.getDocId();
+                    positions.clear();
+                }
+                positions.addAll(value);
+                inputRecords++;
+            }
+            writePosting(key.getWord(), docId, context);
+            postings++;
+            metrics.addToHistogram(JobMetrics.POSTINGS_HISTOGRAM, postings);
+            metrics.add(JobMetrics.POSTINGS, postings);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException
+        {
+            // To measure the skew between reducers
+            JobMetrics.recordReducerInput(context, inputRecords);
+            metrics.publish(context, JobMetrics.REDUCE_TIME);
+        }
+
+        private void writePosting(Text word, int docId, Context context)
+                throws IOException, InterruptedException
+        {
+            positions.sort();
+            result.setDocId(docId);
+            result.setCount(positions.size());
+            result.setPositions(positions.getArray());
+            context.write(word, result);
+        }
+    }
+
+    // Sets the classes of a positional job, for the given configuration (see InvertedIndex)
+    public static void configure(Job job, int configuration)
+    {
+        // The PipelinedMapper has no positional version
+        if (configuration > 3)
+        {
+            throw new IllegalArgumentException(InvertedIndex.POSITIONS + " requires configuration 0 to 3");
+        }
+        job.setReducerClass(PositionalReducer.class);
+        job.setMapperClass(configuration < 2 ? PositionalMapper.class : PositionalCombinerMapper.class);
+        if (configuration == 1 || configuration == 3) { job.setCombinerClass(PositionalCombiner.class); }
+        job.setMapOutputValueClass(Positions.class);
+    }
+}
@@ -0,0 +1,83 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The positions of a word in a document, i.e., the index of each of its occurrences among
+ *  the words of the document (0 for the first word): the map output value of a positional index.
+ * The positions are written sorted, as their number followed by the gaps between them,
+ *  all as variable-length integers, so that a frequent word costs about a byte per occurrence
+ */
+public class Positions implements Writable
+{
+    private int[] positions = new int[4];
+    private int size;
+
+    public int size() { return size; }
+    public int get(int index) { return positions[index]; }
+
+    // Only the first size() positions are valid
+    public int[] getArray() { return positions; }
+
+    public void clear() { size = 0; }
+
+    public void add(int position)
+    {
+        if (size == positions.length) { positions = Arrays.copyOf(positions, 2 * size); }
+        positions[size++] = position;
+    }
+
+    public void addAll(Positions other)
+    {
+        if (size + other.size > positions.length)
+        {
+            positions = Arrays.copyOf(positions, Math.max(2 * positions.length, size + other.size));
+        }
+        System.arraycopy(other.positions, 0, positions, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Merging the positions of the same document received in more than one value (e.g., from
+     *  different spills of the map output) leaves them unsorted: they must be sorted before being written
+     */
+    public void sort() { Arrays.sort(positions, 0, size); }
+
+    @Override
+    public void write(DataOutput dataOutput) throws IOException
+    {
+        WritableUtils.writeVInt(dataOutput, size);
+        int previous = 0;
+        for (int i = 0; i < size; i++)
+        {
+            WritableUtils.writeVInt(dataOutput, positions[i] - previous);
+            previous = positions[i];
+        }
+    }
+
+    @Override
+    public void readFields(DataInput dataInput) throws IOException
+    {
+        size = 0;
+        int count = WritableUtils.readVInt(dataInput);
+        if (positions.length < count) { positions = new int[count]; }
+        int position = 0;
+        for (int i = 0; i < count; i++)
+        {
+            position += WritableUtils.readVInt(dataInput);
+            positions[size++] = position;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(Arrays.copyOf(positions, size));
+    }
+}
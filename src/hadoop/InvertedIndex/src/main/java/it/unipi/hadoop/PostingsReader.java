@@ -0,0 +1,29 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.Text;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads a part of an index sequentially, term by term, whatever its format.
+ * Terms come in the order they were written by the reducer (i.e., sorted),
+ *  and the postings of each term come sorted by document ID:
+ *
+ *      while (reader.nextTerm())
+ *          while (reader.nextPosting())
+ *              ... reader.getTerm(), reader.getDocId(), reader.getCount() ...
+ */
+public interface PostingsReader extends Closeable
+{
+    // Advances to the next term, skipping the postings left of the current one
+    boolean nextTerm() throws IOException;
+
+    // Advances to the next posting of the current term
+    boolean nextPosting() throws IOException;
+
+    Text getTerm();
+    int getDocumentFrequency();
+    int getDocId();
+    int getCount();
+}
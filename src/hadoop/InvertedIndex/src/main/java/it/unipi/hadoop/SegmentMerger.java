@@ -0,0 +1,337 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Merges the segments of an incrementally built index (see Manifest) into a single one,
+ *  locally and streaming: the parts of all the segments are read at the same time, term
+ *  by term, and for each term their postings are merged by document ID, so that only
+ *  one posting per part is in memory at any time.
+ *
+ * The merged segment has its own document dictionary (the documents of the merged
+ *  segments, but the deleted ones), and the postings of the deleted documents are
+ *  dropped: merging all the segments gives the same index as a full rebuild.
+ * Positional segments (-D invertedindex.positions=true) are merged with their positions,
+ *  into a binary positional segment whatever the output format.
+ *
+ * Which segments to merge is decided by a tiered policy, like the one of Lucene:
+ *  segments are grouped in tiers of sizes growing by MERGE_FACTOR, and whenever a tier
+ *  has MERGE_FACTOR segments they are merged into one of the next tier. Each document
+ *  is therefore rewritten about log(index size / MERGE_FLOOR) times overall, and a
+ *  daily run usually merges just a few small segments.
+ */
+public class SegmentMerger
+{
+    public static final String MERGE_FACTOR = "invertedindex.merge.factor";
+    public static final String MERGE_FLOOR_MB = "invertedindex.merge.floor.mb";
+    public static final int DEFAULT_MERGE_FACTOR = 4;
+    public static final int DEFAULT_MERGE_FLOOR_MB = 16;
+
+    // A part of a segment being merged, positioned on its current term and posting
+    private static class Source
+    {
+        final PostingsReader reader;  // A BinaryPostingsReader with the positions, if the segments are positional
+        final int[] docIds;  // Document ID in the segment -> in the merged segment, -1 if deleted
+        int docId;
+
+        Source(PostingsReader reader, int[] docIds)
+        {
+            this.reader = reader;
+            this.docIds = docIds;
+        }
+
+        // Advances to the next posting of a document that has not been deleted
+        boolean nextPosting() throws IOException
+        {
+            while (reader.nextPosting())
+            {
+                docId = docIds[reader.getDocId()];
+                if (docId != -1) { return true; }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Applies the tiered merge policy until there is nothing left to merge
+     * @return the number of merges performed
+     */
+    public static int maybeMerge(Configuration conf, Path index, Manifest manifest)
+            throws IOException, InterruptedException
+    {
+        int mergeFactor = conf.getInt(MERGE_FACTOR, DEFAULT_MERGE_FACTOR);
+        long floor = conf.getLong(MERGE_FLOOR_MB, DEFAULT_MERGE_FLOOR_MB) * 1024 * 1024;
+        if (mergeFactor < 2) { return 0; }
+
+        FileSystem fs = index.getFileSystem(conf);
+        int merges = 0;
+        List<String> segments;
+        while ((segments = findMerge(fs, index, manifest, mergeFactor, floor)) != null)
+        {
+            merge(conf, index, manifest, segments);
+            merges++;
+        }
+        return merges;
+    }
+
+    // The oldest mergeFactor segments of the lowest tier that has enough of them, or null
+    private static List<String> findMerge(FileSystem fs, Path index, Manifest manifest, int mergeFactor, long floor)
+            throws IOException
+    {
+        TreeMap<Integer, List<String>> tiers = new TreeMap<>();
+        for (String segment : manifest.getSegments())
+        {
+            long size = fs.getContentSummary(new Path(index, segment)).getLength();
+            int tier = 0;
+            for (long limit = floor; size > limit; limit *= mergeFactor) { tier++; }
+            tiers.computeIfAbsent(tier, t -> new ArrayList<>()).add(segment);
+        }
+        for (List<String> tier : tiers.values())
+        {
+            if (tier.size() >= mergeFactor) { return tier.subList(0, mergeFactor); }
+        }
+        return null;
+    }
+
+    /**
+     * Merges the given segments into a new one, and updates (and writes) the manifest accordingly.
+     * The output format is the one set with -D invertedindex.output.format
+     * @return the name of the new segment
+     */
+    public static String merge(Configuration conf, Path index, Manifest manifest, List<String> segments)
+            throws IOException, InterruptedException
+    {
+        FileSystem fs = index.getFileSystem(conf);
+        String merged = Manifest.newSegmentName(fs, index);
+        Path output = new Path(index, merged);
+
+        // The documents of the merged segment are the ones still alive in the old segments
+        List<IndexFolder> folders = new ArrayList<>();
+        List<DocumentDictionary> dictionaries = new ArrayList<>();
+        TreeSet<String> names = new TreeSet<>();
+        for (String segment : segments)
+        {
+            IndexFolder folder = new IndexFolder(conf, new Path(index, segment));
+            DocumentDictionary dictionary = folder.readDocuments();
+            folders.add(folder);
+            dictionaries.add(dictionary);
+            for (int docId = 0; docId < dictionary.size(); docId++)
+            {
+                String name = dictionary.getFilename(docId);
+                if (!manifest.isDeleted(segment, name)) { names.add(name); }
+            }
+        }
+        DocumentDictionary documents = new DocumentDictionary(names.toArray(new String[0]));
+
+        // The duplicates (see DuplicateDetector) of the documents still alive, unless they have been deleted
+        //  (or modified, and so indexed again) themselves
+        SortedMap<String, String> aliases = new TreeMap<>();
+        for (int i = 0; i < segments.size(); i++)
+        {
+            for (Map.Entry<String, String> alias : folders.get(i).readAliases().entrySet())
+            {
+                String segment = segments.get(i);
+                if (!manifest.isDeleted(segment, alias.getKey()) && !manifest.isDeleted(segment, alias.getValue()))
+                {
+                    aliases.put(alias.getKey(), alias.getValue());
+                }
+            }
+        }
+
+        // The positions can only be kept if every segment has them
+        int positionalSegments = 0;
+        for (IndexFolder folder : folders)
+        {
+            if (folder.isPositional()) { positionalSegments++; }
+        }
+        if (positionalSegments > 0 && positionalSegments < folders.size())
+        {
+            throw new IOException("Unable to merge positional segments with non-positional ones: " + segments);
+        }
+        boolean positional = positionalSegments > 0;
+
+        // A failed merge leaves nothing behind: the manifest still lists the old segments
+        boolean written = false;
+        try
+        {
+            write(conf, output, folders, dictionaries, segments, manifest, documents, aliases, positional);
+            written = true;
+        }
+        finally
+        {
+            if (!written) { fs.delete(output, true); }
+        }
+
+        manifest.replaceSegments(segments, merged);
+        manifest.write(fs, index);
+        return merged;
+    }
+
+    // Writes the merged segment into output, along with its statistics and term dictionary
+    private static void write(Configuration conf, Path output, List<IndexFolder> folders,
+                              List<DocumentDictionary> dictionaries, List<String> segments, Manifest manifest,
+                              DocumentDictionary documents, SortedMap<String, String> aliases, boolean positional)
+            throws IOException, InterruptedException
+    {
+        FileSystem fs = output.getFileSystem(conf);
+        fs.mkdirs(output);
+        documents.write(fs, new Path(output, DocumentDictionary.FILENAME));
+        if (!aliases.isEmpty()) { DuplicateDetector.write(fs, new Path(output, DuplicateDetector.FILENAME), aliases); }
+
+        Path part = new Path(output, "part-r-00000");
+        boolean binary = positional || conf.get(InvertedIndex.OUTPUT_FORMAT, "text").equals("binary");
+        RecordWriter<Text, FilenameAndCount> writer = binary
+                ? new BinaryPostingsOutputFormat.BinaryPostingsWriter(
+                        fs.create(part.suffix(BinaryPostingsOutputFormat.POSTINGS_EXTENSION)),
+                        fs.create(part.suffix(BinaryPostingsOutputFormat.TERMS_EXTENSION)),
+                        positional ? fs.create(part.suffix(BinaryPostingsOutputFormat.POSITIONS_EXTENSION)) : null)
+                : new TextPostingsOutputFormat.TextPostingsWriter(fs.create(part), documents);
+
+        List<Source> sources = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < folders.size(); i++)
+            {
+                // Since both dictionaries are sorted, the mapping preserves the order of the postings
+                DocumentDictionary dictionary = dictionaries.get(i);
+                int[] docIds = new int[dictionary.size()];
+                for (int docId = 0; docId < docIds.length; docId++)
+                {
+                    String name = dictionary.getFilename(docId);
+                    docIds[docId] = manifest.isDeleted(segments.get(i), name) ? -1 : documents.getDocId(name);
+                }
+                for (Path segmentPart : folders.get(i).getParts())
+                {
+                    sources.add(new Source(positional ? folders.get(i).openPositionalPart(segmentPart)
+                            : folders.get(i).openPart(segmentPart, dictionary), docIds));
+                }
+            }
+            mergeSources(sources, writer, positional);
+        }
+        finally
+        {
+            try
+            {
+                for (Source source : sources) { source.reader.close(); }
+            }
+            finally
+            {
+                writer.close(null);
+            }
+        }
+        IndexFolder written = new IndexFolder(conf, output);
+        CorpusStatistics.build(written);
+        TermDictionary.build(written);
+    }
+
+    private static void mergeSources(List<Source> sources, RecordWriter<Text, FilenameAndCount> writer,
+                                     boolean positional) throws IOException, InterruptedException
+    {
+        PriorityQueue<Source> byTerm = new PriorityQueue<>(
+                Math.max(1, sources.size()), (a, b) -> a.reader.getTerm().compareTo(b.reader.getTerm()));
+        for (Source source : sources)
+        {
+            if (source.reader.nextTerm()) { byTerm.add(source); }
+        }
+
+        PriorityQueue<Source> byDocId = new PriorityQueue<>(
+                Math.max(1, sources.size()), Comparator.comparingInt(s -> s.docId));
+        List<Source> sameTerm = new ArrayList<>();
+        Text term = new Text();
+        FilenameAndCount posting = new FilenameAndCount();
+        Positions positions = new Positions();
+        while (!byTerm.isEmpty())
+        {
+            // All the parts that contain the smallest term
+            sameTerm.clear();
+            term.set(byTerm.peek().reader.getTerm());
+            while (!byTerm.isEmpty() && byTerm.peek().reader.getTerm().equals(term)) { sameTerm.add(byTerm.poll()); }
+
+            for (Source source : sameTerm)
+            {
+                if (source.nextPosting()) { byDocId.add(source); }
+            }
+            while (!byDocId.isEmpty())
+            {
+                Source source = byDocId.poll();
+                int docId = source.docId;
+                int count = source.reader.getCount();
+                positions.clear();
+                if (positional) { addPositions(source, positions); }
+                if (source.nextPosting()) { byDocId.add(source); }
+
+                // The same document can only appear in more than one part of the same term
+                //  if its segments have been built with hot terms
+                boolean split = false;
+                while (!byDocId.isEmpty() && byDocId.peek().docId == docId)
+                {
+                    Source other = byDocId.poll();
+                    count += other.reader.getCount();
+                    if (positional) { addPositions(other, positions); }
+                    split = true;
+                    if (other.nextPosting()) { byDocId.add(other); }
+                }
+                if (split) { positions.sort(); }
+
+                posting.setDocId(docId);
+                posting.setCount(count);
+                posting.setPositions(positional ? positions.getArray() : null);
+                writer.write(term, posting);
+            }
+
+            for (Source source : sameTerm)
+            {
+                if (source.reader.nextTerm()) { byTerm.add(source); }
+            }
+        }
+    }
+
+    private static void addPositions(Source source, Positions positions)
+    {
+        int[] sourcePositions = ((BinaryPostingsReader) source.reader).getPositions();
+        for (int i = 0; i < source.reader.getCount(); i++) { positions.add(sourcePositions[i]); }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length < 1 || otherArgs.length > 2 || (otherArgs.length == 2 && !otherArgs[1].equals("all")))
+        {
+            System.err.println(
+                    "Usage: SegmentMerger <index folder> [all]\n" +
+                    " Merges the segments of an incrementally built index according to the tiered\n" +
+                    "  merge policy, or all of them into a single one\n" +
+                    " Generic options (-D name=value):\n" +
+                    "  " + MERGE_FACTOR + "   segments per tier (default: " + DEFAULT_MERGE_FACTOR + ")\n" +
+                    "  " + MERGE_FLOOR_MB + "   size of the smallest tier " +
+                            "(default: " + DEFAULT_MERGE_FLOOR_MB + ")\n" +
+                    "  " + InvertedIndex.OUTPUT_FORMAT + "   text (default) or binary " +
+                            "(positional segments are always merged into a binary one)\n");
+            System.exit(1);
+        }
+
+        Path index = new Path(otherArgs[0]);
+        Manifest manifest = Manifest.read(index.getFileSystem(conf), index);
+        if (otherArgs.length == 2)
+        {
+            // Even a single segment is rewritten, to get rid of its deleted documents
+            if (!manifest.getSegments().isEmpty())
+            {
+                System.out.println("Merged into " + merge(conf, index, manifest, manifest.getSegments()));
+            }
+        }
+        else
+        {
+            System.out.println(maybeMerge(conf, index, manifest) + " merges");
+        }
+    }
+}
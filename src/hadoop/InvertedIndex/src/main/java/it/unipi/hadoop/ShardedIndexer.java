@@ -0,0 +1,211 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRConfig;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Builds a document-partitioned index: the input files are split into shards by the hash
+ *  of their name, and each shard is indexed by its own InvertedIndex job into its own folder,
+ *  with its own _documents dictionary (and document IDs), statistics and term dictionaries:
+ *
+ *      index/
+ *          _shards             the number of shards
+ *          shard-00000/        part-r-*, _documents, ... (output of InvertedIndex)
+ *          shard-00001/
+ *
+ * Every shard is a complete index, which can be searched on its own (the search side
+ *  queries all of them in parallel, see ShardedSearch) and rebuilt on its own: since a
+ *  file always hashes to the same shard, re-indexing the files of a shard (REBUILD) leaves
+ *  the other ones untouched. The jobs of the shards run at the same time, PARALLEL at most,
+ *  and each one gets the number of reducers and the options given to InvertedIndex.
+ *
+ * Like everywhere else, documents are identified by their filename: files with
+ *  the same name in different folders are a single document, in a single shard.
+ * The BM25 statistics of a shard only cover its own documents, like in any document-partitioned
+ *  index: with files spread at random, they are close to the ones of the whole corpus.
+ */
+public class ShardedIndexer
+{
+    // Number of shards (default: 1, i.e., a regular index)
+    public static final String SHARDS = "invertedindex.shards";
+
+    // Comma-separated shard numbers: only those shards are (re)built, in an existing index
+    public static final String REBUILD = "invertedindex.shards.rebuild";
+
+    // Number of shard jobs running at the same time (default: the number of cores)
+    public static final String PARALLEL = "invertedindex.shards.parallel";
+
+    public static final String FILENAME = "_shards";
+    public static final String SHARD_PREFIX = "shard-";
+
+    // Where a shard is built, next to its folder
+    private static final String BUILDING_SUFFIX = ".building";
+
+    // The shard of a document: String.hashCode() is specified, so it never changes
+    public static int getShard(String filename, int shards)
+    {
+        return (filename.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+
+    public static String getShardName(int shard) { return String.format("%s%05d", SHARD_PREFIX, shard); }
+
+    // The number of shards of the index, or 0 if it is not sharded
+    public static int readShards(FileSystem fs, Path index) throws IOException
+    {
+        Path file = new Path(index, FILENAME);
+        if (!fs.exists(file)) { return 0; }
+        try (InputStream in = fs.open(file))
+        {
+            Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name());
+            return scanner.nextInt();
+        }
+    }
+
+    /**
+     * Indexes the files found in the given input paths into the shards of the output folder
+     * @return whether all the jobs succeeded
+     */
+    public static boolean run(Configuration conf, Path[] inputs, Path outputFolder,
+                              int configuration, int numReducers, int maxInputSplitSizeMB)
+            throws IOException, InterruptedException
+    {
+        int shards = conf.getInt(SHARDS, 1);
+        if (shards < 1) { throw new IllegalArgumentException(SHARDS + " must be positive"); }
+        FileSystem fs = outputFolder.getFileSystem(conf);
+
+        // Which shards to build: all of them in a new index, only the requested ones otherwise
+        SortedSet<Integer> selected = new TreeSet<>();
+        if (conf.get(REBUILD) == null)
+        {
+            if (fs.exists(outputFolder))
+            {
+                throw new FileAlreadyExistsException("Output directory " + outputFolder + " already exists");
+            }
+            for (int shard = 0; shard < shards; shard++) { selected.add(shard); }
+        }
+        else
+        {
+            int existing = readShards(fs, outputFolder);
+            if (existing != shards)
+            {
+                throw new IllegalArgumentException(outputFolder + " has " + existing + " shards, not " + shards);
+            }
+            for (String shard : conf.getTrimmedStrings(REBUILD))
+            {
+                int number = Integer.parseInt(shard);
+                if (number < 0 || number >= shards) { throw new IllegalArgumentException("No shard " + shard); }
+                selected.add(number);
+            }
+        }
+
+        // The files a full build would index, grouped by shard
+        Job listing = Job.getInstance(conf);
+        FileInputFormat.setInputPaths(listing, inputs);
+        List<List<Path>> files = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) { files.add(new ArrayList<>()); }
+        for (FileStatus status : NameAwareCombineTextInputFormat.listInputFiles(listing))
+        {
+            files.get(getShard(status.getPath().getName(), shards)).add(status.getPath());
+        }
+
+        fs.mkdirs(outputFolder);
+        int parallel = Math.min(selected.size(), conf.getInt(PARALLEL, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallel));
+        Map<Integer, Future<Boolean>> jobs = new TreeMap<>();
+        for (int shard : selected)
+        {
+            Path[] shardInputs = files.get(shard).toArray(new Path[0]);
+            Path shardFolder = new Path(outputFolder, getShardName(shard));
+            jobs.put(shard, executor.submit(() -> buildShard(conf, shardInputs, shardFolder,
+                    configuration, numReducers, maxInputSplitSizeMB)));
+        }
+        executor.shutdown();
+
+        boolean succeeded = true;
+        for (Map.Entry<Integer, Future<Boolean>> job : jobs.entrySet())
+        {
+            try
+            {
+                if (!job.getValue().get())
+                {
+                    System.err.println("The job of " + getShardName(job.getKey()) + " failed");
+                    succeeded = false;
+                }
+            }
+            catch (ExecutionException e)
+            {
+                System.err.println("The job of " + getShardName(job.getKey()) + " failed: " + e.getCause());
+                succeeded = false;
+            }
+        }
+
+        // The index is only complete (and searchable) once every shard is
+        if (succeeded)
+        {
+            try (FSDataOutputStream out = fs.create(new Path(outputFolder, FILENAME), true))
+            {
+                out.write((shards + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Indexes a shard next to its folder, then replaces the folder with it: the previous version
+     *  of a shard being rebuilt can be searched until the new one is complete, and is kept if the job fails
+     */
+    private static boolean buildShard(Configuration conf, Path[] inputs, Path shardFolder,
+                                      int configuration, int numReducers, int maxInputSplitSizeMB)
+            throws Exception
+    {
+        FileSystem fs = shardFolder.getFileSystem(conf);
+        Path building = shardFolder.suffix(BUILDING_SUFFIX);
+        fs.delete(building, true);
+
+        // A job needs at least one input file: a shard with no documents is an empty index
+        boolean succeeded = true;
+        if (inputs.length == 0)
+        {
+            fs.mkdirs(building);
+            new DocumentDictionary(new String[0]).write(fs, new Path(building, DocumentDictionary.FILENAME));
+        }
+        else
+        {
+            // The LocalJobRunner names the local copies of the distributed cache after the clock, so
+            //  two jobs started in the same millisecond would clash, unless each has its own local folder
+            Configuration jobConf = new Configuration(conf);
+            if (MRConfig.LOCAL_FRAMEWORK_NAME.equals(conf.get(MRConfig.FRAMEWORK_NAME, MRConfig.LOCAL_FRAMEWORK_NAME)))
+            {
+                List<String> localDirs = new ArrayList<>();
+                for (String dir : conf.getTrimmedStrings(MRConfig.LOCAL_DIR))
+                {
+                    localDirs.add(new Path(dir, shardFolder.getName()).toString());
+                }
+                jobConf.setStrings(MRConfig.LOCAL_DIR, localDirs.toArray(new String[0]));
+            }
+            succeeded = InvertedIndex.run(jobConf, inputs, building, configuration, numReducers, maxInputSplitSizeMB);
+        }
+
+        if (!succeeded)
+        {
+            fs.delete(building, true);
+            return false;
+        }
+        fs.delete(shardFolder, true);
+        if (!fs.rename(building, shardFolder)) { throw new IOException("Unable to move " + building + " to " + shardFolder); }
+        return true;
+    }
+}
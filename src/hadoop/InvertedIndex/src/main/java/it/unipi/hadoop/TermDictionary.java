@@ -0,0 +1,313 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A compact term dictionary for each part of an index, written next to its .terms file (or next
+ *  to the part itself, for a text index):
+ *
+ *  part-r-NNNNN.dict
+ *      MAGIC (POSITIONAL_MAGIC for a positional index), then the terms of the .terms file, in
+ *      the same (sorted) order, grouped in blocks of TERMS_PER_BLOCK. Each block is made of:
+ *          header:  the offset of the postings of its first term in the .postings file
+ *                   (and the offset of its positions in the .positions file, if positional)
+ *          entries: for each term, the length of the prefix it shares with the previous term
+ *                   of the block (0 for the first one), then the length of the rest and its bytes,
+ *                   its document frequency, the length of its postings (and of its positions)
+ *      then the block index:
+ *          the number of terms
+ *          for each block, its offset - the offset of the previous block, and its first term
+ *                   (length and bytes)
+ *      and finally the offset of the block index, as an 8-byte long.
+ *
+ *  All the other numbers are written with VarInt.
+ *
+ * Sorted terms share long prefixes, so front coding takes a fraction of the space of the .terms
+ *  file. A reader only keeps the block index on the heap (a few MB for tens of millions of terms):
+ *  the first terms are binary searched there, and a lookup only decodes the entries of a single
+ *  block, which usually sits in a single page of the file. Since the entries are sorted, the terms
+ *  in a range (e.g., the ones with a given prefix) are enumerated by reading the blocks in a row.
+ *
+ * The .dict files are written after the index, from the .terms files (build()), by every tool
+ *  that writes an index. The ordinal of a term (its position in the dictionary) is the same
+ *  as in the .terms file, so it also indexes the .scores file (see CorpusStatistics).
+ *
+ * The dictionary of a text part starts with TEXT_MAGIC, and its "postings" are the lines of the
+ *  part: the offset and the length (newlines included) of the lines of each term (more than one
+ *  if the term is repeated on consecutive lines), and its number of postings. It is written with a single pass over the part, and only if its lines are sorted
+ *  by word, like the reducers write them: a part that is not (e.g., from CreateIndex.py), or that
+ *  is compressed, gets no dictionary, and the readers scan it when they open it.
+ */
+public class TermDictionary
+{
+    public static final String EXTENSION = ".dict";
+    public static final int MAGIC = 0x49494431;  // "IID1"
+    public static final int POSITIONAL_MAGIC = 0x49494432;  // "IID2"
+    public static final int TEXT_MAGIC = 0x49494454;  // "IIDT"
+    public static final int TERMS_PER_BLOCK = 64;
+
+    /**
+     * Front codes the terms it is given, which must come sorted, along with where their postings
+     *  start: the length of the postings of a term is known once the next one (or finish()) comes
+     */
+    public static class Writer
+    {
+        private final DataOutputStream out;
+        private final boolean positional;
+        private long position;
+        private int size;
+
+        // The term waiting for the offsets of the next one
+        private byte[] pending = new byte[64];
+        private int pendingLength;
+        private long pendingOffset;
+        private int pendingFrequency;
+        private long pendingPositionsOffset;
+
+        // The block being filled, and the previous term in it
+        private final DataOutputBuffer block = new DataOutputBuffer();
+        private final DataOutputBuffer blockIndex = new DataOutputBuffer();
+        private byte[] previous = new byte[64];
+        private int previousLength;
+        private long previousBlockPosition;
+
+        public Writer(OutputStream out, boolean positional) throws IOException
+        {
+            this(out, positional ? POSITIONAL_MAGIC : MAGIC);
+        }
+
+        // magic is MAGIC, POSITIONAL_MAGIC or TEXT_MAGIC
+        public Writer(OutputStream out, int magic) throws IOException
+        {
+            this.out = new DataOutputStream(out);
+            this.positional = magic == POSITIONAL_MAGIC;
+            this.out.writeInt(magic);
+            position = 4;
+        }
+
+        public void add(byte[] term, int length, long postingsOffset, int documentFrequency, long positionsOffset)
+                throws IOException
+        {
+            if (size > 0) { writePending(postingsOffset, positionsOffset); }
+            if (pending.length < length) { pending = new byte[Math.max(length, pending.length * 2)]; }
+            System.arraycopy(term, 0, pending, 0, length);
+            pendingLength = length;
+            pendingOffset = postingsOffset;
+            pendingFrequency = documentFrequency;
+            pendingPositionsOffset = positionsOffset;
+            size++;
+        }
+
+        // The terms so far
+        public int size() { return size; }
+
+        private void writePending(long nextOffset, long nextPositionsOffset) throws IOException
+        {
+            int ordinal = size - 1;
+            int prefix = 0;
+            if (ordinal % TERMS_PER_BLOCK == 0)
+            {
+                flushBlock();
+                VarInt.writeLong(blockIndex, position - previousBlockPosition);
+                VarInt.writeInt(blockIndex, pendingLength);
+                blockIndex.write(pending, 0, pendingLength);
+                previousBlockPosition = position;
+
+                VarInt.writeLong(block, pendingOffset);
+                if (positional) { VarInt.writeLong(block, pendingPositionsOffset); }
+            }
+            else
+            {
+                int common = Math.min(previousLength, pendingLength);
+                while (prefix < common && previous[prefix] == pending[prefix]) { prefix++; }
+            }
+            VarInt.writeInt(block, prefix);
+            VarInt.writeInt(block, pendingLength - prefix);
+            block.write(pending, prefix, pendingLength - prefix);
+            VarInt.writeInt(block, pendingFrequency);
+            VarInt.writeLong(block, nextOffset - pendingOffset);
+            if (positional) { VarInt.writeLong(block, nextPositionsOffset - pendingPositionsOffset); }
+
+            byte[] swap = previous;
+            previous = pending;
+            pending = swap;
+            previousLength = pendingLength;
+        }
+
+        private void flushBlock() throws IOException
+        {
+            out.write(block.getData(), 0, block.getLength());
+            position += block.getLength();
+            block.reset();
+        }
+
+        /**
+         * Writes the last term and the block index, and closes the stream
+         * @param postingsEnd the length of the .postings file, where the postings of the last term end
+         * @param positionsEnd the same for the .positions file (ignored if the index is not positional)
+         */
+        public void finish(long postingsEnd, long positionsEnd) throws IOException
+        {
+            if (size > 0) { writePending(postingsEnd, positionsEnd); }
+            flushBlock();
+            long indexPosition = position;
+            VarInt.writeInt(out, size);
+            out.write(blockIndex.getData(), 0, blockIndex.getLength());
+            out.writeLong(indexPosition);
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the .dict file of every part of an index
+     */
+    public static void build(IndexFolder index) throws IOException
+    {
+        FileSystem fs = index.getFileSystem();
+        if (!index.isBinary())
+        {
+            for (Path part : index.getParts()) { buildText(fs, part); }
+            return;
+        }
+        for (Path part : index.getParts())
+        {
+            long postingsEnd = fs.getFileStatus(part.suffix(BinaryPostingsOutputFormat.POSTINGS_EXTENSION)).getLen();
+            Path positions = part.suffix(BinaryPostingsOutputFormat.POSITIONS_EXTENSION);
+            long positionsEnd = fs.exists(positions) ? fs.getFileStatus(positions).getLen() : 0;
+            try (DataInputStream terms = new DataInputStream(new BufferedInputStream(
+                    fs.open(part.suffix(BinaryPostingsOutputFormat.TERMS_EXTENSION)))))
+            {
+                write(terms, postingsEnd, positionsEnd,
+                        new BufferedOutputStream(fs.create(part.suffix(EXTENSION), true)));
+            }
+        }
+    }
+
+    // Writes the dictionary of a text part, unless it's compressed or not sorted
+    private static void buildText(FileSystem fs, Path part) throws IOException
+    {
+        Path dictionary = part.suffix(EXTENSION);
+        if (new CompressionCodecFactory(fs.getConf()).getCodec(part) != null)
+        {
+            fs.delete(dictionary, false);
+            return;
+        }
+        boolean sorted;
+        try (InputStream in = fs.open(part))
+        {
+            sorted = writeText(in, fs.getFileStatus(part).getLen(),
+                    new BufferedOutputStream(fs.create(dictionary, true)));
+        }
+        if (!sorted) { fs.delete(dictionary, false); }
+    }
+
+    /**
+     * Front codes the lines of a text part (see TextPostingsOutputFormat), closing out.
+     * The lines are streamed a byte at a time: only their words are kept, never a whole line
+     * @return false if the lines are not sorted by word, in which case what was written is meaningless
+     */
+    public static boolean writeText(InputStream part, long length, OutputStream out) throws IOException
+    {
+        Writer writer = new Writer(out, TEXT_MAGIC);
+        InputStream in = new BufferedInputStream(part);
+        byte[] word = new byte[64];  // The word of the pending entry, which may span several lines
+        int wordLength = -1;
+        long wordOffset = 0;
+        int postings = 0;
+        byte[] next = new byte[64];  // The word of the line being read
+        long offset = 0;
+        while (offset < length)
+        {
+            long start = offset;
+            int nextLength = 0;
+            int tabs = 0;
+            int b;
+            while ((b = in.read()) >= 0 && b != '\t' && b != '\n')
+            {
+                if (nextLength == next.length) { next = Arrays.copyOf(next, 2 * next.length); }
+                next[nextLength++] = (byte) b;
+            }
+            offset += nextLength + (b >= 0 ? 1 : 0);
+            for (; b == '\t'; offset++)
+            {
+                tabs++;
+                while ((b = in.read()) >= 0 && b != '\t' && b != '\n') { offset++; }
+            }
+            if (b < 0) { offset = length; }
+            if (nextLength == 0 && tabs == 0) { continue; }  // Empty line
+
+            int cmp = wordLength < 0 ? -1 : WritableComparator.compareBytes(word, 0, wordLength, next, 0, nextLength);
+            if (cmp > 0)
+            {
+                out.close();
+                return false;
+            }
+            if (cmp == 0)
+            {
+                // The lines of a repeated word are consecutive, so a single entry covers them
+                postings += tabs;
+                continue;
+            }
+            if (wordLength >= 0) { writer.add(word, wordLength, wordOffset, postings, 0); }
+            byte[] swap = word;
+            word = next;
+            next = swap;
+            wordLength = nextLength;
+            wordOffset = start;
+            postings = tabs;
+        }
+        if (wordLength >= 0) { writer.add(word, wordLength, wordOffset, postings, 0); }
+        writer.finish(length, 0);
+        return true;
+    }
+
+    // Front codes a .terms file (see BinaryPostingsOutputFormat), closing out
+    public static void write(DataInputStream terms, long postingsEnd, long positionsEnd, OutputStream out)
+            throws IOException
+    {
+        int magic = terms.readInt();
+        if (magic != BinaryPostingsOutputFormat.MAGIC && magic != BinaryPostingsOutputFormat.POSITIONAL_MAGIC)
+        {
+            out.close();
+            throw new IOException("Not a term dictionary (bad magic number)");
+        }
+        boolean positional = magic == BinaryPostingsOutputFormat.POSITIONAL_MAGIC;
+        Writer writer = new Writer(out, positional);
+        byte[] term = new byte[64];
+        while (true)
+        {
+            int length;
+            try { length = VarInt.readInt(terms); }
+            catch (EOFException e) { break; }
+            if (term.length < length) { term = new byte[Math.max(length, term.length * 2)]; }
+            terms.readFully(term, 0, length);
+            long offset = VarInt.readLong(terms);
+            int documentFrequency = VarInt.readInt(terms);
+            long positionsOffset = positional ? VarInt.readLong(terms) : 0;
+            writer.add(term, length, offset, documentFrequency, positionsOffset);
+        }
+        writer.finish(postingsEnd, positionsEnd);
+    }
+
+    // For the indexes built before the .dict files existed
+    public static void main(String[] args) throws Exception
+    {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 1)
+        {
+            System.err.println("Usage: TermDictionary <index folder>");
+            System.exit(1);
+        }
+        build(new IndexFolder(conf, new Path(otherArgs[0])));
+    }
+}
@@ -0,0 +1,124 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the original, human-readable, index format: one line per word,
+ *  followed by the tab-separated filename:count pairs of its postings
+ *
+ *      cloud       file1.txt:2     file2.txt:1
+ *
+ * The reducers emit one (word, posting) pair at a time: consecutive pairs with
+ *  the same word are appended to the same line, so a line is never built in memory.
+ * Like TextOutputFormat, it honours the output compression settings of the job.
+ */
+public class TextPostingsOutputFormat extends FileOutputFormat<Text, FilenameAndCount>
+{
+    @Override
+    public RecordWriter<Text, FilenameAndCount> getRecordWriter(TaskAttemptContext context)
+            throws IOException
+    {
+        Configuration conf = context.getConfiguration();
+        CompressionCodec codec = null;
+        String extension = "";
+        if (getCompressOutput(context))
+        {
+            Class<? extends CompressionCodec> codecClass = getOutputCompressorClass(context, GzipCodec.class);
+            codec = ReflectionUtils.newInstance(codecClass, conf);
+            extension = codec.getDefaultExtension();
+        }
+
+        Path file = getDefaultWorkFile(context, extension);
+        FileSystem fs = file.getFileSystem(conf);
+        OutputStream out = fs.create(file, false);
+        if (codec != null) { out = codec.createOutputStream(out); }
+        return new TextPostingsWriter(out, DocumentDictionary.get(context));
+    }
+
+    public static class TextPostingsWriter extends RecordWriter<Text, FilenameAndCount>
+    {
+        private static final byte TAB = '\t';
+        private static final byte COLON = ':';
+        private static final byte NEWLINE = '\n';
+
+        private final DataOutputStream out;
+        private final DocumentDictionary documents;
+
+        // Filenames are encoded only the first time they are needed
+        private final byte[][] filenames;
+
+        // The word of the line being written
+        private final Text word = new Text();
+        private boolean lineOpen = false;
+
+        // "\tfilename:count", built here so that it takes a single write
+        private byte[] posting = new byte[64];
+
+        public TextPostingsWriter(OutputStream out, DocumentDictionary documents)
+        {
+            this.out = new DataOutputStream(out);
+            this.documents = documents;
+            this.filenames = new byte[documents.size()][];
+        }
+
+        @Override
+        public void write(Text key, FilenameAndCount value) throws IOException
+        {
+            if (!lineOpen || !word.equals(key))
+            {
+                if (lineOpen) { out.write(NEWLINE); }
+                word.set(key);
+                out.write(word.getBytes(), 0, word.getLength());
+                lineOpen = true;
+            }
+            appendPosting(value.getDocId(), value.getCount());
+        }
+
+        // Appends "\tfilename:count" to the current line
+        private void appendPosting(int docId, int count) throws IOException
+        {
+            byte[] filename = filenames[docId];
+            if (filename == null)
+            {
+                filename = documents.getFilename(docId).getBytes(StandardCharsets.UTF_8);
+                filenames[docId] = filename;
+            }
+
+            int digits = 1;
+            for (int rest = count; rest >= 10; rest /= 10) { digits++; }
+            int length = filename.length + digits + 2;
+            if (posting.length < length) { posting = new byte[Math.max(length, 2 * posting.length)]; }
+
+            posting[0] = TAB;
+            System.arraycopy(filename, 0, posting, 1, filename.length);
+            posting[filename.length + 1] = COLON;
+            for (int i = length - 1; i >= length - digits; i--)
+            {
+                posting[i] = (byte) ('0' + count % 10);
+                count /= 10;
+            }
+            out.write(posting, 0, length);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException
+        {
+            if (lineOpen) { out.write(NEWLINE); }
+            out.close();
+        }
+    }
+}
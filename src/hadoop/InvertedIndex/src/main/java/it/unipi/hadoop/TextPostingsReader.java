@@ -0,0 +1,101 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the lines written by TextPostingsOutputFormat (or by the Python CreateIndex.py),
+ *  turning the filenames back into document IDs through the dictionary of the index.
+ *
+ * Each line is parsed as a whole, and its postings are sorted by document ID
+ *  if they are not already (indexes built before the postings were sorted, or by Python)
+ */
+public class TextPostingsReader implements PostingsReader
+{
+    private final LineReader lines;
+    private final DocumentDictionary documents;
+    private final Text line = new Text();
+
+    private final Text term = new Text();
+    private long[] postings = new long[16];  // (docId << 32) | count, to sort them together
+    private int size;
+    private int next;
+
+    public TextPostingsReader(InputStream in, DocumentDictionary documents)
+    {
+        this.lines = new LineReader(in);
+        this.documents = documents;
+    }
+
+    @Override
+    public boolean nextTerm() throws IOException
+    {
+        do
+        {
+            if (lines.readLine(line) == 0) { return false; }
+        }
+        while (line.getLength() == 0);
+        parse();
+        return true;
+    }
+
+    private void parse() throws IOException
+    {
+        byte[] bytes = line.getBytes();
+        int length = line.getLength();
+        int end = 0;
+        while (end < length && bytes[end] != '\t') { end++; }
+        term.set(bytes, 0, end);
+
+        size = 0;
+        next = 0;
+        boolean sorted = true;
+        while (end < length)
+        {
+            int start = end + 1;
+            end = start;
+            while (end < length && bytes[end] != '\t') { end++; }
+
+            // filename:count, the filename may contain colons too
+            int colon = end - 1;
+            while (colon >= start && bytes[colon] != ':') { colon--; }
+            if (colon < start) { throw new IOException("Malformed posting in the line of \"" + term + "\""); }
+
+            String filename = new String(bytes, start, colon - start, StandardCharsets.UTF_8);
+            int docId = documents.getDocId(filename);
+            if (docId < 0) { throw new IOException("Unknown document \"" + filename + "\""); }
+            int count = Integer.parseInt(new String(bytes, colon + 1, end - colon - 1, StandardCharsets.US_ASCII));
+
+            if (size == postings.length) { postings = Arrays.copyOf(postings, size * 2); }
+            long posting = ((long) docId << 32) | (count & 0xFFFFFFFFL);
+            if (size > 0 && postings[size - 1] > posting) { sorted = false; }
+            postings[size++] = posting;
+        }
+        if (!sorted) { Arrays.sort(postings, 0, size); }
+    }
+
+    @Override
+    public boolean nextPosting()
+    {
+        if (next == size) { return false; }
+        next++;
+        return true;
+    }
+
+    @Override
+    public Text getTerm() { return term; }
+    @Override
+    public int getDocumentFrequency() { return size; }
+    @Override
+    public int getDocId() { return (int) (postings[next - 1] >>> 32); }
+    @Override
+    public int getCount() { return (int) postings[next - 1]; }
+
+    @Override
+    public void close() throws IOException { lines.close(); }
+}
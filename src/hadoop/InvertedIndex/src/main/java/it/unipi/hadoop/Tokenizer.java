@@ -0,0 +1,138 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.Text;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the UTF-8 bytes of a line into words, without decoding them into Strings.
+ * It produces exactly the same words as the original String-based pipeline:
+ *
+ *      new StringTokenizer(line) -> token.toLowerCase() -> token.replaceAll("[^A-Za-z]+", "")
+ *
+ *  i.e., the line is split on the StringTokenizer default delimiters (" \t\n\r\f"),
+ *  every letter in [A-Za-z] is lowercased, everything else is dropped and empty words are skipped.
+ *
+ * Since the delimiters and the letters are all ASCII, and multibyte UTF-8 sequences never
+ *  contain ASCII bytes, the line can be scanned byte by byte. The only two exceptions are
+ *  the non-ASCII characters whose lowercase form contains an ASCII letter, which we map by hand:
+ *      U+0130 (LATIN CAPITAL LETTER I WITH DOT ABOVE, bytes C4 B0) -> 'i' (+ U+0307, which is dropped)
+ *      U+212A (KELVIN SIGN, bytes E2 84 AA) -> 'k'
+ *
+ * A single instance is meant to be reused for all the lines of a task:
+ *
+ *      tokenizer.reset(value);
+ *      while (tokenizer.next(word)) { ... }
+ */
+public class Tokenizer
+{
+    private byte[] line;
+    private int position;
+    private int end;
+
+    // The current word, lowercased and cleaned, is built here
+    private byte[] word = new byte[64];
+    private int wordLength;
+
+    public void reset(Text text) { reset(text.getBytes(), 0, text.getLength()); }
+
+    public void reset(byte[] bytes, int start, int length)
+    {
+        line = bytes;
+        position = start;
+        end = start + length;
+        wordLength = 0;
+    }
+
+    /**
+     * Advances to the next non-empty word
+     * @return false if there are no more words in the line
+     */
+    public boolean next()
+    {
+        while (position < end)
+        {
+            wordLength = 0;
+
+            // Skip the delimiters in front of the token
+            while (position < end && isDelimiter(line[position])) { position++; }
+
+            // Clean the token while scanning it
+            while (position < end)
+            {
+                byte b = line[position];
+                if (isDelimiter(b)) { break; }
+                if (b >= 'a' && b <= 'z') { append(b); }
+                else if (b >= 'A' && b <= 'Z') { append((byte) (b + ('a' - 'A'))); }
+                else if (b == (byte) 0xC4 && position + 1 < end && line[position + 1] == (byte) 0xB0)
+                {
+                    append((byte) 'i');
+                    position++;
+                }
+                else if (b == (byte) 0xE2 && position + 2 < end
+                        && line[position + 1] == (byte) 0x84 && line[position + 2] == (byte) 0xAA)
+                {
+                    append((byte) 'k');
+                    position += 2;
+                }
+                position++;
+            }
+
+            if (wordLength > 0) { return true; }
+        }
+        wordLength = 0;
+        return false;
+    }
+
+    /**
+     * Advances to the next non-empty word and copies it into the given Text
+     * @return false if there are no more words in the line
+     */
+    public boolean next(Text text)
+    {
+        if (!next()) { return false; }
+        text.set(word, 0, wordLength);
+        return true;
+    }
+
+    // Only the first getLength() bytes are valid, and only until the next call to next()
+    public byte[] getBytes() { return word; }
+    public int getLength() { return wordLength; }
+
+    /**
+     * Splits and cleans a piece of text (e.g., a query) with the same rules applied
+     *  by the mappers, so that its words can be matched against the index
+     * @return the normalized words contained in the text (none, if it only had non-letters)
+     */
+    public static String[] normalize(String text)
+    {
+        Tokenizer tokenizer = new Tokenizer();
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        tokenizer.reset(bytes, 0, bytes.length);
+        List<String> words = new ArrayList<>();
+        while (tokenizer.next())
+        {
+            words.add(new String(tokenizer.word, 0, tokenizer.wordLength, StandardCharsets.US_ASCII));
+        }
+        return words.toArray(new String[0]);
+    }
+
+    private void append(byte b)
+    {
+        if (wordLength == word.length)
+        {
+            byte[] larger = new byte[word.length * 2];
+            System.arraycopy(word, 0, larger, 0, wordLength);
+            word = larger;
+        }
+        word[wordLength++] = b;
+    }
+
+    // Same delimiters used by a default StringTokenizer
+    public static boolean isDelimiter(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+}
@@ -0,0 +1,64 @@
+package it.unipi.hadoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-length encoding of non-negative numbers used by the binary index files:
+ *  7 bits per byte, least significant group first, high bit set on all bytes but the last.
+ *
+ * Hadoop's WritableUtils.writeVInt() is fine for the shuffle, but it spends an extra
+ *  length byte on every number above 127, while doc ID gaps and counts in the
+ *  postings are almost always small positive numbers: this encoding needs only
+ *  2 bytes up to 16383 and can be decoded straight from a (memory-mapped) ByteBuffer.
+ */
+public final class VarInt
+{
+    private VarInt() { }
+
+    public static void writeInt(DataOutput out, int value) throws IOException
+    {
+        writeLong(out, value & 0xFFFFFFFFL);
+    }
+
+    public static void writeLong(DataOutput out, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static int readInt(DataInput in) throws IOException { return (int) readLong(in); }
+
+    public static long readLong(DataInput in) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) { return value; }
+        }
+        throw new IOException("Malformed variable-length number");
+    }
+
+    // Reads from the current position of the buffer, advancing it
+    public static int readInt(ByteBuffer buffer) { return (int) readLong(buffer); }
+
+    public static long readLong(ByteBuffer buffer)
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) { return value; }
+        }
+        throw new IllegalStateException("Malformed variable-length number");
+    }
+}
@@ -0,0 +1,130 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+
+import java.io.IOException;
+
+/**
+ * Reads a whole CombineFileSplit by itself, instead of through a CombineFileRecordReader
+ *  that creates a NameAwareRecordReader (and a LineRecordReader, and a FileSplit) for each
+ *  of its files: every small file becomes a single record, its offset is 0 and its value
+ *  holds all of its bytes, read straight into the same Text buffer, reused for all the files.
+ * The mappers are not affected: line breaks are delimiters for the Tokenizer, so a file
+ *  produces the same words whether it comes whole or one line at a time.
+ *
+ * A file still comes line by line (like NameAwareRecordReader does) if it is larger than
+ *  WHOLE_FILE_MAX_KB, which bounds the buffer, if it is compressed, or if the split only
+ *  holds a part of it (files are split by CombineFileInputFormat when they are large).
+ */
+public class WholeFileRecordReader
+        extends RecordReader<FilenameAndOffset, Text>
+{
+    private CombineFileSplit split;
+    private TaskAttemptContext context;
+    private DocumentDictionary documents;
+    private CompressionCodecFactory codecs;
+    private int maxFileLength;
+
+    private final FilenameAndOffset key = new FilenameAndOffset();
+    private final Text value = new Text();
+
+    // The next file (or part of a file) of the split, and the reader of the current one, in line mode
+    private int index;
+    private LineRecordReader lineReader;
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException
+    {
+        this.split = (CombineFileSplit) split;
+        this.context = context;
+        Configuration conf = context.getConfiguration();
+        documents = DocumentDictionary.get(context);
+        codecs = new CompressionCodecFactory(conf);
+        maxFileLength = (int) Math.min(Integer.MAX_VALUE - 8, conf.getLong(
+                NameAwareCombineTextInputFormat.WHOLE_FILE_MAX_KB,
+                NameAwareCombineTextInputFormat.DEFAULT_WHOLE_FILE_MAX_KB) * 1024);
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException
+    {
+        while (true)
+        {
+            if (lineReader != null)
+            {
+                if (lineReader.nextKeyValue())
+                {
+                    key.setOffset(lineReader.getCurrentKey().get());
+                    return true;
+                }
+                lineReader.close();
+                lineReader = null;
+            }
+            if (index == split.getNumPaths()) { return false; }
+
+            Path path = split.getPath(index);
+            long offset = split.getOffset(index);
+            long length = split.getLength(index);
+            index++;
+
+            String filename = path.getName();
+            int docId = documents.getDocId(filename);
+            if (docId < 0) { throw NameAwareRecordReader.unknownDocument(path); }
+            key.setFilename(filename);
+            key.setDocId(docId);
+            key.setOffset(offset);
+
+            if (offset == 0 && length <= maxFileLength && codecs.getCodec(path) == null
+                    && readWholeFile(path, (int) length))
+            {
+                return true;
+            }
+            lineReader = new LineRecordReader();
+            lineReader.initialize(new FileSplit(path, offset, length, split.getLocations()), context);
+        }
+    }
+
+    /**
+     * Reads the first length bytes of the file into the value
+     * @return false if the file is longer, i.e., the split only holds its first part
+     */
+    private boolean readWholeFile(Path path, int length) throws IOException
+    {
+        FileSystem fs = path.getFileSystem(context.getConfiguration());
+        try (FSDataInputStream in = fs.open(path))
+        {
+            value.readWithKnownLength(in, length);
+            return in.read() < 0;
+        }
+    }
+
+    @Override
+    public FilenameAndOffset getCurrentKey() { return key; }
+
+    @Override
+    public Text getCurrentValue() { return lineReader != null ? lineReader.getCurrentValue() : value; }
+
+    // The fraction of the files (or parts of files) of the split already started
+    @Override
+    public float getProgress()
+    {
+        return split.getNumPaths() == 0 ? 1 : (float) index / split.getNumPaths();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (lineReader != null) { lineReader.close(); }
+    }
+}
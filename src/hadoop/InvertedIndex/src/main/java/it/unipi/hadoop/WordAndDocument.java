@@ -0,0 +1,141 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The output key of the mappers: a word and the ID of a document it appears in.
+ *
+ * Putting the document ID in the key (rather than in the value) lets the shuffle sort
+ *  the postings of a word for us ("secondary sort"): the keys are ordered by word, then
+ *  by document ID, the partitioner only looks at the word and the GroupingComparator
+ *  makes a whole word a single reduce() call. While iterating over the values, Hadoop
+ *  deserializes the key of each of them into the same key object, so the reducer sees
+ *  the document IDs in increasing order and never needs to buffer the postings.
+ *
+ * Serialized as the Text word followed by the variable-length document ID, and compared
+ *  directly on the serialized bytes, so the sort never deserializes a key.
+ */
+public class WordAndDocument implements WritableComparable<WordAndDocument>
+{
+    private final Text word = new Text();
+    private int docId;
+
+    static
+    {
+        WritableComparator.define(WordAndDocument.class, new Comparator());
+    }
+
+    public WordAndDocument() { }
+
+    public Text getWord() { return word; }
+    public int getDocId() { return docId; }
+    public void setWord(byte[] bytes, int length) { word.set(bytes, 0, length); }
+    public void setWord(Text word) { this.word.set(word); }
+    public void setDocId(int docId) { this.docId = docId; }
+
+    @Override
+    public void write(DataOutput dataOutput) throws IOException
+    {
+        word.write(dataOutput);
+        WritableUtils.writeVInt(dataOutput, docId);
+    }
+
+    @Override
+    public void readFields(DataInput dataInput) throws IOException
+    {
+        word.readFields(dataInput);
+        docId = WritableUtils.readVInt(dataInput);
+    }
+
+    @Override
+    public int compareTo(WordAndDocument o)
+    {
+        int cmp = word.compareTo(o.word);
+        if (cmp != 0) { return cmp; }
+        return Integer.compare(docId, o.docId);
+    }
+
+    // Not part of the WritableComparable interface but good practice to override for Hadoop keys
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        WordAndDocument that = (WordAndDocument) o;
+        return docId == that.docId && word.equals(that.word);
+    }
+
+    // Text.hashCode() only depends on the bytes of the word, so it's the same in every JVM
+    @Override
+    public int hashCode()
+    {
+        return 31 * word.hashCode() + docId;
+    }
+
+    @Override
+    public String toString() { return word + ":" + docId; }
+
+    /**
+     * Sorts the serialized keys by word (in the same unsigned byte order as Text), then by document ID
+     */
+    public static class Comparator extends WritableComparator
+    {
+        public Comparator() { super(WordAndDocument.class); }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2)
+        {
+            try
+            {
+                int prefix1 = WritableUtils.decodeVIntSize(b1[s1]);
+                int prefix2 = WritableUtils.decodeVIntSize(b2[s2]);
+                int length1 = readVInt(b1, s1);
+                int length2 = readVInt(b2, s2);
+                int cmp = compareBytes(b1, s1 + prefix1, length1, b2, s2 + prefix2, length2);
+                if (cmp != 0) { return cmp; }
+                return Integer.compare(readVInt(b1, s1 + prefix1 + length1), readVInt(b2, s2 + prefix2 + length2));
+            }
+            catch (IOException e)
+            {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    /**
+     * Groups the keys by word only, so that a reduce() call gets all the postings of a word
+     */
+    public static class GroupingComparator extends WritableComparator
+    {
+        public GroupingComparator() { super(WordAndDocument.class); }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2)
+        {
+            try
+            {
+                int prefix1 = WritableUtils.decodeVIntSize(b1[s1]);
+                int prefix2 = WritableUtils.decodeVIntSize(b2[s2]);
+                return compareBytes(b1, s1 + prefix1, readVInt(b1, s1), b2, s2 + prefix2, readVInt(b2, s2));
+            }
+            catch (IOException e)
+            {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b)
+        {
+            return ((WordAndDocument) a).word.compareTo(((WordAndDocument) b).word);
+        }
+    }
+}
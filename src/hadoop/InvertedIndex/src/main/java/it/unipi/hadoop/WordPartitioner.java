@@ -0,0 +1,197 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Decides which reducer gets each word.
+ *
+ * By default it behaves like Hadoop's HashPartitioner. When the job is given a list
+ *  of sorted split points (see WordSampler), it becomes a total-order (range) partitioner:
+ *  reducer i gets the words in [split i-1, split i), so the part-r-* files hold
+ *  disjoint, consecutive ranges of the sorted vocabulary, and a reader can find
+ *  the only part that may contain a word by binary searching the split points.
+ *
+ * A few words (e.g., "the") have a posting in almost every document, and the reducer
+ *  that gets one of them finishes long after the others, no matter how the other
+ *  words are spread. When the job is given a list of such hot terms, their postings are
+ *  salted by document ID across HOT_FANOUT consecutive reducers: each of them writes
+ *  a partial, still sorted, posting list for the term, and the readers merge the
+ *  posting lists of a term found in more than one part.
+ * With the total-order partitioner the reducers of a hot term never wrap around past the
+ *  last one: they are the HOT_FANOUT ones starting at getFirstHotPartition(), a contiguous
+ *  run that includes the range of the term. Still, only the words that are not listed in
+ *  _hotterms are confined to the part findPartition() names: a reader that looks a word up
+ *  by the split points must check _hotterms first, and search a hot term in the parts around
+ *  its own (or in all of them, since the fanout is not recorded in the index).
+ */
+public class WordPartitioner extends Partitioner<WordAndDocument, Writable> implements Configurable
+{
+    // Path of the split points file, one word per line
+    public static final String SPLITS = "invertedindex.partitioner.splits";
+
+    // Path of the hot terms file, one word per line
+    public static final String HOT_TERMS = "invertedindex.partitioner.hot";
+
+    // Number of reducers the postings of a hot term are spread across (default: all of them)
+    public static final String HOT_FANOUT = "invertedindex.hot.fanout";
+
+    // Names of the split points and hot terms files inside the index (output) folder
+    public static final String FILENAME = "_partitions";
+    public static final String HOT_FILENAME = "_hotterms";
+
+    private Configuration conf;
+    private Text[] splits;
+    private Set<Text> hotTerms;
+    private int hotFanout;
+
+    @Override
+    public void setConf(Configuration conf)
+    {
+        this.conf = conf;
+        splits = readWords(conf, SPLITS);
+
+        Text[] words = readWords(conf, HOT_TERMS);
+        if (words != null)
+        {
+            hotTerms = new HashSet<>(Arrays.asList(words));
+            hotFanout = conf.getInt(HOT_FANOUT, Integer.MAX_VALUE);
+        }
+    }
+
+    // Reads the words listed in the file the property points to, if any
+    private static Text[] readWords(Configuration conf, String property)
+    {
+        String path = conf.get(property);
+        if (path == null) { return null; }
+        try
+        {
+            Path file = new Path(path);
+            return readWords(file.getFileSystem(conf), file);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Unable to read " + path, e);
+        }
+    }
+
+    @Override
+    public Configuration getConf() { return conf; }
+
+    @Override
+    public int getPartition(WordAndDocument key, Writable value, int numPartitions)
+    {
+        // Only the word decides the partition, so that a reducer gets all of its documents
+        Text word = key.getWord();
+        int partition = splits == null
+                ? (word.hashCode() & Integer.MAX_VALUE) % numPartitions
+                : findPartition(splits, word.getBytes(), word.getLength());
+
+        // Every posting of a hot term goes to one of the HOT_FANOUT reducers starting at (or before) its own
+        if (hotTerms != null && hotTerms.contains(word))
+        {
+            int fanout = Math.min(hotFanout, numPartitions);
+            partition = splits == null
+                    ? (partition + key.getDocId() % fanout) % numPartitions
+                    : getFirstHotPartition(partition, fanout, numPartitions) + key.getDocId() % fanout;
+        }
+        return partition;
+    }
+
+    /**
+     * The first of the fanout consecutive reducers that get the postings of a hot term in the given
+     *  range of a total order: the range itself, unless that would run past the last reducer
+     */
+    public static int getFirstHotPartition(int partition, int fanout, int numPartitions)
+    {
+        return Math.min(partition, numPartitions - fanout);
+    }
+
+    /**
+     * The number of split points <= word, i.e., the index of the range that contains it
+     */
+    public static int findPartition(Text[] splits, byte[] word, int length)
+    {
+        int low = 0;
+        int high = splits.length;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            Text split = splits[middle];
+            int cmp = WritableComparator.compareBytes(split.getBytes(), 0, split.getLength(), word, 0, length);
+            if (cmp <= 0) { low = middle + 1; }
+            else { high = middle; }
+        }
+        return low;
+    }
+
+    /**
+     * Moves the files written by WordSampler (if any) inside the output folder,
+     *  so that the readers know how the words have been partitioned
+     */
+    public static void commit(Configuration conf, Path outputFolder) throws IOException
+    {
+        commit(conf, SPLITS, new Path(outputFolder, FILENAME));
+        commit(conf, HOT_TERMS, new Path(outputFolder, HOT_FILENAME));
+    }
+
+    private static void commit(Configuration conf, String property, Path destination) throws IOException
+    {
+        if (conf.get(property) == null) { return; }
+        Path file = new Path(conf.get(property));
+        if (!file.getFileSystem(conf).rename(file, destination))
+        {
+            throw new IOException("Unable to move " + file + " into " + destination.getParent());
+        }
+    }
+
+    // Deletes the files written by WordSampler (if any), when the job fails
+    public static void discard(Configuration conf) throws IOException
+    {
+        for (String property : new String[] { SPLITS, HOT_TERMS })
+        {
+            if (conf.get(property) == null) { continue; }
+            Path file = new Path(conf.get(property));
+            file.getFileSystem(conf).delete(file, false);
+        }
+    }
+
+    public static Text[] readWords(FileSystem fs, Path file) throws IOException
+    {
+        try (InputStream in = fs.open(file)) { return readWords(in); }
+    }
+
+    public static Text[] readWords(InputStream in) throws IOException
+    {
+        List<Text> words = new ArrayList<>();
+        LineReader reader = new LineReader(in);
+        Text line = new Text();
+        while (reader.readLine(line) > 0) { words.add(new Text(line)); }
+        return words.toArray(new Text[0]);
+    }
+
+    public static void writeWords(FileSystem fs, Path file, List<Text> words) throws IOException
+    {
+        try (FSDataOutputStream out = fs.create(file, true))
+        {
+            for (Text word : words)
+            {
+                out.write(word.getBytes(), 0, word.getLength());
+                out.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.*;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Estimates how the map output is distributed over the vocabulary, by reading
+ *  a sample of the input splits in the driver before the job is submitted.
+ *
+ * The work of a reducer is proportional to the number of postings (i.e., distinct
+ *  (word, file) pairs) it receives rather than to the number of distinct words,
+ *  and with a Zipfian vocabulary the two are very different: a handful of words
+ *  has a posting in almost every file. Therefore, each sampled word is weighted
+ *  by the number of sampled files it appears in, and the split points of the
+ *  total-order partitioner are chosen so that every reducer gets the same weight.
+ *
+ * Inspired by Hadoop's InputSampler.SplitSampler.
+ */
+public class WordSampler
+{
+    public static final String MAX_SPLITS = "invertedindex.sampler.splits";
+    public static final String MAX_RECORDS = "invertedindex.sampler.records";
+    public static final int DEFAULT_MAX_SPLITS = 10;
+    public static final int DEFAULT_MAX_RECORDS = 10000;
+
+    // Sampled posting volume of each word
+    private final Map<String, long[]> weights = new HashMap<>();
+    private long totalWeight = 0;
+
+    /**
+     * Reads up to MAX_RECORDS lines from each of up to MAX_SPLITS evenly spaced splits.
+     * Must be called after the document dictionary has been added to the job
+     */
+    public static WordSampler sample(Job job) throws IOException, InterruptedException
+    {
+        Configuration conf = job.getConfiguration();
+        int maxSplits = conf.getInt(MAX_SPLITS, DEFAULT_MAX_SPLITS);
+        int maxRecords = conf.getInt(MAX_RECORDS, DEFAULT_MAX_RECORDS);
+
+        // MAX_RECORDS counts lines, even if the mappers read the files whole
+        Configuration sampling = new Configuration(conf);
+        sampling.setBoolean(NameAwareCombineTextInputFormat.WHOLE_FILES, false);
+
+        NameAwareCombineTextInputFormat inputFormat = new NameAwareCombineTextInputFormat();
+        List<InputSplit> splits = inputFormat.getSplits(job);
+        int step = Math.max(1, splits.size() / maxSplits);
+
+        WordSampler sampler = new WordSampler();
+        Tokenizer tokenizer = new Tokenizer();
+        Set<String> wordsOfDocument = new HashSet<>();
+        for (int i = 0; i < splits.size() && i / step < maxSplits; i += step)
+        {
+            TaskAttemptContext context = new TaskAttemptContextImpl(sampling, new TaskAttemptID());
+            try (RecordReader<FilenameAndOffset, Text> reader = inputFormat.createRecordReader(splits.get(i), context))
+            {
+                reader.initialize(splits.get(i), context);
+                int previousDocId = -1;
+                for (int records = 0; records < maxRecords && reader.nextKeyValue(); records++)
+                {
+                    // A split reads each of its files from start to end, one after the other
+                    int docId = reader.getCurrentKey().getDocId();
+                    if (docId != previousDocId) { wordsOfDocument.clear(); }
+                    previousDocId = docId;
+
+                    tokenizer.reset(reader.getCurrentValue());
+                    while (tokenizer.next())
+                    {
+                        String word = new String(tokenizer.getBytes(), 0, tokenizer.getLength(),
+                                StandardCharsets.US_ASCII);
+                        if (wordsOfDocument.add(word)) { sampler.add(word, 1); }
+                    }
+                }
+            }
+        }
+        return sampler;
+    }
+
+    private void add(String word, long weight)
+    {
+        weights.computeIfAbsent(word, w -> new long[1])[0] += weight;
+        totalWeight += weight;
+    }
+
+    public long getTotalWeight() { return totalWeight; }
+
+    /**
+     * The k words with the largest sampled posting volume, i.e., the words that appear in
+     *  most of the sampled documents
+     */
+    public List<Text> getHotTerms(int k)
+    {
+        List<String> words = new ArrayList<>(weights.keySet());
+        words.sort((a, b) -> Long.compare(weights.get(b)[0], weights.get(a)[0]));
+
+        List<Text> hotTerms = new ArrayList<>();
+        for (String word : words.subList(0, Math.min(k, words.size()))) { hotTerms.add(new Text(word)); }
+        return hotTerms;
+    }
+
+    /**
+     * Chooses numPartitions - 1 sorted split points that divide the sampled
+     *  posting volume into (as much as possible) equal ranges.
+     * The hot terms are left out, since their postings are spread across the reducers anyway
+     */
+    public List<Text> getSplitPoints(int numPartitions, List<Text> hotTerms)
+    {
+        Set<String> excluded = new HashSet<>();
+        for (Text hotTerm : hotTerms) { excluded.add(hotTerm.toString()); }
+
+        // Text order (unsigned bytes) is the order the reducers receive the words in;
+        //  for the [a-z] words produced by the Tokenizer it's the same as the String order
+        List<String> words = new ArrayList<>();
+        long total = 0;
+        for (Map.Entry<String, long[]> entry : weights.entrySet())
+        {
+            if (excluded.contains(entry.getKey())) { continue; }
+            words.add(entry.getKey());
+            total += entry.getValue()[0];
+        }
+        Collections.sort(words);
+
+        List<Text> splits = new ArrayList<>();
+        double target = (double) total / numPartitions;
+        long cumulative = 0;
+        for (int i = 0; i < words.size() && splits.size() < numPartitions - 1; i++)
+        {
+            cumulative += weights.get(words.get(i))[0];
+
+            // The next range starts after the word that reached the target
+            if (cumulative >= target * (splits.size() + 1) && i + 1 < words.size())
+            {
+                splits.add(new Text(words.get(i + 1)));
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * Samples the input, writes the split points and/or the hot terms next to the output
+     *  folder and tells WordPartitioner where to find them.
+     * See WordPartitioner.commit() and WordPartitioner.discard()
+     * @param totalOrder whether to partition the words by range rather than by hash
+     * @param numHotTerms how many of the most frequent words to spread across the reducers
+     */
+    public static void configure(Job job, Path outputFolder, boolean totalOrder, int numHotTerms)
+            throws IOException, InterruptedException
+    {
+        if (!totalOrder && numHotTerms <= 0) { return; }
+
+        WordSampler sampler = sample(job);
+        Configuration conf = job.getConfiguration();
+        List<Text> hotTerms = sampler.getHotTerms(numHotTerms);
+        if (!hotTerms.isEmpty())
+        {
+            Path path = new Path(outputFolder.toString() + WordPartitioner.HOT_FILENAME);
+            FileSystem fs = path.getFileSystem(conf);
+            WordPartitioner.writeWords(fs, path, hotTerms);
+            conf.set(WordPartitioner.HOT_TERMS, fs.makeQualified(path).toString());
+        }
+        if (totalOrder)
+        {
+            Path path = new Path(outputFolder.toString() + WordPartitioner.FILENAME);
+            FileSystem fs = path.getFileSystem(conf);
+            WordPartitioner.writeWords(fs, path, sampler.getSplitPoints(job.getNumReduceTasks(), hotTerms));
+            conf.set(WordPartitioner.SPLITS, fs.makeQualified(path).toString());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package it.unipi.hadoop.search;
+
+/**
+ * Iterates over postings already decoded into arrays.
+ * advance() gallops (exponential search followed by a binary search) from the
+ *  current position, so intersecting a short list with a long one costs
+ *  O(short * log(long / short)) instead of O(short + long)
+ */
+public class ArrayPostingIterator implements PostingIterator
+{
+    private final int[] docIds;
+    private final int[] counts;
+    private final int size;
+    private int index = -1;
+    private int docId = -1;
+
+    public ArrayPostingIterator(int[] docIds, int[] counts, int size)
+    {
+        this.docIds = docIds;
+        this.counts = counts;
+        this.size = size;
+    }
+
+    @Override
+    public int docId() { return docId; }
+
+    @Override
+    public int nextDoc()
+    {
+        if (++index >= size) { index = size; return docId = NO_MORE_DOCS; }
+        return docId = docIds[index];
+    }
+
+    @Override
+    public int advance(int target)
+    {
+        int low = index + 1;
+        if (low >= size) { index = size; return docId = NO_MORE_DOCS; }
+        if (docIds[low] >= target) { index = low; return docId = docIds[low]; }
+
+        // Gallop until docIds[high] >= target (or the end of the list)
+        int step = 1;
+        int high = low + step;
+        while (high < size && docIds[high] < target)
+        {
+            low = high;
+            step <<= 1;
+            high = low + step;
+        }
+        if (high >= size) { high = size - 1; }
+        if (docIds[high] < target) { index = size; return docId = NO_MORE_DOCS; }
+
+        // Now docIds[low] < target <= docIds[high]
+        while (high - low > 1)
+        {
+            int middle = (low + high) >>> 1;
+            if (docIds[middle] < target) { low = middle; }
+            else { high = middle; }
+        }
+        index = high;
+        return docId = docIds[high];
+    }
+
+    @Override
+    public int count() { return counts[index]; }
+
+    @Override
+    public long cost() { return size; }
+}
@@ -0,0 +1,187 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.BinaryPostingsOutputFormat;
+import it.unipi.hadoop.CorpusStatistics;
+import it.unipi.hadoop.DocumentDictionary;
+import it.unipi.hadoop.TermDictionary;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * An index written by BinaryPostingsOutputFormat.
+ * The .postings files are memory-mapped, and so are the front-coded term dictionaries of
+ *  the parts (the .dict files, see TermDictionary): the heap only holds their block indexes.
+ * An index written before the .dict files existed gets its dictionaries front coded on the
+ *  heap, from the .terms files, when it is opened.
+ * The .positions files of a positional index are memory-mapped as well
+ */
+public class BinaryIndex extends Index
+{
+    private final DocumentDictionary documents;
+    private final Part[] parts;
+    private final boolean positional;
+
+    private static class Part
+    {
+        FrontCodedDictionary dictionary;
+        MappedFile postings;
+        MappedFile positions;  // null if the index is not positional
+        MappedFile scores;     // null if the index has no statistics
+    }
+
+    public BinaryIndex(Path folder, List<Path> files) throws IOException
+    {
+        try (InputStream in = Files.newInputStream(folder.resolve(DocumentDictionary.FILENAME)))
+        {
+            documents = DocumentDictionary.read(in);
+        }
+
+        List<Part> parts = new ArrayList<>();
+        for (Path file : files)
+        {
+            String name = file.getFileName().toString();
+            if (!name.endsWith(BinaryPostingsOutputFormat.TERMS_EXTENSION)) { continue; }
+            String base = name.substring(0, name.length() - BinaryPostingsOutputFormat.TERMS_EXTENSION.length());
+            parts.add(openPart(file, folder.resolve(base + TermDictionary.EXTENSION),
+                    folder.resolve(base + BinaryPostingsOutputFormat.POSTINGS_EXTENSION),
+                    folder.resolve(base + BinaryPostingsOutputFormat.POSITIONS_EXTENSION),
+                    folder.resolve(base + CorpusStatistics.SCORES_EXTENSION)));
+        }
+        this.parts = parts.toArray(new Part[0]);
+
+        positional = !parts.isEmpty() && parts.get(0).positions != null;
+        for (Part part : parts)
+        {
+            if ((part.positions != null) != positional)
+            {
+                throw new IOException(folder + " mixes positional and non-positional parts");
+            }
+        }
+    }
+
+    private static Part openPart(Path terms, Path dictionary, Path postings, Path positions, Path scores)
+            throws IOException
+    {
+        Part part = new Part();
+        part.postings = new MappedFile(postings);
+        boolean positional = Files.exists(positions);
+        if (positional) { part.positions = new MappedFile(positions); }
+
+        if (Files.exists(dictionary)) { part.dictionary = new FrontCodedDictionary(new MappedFile(dictionary)); }
+        else
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(terms))))
+            {
+                TermDictionary.write(in, part.postings.length(),
+                        positional ? part.positions.length() : 0, bytes);
+            }
+            part.dictionary = new FrontCodedDictionary(new MappedFile(ByteBuffer.wrap(bytes.toByteArray())));
+        }
+        if (part.dictionary.isText()) { throw new IOException(dictionary + " is the dictionary of a text part"); }
+        if (part.dictionary.isPositional() != positional)
+        {
+            throw new IOException(terms + (positional ? " is not" : " is") + " positional, unlike the files next to it");
+        }
+        if (Files.exists(scores)) { part.scores = new MappedFile(scores); }
+        return part;
+    }
+
+    // A big-endian int, as written by DataOutput
+    private static int readInt(MappedFile file, long position)
+    {
+        int value = 0;
+        for (int i = 0; i < 4; i++) { value = value << 8 | (file.get(position + i) & 0xFF); }
+        return value;
+    }
+
+    @Override
+    public String getFilename(int docId) { return documents.getFilename(docId); }
+
+    @Override
+    public boolean hasPositions() { return positional; }
+
+    @Override
+    public PositionIterator positions(String term) throws IOException
+    {
+        if (!positional) { return super.positions(term); }
+        // The iterators of a positional index (and their merge) are all PositionIterators
+        return (PositionIterator) postings(term);
+    }
+
+    @Override
+    public PostingIterator postings(byte[] term)
+    {
+        List<PostingIterator> found = new ArrayList<>(1);
+        for (Part part : parts)
+        {
+            FrontCodedDictionary.Cursor cursor = part.dictionary.cursor();
+            if (cursor.seek(term) && cursor.matches(term)) { found.add(iterator(part, cursor)); }
+        }
+        return merge(found);
+    }
+
+    @Override
+    public List<String> terms(byte[] start, byte[] end, int limit)
+    {
+        // The first limit terms of the whole index are among the first limit terms of each part
+        TreeSet<String> terms = new TreeSet<>();
+        for (Part part : parts)
+        {
+            FrontCodedDictionary.Cursor cursor = part.dictionary.cursor();
+            int taken = 0;
+            for (boolean more = cursor.seek(start); more && taken < limit; more = cursor.next(), taken++)
+            {
+                if (end != null && FrontCodedDictionary.compare(cursor.term(), 0, cursor.termLength(),
+                        end, end.length) >= 0) { break; }
+                terms.add(new String(cursor.term(), 0, cursor.termLength(), StandardCharsets.UTF_8));
+            }
+        }
+        List<String> sorted = new ArrayList<>(terms);
+        return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+    }
+
+    @Override
+    public double maxScore(String term) throws IOException
+    {
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        double max = 0;
+        for (Part part : parts)
+        {
+            if (part.scores == null) { return super.maxScore(term); }
+            FrontCodedDictionary.Cursor cursor = part.dictionary.cursor();
+            if (cursor.seek(bytes) && cursor.matches(bytes))
+            {
+                max = Math.max(max, Float.intBitsToFloat(readInt(part.scores, 4L * cursor.ordinal())));
+            }
+        }
+        return max;
+    }
+
+    // The heap taken by the term dictionaries, in bytes
+    public long getDictionaryHeapBytes()
+    {
+        long bytes = 0;
+        for (Part part : parts) { bytes += part.dictionary.getHeapBytes(); }
+        return bytes;
+    }
+
+    private static PostingIterator iterator(Part part, FrontCodedDictionary.Cursor cursor)
+    {
+        ByteBuffer postings = part.postings.slice(cursor.postingsOffset(), (int) cursor.postingsLength());
+        if (part.positions == null) { return new BlockPostingIterator(postings, cursor.documentFrequency()); }
+        return new BlockPostingIterator(postings, cursor.documentFrequency(),
+                part.positions.slice(cursor.positionsOffset(), (int) cursor.positionsLength()));
+    }
+}
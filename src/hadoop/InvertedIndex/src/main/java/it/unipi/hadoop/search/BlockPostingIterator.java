@@ -0,0 +1,153 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.BinaryPostingsOutputFormat;
+import it.unipi.hadoop.VarInt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lazily decodes the postings of a term stored by BinaryPostingsOutputFormat.
+ * Only one block is decoded at a time, and advance() skips the blocks that end
+ *  before the target by looking at their headers only, without decoding them.
+ * The positions of a positional index are decoded only when asked for, and only
+ *  for the current posting: skipping a block skips its positions as well
+ */
+public class BlockPostingIterator implements PositionIterator
+{
+    private static final int BLOCK_SIZE = BinaryPostingsOutputFormat.BLOCK_SIZE;
+
+    private final ByteBuffer buffer;
+    private final int documentFrequency;
+    private final ByteBuffer positionsBuffer;  // null if the index is not positional
+
+    // The decoded block
+    private final int[] docIds = new int[BLOCK_SIZE];
+    private final int[] counts = new int[BLOCK_SIZE];
+    private int blockLength = 0;
+    private int index = 0;
+
+    private int consumed = 0;           // postings in the blocks before the next one
+    private int previousBlockLastDocId = 0;
+    private int docId = -1;
+
+    // The positions of the decoded block
+    private int nextBlockPositions = 0;  // where the positions of the next block start
+    private int positionsIndex = 0;      // the posting whose positions start at positionsBuffer.position()
+    private int[] positions = new int[16];
+    private int positionsDecoded = -1;   // the posting whose positions are in the array
+
+    public BlockPostingIterator(ByteBuffer buffer, int documentFrequency)
+    {
+        this(buffer, documentFrequency, null);
+    }
+
+    public BlockPostingIterator(ByteBuffer buffer, int documentFrequency, ByteBuffer positionsBuffer)
+    {
+        this.buffer = buffer;
+        this.documentFrequency = documentFrequency;
+        this.positionsBuffer = positionsBuffer;
+    }
+
+    @Override
+    public int docId() { return docId; }
+
+    @Override
+    public int nextDoc()
+    {
+        if (++index < blockLength) { return docId = docIds[index]; }
+        if (consumed == documentFrequency) { return docId = NO_MORE_DOCS; }
+        int lastDocIdGap = VarInt.readInt(buffer);
+        VarInt.readInt(buffer);
+        readBlock(lastDocIdGap, readPositionsLength());
+        return docId = docIds[0];
+    }
+
+    @Override
+    public int advance(int target)
+    {
+        // The target may be in the current block
+        if (blockLength > 0 && docIds[blockLength - 1] >= target)
+        {
+            while (docIds[++index] < target) { }
+            return docId = docIds[index];
+        }
+
+        // Otherwise, skip all the blocks that end before it
+        while (consumed < documentFrequency)
+        {
+            int lastDocId = previousBlockLastDocId + VarInt.readInt(buffer);
+            int payloadLength = VarInt.readInt(buffer);
+            int positionsLength = readPositionsLength();
+            if (lastDocId >= target)
+            {
+                readBlock(lastDocId - previousBlockLastDocId, positionsLength);
+                index = 0;
+                while (docIds[index] < target) { index++; }
+                return docId = docIds[index];
+            }
+            buffer.position(buffer.position() + payloadLength);
+            nextBlockPositions += positionsLength;
+            previousBlockLastDocId = lastDocId;
+            consumed += Math.min(BLOCK_SIZE, documentFrequency - consumed);
+        }
+        blockLength = 0;
+        return docId = NO_MORE_DOCS;
+    }
+
+    // The last field of the header of a block, only in a positional index
+    private int readPositionsLength() { return positionsBuffer == null ? 0 : VarInt.readInt(buffer); }
+
+    // Decodes the payload of the next block, whose header has already been read
+    private void readBlock(int lastDocIdGap, int positionsLength)
+    {
+        blockLength = Math.min(BLOCK_SIZE, documentFrequency - consumed);
+        int previousDocId = previousBlockLastDocId;
+        for (int i = 0; i < blockLength; i++)
+        {
+            previousDocId += VarInt.readInt(buffer);
+            docIds[i] = previousDocId;
+            counts[i] = VarInt.readInt(buffer);
+        }
+        previousBlockLastDocId += lastDocIdGap;
+        consumed += blockLength;
+        index = 0;
+
+        if (positionsBuffer != null)
+        {
+            positionsBuffer.position(nextBlockPositions);
+            nextBlockPositions += positionsLength;
+            positionsIndex = 0;
+            positionsDecoded = -1;
+        }
+    }
+
+    @Override
+    public int[] positions()
+    {
+        if (positionsBuffer == null) { throw new IllegalStateException("The index is not positional"); }
+        if (positionsDecoded == index) { return positions; }
+
+        // Skip the positions of the postings of the block before the current one
+        for (; positionsIndex < index; positionsIndex++)
+        {
+            for (int i = 0; i < counts[positionsIndex]; i++) { VarInt.readInt(positionsBuffer); }
+        }
+        int count = counts[index];
+        if (positions.length < count) { positions = new int[Math.max(count, 2 * positions.length)]; }
+        int position = 0;
+        for (int i = 0; i < count; i++)
+        {
+            position += VarInt.readInt(positionsBuffer);
+            positions[i] = position;
+        }
+        positionsIndex++;
+        positionsDecoded = index;
+        return positions;
+    }
+
+    @Override
+    public int count() { return counts[index]; }
+
+    @Override
+    public long cost() { return documentFrequency; }
+}
@@ -0,0 +1,301 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.Tokenizer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Parses a query into a tree of clauses, which SearchIndex turns into a tree of iterators:
+ *
+ *      query   := or
+ *      or      := and ("OR" and)*
+ *      and     := unary (["AND"] unary)*         words next to each other are ANDed
+ *      unary   := "NOT" unary | primary
+ *      primary := "(" or ")" | "word" | "prefix*" | "phrase words"[~slop]
+ *
+ * The operators must be uppercase: "and", "or" and "not" are plain words.
+ * Words are cleaned like the mappers do, and a word left with no letters is ignored, like
+ *  an empty group or an operator with nothing to apply to: a missing ")" or a missing
+ *  closing quote just ends with the query, and NOT NOT x is x.
+ *
+ * A negation only removes documents from the clauses it is ANDed with, since the index cannot
+ *  list all the documents: a NOT that is not ANDed with any clause without NOT (on its own, or
+ *  directly under an OR) is the only error, an IllegalArgumentException.
+ */
+public class BooleanQuery
+{
+    public abstract static class Node
+    {
+        /**
+         * The same clause, with the operands of AND and OR sorted and deduplicated (both are
+         *  commutative): equivalent queries have the same canonical form, which parses back to the same tree
+         */
+        public abstract String canonical();
+    }
+
+    public static final class Term extends Node
+    {
+        public final String term;
+
+        Term(String term) { this.term = term; }
+
+        @Override
+        public String canonical() { return term; }
+    }
+
+    // The terms that start with a prefix (comput* -> compute, computer, computing...)
+    public static final class Prefix extends Node
+    {
+        public final String prefix;
+
+        Prefix(String prefix) { this.prefix = prefix; }
+
+        @Override
+        public String canonical() { return prefix + "*"; }
+    }
+
+    // A phrase with at least two words, already normalized
+    public static final class Phrase extends Node
+    {
+        public final String[] terms;
+        public final int slop;  // PhraseIterator.EXACT, or the maximum number of extra words in between
+
+        Phrase(String[] terms, int slop)
+        {
+            this.terms = terms;
+            this.slop = slop;
+        }
+
+        @Override
+        public String canonical()
+        {
+            return "\"" + String.join(" ", terms) + "\"" + (slop == PhraseIterator.EXACT ? "" : "~" + slop);
+        }
+    }
+
+    public static final class Not extends Node
+    {
+        public final Node clause;
+
+        Not(Node clause) { this.clause = clause; }
+
+        @Override
+        public String canonical()
+        {
+            boolean group = clause instanceof And || clause instanceof Or;
+            return "NOT " + (group ? "(" + clause.canonical() + ")" : clause.canonical());
+        }
+    }
+
+    public static final class And extends Node
+    {
+        public final List<Node> clauses;  // at least two, all different
+
+        And(List<Node> clauses) { this.clauses = clauses; }
+
+        @Override
+        public String canonical()
+        {
+            // AND binds tighter than OR, so only an OR needs parentheses
+            TreeSet<String> operands = new TreeSet<>();
+            for (Node clause : clauses)
+            {
+                operands.add(clause instanceof Or ? "(" + clause.canonical() + ")" : clause.canonical());
+            }
+            return String.join(" ", operands);
+        }
+    }
+
+    public static final class Or extends Node
+    {
+        public final List<Node> clauses;  // at least two, all different
+
+        Or(List<Node> clauses) { this.clauses = clauses; }
+
+        @Override
+        public String canonical() { return String.join(" OR ", new TreeSet<>(canonicals(clauses))); }
+    }
+
+    private static List<String> canonicals(List<Node> clauses)
+    {
+        List<String> canonicals = new ArrayList<>(clauses.size());
+        for (Node clause : clauses) { canonicals.add(clause.canonical()); }
+        return canonicals;
+    }
+
+    /**
+     * @return the root of the tree, or null if the query has no clauses (e.g., no words)
+     * @throws IllegalArgumentException if a NOT has no clause to remove documents from
+     */
+    public static Node parse(String query)
+    {
+        Node root = new BooleanQuery(tokenize(query)).parseOr();
+        if (root instanceof Not) { throw negationError(root); }
+        return root;
+    }
+
+    private static IllegalArgumentException negationError(Node clause)
+    {
+        return new IllegalArgumentException(clause.canonical() + " must be ANDed with a clause without NOT");
+    }
+
+    // The tokens of a query: parentheses, phrases (with their quotes and slop) and words
+    private static List<String> tokenize(String query)
+    {
+        List<String> tokens = new ArrayList<>();
+        int depth = 0;
+        int position = 0;
+        while (position < query.length())
+        {
+            char c = query.charAt(position);
+            if (Character.isWhitespace(c)) { position++; }
+            else if (c == '(' || c == ')')
+            {
+                // A ")" with no "(" to close is dropped
+                if (c == '(') { depth++; }
+                else if (depth > 0) { depth--; }
+                else
+                {
+                    position++;
+                    continue;
+                }
+                tokens.add(String.valueOf(c));
+                position++;
+            }
+            else if (c == '"')
+            {
+                int close = query.indexOf('"', position + 1);
+                int end = close < 0 ? query.length() : close + 1;
+                if (end < query.length() && query.charAt(end) == '~')
+                {
+                    end++;
+                    while (end < query.length() && Character.isDigit(query.charAt(end))) { end++; }
+                }
+                tokens.add(query.substring(position, end));
+                position = end;
+            }
+            else
+            {
+                int end = position;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end))
+                        && "()\"".indexOf(query.charAt(end)) < 0) { end++; }
+                tokens.add(query.substring(position, end));
+                position = end;
+            }
+        }
+        return tokens;
+    }
+
+    private final List<String> tokens;
+    private int next;
+
+    private BooleanQuery(List<String> tokens) { this.tokens = tokens; }
+
+    private String peek() { return next < tokens.size() ? tokens.get(next) : null; }
+
+    private Node parseOr()
+    {
+        List<Node> clauses = new ArrayList<>();
+        while (peek() != null && !peek().equals(")"))
+        {
+            if (peek().equals("OR"))
+            {
+                next++;
+                continue;
+            }
+            add(clauses, parseAnd(), Or.class);
+        }
+        return group(clauses, false);
+    }
+
+    private Node parseAnd()
+    {
+        List<Node> clauses = new ArrayList<>();
+        while (peek() != null && !peek().equals(")") && !peek().equals("OR"))
+        {
+            if (peek().equals("AND"))
+            {
+                next++;
+                continue;
+            }
+            add(clauses, parseUnary(), And.class);
+        }
+        return group(clauses, true);
+    }
+
+    private Node parseUnary()
+    {
+        if ("NOT".equals(peek()))
+        {
+            next++;
+            Node clause = peek() == null || peek().equals(")") || peek().equals("OR") ? null : parseUnary();
+            if (clause instanceof Not) { return ((Not) clause).clause; }
+            return clause == null ? null : new Not(clause);
+        }
+        return parsePrimary();
+    }
+
+    private Node parsePrimary()
+    {
+        String token = tokens.get(next++);
+        if (token.equals("("))
+        {
+            Node group = parseOr();
+            if (")".equals(peek())) { next++; }
+            return group;
+        }
+        if (token.startsWith("\"")) { return phrase(token); }
+
+        String[] terms = Tokenizer.normalize(token);
+        if (terms.length == 0) { return null; }
+        return token.endsWith("*") ? new Prefix(terms[0]) : new Term(terms[0]);
+    }
+
+    private static Node phrase(String token)
+    {
+        int close = token.indexOf('"', 1);
+        String[] terms = Tokenizer.normalize(token.substring(1, close < 0 ? token.length() : close));
+        int slop = PhraseIterator.EXACT;
+        int tilde = close < 0 ? -1 : close + 1;
+        if (tilde > 0 && tilde + 1 < token.length()) { slop = Integer.parseInt(token.substring(tilde + 1)); }
+
+        // A phrase with a single word is just a word
+        if (terms.length == 0) { return null; }
+        if (terms.length == 1) { return new Term(terms[0]); }
+        return new Phrase(terms, slop);
+    }
+
+    // Adds a clause to an AND (or an OR), merging it if it's an AND (an OR) itself
+    private static void add(List<Node> clauses, Node clause, Class<? extends Node> type)
+    {
+        if (clause == null) { return; }
+        if (type == And.class && clause instanceof And) { clauses.addAll(((And) clause).clauses); }
+        else if (type == Or.class && clause instanceof Or) { clauses.addAll(((Or) clause).clauses); }
+        else { clauses.add(clause); }
+    }
+
+    private static Node group(List<Node> clauses, boolean and)
+    {
+        // The same operand twice is the same operand once, for both operators
+        Map<String, Node> distinct = new LinkedHashMap<>();
+        for (Node clause : clauses) { distinct.putIfAbsent(clause.canonical(), clause); }
+        List<Node> operands = new ArrayList<>(distinct.values());
+
+        if (operands.isEmpty()) { return null; }
+        if (operands.size() == 1) { return operands.get(0); }
+
+        // A NOT needs a clause without NOT next to it, in its AND
+        boolean negations = true;
+        for (Node operand : operands)
+        {
+            if (!(operand instanceof Not)) { negations = false; }
+            else if (!and) { throw negationError(operand); }
+        }
+        if (negations) { throw negationError(operands.get(0)); }
+        return and ? new And(operands) : new Or(operands);
+    }
+}
@@ -0,0 +1,68 @@
+package it.unipi.hadoop.search;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Intersects posting lists (AND).
+ * The rarest list leads: each of its documents is looked up in the other lists,
+ *  from the rarest to the most common, with advance(), which lets them skip
+ *  (or gallop over) all the postings in between.
+ * count() is the sum of the counts of the current document in all the lists.
+ */
+public class ConjunctionIterator implements PostingIterator
+{
+    private final PostingIterator lead;
+    private final PostingIterator[] others;
+    private int docId = -1;
+
+    public ConjunctionIterator(PostingIterator... iterators)
+    {
+        PostingIterator[] sorted = iterators.clone();
+        Arrays.sort(sorted, Comparator.comparingLong(PostingIterator::cost));
+        lead = sorted[0];
+        others = Arrays.copyOfRange(sorted, 1, sorted.length);
+    }
+
+    @Override
+    public int docId() { return docId; }
+
+    @Override
+    public int nextDoc() { return docId = align(lead.nextDoc()); }
+
+    @Override
+    public int advance(int target) { return docId = align(lead.advance(target)); }
+
+    // Starting from a candidate of the lead, finds the first document all the lists agree on
+    private int align(int candidate)
+    {
+        outer:
+        while (candidate != NO_MORE_DOCS)
+        {
+            for (PostingIterator other : others)
+            {
+                int otherDocId = other.docId();
+                if (otherDocId < candidate) { otherDocId = other.advance(candidate); }
+                if (otherDocId > candidate)
+                {
+                    // The candidate is missing from this list, restart from the first one it has
+                    candidate = lead.advance(otherDocId);
+                    continue outer;
+                }
+            }
+            return candidate;
+        }
+        return NO_MORE_DOCS;
+    }
+
+    @Override
+    public int count()
+    {
+        int count = lead.count();
+        for (PostingIterator other : others) { count += other.count(); }
+        return count;
+    }
+
+    @Override
+    public long cost() { return lead.cost(); }
+}
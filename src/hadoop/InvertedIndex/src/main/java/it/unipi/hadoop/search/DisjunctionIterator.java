@@ -0,0 +1,125 @@
+package it.unipi.hadoop.search;
+
+/**
+ * Merges posting lists (OR), keeping the iterators in a binary min-heap
+ *  ordered by their current document.
+ * count() is the sum of the counts of the current document in all the lists
+ *  that contain it, e.g., the partial postings of the same term found in different parts.
+ * positions() are the ones of the first list that contains the current document, which
+ *  must be a PositionIterator: the partial postings of the same term never share a document.
+ */
+public class DisjunctionIterator implements PositionIterator
+{
+    private final PostingIterator[] heap;
+    private final long cost;
+    private int size;
+    private int docId = -1;
+
+    public DisjunctionIterator(PostingIterator... iterators)
+    {
+        heap = iterators.clone();
+        size = heap.length;
+        long total = 0;
+        for (PostingIterator iterator : iterators) { total += iterator.cost(); }
+        cost = total;
+    }
+
+    @Override
+    public int docId() { return docId; }
+
+    @Override
+    public int nextDoc()
+    {
+        if (docId == -1)
+        {
+            // First call: position every iterator on its first document
+            for (int i = 0; i < size; i++) { heap[i].nextDoc(); }
+            heapify();
+        }
+        else
+        {
+            while (size > 0 && heap[0].docId() == docId)
+            {
+                heap[0].nextDoc();
+                siftDownOrRemoveTop();
+            }
+        }
+        return docId = size == 0 ? NO_MORE_DOCS : heap[0].docId();
+    }
+
+    @Override
+    public int advance(int target)
+    {
+        if (docId == -1)
+        {
+            for (int i = 0; i < size; i++) { heap[i].advance(target); }
+            heapify();
+        }
+        else
+        {
+            while (size > 0 && heap[0].docId() < target)
+            {
+                heap[0].advance(target);
+                siftDownOrRemoveTop();
+            }
+        }
+        return docId = size == 0 ? NO_MORE_DOCS : heap[0].docId();
+    }
+
+    @Override
+    public int count()
+    {
+        // The iterators on the current document are the top of the heap and (recursively) its children
+        return countFrom(0);
+    }
+
+    private int countFrom(int node)
+    {
+        if (node >= size || heap[node].docId() != docId) { return 0; }
+        return heap[node].count() + countFrom(2 * node + 1) + countFrom(2 * node + 2);
+    }
+
+    @Override
+    public int[] positions() { return ((PositionIterator) heap[0]).positions(); }
+
+    @Override
+    public long cost() { return cost; }
+
+    private void heapify()
+    {
+        // Drop the iterators that are already exhausted
+        int kept = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (heap[i].docId() != NO_MORE_DOCS) { heap[kept++] = heap[i]; }
+        }
+        size = kept;
+        for (int i = size / 2 - 1; i >= 0; i--) { siftDown(i); }
+    }
+
+    private void siftDownOrRemoveTop()
+    {
+        if (heap[0].docId() == NO_MORE_DOCS)
+        {
+            heap[0] = heap[--size];
+            heap[size] = null;
+        }
+        if (size > 0) { siftDown(0); }
+    }
+
+    private void siftDown(int node)
+    {
+        PostingIterator iterator = heap[node];
+        int docId = iterator.docId();
+        while (true)
+        {
+            int child = 2 * node + 1;
+            if (child >= size) { break; }
+            if (child + 1 < size && heap[child + 1].docId() < heap[child].docId()) { child++; }
+            if (heap[child].docId() >= docId) { break; }
+            heap[node] = heap[child];
+            node = child;
+        }
+        heap[node] = iterator;
+    }
+}
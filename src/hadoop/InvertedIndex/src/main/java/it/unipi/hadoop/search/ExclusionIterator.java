@@ -0,0 +1,47 @@
+package it.unipi.hadoop.search;
+
+/**
+ * The documents of a list that are not in another one (AND NOT).
+ * The excluded list is only advanced to the candidates of the required one, so it is
+ *  skipped like the other lists of a ConjunctionIterator, and never scanned in full.
+ * count() is the count of the required list.
+ */
+public class ExclusionIterator implements PostingIterator
+{
+    private final PostingIterator required;
+    private final PostingIterator excluded;
+    private int docId = -1;
+
+    public ExclusionIterator(PostingIterator required, PostingIterator excluded)
+    {
+        this.required = required;
+        this.excluded = excluded;
+    }
+
+    @Override
+    public int docId() { return docId; }
+
+    @Override
+    public int nextDoc() { return docId = skipExcluded(required.nextDoc()); }
+
+    @Override
+    public int advance(int target) { return docId = skipExcluded(required.advance(target)); }
+
+    private int skipExcluded(int candidate)
+    {
+        while (candidate != NO_MORE_DOCS)
+        {
+            int excludedDocId = excluded.docId();
+            if (excludedDocId < candidate) { excludedDocId = excluded.advance(candidate); }
+            if (excludedDocId != candidate) { return candidate; }
+            candidate = required.nextDoc();
+        }
+        return NO_MORE_DOCS;
+    }
+
+    @Override
+    public int count() { return required.count(); }
+
+    @Override
+    public long cost() { return required.cost(); }
+}
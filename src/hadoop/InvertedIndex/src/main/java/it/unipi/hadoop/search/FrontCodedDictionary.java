@@ -0,0 +1,201 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.TermDictionary;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads a .dict file written by TermDictionary, memory-mapped (of a binary or a text part).
+ * Only the block index is kept on the heap: the offset and the first term of each block.
+ * Thread-safe, as long as each thread uses its own Cursor.
+ */
+class FrontCodedDictionary
+{
+    private static final int B = TermDictionary.TERMS_PER_BLOCK;
+
+    private final MappedFile file;
+    private final boolean positional;
+    private final boolean text;
+    private final int size;
+    private final long[] blockOffsets;
+    private final byte[] firstTerms;  // The first terms of all the blocks, one after the other
+    private final int[] firstTermStarts;  // Where each of them starts, plus where the last one ends
+
+    FrontCodedDictionary(MappedFile file) throws IOException
+    {
+        this.file = file;
+        int magic = readInt(file, 0);
+        if (magic != TermDictionary.MAGIC && magic != TermDictionary.POSITIONAL_MAGIC
+                && magic != TermDictionary.TEXT_MAGIC)
+        {
+            throw new IOException("Not a front-coded term dictionary (bad magic number)");
+        }
+        positional = magic == TermDictionary.POSITIONAL_MAGIC;
+        text = magic == TermDictionary.TEXT_MAGIC;
+
+        long[] cursor = { readLong(file, file.length() - 8) };
+        size = (int) file.readVarLong(cursor);
+        int blocks = (size + B - 1) / B;
+        blockOffsets = new long[blocks];
+        firstTermStarts = new int[blocks + 1];
+        byte[] terms = new byte[Math.max(16, blocks * 8)];
+        int length = 0;
+        long offset = 0;
+        for (int block = 0; block < blocks; block++)
+        {
+            offset += file.readVarLong(cursor);
+            blockOffsets[block] = offset;
+            int termLength = (int) file.readVarLong(cursor);
+            if (length + termLength > terms.length)
+            {
+                terms = Arrays.copyOf(terms, Math.max(length + termLength, terms.length * 2));
+            }
+            for (int i = 0; i < termLength; i++) { terms[length++] = file.get(cursor[0]++); }
+            firstTermStarts[block + 1] = length;
+        }
+        firstTerms = Arrays.copyOf(terms, length);
+    }
+
+    boolean isPositional() { return positional; }
+
+    // Whether it indexes the lines of a text part, rather than a .postings file
+    boolean isText() { return text; }
+
+    int size() { return size; }
+
+    // The heap taken by the block index, in bytes (roughly)
+    long getHeapBytes() { return 8L * blockOffsets.length + 4L * firstTermStarts.length + firstTerms.length; }
+
+    Cursor cursor() { return new Cursor(); }
+
+    // The last block whose first term is <= term (0 if the term comes before all of them)
+    private int findBlock(byte[] term)
+    {
+        int low = 0;
+        int high = blockOffsets.length - 1;
+        while (low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if (compareFirstTerm(middle, term) <= 0) { low = middle; }
+            else { high = middle - 1; }
+        }
+        return low;
+    }
+
+    private int compareFirstTerm(int block, byte[] term)
+    {
+        int start = firstTermStarts[block];
+        int length = firstTermStarts[block + 1] - start;
+        return compare(firstTerms, start, length, term, term.length);
+    }
+
+    // Compares as unsigned bytes, like Text (and MappedFile.compare())
+    static int compare(byte[] a, int start, int length, byte[] b, int bLength)
+    {
+        int common = Math.min(length, bLength);
+        for (int i = 0; i < common; i++)
+        {
+            int cmp = (a[start + i] & 0xFF) - (b[i] & 0xFF);
+            if (cmp != 0) { return cmp; }
+        }
+        return length - bLength;
+    }
+
+    private static int readInt(MappedFile file, long position)
+    {
+        int value = 0;
+        for (int i = 0; i < 4; i++) { value = value << 8 | (file.get(position + i) & 0xFF); }
+        return value;
+    }
+
+    private static long readLong(MappedFile file, long position)
+    {
+        return (long) readInt(file, position) << 32 | (readInt(file, position + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Walks the terms of the dictionary in order, decoding one entry at a time:
+     *
+     *      Cursor cursor = dictionary.cursor();
+     *      if (cursor.seek(term)) { ... }  // the first term >= term
+     *      while (cursor.next()) { ... }
+     */
+    class Cursor
+    {
+        private final long[] position = new long[1];
+        private int ordinal = -1;
+        private byte[] term = new byte[64];
+        private int termLength;
+        private int documentFrequency;
+        private long postingsOffset;
+        private long postingsLength;
+        private long positionsOffset;
+        private long positionsLength;
+
+        // Moves to the next term, false if there are no more
+        boolean next()
+        {
+            if (ordinal + 1 >= size)
+            {
+                ordinal = size;
+                return false;
+            }
+            ordinal++;
+            if (ordinal % B == 0)
+            {
+                position[0] = blockOffsets[ordinal / B];
+                postingsOffset = file.readVarLong(position);
+                if (positional) { positionsOffset = file.readVarLong(position); }
+            }
+            else
+            {
+                postingsOffset += postingsLength;
+                positionsOffset += positionsLength;
+            }
+
+            int prefix = (int) file.readVarLong(position);
+            int suffix = (int) file.readVarLong(position);
+            termLength = prefix + suffix;
+            if (term.length < termLength) { term = Arrays.copyOf(term, Math.max(termLength, term.length * 2)); }
+            for (int i = prefix; i < termLength; i++) { term[i] = file.get(position[0]++); }
+            documentFrequency = (int) file.readVarLong(position);
+            postingsLength = file.readVarLong(position);
+            if (positional) { positionsLength = file.readVarLong(position); }
+            return true;
+        }
+
+        /**
+         * Moves to the first term that is >= the given one, decoding a single block
+         * @return false if all the terms are smaller
+         */
+        boolean seek(byte[] target)
+        {
+            if (size == 0) { return false; }
+            ordinal = findBlock(target) * B - 1;
+            while (next())
+            {
+                if (compare(term, 0, termLength, target, target.length) >= 0) { return true; }
+            }
+            return false;
+        }
+
+        // Whether the cursor is on the given term
+        boolean matches(byte[] target)
+        {
+            return ordinal < size && compare(term, 0, termLength, target, target.length) == 0;
+        }
+
+        int ordinal() { return ordinal; }
+
+        // Only the first termLength() bytes are valid, and only until the cursor moves
+        byte[] term() { return term; }
+        int termLength() { return termLength; }
+
+        int documentFrequency() { return documentFrequency; }
+        long postingsOffset() { return postingsOffset; }
+        long postingsLength() { return postingsLength; }
+        long positionsOffset() { return positionsOffset; }
+        long positionsLength() { return positionsLength; }
+    }
+}
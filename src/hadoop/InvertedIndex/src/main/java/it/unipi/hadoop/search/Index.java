@@ -0,0 +1,182 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.BinaryPostingsOutputFormat;
+import it.unipi.hadoop.CorpusStatistics;
+import it.unipi.hadoop.DuplicateDetector;
+import it.unipi.hadoop.Manifest;
+import it.unipi.hadoop.ShardedIndexer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only view of an index (the output folder of the job, copied on the local
+ *  file system), in either the text or the binary format.
+ * Implementations memory-map the part files and keep on the heap only what
+ *  is needed to find a term, so they open quickly and are safe to share among threads.
+ */
+public abstract class Index
+{
+    private CorpusStatistics statistics;
+    private Map<String, List<String>> aliases = Collections.emptyMap();
+
+    public static Index open(Path folder) throws IOException
+    {
+        Path manifest = folder.resolve(Manifest.FILENAME);
+        if (Files.exists(manifest))
+        {
+            try (InputStream in = Files.newInputStream(manifest)) { return new SegmentedIndex(folder, Manifest.read(in)); }
+        }
+        if (Files.exists(folder.resolve(ShardedIndexer.FILENAME)))
+        {
+            throw new IOException(folder + " is sharded: open its shards, or search it with ShardedSearch");
+        }
+
+        List<Path> parts = listParts(folder);
+        boolean binary = false;
+        for (Path part : parts)
+        {
+            if (part.getFileName().toString().endsWith(BinaryPostingsOutputFormat.TERMS_EXTENSION)) { binary = true; }
+        }
+        Index index = binary ? new BinaryIndex(folder, parts) : new TextIndex(folder, parts);
+
+        Path statistics = folder.resolve(CorpusStatistics.FILENAME);
+        if (Files.exists(statistics))
+        {
+            try (InputStream in = Files.newInputStream(statistics)) { index.statistics = CorpusStatistics.read(in); }
+        }
+
+        Path aliases = folder.resolve(DuplicateDetector.FILENAME);
+        if (Files.exists(aliases))
+        {
+            index.aliases = new HashMap<>();
+            try (InputStream in = Files.newInputStream(aliases))
+            {
+                for (Map.Entry<String, String> alias : DuplicateDetector.read(in).entrySet())
+                {
+                    index.aliases.computeIfAbsent(alias.getValue(), canonical -> new ArrayList<>()).add(alias.getKey());
+                }
+            }
+        }
+        return index;
+    }
+
+    // The part-* files of the folder, sorted by name
+    static List<Path> listParts(Path folder) throws IOException
+    {
+        List<Path> parts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "part-*"))
+        {
+            for (Path file : files) { parts.add(file); }
+        }
+        Collections.sort(parts);
+        return parts;
+    }
+
+    public abstract String getFilename(int docId);
+
+    /**
+     * The files that were not indexed since they are duplicates of a document (see DuplicateDetector),
+     *  sorted: a document that matches a query stands for them too
+     */
+    public List<String> getAliases(int docId)
+    {
+        List<String> filenames = aliases.get(getFilename(docId));
+        return filenames == null ? Collections.emptyList() : filenames;
+    }
+
+    // The statistics built along with the index, for ranked queries (null if it has none)
+    public CorpusStatistics getStatistics() { return statistics; }
+
+    /**
+     * The largest CorpusStatistics.termFrequencyScore() among the postings of a term, 0 if it
+     *  is not in the index. This decodes all of its postings: BinaryIndex reads it from its .scores files
+     */
+    public double maxScore(String term) throws IOException
+    {
+        PostingIterator postings = postings(term);
+        double max = 0;
+        if (postings == null) { return max; }
+        for (int docId = postings.nextDoc(); docId != PostingIterator.NO_MORE_DOCS; docId = postings.nextDoc())
+        {
+            max = Math.max(max, getStatistics().termFrequencyScore(postings.count(), docId));
+        }
+        return max;
+    }
+
+    /**
+     * @param term an already normalized term (see Tokenizer.normalize())
+     * @return an iterator over the postings of the term, or null if the term is not in the index.
+     *  If the term appears in more than one part, their postings are merged
+     */
+    public PostingIterator postings(String term) throws IOException
+    {
+        return postings(term.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public abstract PostingIterator postings(byte[] term) throws IOException;
+
+    /**
+     * @param to the end of the range (excluded), or null for no end
+     * @return the (at most limit) first terms of the index in [from, to), sorted like the index is
+     *  (by their UTF-8 bytes), each one once even if it appears in more than one part
+     */
+    public List<String> terms(String from, String to, int limit) throws IOException
+    {
+        return terms(from.getBytes(StandardCharsets.UTF_8), to == null ? null : to.getBytes(StandardCharsets.UTF_8), limit);
+    }
+
+    public abstract List<String> terms(byte[] from, byte[] to, int limit) throws IOException;
+
+    // The (at most limit) first terms that start with the prefix, e.g., "comput" for comput*
+    public List<String> termsWithPrefix(String prefix, int limit) throws IOException
+    {
+        byte[] from = prefix.getBytes(StandardCharsets.UTF_8);
+        return terms(from, prefixEnd(from), limit);
+    }
+
+    // The smallest byte string larger than all the ones that start with the prefix (null if there is none)
+    static byte[] prefixEnd(byte[] prefix)
+    {
+        for (int i = prefix.length - 1; i >= 0; i--)
+        {
+            if (prefix[i] != (byte) 0xFF)
+            {
+                byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+
+    // Whether positions() can be called, i.e., whether the index answers phrase queries
+    public boolean hasPositions() { return false; }
+
+    /**
+     * Like postings(), along with the positions of the term in each document
+     * @throws UnsupportedOperationException if the index is not positional
+     */
+    public PositionIterator positions(String term) throws IOException
+    {
+        throw new UnsupportedOperationException("The index has no positions: build it with -D invertedindex.positions=true");
+    }
+
+    // Merges the iterators found for a term (usually one, or none)
+    static PostingIterator merge(List<PostingIterator> iterators)
+    {
+        if (iterators.isEmpty()) { return null; }
+        if (iterators.size() == 1) { return iterators.get(0); }
+        return new DisjunctionIterator(iterators.toArray(new PostingIterator[0]));
+    }
+}
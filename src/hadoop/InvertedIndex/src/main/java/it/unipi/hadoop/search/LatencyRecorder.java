@@ -0,0 +1,32 @@
+package it.unipi.hadoop.search;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the last WINDOW requests, to report their percentiles
+ */
+public class LatencyRecorder
+{
+    private static final int WINDOW = 1 << 16;
+
+    private final long[] latencies = new long[WINDOW];
+    private long recorded = 0;
+
+    public synchronized void record(long nanos) { latencies[(int) (recorded++ % WINDOW)] = nanos; }
+
+    public synchronized long getCount() { return recorded; }
+
+    // The given percentile (0-100) of the recorded latencies, in nanoseconds
+    public long getPercentile(double percentile)
+    {
+        long[] sorted;
+        synchronized (this)
+        {
+            sorted = Arrays.copyOf(latencies, (int) Math.min(recorded, WINDOW));
+        }
+        if (sorted.length == 0) { return 0; }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,142 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.DocumentDictionary;
+import it.unipi.hadoop.IndexFolder;
+import it.unipi.hadoop.PostingsReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test for QueryServer: starts a server in-process on a locally built index,
+ *  then hammers it with concurrent clients for a while and reports throughput,
+ *  client-side latency percentiles and the server statistics.
+ *
+ * Queries are made of 1 to 3 terms of the index, each picked with a probability
+ *  proportional to its document frequency, so that common terms (and thus cache hits)
+ *  dominate as they would with real users.
+ *
+ * Usage:
+ *      LoadGenerator <index folder> [clients (32)] [seconds (30)] [server threads] [cache size in MB (256)]
+ */
+public class LoadGenerator
+{
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: LoadGenerator <index folder> [clients] [seconds] [server threads] [cache size (MB)]");
+            System.exit(1);
+        }
+        String folder = args[0];
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors() * 4;
+        long cacheBytes = (args.length > 4 ? Long.parseLong(args[4]) : 256) * 1024 * 1024;
+
+        Vocabulary vocabulary = Vocabulary.read(folder);
+        QueryServer server = new QueryServer(Index.open(Paths.get(folder)),
+                new InetSocketAddress("localhost", 0), threads, cacheBytes);
+        server.start();
+        String base = "http://localhost:" + server.getPort() + "/search?q=";
+
+        LatencyRecorder latencies = new LatencyRecorder();
+        AtomicLong errors = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < clients; i++)
+        {
+            Random random = new Random(i);
+            Thread worker = new Thread(() ->
+            {
+                while (System.nanoTime() < deadline)
+                {
+                    long start = System.nanoTime();
+                    try { get(base + URLEncoder.encode(vocabulary.query(random), "UTF-8")); }
+                    catch (IOException e) { errors.incrementAndGet(); }
+                    latencies.record(System.nanoTime() - start);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) { worker.join(); }
+
+        System.out.printf(Locale.ROOT, "Requests: %d in %d s (%.0f/s), errors: %d%n", latencies.getCount(), seconds,
+                (double) latencies.getCount() / seconds, errors.get());
+        System.out.printf(Locale.ROOT, "Client latency (us): p50 %d, p99 %d%n",
+                latencies.getPercentile(50) / 1000, latencies.getPercentile(99) / 1000);
+        System.out.print("Server stats: " + server.getStats());
+        server.stop();
+    }
+
+    private static void get(String url) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (connection.getResponseCode() != 200) { throw new IOException("HTTP " + connection.getResponseCode()); }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = connection.getInputStream()) { while (in.read(buffer) >= 0) { } }
+    }
+
+    // The terms of the index, with their cumulative document frequencies for weighted sampling
+    static class Vocabulary
+    {
+        private final List<String> terms = new ArrayList<>();
+        private long[] cumulative = new long[1024];
+
+        static Vocabulary read(String folder) throws IOException
+        {
+            Vocabulary vocabulary = new Vocabulary();
+            IndexFolder index = new IndexFolder(new Configuration(), new Path(Paths.get(folder).toUri()));
+            DocumentDictionary documents = index.hasDocuments() ? index.readDocuments() : null;
+            long total = 0;
+            for (Path part : index.getParts())
+            {
+                try (PostingsReader reader = index.openPart(part, documents, true))
+                {
+                    while (reader.nextTerm())
+                    {
+                        int size = vocabulary.terms.size();
+                        if (size == vocabulary.cumulative.length)
+                        {
+                            vocabulary.cumulative = Arrays.copyOf(vocabulary.cumulative, size * 2);
+                        }
+                        total += reader.getDocumentFrequency();
+                        vocabulary.cumulative[size] = total;
+                        vocabulary.terms.add(reader.getTerm().toString());
+                    }
+                }
+            }
+            return vocabulary;
+        }
+
+        String query(Random random) { return query(random, 1 + random.nextInt(3)); }
+
+        String query(Random random, int words)
+        {
+            int size = terms.size();
+            long total = cumulative[size - 1];
+            StringBuilder query = new StringBuilder();
+            for (int i = 0; i < words; i++)
+            {
+                long target = (long) (random.nextDouble() * total);
+                int found = Arrays.binarySearch(cumulative, 0, size, target + 1);
+                query.append(terms.get(found >= 0 ? found : -found - 1)).append(' ');
+            }
+            return query.toString();
+        }
+    }
+}
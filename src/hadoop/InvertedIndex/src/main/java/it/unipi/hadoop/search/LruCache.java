@@ -0,0 +1,63 @@
+package it.unipi.hadoop.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe cache bounded by the total weight (e.g., bytes) of its values,
+ *  evicting the least recently used entries first (LinkedHashMap in access order)
+ */
+public class LruCache<K, V>
+{
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final ToLongFunction<V> weigher;
+    private final long maxWeight;
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public LruCache(long maxWeight, ToLongFunction<V> weigher)
+    {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    // Returns null on a miss
+    public synchronized V get(K key)
+    {
+        V value = map.get(key);
+        if (value == null) { misses++; }
+        else { hits++; }
+        return value;
+    }
+
+    public synchronized void put(K key, V value)
+    {
+        long valueWeight = weigher.applyAsLong(value);
+        if (valueWeight > maxWeight) { return; }  // It would evict everything else
+
+        V previous = map.put(key, value);
+        if (previous != null) { weight -= weigher.applyAsLong(previous); }
+        weight += valueWeight;
+
+        Iterator<Map.Entry<K, V>> eldest = map.entrySet().iterator();
+        while (weight > maxWeight)
+        {
+            weight -= weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized int size() { return map.size(); }
+    public synchronized long getWeight() { return weight; }
+
+    public synchronized double getHitRatio()
+    {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,103 @@
+package it.unipi.hadoop.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only, memory-mapped local file of any size.
+ * A single MappedByteBuffer can't be larger than 2 GB, so the file is mapped in
+ *  1 GB chunks, and the few regions that cross two chunks are copied on the heap.
+ *
+ * The pages are loaded lazily by the OS: opening a file costs a few system calls,
+ *  whatever its size, and the heap only holds the chunk objects.
+ * All the methods are thread-safe, since they never move the position of the chunks.
+ */
+public class MappedFile
+{
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final ByteBuffer[] chunks;
+    private final long length;
+
+    public MappedFile(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            length = channel.size();
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++)
+            {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+            }
+        }
+    }
+
+    // The same view over bytes that are already in memory (e.g., built when the index is opened)
+    public MappedFile(ByteBuffer buffer)
+    {
+        length = buffer.remaining();
+        chunks = new ByteBuffer[] { buffer.slice() };
+    }
+
+    public long length() { return length; }
+
+    public byte get(long position)
+    {
+        return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+    }
+
+    // Returns an independent buffer over [offset, offset + length)
+    public ByteBuffer slice(long offset, int length)
+    {
+        int chunk = (int) (offset >>> CHUNK_BITS);
+        int start = (int) (offset & CHUNK_MASK);
+        if (start + (long) length <= chunks[chunk].capacity())
+        {
+            ByteBuffer buffer = chunks[chunk].duplicate();
+            buffer.position(start);
+            buffer.limit(start + length);
+            return buffer.slice();
+        }
+
+        // The region spans two (or more) chunks
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) { copy.put(get(offset + i)); }
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Reads a VarInt-encoded number starting at cursor[0], and moves cursor[0] past it.
+     * The cursor is a one-element array so that concurrent readers can each use their own
+     */
+    public long readVarLong(long[] cursor)
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = get(cursor[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) { return value; }
+        }
+        throw new IllegalStateException("Malformed variable-length number");
+    }
+
+    // Compares (as unsigned bytes, like Text) the given bytes with the file region at position
+    public int compare(long position, int length, byte[] bytes)
+    {
+        int common = Math.min(length, bytes.length);
+        for (int i = 0; i < common; i++)
+        {
+            int cmp = (get(position + i) & 0xFF) - (bytes[i] & 0xFF);
+            if (cmp != 0) { return cmp; }
+        }
+        return length - bytes.length;
+    }
+}
@@ -0,0 +1,116 @@
+package it.unipi.hadoop.search;
+
+import java.util.Arrays;
+
+/**
+ * Matches the documents that contain a phrase, by intersecting the posting lists of its
+ *  terms (see ConjunctionIterator) and then merging their positions in each candidate document.
+ *
+ * With a slop of -1 the terms must appear one right after the other, in order (exact phrase).
+ * Otherwise they must all appear, in any order, within a window of (number of terms + slop)
+ *  consecutive words: "cloud computing"~0 also matches "computing cloud", and
+ *  "cloud computing"~2 matches "computing in the cloud". A repeated word only needs to appear once.
+ * count() is the number of occurrences of the phrase (or of matching windows) in the document.
+ */
+public class PhraseIterator implements PostingIterator
+{
+    public static final int EXACT = -1;
+
+    private final PositionIterator[] slots;     // the iterator of each word of the phrase
+    private final PositionIterator[] distinct;  // the iterator of each distinct term
+    private final int window;
+    private final ConjunctionIterator conjunction;
+    private final int[] pointers;
+    private int docId = -1;
+    private int count;
+
+    /**
+     * @param slots the iterator of each word of the phrase, in order: a repeated word must
+     *  be given the same iterator every time
+     */
+    public PhraseIterator(PositionIterator[] slots, int slop)
+    {
+        this.slots = slots.clone();
+        distinct = Arrays.stream(slots).distinct().toArray(PositionIterator[]::new);
+        window = slop == EXACT ? EXACT : slots.length + slop;
+        conjunction = new ConjunctionIterator(distinct);
+        pointers = new int[distinct.length];
+    }
+
+    @Override
+    public int docId() { return docId; }
+
+    @Override
+    public int nextDoc() { return docId = match(conjunction.nextDoc()); }
+
+    @Override
+    public int advance(int target) { return docId = match(conjunction.advance(target)); }
+
+    // Starting from a document that has all the terms, finds the first one that has the phrase
+    private int match(int candidate)
+    {
+        while (candidate != NO_MORE_DOCS)
+        {
+            count = window == EXACT ? countPhrases() : countWindows();
+            if (count > 0) { return candidate; }
+            candidate = conjunction.nextDoc();
+        }
+        return NO_MORE_DOCS;
+    }
+
+    // Every position of the rarest word is a possible start, checked against the positions of the others
+    private int countPhrases()
+    {
+        int rarest = 0;
+        for (int i = 1; i < slots.length; i++)
+        {
+            if (slots[i].count() < slots[rarest].count()) { rarest = i; }
+        }
+        int[] rarestPositions = slots[rarest].positions();
+        int rarestCount = slots[rarest].count();
+        int matches = 0;
+        outer:
+        for (int p = 0; p < rarestCount; p++)
+        {
+            int start = rarestPositions[p] - rarest;
+            if (start < 0) { continue; }
+            for (int i = 0; i < slots.length; i++)
+            {
+                if (i == rarest) { continue; }
+                if (Arrays.binarySearch(slots[i].positions(), 0, slots[i].count(), start + i) < 0) { continue outer; }
+            }
+            matches++;
+        }
+        return matches;
+    }
+
+    /**
+     * Walks all the position lists at once, always moving the pointer on the smallest position:
+     *  every time the positions pointed to fit in the window, a match ends there
+     */
+    private int countWindows()
+    {
+        Arrays.fill(pointers, 0);
+        int matches = 0;
+        while (true)
+        {
+            int min = 0;
+            int minPosition = Integer.MAX_VALUE;
+            int maxPosition = Integer.MIN_VALUE;
+            for (int i = 0; i < distinct.length; i++)
+            {
+                int position = distinct[i].positions()[pointers[i]];
+                if (position < minPosition) { minPosition = position; min = i; }
+                maxPosition = Math.max(maxPosition, position);
+            }
+            if (maxPosition - minPosition < window) { matches++; }
+            if (++pointers[min] == distinct[min].count()) { return matches; }
+        }
+    }
+
+    @Override
+    public int count() { return count; }
+
+    @Override
+    public long cost() { return conjunction.cost(); }
+}
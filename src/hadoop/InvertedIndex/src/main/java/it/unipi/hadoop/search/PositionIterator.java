@@ -0,0 +1,14 @@
+package it.unipi.hadoop.search;
+
+/**
+ * A cursor over the postings of a term of a positional index, that can also tell
+ *  where the term appears in the current document
+ */
+public interface PositionIterator extends PostingIterator
+{
+    /**
+     * The positions of the term in the current document (see PositionalIndex), sorted.
+     * Only the first count() are valid, and the array may be reused by the next call
+     */
+    int[] positions();
+}
@@ -0,0 +1,25 @@
+package it.unipi.hadoop.search;
+
+/**
+ * Pull-based cursor over a list of postings sorted by document ID.
+ * Before the first call to nextDoc() or advance(), docId() is -1;
+ *  after the last posting, it is NO_MORE_DOCS.
+ */
+public interface PostingIterator
+{
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    int docId();
+
+    // Moves to the next posting and returns its document ID
+    int nextDoc();
+
+    // Moves to the first posting with a document ID >= target (which must be > docId())
+    int advance(int target);
+
+    // The number of occurrences in the current document
+    int count();
+
+    // An upper bound on the number of postings (for a term, its document frequency)
+    long cost();
+}
@@ -0,0 +1,44 @@
+package it.unipi.hadoop.search;
+
+import java.util.Arrays;
+
+/**
+ * The postings of a term fully decoded into arrays, so that they can be cached
+ *  and iterated over any number of times (and by any number of threads)
+ */
+public class PostingList
+{
+    private final int[] docIds;
+    private final int[] counts;
+
+    public PostingList(int[] docIds, int[] counts)
+    {
+        this.docIds = docIds;
+        this.counts = counts;
+    }
+
+    public static PostingList decode(PostingIterator iterator)
+    {
+        int[] docIds = new int[(int) Math.min(iterator.cost(), 1 << 20)];
+        int[] counts = new int[docIds.length];
+        int size = 0;
+        for (int docId = iterator.nextDoc(); docId != PostingIterator.NO_MORE_DOCS; docId = iterator.nextDoc())
+        {
+            if (size == docIds.length)
+            {
+                docIds = Arrays.copyOf(docIds, Math.max(16, size * 2));
+                counts = Arrays.copyOf(counts, docIds.length);
+            }
+            docIds[size] = docId;
+            counts[size++] = iterator.count();
+        }
+        return new PostingList(Arrays.copyOf(docIds, size), Arrays.copyOf(counts, size));
+    }
+
+    public int size() { return docIds.length; }
+
+    public PostingIterator iterator() { return new ArrayPostingIterator(docIds, counts, docIds.length); }
+
+    // Approximate heap footprint, used to bound the caches
+    public long getBytes() { return 32 + 8L * docIds.length; }
+}
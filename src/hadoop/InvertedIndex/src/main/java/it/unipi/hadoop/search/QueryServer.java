@@ -0,0 +1,222 @@
+package it.unipi.hadoop.search;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves boolean queries (see SearchIndex) over HTTP to many concurrent clients:
+ *
+ *      GET /search?q=cloud+computing   matching filenames, one per line
+ *      GET /stats                      cache hit ratios and latency percentiles, as JSON
+ *
+ * An invalid query (e.g., a prefix that matches more than SearchIndex.MAX_EXPANSIONS terms)
+ *  gets a 400 with the reason, and any other failure a 500.
+ *
+ * Each request runs on a virtual thread when the JVM has them (Java 21+),
+ *  otherwise on a bounded pool of platform threads.
+ *
+ * Two LRU caches, bounded in bytes, sit in front of the index:
+ *  - the decoded posting lists, keyed by term
+ *  - the results of whole queries, keyed by their canonical form (the words cleaned with
+ *    the same rules as the mappers, and the operands of AND and OR deduplicated and sorted,
+ *    since both are commutative, see BooleanQuery)
+ *
+ * Usage:
+ *      QueryServer <index folder> [port (8080)] [threads (#cores * 4)] [cache size in MB (256)]
+ */
+public class QueryServer
+{
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final CachingSearchIndex searcher;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+
+    public QueryServer(Index index, InetSocketAddress address, int threads, long cacheBytes) throws IOException
+    {
+        // Otherwise small responses wait for delayed ACKs (Nagle's algorithm), adding ~40 ms each
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        searcher = new CachingSearchIndex(index, cacheBytes / 2, cacheBytes / 2);
+        executor = newExecutor(threads);
+        server = HttpServer.create(address, 1024);
+        server.createContext("/search", this::search);
+        server.createContext("/stats", this::stats);
+        server.setExecutor(executor);
+    }
+
+    // A virtual thread per request if the JVM supports them, a fixed pool otherwise
+    private static ExecutorService newExecutor(int threads)
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    public void start() { server.start(); }
+
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort() { return server.getAddress().getPort(); }
+
+    private void search(HttpExchange exchange) throws IOException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            String query = parameter(exchange.getRequestURI().getRawQuery(), "q");
+            if (query == null)
+            {
+                respond(exchange, 400, "text/plain", "Missing parameter q\n");
+                return;
+            }
+            Index index = searcher.getIndex();
+            StringBuilder body = new StringBuilder();
+            for (int docId : searcher.search(query))
+            {
+                body.append(index.getFilename(docId)).append('\n');
+                for (String alias : index.getAliases(docId)) { body.append(alias).append('\n'); }
+            }
+            respond(exchange, 200, "text/plain", body.toString());
+        }
+        catch (IllegalArgumentException | UnsupportedOperationException e)
+        {
+            // The query itself is invalid, e.g., a prefix that matches too many terms
+            respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+        }
+        catch (RuntimeException | IOException e)
+        {
+            respond(exchange, 500, "text/plain", e + "\n");
+        }
+        finally
+        {
+            latencies.record(System.nanoTime() - start);
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException
+    {
+        respond(exchange, 200, "application/json", getStats());
+    }
+
+    public String getStats()
+    {
+        return String.format(Locale.ROOT,
+                "{\"queries\":%d,\"latencyMicros\":{\"p50\":%d,\"p99\":%d}," +
+                        "\"postingCache\":%s,\"resultCache\":%s}\n",
+                latencies.getCount(),
+                latencies.getPercentile(50) / 1000, latencies.getPercentile(99) / 1000,
+                toJson(searcher.postingCache), toJson(searcher.resultCache));
+    }
+
+    private static String toJson(LruCache<?, ?> cache)
+    {
+        return String.format(Locale.ROOT, "{\"hits\":%d,\"misses\":%d,\"hitRatio\":%.4f,\"entries\":%d,\"bytes\":%d}",
+                cache.getHits(), cache.getMisses(), cache.getHitRatio(), cache.size(), cache.getWeight());
+    }
+
+    private static String parameter(String rawQuery, String name) throws IOException
+    {
+        if (rawQuery == null) { return null; }
+        for (String pair : rawQuery.split("&"))
+        {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            if (key.equals(name))
+            {
+                return equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) { out.write(bytes); }
+    }
+
+    /**
+     * A SearchIndex that caches decoded posting lists and query results
+     */
+    static class CachingSearchIndex extends SearchIndex
+    {
+        // Cached for the terms that are not in the index
+        private static final PostingList MISSING = new PostingList(new int[0], new int[0]);
+
+        final LruCache<String, PostingList> postingCache;
+        final LruCache<String, int[]> resultCache;
+
+        CachingSearchIndex(Index index, long postingCacheBytes, long resultCacheBytes)
+        {
+            super(index);
+            postingCache = new LruCache<>(postingCacheBytes, PostingList::getBytes);
+            resultCache = new LruCache<>(resultCacheBytes, result -> 16 + 4L * result.length);
+        }
+
+        @Override
+        public int[] search(String query) throws IOException
+        {
+            BooleanQuery.Node root = BooleanQuery.parse(query);
+            String key = root == null ? "" : root.canonical();
+            int[] result = resultCache.get(key);
+            if (result == null)
+            {
+                result = super.search(key);
+                resultCache.put(key, result);
+            }
+            return result;
+        }
+
+        @Override
+        protected PostingIterator postings(String term) throws IOException
+        {
+            PostingList postings = postingCache.get(term);
+            if (postings == null)
+            {
+                PostingIterator iterator = getIndex().postings(term);
+                postings = iterator == null ? MISSING : PostingList.decode(iterator);
+                postingCache.put(term, postings);
+            }
+            return postings == MISSING ? null : postings.iterator();
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1 || args.length > 4)
+        {
+            System.err.println("Usage: QueryServer <index folder> [port] [threads] [cache size (MB)]");
+            System.exit(1);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors() * 4;
+        long cacheBytes = (args.length > 3 ? Long.parseLong(args[3]) : 256) * 1024 * 1024;
+
+        QueryServer server = new QueryServer(Index.open(Paths.get(args[0])),
+                new InetSocketAddress(port), threads, cacheBytes);
+        server.start();
+        System.err.println("Listening on port " + server.getPort());
+    }
+}
@@ -0,0 +1,258 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.CorpusStatistics;
+import it.unipi.hadoop.Tokenizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Returns the k files that best match the words of a query, ranked with BM25 (see
+ *  CorpusStatistics): a file matches if it contains any of the words (disjunctive query).
+ *
+ * The posting lists are traversed document by document, all together, and scored with
+ *  MaxScore dynamic pruning: the terms are sorted by their maximum score, and once the
+ *  top k is full, the terms whose maximum scores together cannot beat the k-th score are
+ *  "non-essential". Only the documents of the essential terms become candidates, and the
+ *  non-essential lists are only looked up (with advance(), skipping whole blocks) for the
+ *  candidates that can still make it. A query with a common word skips most of its postings.
+ *
+ * The exhaustive evaluation scores every document of every list, with the same code and
+ *  the same order of additions, so both return exactly the same documents and scores.
+ *
+ * Usage:
+ *      RankedSearch <index folder> <k> [words...]
+ *  Without words, every line read from stdin is a query, and its results (filename and
+ *  score, best first) are followed by an empty line.
+ */
+public class RankedSearch
+{
+    // The bounds are made slightly larger, so that a rounding error cannot prune a document that should be kept
+    private static final double BOUND_SLACK = 1 + 1e-6;
+
+    public static class ScoredDocument
+    {
+        public final int docId;
+        public final double score;
+
+        ScoredDocument(int docId, double score)
+        {
+            this.docId = docId;
+            this.score = score;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof ScoredDocument)) { return false; }
+            ScoredDocument other = (ScoredDocument) o;
+            return docId == other.docId && score == other.score;
+        }
+
+        @Override
+        public int hashCode() { return 31 * docId + Double.hashCode(score); }
+
+        @Override
+        public String toString() { return docId + ":" + score; }
+    }
+
+    // Best first: higher scores, then lower document IDs
+    private static final Comparator<ScoredDocument> RANKING = Comparator
+            .comparingDouble((ScoredDocument document) -> -document.score)
+            .thenComparingInt(document -> document.docId);
+
+    private final Index index;
+    private final CorpusStatistics statistics;
+
+    // Documents scored (fully or partially) by the last search() of the calling thread
+    private final ThreadLocal<long[]> scored = ThreadLocal.withInitial(() -> new long[1]);
+
+    public RankedSearch(Index index) throws IOException
+    {
+        this.index = index;
+        statistics = index.getStatistics();
+        if (statistics == null)
+        {
+            throw new IOException("The index has no " + CorpusStatistics.FILENAME + ": run CorpusStatistics on it");
+        }
+    }
+
+    public Index getIndex() { return index; }
+
+    public long getLastScoredDocuments() { return scored.get()[0]; }
+
+    /**
+     * @return the (at most) k best documents for the query, best first
+     */
+    public ScoredDocument[] search(String query, int k) throws IOException { return search(query, k, true); }
+
+    // Without pruning: every document that contains a word of the query is scored
+    public ScoredDocument[] searchExhaustive(String query, int k) throws IOException { return search(query, k, false); }
+
+    private ScoredDocument[] search(String query, int k, boolean prune) throws IOException
+    {
+        scored.get()[0] = 0;
+        if (k <= 0) { return new ScoredDocument[0]; }
+
+        // The lists of the terms found in the index, sorted by maximum score
+        Set<String> terms = new LinkedHashSet<>(Arrays.asList(Tokenizer.normalize(query)));
+        List<Term> found = new ArrayList<>();
+        for (String term : terms)
+        {
+            PostingIterator postings = index.postings(term);
+            if (postings == null) { continue; }
+            double idf = statistics.idf(postings.cost());
+            found.add(new Term(postings, idf, idf * index.maxScore(term) * BOUND_SLACK));
+        }
+        found.sort(Comparator.comparingDouble(term -> term.maxScore));
+        int n = found.size();
+        if (n == 0) { return new ScoredDocument[0]; }
+
+        Term[] lists = found.toArray(new Term[0]);
+        // bounds[i]: the highest score a document can get from the lists 0..i
+        double[] bounds = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++)
+        {
+            sum += lists[i].maxScore;
+            bounds[i] = sum;
+            lists[i].postings.nextDoc();
+        }
+
+        // The worst of the best k documents found so far is on top
+        PriorityQueue<ScoredDocument> top = new PriorityQueue<>(k, RANKING.reversed());
+        double threshold = Double.NEGATIVE_INFINITY;
+        int firstEssential = 0;
+        double[] contributions = new double[n];
+        long scoredDocuments = 0;
+
+        while (true)
+        {
+            // The next candidate is the first document of the essential lists
+            int candidate = PostingIterator.NO_MORE_DOCS;
+            for (int i = firstEssential; i < n; i++) { candidate = Math.min(candidate, lists[i].postings.docId()); }
+            if (candidate == PostingIterator.NO_MORE_DOCS) { break; }
+            scoredDocuments++;
+
+            Arrays.fill(contributions, 0);
+            double partial = 0;
+            for (int i = firstEssential; i < n; i++)
+            {
+                PostingIterator postings = lists[i].postings;
+                if (postings.docId() == candidate)
+                {
+                    contributions[i] = lists[i].score(postings.count(), candidate);
+                    partial += contributions[i];
+                    postings.nextDoc();
+                }
+            }
+
+            // Look the candidate up in the non-essential lists, unless it can no longer make it
+            boolean pruned = false;
+            for (int i = firstEssential - 1; i >= 0; i--)
+            {
+                if (partial + bounds[i] <= threshold)
+                {
+                    pruned = true;
+                    break;
+                }
+                PostingIterator postings = lists[i].postings;
+                if (postings.docId() < candidate) { postings.advance(candidate); }
+                if (postings.docId() == candidate)
+                {
+                    contributions[i] = lists[i].score(postings.count(), candidate);
+                    partial += contributions[i];
+                }
+            }
+            if (pruned) { continue; }
+
+            // Always added up in the same order, whatever was pruned, so that the scores are exact
+            double score = 0;
+            for (double contribution : contributions) { score += contribution; }
+
+            // A tie goes to the document seen first, i.e., the one with the lower ID
+            if (top.size() < k) { top.add(new ScoredDocument(candidate, score)); }
+            else if (score > top.peek().score)
+            {
+                top.poll();
+                top.add(new ScoredDocument(candidate, score));
+            }
+            if (prune && top.size() == k)
+            {
+                threshold = top.peek().score;
+                while (firstEssential < n && bounds[firstEssential] <= threshold) { firstEssential++; }
+            }
+        }
+        scored.get()[0] = scoredDocuments;
+
+        ScoredDocument[] results = top.toArray(new ScoredDocument[0]);
+        Arrays.sort(results, RANKING);
+        return results;
+    }
+
+    private class Term
+    {
+        final PostingIterator postings;
+        final double idf;
+        final double maxScore;
+
+        Term(PostingIterator postings, double idf, double maxScore)
+        {
+            this.postings = postings;
+            this.idf = idf;
+            this.maxScore = maxScore;
+        }
+
+        double score(int count, int docId) { return idf * statistics.termFrequencyScore(count, docId); }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: RankedSearch <index folder> <k> [words...]");
+            System.exit(1);
+        }
+        RankedSearch searcher = new RankedSearch(Index.open(Paths.get(args[0])));
+        int k = Integer.parseInt(args[1]);
+
+        if (args.length > 2)
+        {
+            searcher.print(searcher.search(String.join(" ", Arrays.copyOfRange(args, 2, args.length)), k));
+            return;
+        }
+
+        BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String query;
+        while ((query = stdin.readLine()) != null)
+        {
+            // An invalid query only fails itself, and still gets its empty line
+            try { searcher.print(searcher.search(query, k)); }
+            catch (IllegalArgumentException e) { System.err.println(e.getMessage()); }
+            System.out.println();
+        }
+    }
+
+    private void print(ScoredDocument[] results)
+    {
+        for (ScoredDocument result : results)
+        {
+            System.out.printf("%s\t%.4f%n", index.getFilename(result.docId), result.score);
+            // The duplicates of a document were not indexed: they get its score
+            for (String alias : index.getAliases(result.docId))
+            {
+                System.out.printf("%s\t%.4f%n", alias, result.score);
+            }
+        }
+    }
+}
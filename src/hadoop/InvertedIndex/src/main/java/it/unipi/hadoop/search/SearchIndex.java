@@ -0,0 +1,206 @@
+package it.unipi.hadoop.search;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Java replacement of SearchIndex.py: returns the files that match a boolean query (see
+ *  BooleanQuery), cleaning the words like the mappers do. Words next to each other are ANDed,
+ *  as in SearchIndex.py, and can be combined with OR, NOT and parentheses.
+ *
+ * The query is planned into a tree of lazy iterators, which streams the matching documents
+ *  one at a time, in order, without allocating anything per document:
+ *  - an AND intersects its lists starting from the cheapest one (by document frequency, see
+ *    ConjunctionIterator), and the other lists are skipped forward (by block, or by galloping)
+ *  - its NOT clauses are merged into a single list, only consulted for the documents that
+ *    match everything else (see ExclusionIterator)
+ *  - an OR merges its lists with a heap (see DisjunctionIterator), never building the full set
+ *  A word that is not in the index makes its AND empty, and is dropped from its OR.
+ *
+ * On a positional index (see PositionalIndex), a query can also contain phrases:
+ *  "cloud computing" matches the files where the words appear one after the other,
+ *  "cloud computing"~3 the ones where they appear within 2 + 3 words of each other (see PhraseIterator).
+ * A word that ends with * stands for any of the words of the index that start with it (comput*
+ *  matches compute, computer, computing...), up to MAX_EXPANSIONS of them.
+ *
+ * Usage:
+ *      SearchIndex <index folder> [query words...]
+ *  Without words, every line read from stdin is a query, and its results
+ *  are followed by an empty line. A matching document is followed by the
+ *  files that were not indexed as its duplicates (see DuplicateDetector).
+ */
+public class SearchIndex
+{
+    // The most terms a prefix can expand to, so that a query like a* cannot decode the whole index
+    public static final int MAX_EXPANSIONS = 1024;
+
+    private final Index index;
+
+    public SearchIndex(Index index) { this.index = index; }
+
+    /**
+     * @return the IDs of the documents that match the query, sorted.
+     *  A query with no valid words has no results
+     */
+    public int[] search(String query) throws IOException { return collect(iterator(query)); }
+
+    // The documents that match the query, to be pulled one at a time with nextDoc()
+    public PostingIterator iterator(String query) throws IOException
+    {
+        BooleanQuery.Node root = BooleanQuery.parse(query);
+        PostingIterator iterator = root == null ? null : plan(root);
+        return iterator == null ? new ArrayPostingIterator(new int[0], new int[0], 0) : iterator;
+    }
+
+    // The iterator of a clause, or null if it cannot match any document
+    private PostingIterator plan(BooleanQuery.Node node) throws IOException
+    {
+        if (node instanceof BooleanQuery.Term) { return postings(((BooleanQuery.Term) node).term); }
+        if (node instanceof BooleanQuery.Prefix) { return prefix(((BooleanQuery.Prefix) node).prefix); }
+        if (node instanceof BooleanQuery.Phrase) { return phrase((BooleanQuery.Phrase) node); }
+        if (node instanceof BooleanQuery.Or) { return union(((BooleanQuery.Or) node).clauses); }
+        if (node instanceof BooleanQuery.And) { return intersection(((BooleanQuery.And) node).clauses); }
+        // A NOT is always part of an AND (see BooleanQuery.parse())
+        throw new IllegalArgumentException(node.canonical() + " must be ANDed with a clause without NOT");
+    }
+
+    private PostingIterator intersection(List<BooleanQuery.Node> clauses) throws IOException
+    {
+        List<PostingIterator> required = new ArrayList<>();
+        List<BooleanQuery.Node> negated = new ArrayList<>();
+        for (BooleanQuery.Node clause : clauses)
+        {
+            if (clause instanceof BooleanQuery.Not)
+            {
+                negated.add(((BooleanQuery.Not) clause).clause);
+                continue;
+            }
+            PostingIterator iterator = plan(clause);
+            if (iterator == null) { return null; }
+            required.add(iterator);
+        }
+        if (required.isEmpty()) { return null; }
+        PostingIterator matches = required.size() == 1 ? required.get(0)
+                : new ConjunctionIterator(required.toArray(new PostingIterator[0]));
+
+        // The exclusions come last, whatever their cost: they can only remove documents
+        PostingIterator excluded = union(negated);
+        return excluded == null ? matches : new ExclusionIterator(matches, excluded);
+    }
+
+    private PostingIterator union(List<BooleanQuery.Node> clauses) throws IOException
+    {
+        List<PostingIterator> iterators = new ArrayList<>();
+        for (BooleanQuery.Node clause : clauses)
+        {
+            PostingIterator iterator = plan(clause);
+            if (iterator != null) { iterators.add(iterator); }
+        }
+        return Index.merge(iterators);
+    }
+
+    // The documents that contain any of the terms that start with the prefix, or null if there are none
+    private PostingIterator prefix(String prefix) throws IOException
+    {
+        List<String> terms = index.termsWithPrefix(prefix, MAX_EXPANSIONS + 1);
+        if (terms.size() > MAX_EXPANSIONS)
+        {
+            throw new IllegalArgumentException(prefix + "* matches more than " + MAX_EXPANSIONS + " terms");
+        }
+        List<PostingIterator> iterators = new ArrayList<>(terms.size());
+        for (String term : terms)
+        {
+            PostingIterator iterator = postings(term);
+            if (iterator != null) { iterators.add(iterator); }
+        }
+        return Index.merge(iterators);
+    }
+
+    /**
+     * The documents that contain the phrase, or null if one of its words is not in the index.
+     * The positions are read straight from the index: they are not worth caching like postings()
+     */
+    private PostingIterator phrase(BooleanQuery.Phrase phrase) throws IOException
+    {
+        Map<String, PositionIterator> terms = new HashMap<>();
+        PositionIterator[] slots = new PositionIterator[phrase.terms.length];
+        for (int i = 0; i < slots.length; i++)
+        {
+            // A repeated word shares the same iterator
+            slots[i] = terms.get(phrase.terms[i]);
+            if (slots[i] == null)
+            {
+                slots[i] = index.positions(phrase.terms[i]);
+                if (slots[i] == null) { return null; }
+                terms.put(phrase.terms[i], slots[i]);
+            }
+        }
+        return new PhraseIterator(slots, phrase.slop);
+    }
+
+    // The postings of an (already normalized) term, or null if it is not in the index
+    protected PostingIterator postings(String term) throws IOException
+    {
+        return index.postings(term);
+    }
+
+    public Index getIndex() { return index; }
+
+    static int[] collect(PostingIterator iterator)
+    {
+        int[] docIds = new int[16];
+        int size = 0;
+        for (int docId = iterator.nextDoc(); docId != PostingIterator.NO_MORE_DOCS; docId = iterator.nextDoc())
+        {
+            if (size == docIds.length) { docIds = Arrays.copyOf(docIds, size * 2); }
+            docIds[size++] = docId;
+        }
+        return Arrays.copyOf(docIds, size);
+    }
+
+    // Prints the matching documents as they are found, each one followed by its duplicates (if any)
+    private void print(PostingIterator matches, PrintStream out)
+    {
+        for (int docId = matches.nextDoc(); docId != PostingIterator.NO_MORE_DOCS; docId = matches.nextDoc())
+        {
+            out.println(index.getFilename(docId));
+            for (String alias : index.getAliases(docId)) { out.println(alias); }
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: SearchIndex <index folder> [query words...]");
+            System.exit(1);
+        }
+        SearchIndex searcher = new SearchIndex(Index.open(Paths.get(args[0])));
+
+        if (args.length > 1)
+        {
+            String query = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+            searcher.print(searcher.iterator(query), System.out);
+            return;
+        }
+
+        BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String query;
+        while ((query = stdin.readLine()) != null)
+        {
+            // An invalid query (e.g., a prefix that matches too many terms) only fails itself
+            try { searcher.print(searcher.iterator(query), System.out); }
+            catch (IllegalArgumentException | UnsupportedOperationException e) { System.err.println(e.getMessage()); }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.CorpusStatistics;
+import it.unipi.hadoop.DocumentDictionary;
+import it.unipi.hadoop.Manifest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * An incrementally built index (see Manifest), searched across all of its segments at once:
+ *  there is no need to merge them first (SegmentMerger), so it can be searched right after a refresh.
+ *
+ * A document is alive in the segment the manifest says it is in: in any other segment, it's
+ *  an older version (a tombstone), and its postings are skipped. The live documents of all
+ *  the segments get a single numbering, by filename like in any other index, and since a segment
+ *  numbers its own documents by filename too, remapping a list of postings keeps it sorted:
+ *  the lists of a term found in the segments are merged like the ones of the parts of an index.
+ *
+ * The statistics are the ones of the segments, renumbered, and maxScore() decodes the postings
+ *  (the .scores of a segment are relative to its own average length). terms() may list a term
+ *  that is only left in deleted documents, whose postings are then empty.
+ */
+class SegmentedIndex extends Index
+{
+    private final Manifest manifest;
+    private final String[] names;     // The name of each segment
+    private final Index[] segments;
+    private final String[] filenames; // The live documents, sorted: the position is the document ID
+
+    // For each segment, its live documents: their IDs in the segment, and in the whole index (both sorted)
+    private final int[][] localIds;
+    private final int[][] globalIds;
+    private final boolean[] deletions;  // Whether the segment has documents that are not alive anymore
+
+    // For each document of the whole index, its segment and its ID in the segment
+    private final int[] segmentOf;
+    private final int[] localIdOf;
+
+    private final CorpusStatistics statistics;
+
+    SegmentedIndex(Path folder, Manifest manifest) throws IOException
+    {
+        this.manifest = manifest;
+        names = manifest.getSegments().toArray(new String[0]);
+        segments = new Index[names.length];
+        DocumentDictionary[] dictionaries = new DocumentDictionary[names.length];
+        TreeSet<String> alive = new TreeSet<>();
+        for (int segment = 0; segment < names.length; segment++)
+        {
+            Path path = folder.resolve(names[segment]);
+            segments[segment] = Index.open(path);
+            try (InputStream in = Files.newInputStream(path.resolve(DocumentDictionary.FILENAME)))
+            {
+                dictionaries[segment] = DocumentDictionary.read(in);
+            }
+            for (int docId = 0; docId < dictionaries[segment].size(); docId++)
+            {
+                String filename = dictionaries[segment].getFilename(docId);
+                if (isAlive(segment, filename)) { alive.add(filename); }
+            }
+        }
+        filenames = alive.toArray(new String[0]);
+
+        segmentOf = new int[filenames.length];
+        localIdOf = new int[filenames.length];
+        localIds = new int[names.length][];
+        globalIds = new int[names.length][];
+        deletions = new boolean[names.length];
+        for (int segment = 0; segment < names.length; segment++)
+        {
+            int[] local = new int[dictionaries[segment].size()];
+            int[] global = new int[local.length];
+            int size = 0;
+            for (int docId = 0; docId < local.length; docId++)
+            {
+                String filename = dictionaries[segment].getFilename(docId);
+                if (!isAlive(segment, filename)) { continue; }
+                local[size] = docId;
+                global[size] = Arrays.binarySearch(filenames, filename);
+                segmentOf[global[size]] = segment;
+                localIdOf[global[size]] = docId;
+                size++;
+            }
+            localIds[segment] = Arrays.copyOf(local, size);
+            globalIds[segment] = Arrays.copyOf(global, size);
+            deletions[segment] = size < local.length;
+        }
+        statistics = mergeStatistics();
+    }
+
+    private boolean isAlive(int segment, String filename)
+    {
+        Manifest.Entry entry = manifest.get(filename);
+        return entry != null && entry.getSegment().equals(names[segment]);
+    }
+
+    // The lengths of the live documents, renumbered (null unless every segment has its statistics)
+    private CorpusStatistics mergeStatistics()
+    {
+        int[] lengths = new int[filenames.length];
+        for (int segment = 0; segment < segments.length; segment++)
+        {
+            CorpusStatistics segmentStatistics = segments[segment].getStatistics();
+            if (segmentStatistics == null) { return null; }
+            for (int i = 0; i < localIds[segment].length; i++)
+            {
+                lengths[globalIds[segment][i]] = segmentStatistics.getLength(localIds[segment][i]);
+            }
+        }
+        return new CorpusStatistics(lengths);
+    }
+
+    @Override
+    public String getFilename(int docId) { return filenames[docId]; }
+
+    // The aliases of the document in its segment, unless they have been deleted (or indexed again) since
+    @Override
+    public List<String> getAliases(int docId)
+    {
+        int segment = segmentOf[docId];
+        List<String> aliases = segments[segment].getAliases(localIdOf[docId]);
+        if (aliases.isEmpty()) { return aliases; }
+        List<String> alive = new ArrayList<>(aliases.size());
+        for (String alias : aliases)
+        {
+            if (isAlive(segment, alias)) { alive.add(alias); }
+        }
+        return alive.isEmpty() ? Collections.emptyList() : alive;
+    }
+
+    @Override
+    public CorpusStatistics getStatistics() { return statistics; }
+
+    /**
+     * The cost() of the postings is the exact number of live documents, since RankedSearch takes it
+     *  as the document frequency of the term: a segment with deleted documents counts them on a
+     *  second iterator, the others already know it
+     */
+    @Override
+    public PostingIterator postings(byte[] term) throws IOException
+    {
+        List<PostingIterator> found = new ArrayList<>(segments.length);
+        for (int segment = 0; segment < segments.length; segment++)
+        {
+            PostingIterator postings = segments[segment].postings(term);
+            if (postings == null || localIds[segment].length == 0) { continue; }
+            long cost = postings.cost();
+            if (deletions[segment])
+            {
+                PostingIterator live = new Remapped(segments[segment].postings(term), segment, 0);
+                cost = 0;
+                while (live.nextDoc() != PostingIterator.NO_MORE_DOCS) { cost++; }
+                if (cost == 0) { continue; }
+            }
+            found.add(new Remapped(postings, segment, cost));
+        }
+        return merge(found);
+    }
+
+    @Override
+    public boolean hasPositions()
+    {
+        for (Index segment : segments)
+        {
+            if (!segment.hasPositions()) { return false; }
+        }
+        return segments.length > 0;
+    }
+
+    @Override
+    public PositionIterator positions(String term) throws IOException
+    {
+        if (!hasPositions()) { return super.positions(term); }
+        List<PostingIterator> found = new ArrayList<>(segments.length);
+        for (int segment = 0; segment < segments.length; segment++)
+        {
+            PositionIterator positions = segments[segment].positions(term);
+            if (positions != null && localIds[segment].length > 0)
+            {
+                found.add(new Remapped(positions, segment, positions.cost()));
+            }
+        }
+        return (PositionIterator) merge(found);
+    }
+
+    @Override
+    public List<String> terms(byte[] from, byte[] to, int limit) throws IOException
+    {
+        TreeSet<String> terms = new TreeSet<>();
+        for (Index segment : segments) { terms.addAll(segment.terms(from, to, limit)); }
+        List<String> sorted = new ArrayList<>(terms);
+        return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+    }
+
+    /**
+     * The postings of a term in a segment, without its deleted documents and with the IDs of
+     *  the whole index. positions() can only be called if the postings come from a PositionIterator
+     */
+    private class Remapped implements PositionIterator
+    {
+        private final PostingIterator postings;
+        private final int[] local;
+        private final int[] global;
+        private final long cost;
+        private int next;   // The first live document that has not been returned yet
+        private int docId = -1;
+
+        Remapped(PostingIterator postings, int segment, long cost)
+        {
+            this.postings = postings;
+            this.cost = cost;
+            local = localIds[segment];
+            global = globalIds[segment];
+        }
+
+        @Override
+        public int docId() { return docId; }
+
+        @Override
+        public int nextDoc() { return moveTo(postings.nextDoc()); }
+
+        @Override
+        public int advance(int target)
+        {
+            // The first live document of the segment whose ID in the index is >= target
+            int i = Arrays.binarySearch(global, next, global.length, target);
+            next = i < 0 ? -i - 1 : i;
+            if (next == global.length) { return docId = NO_MORE_DOCS; }
+            return moveTo(postings.docId() >= local[next] ? postings.docId() : postings.advance(local[next]));
+        }
+
+        // Skips the deleted documents, starting from the current posting of the segment
+        private int moveTo(int localId)
+        {
+            while (localId != NO_MORE_DOCS)
+            {
+                // Both lists are sorted: the live documents before this one are not in the postings
+                while (next < local.length && local[next] < localId) { next++; }
+                if (next == local.length) { break; }
+                if (local[next] == localId) { return docId = global[next++]; }
+                localId = postings.advance(local[next]);
+            }
+            return docId = NO_MORE_DOCS;
+        }
+
+        @Override
+        public int count() { return postings.count(); }
+
+        @Override
+        public long cost() { return cost; }
+
+        @Override
+        public int[] positions() { return ((PositionIterator) postings).positions(); }
+    }
+}
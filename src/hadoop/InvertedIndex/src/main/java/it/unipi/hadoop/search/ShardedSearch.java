@@ -0,0 +1,225 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.ShardedIndexer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Searches a sharded index (see ShardedIndexer): a query is sent to all the shards at once,
+ *  each one searched by a SearchIndex on a thread of a shared pool, and their results are
+ *  merged into a single sorted list of filenames, each one once.
+ * Every shard has its own document IDs, so the shards answer with filenames: both are
+ *  sorted the same way, so the lists only need to be merged, not sorted.
+ *
+ * A shard that has not answered within the timeout (counted from when the query starts)
+ *  is left out: the result says which shards are missing, instead of waiting for the slowest.
+ * Safe to share among threads, like the indexes it opens.
+ *
+ * Usage:
+ *      ShardedSearch <index folder> <timeout (ms)> [query words...]
+ *  Without words, every line read from stdin is a query, and its results
+ *  are followed by an empty line. A folder that is not sharded is searched as a single shard.
+ */
+public class ShardedSearch implements AutoCloseable
+{
+    public static final class Result
+    {
+        private final List<String> filenames;
+        private final List<Integer> missingShards;
+
+        Result(List<String> filenames, List<Integer> missingShards)
+        {
+            this.filenames = filenames;
+            this.missingShards = missingShards;
+        }
+
+        // The filenames of the matching documents, sorted
+        public List<String> getFilenames() { return filenames; }
+
+        // The shards that timed out, whose matching documents are not in the result
+        public List<Integer> getMissingShards() { return missingShards; }
+
+        public boolean isComplete() { return missingShards.isEmpty(); }
+    }
+
+    private final SearchIndex[] shards;
+    private final ExecutorService executor;
+    private final long timeoutNanos;
+
+    public ShardedSearch(List<Index> shards, int threads, long timeoutMillis)
+    {
+        this.shards = new SearchIndex[shards.size()];
+        for (int i = 0; i < this.shards.length; i++) { this.shards[i] = new SearchIndex(shards.get(i)); }
+        executor = Executors.newFixedThreadPool(threads, task ->
+        {
+            Thread thread = new Thread(task, "shard-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    // Opens every shard of the index (or the index itself, if it is not sharded)
+    public static List<Index> openShards(Path folder) throws IOException
+    {
+        Path file = folder.resolve(ShardedIndexer.FILENAME);
+        if (!Files.exists(file)) { return Collections.singletonList(Index.open(folder)); }
+
+        int count;
+        try (Scanner scanner = new Scanner(file, StandardCharsets.UTF_8.name())) { count = scanner.nextInt(); }
+        List<Index> shards = new ArrayList<>(count);
+        for (int shard = 0; shard < count; shard++)
+        {
+            shards.add(Index.open(folder.resolve(ShardedIndexer.getShardName(shard))));
+        }
+        return shards;
+    }
+
+    public int getShardCount() { return shards.length; }
+
+    public Result search(String query) throws IOException
+    {
+        long deadline = System.nanoTime() + timeoutNanos;
+        List<Future<String[]>> futures = new ArrayList<>(shards.length);
+        for (SearchIndex shard : shards) { futures.add(executor.submit(() -> searchShard(shard, query))); }
+
+        String[][] results = new String[shards.length][];
+        List<Integer> missing = new ArrayList<>();
+        for (int shard = 0; shard < shards.length; shard++)
+        {
+            Future<String[]> future = futures.get(shard);
+            try
+            {
+                results[shard] = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                future.cancel(true);
+                missing.add(shard);
+                results[shard] = new String[0];
+            }
+            catch (InterruptedException e)
+            {
+                for (Future<String[]> other : futures) { other.cancel(true); }
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while searching the shards", e);
+            }
+            catch (ExecutionException e)
+            {
+                // The same query is usually invalid for all the shards (e.g., a prefix matching too many terms)
+                for (Future<String[]> other : futures) { other.cancel(true); }
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+                if (cause instanceof IOException) { throw (IOException) cause; }
+                throw new IOException("Unable to search shard " + shard, cause);
+            }
+        }
+        return new Result(merge(results), missing);
+    }
+
+    // The filenames of the documents of a shard that match the query (and of their duplicates), sorted
+    private static String[] searchShard(SearchIndex shard, String query) throws IOException
+    {
+        int[] docIds = shard.search(query);
+        List<String> filenames = new ArrayList<>(docIds.length);
+        Index index = shard.getIndex();
+        boolean aliases = false;
+        for (int docId : docIds)
+        {
+            filenames.add(index.getFilename(docId));
+            List<String> duplicates = index.getAliases(docId);
+            filenames.addAll(duplicates);
+            aliases |= !duplicates.isEmpty();
+        }
+        String[] sorted = filenames.toArray(new String[0]);
+        // The documents are sorted by filename already, their duplicates are not
+        if (aliases) { Arrays.sort(sorted); }
+        return sorted;
+    }
+
+    /**
+     * Merges sorted lists of filenames, listing each one once: a document hashes to a single shard,
+     *  so a filename can only be found twice in shards that were not built together (or as a
+     *  duplicate of documents of different shards, see DuplicateDetector)
+     */
+    static List<String> merge(String[][] lists)
+    {
+        int total = 0;
+        for (String[] list : lists) { total += list.length; }
+        List<String> merged = new ArrayList<>(total);
+        int[] positions = new int[lists.length];
+        while (true)
+        {
+            // There are just a few shards: a linear scan finds the smallest head faster than a heap
+            int smallest = -1;
+            for (int i = 0; i < lists.length; i++)
+            {
+                if (positions[i] == lists[i].length) { continue; }
+                if (smallest < 0 || lists[i][positions[i]].compareTo(lists[smallest][positions[smallest]]) < 0)
+                {
+                    smallest = i;
+                }
+            }
+            if (smallest < 0) { return merged; }
+            String filename = lists[smallest][positions[smallest]++];
+            if (merged.isEmpty() || !merged.get(merged.size() - 1).equals(filename)) { merged.add(filename); }
+        }
+    }
+
+    @Override
+    public void close() { executor.shutdownNow(); }
+
+    private static void print(Result result)
+    {
+        for (String filename : result.getFilenames()) { System.out.println(filename); }
+        for (int shard : result.getMissingShards())
+        {
+            System.err.println(ShardedIndexer.getShardName(shard) + " timed out");
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: ShardedSearch <index folder> <timeout (ms)> [query words...]");
+            System.exit(1);
+        }
+        List<Index> shards = openShards(Paths.get(args[0]));
+        try (ShardedSearch searcher = new ShardedSearch(shards, shards.size(), Long.parseLong(args[1])))
+        {
+            if (args.length > 2)
+            {
+                print(searcher.search(String.join(" ", Arrays.copyOfRange(args, 2, args.length))));
+                return;
+            }
+
+            BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String query;
+            while ((query = stdin.readLine()) != null)
+            {
+                // An invalid query (e.g., a prefix that matches too many terms) only fails itself
+                try { print(searcher.search(query)); }
+                catch (IllegalArgumentException | UnsupportedOperationException e) { System.err.println(e.getMessage()); }
+                System.out.println();
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.DocumentDictionary;
+import it.unipi.hadoop.TermDictionary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * An index made of text lines (word, then the tab-separated filename:count pairs),
+ *  as written by TextPostingsOutputFormat or by CreateIndex.py.
+ *
+ * The part files are memory-mapped, and the postings of a word are parsed only when the word is
+ *  looked up. Its line is found through the front-coded dictionary of the part (the .dict file,
+ *  see TermDictionary), which is memory-mapped as well: opening the index reads little more than
+ *  the block indexes of the dictionaries.
+ * A part without a dictionary (not sorted, e.g. from CreateIndex.py, or written before the .dict
+ *  files existed) is scanned once to find where each line starts, and the starting positions are
+ *  sorted by word if the lines are not, so that they can be binary searched.
+ * Filenames are turned into IDs through the _documents dictionary or, if the index
+ *  has none, with IDs assigned on the fly.
+ */
+public class TextIndex extends Index
+{
+    private final DocumentDictionary documents;
+    private final Map<String, Integer> unknownIds = new HashMap<>();
+    private final List<String> unknownFilenames = new ArrayList<>();
+
+    private final MappedFile[] files;
+    private final FrontCodedDictionary[] dictionaries;  // For each part, null if it has no .dict file
+    private final long[][] lines;  // For each part without a dictionary, the position of each line
+
+    public TextIndex(Path folder, List<Path> parts) throws IOException
+    {
+        List<Path> texts = new ArrayList<>(parts.size());
+        for (Path part : parts)
+        {
+            if (!part.getFileName().toString().endsWith(TermDictionary.EXTENSION)) { texts.add(part); }
+        }
+        parts = texts;
+
+        Path dictionary = folder.resolve(DocumentDictionary.FILENAME);
+        if (Files.exists(dictionary))
+        {
+            try (InputStream in = Files.newInputStream(dictionary)) { documents = DocumentDictionary.read(in); }
+        }
+        else { documents = null; }
+
+        files = new MappedFile[parts.size()];
+        dictionaries = new FrontCodedDictionary[parts.size()];
+        lines = new long[parts.size()][];
+        for (int i = 0; i < files.length; i++)
+        {
+            files[i] = new MappedFile(parts.get(i));
+            Path terms = parts.get(i).resolveSibling(parts.get(i).getFileName() + TermDictionary.EXTENSION);
+            if (Files.exists(terms))
+            {
+                dictionaries[i] = new FrontCodedDictionary(new MappedFile(terms));
+                if (!dictionaries[i].isText()) { throw new IOException(terms + " is not the dictionary of a text part"); }
+            }
+            else { lines[i] = scanLines(files[i]); }
+        }
+    }
+
+    private static long[] scanLines(MappedFile file)
+    {
+        long[] starts = new long[1024];
+        int size = 0;
+        boolean sorted = true;
+        long position = 0;
+        long length = file.length();
+        while (position < length)
+        {
+            long start = position;
+            while (position < length && file.get(position) != '\n') { position++; }
+            position++;
+            if (position - 1 == start) { continue; }  // Empty line
+
+            if (size == starts.length) { starts = Arrays.copyOf(starts, size * 2); }
+            if (size > 0 && compareLines(file, starts[size - 1], start) > 0) { sorted = false; }
+            starts[size++] = start;
+        }
+        starts = Arrays.copyOf(starts, size);
+
+        if (!sorted)
+        {
+            Long[] boxed = new Long[size];
+            for (int i = 0; i < size; i++) { boxed[i] = starts[i]; }
+            Arrays.sort(boxed, (a, b) -> compareLines(file, a, b));
+            for (int i = 0; i < size; i++) { starts[i] = boxed[i]; }
+        }
+        return starts;
+    }
+
+    // Compares the words of the lines starting at a and b
+    private static int compareLines(MappedFile file, long a, long b)
+    {
+        for (int i = 0; ; i++)
+        {
+            int x = wordByte(file, a + i);
+            int y = wordByte(file, b + i);
+            if (x != y) { return x - y; }
+            if (x < 0) { return 0; }
+        }
+    }
+
+    // The (unsigned) byte at position, or -1 if the word has ended
+    private static int wordByte(MappedFile file, long position)
+    {
+        if (position >= file.length()) { return -1; }
+        byte b = file.get(position);
+        return b == '\t' || b == '\n' ? -1 : b & 0xFF;
+    }
+
+    private static int compareWord(MappedFile file, long line, byte[] term)
+    {
+        for (int i = 0; ; i++)
+        {
+            int x = wordByte(file, line + i);
+            int y = i < term.length ? term[i] & 0xFF : -1;
+            if (x != y) { return x - y; }
+            if (x < 0) { return 0; }
+        }
+    }
+
+    @Override
+    public synchronized String getFilename(int docId)
+    {
+        return documents != null ? documents.getFilename(docId) : unknownFilenames.get(docId);
+    }
+
+    private synchronized int getDocId(String filename) throws IOException
+    {
+        if (documents != null)
+        {
+            int docId = documents.getDocId(filename);
+            if (docId < 0) { throw new IOException("Unknown document \"" + filename + "\""); }
+            return docId;
+        }
+        Integer docId = unknownIds.get(filename);
+        if (docId == null)
+        {
+            docId = unknownFilenames.size();
+            unknownIds.put(filename, docId);
+            unknownFilenames.add(filename);
+        }
+        return docId;
+    }
+
+    // The first line of the part whose word is >= term
+    private int firstLine(int part, byte[] term)
+    {
+        long[] starts = lines[part];
+        int low = 0;
+        int high = starts.length;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (compareWord(files[part], starts[middle], term) < 0) { low = middle + 1; }
+            else { high = middle; }
+        }
+        return low;
+    }
+
+    @Override
+    public PostingIterator postings(byte[] term) throws IOException
+    {
+        List<PostingIterator> found = new ArrayList<>(1);
+        for (int part = 0; part < files.length; part++)
+        {
+            if (dictionaries[part] != null)
+            {
+                // The entry of a word covers all of its lines, which are consecutive
+                FrontCodedDictionary.Cursor cursor = dictionaries[part].cursor();
+                if (!cursor.seek(term) || !cursor.matches(term)) { continue; }
+                long end = cursor.postingsOffset() + cursor.postingsLength();
+                for (long line = cursor.postingsOffset(); line < end; line = nextLine(files[part], line))
+                {
+                    if (wordByte(files[part], line) >= 0) { found.add(parse(files[part], line, term.length)); }
+                }
+                continue;
+            }
+
+            // Find the first line of the word, and then take all of them (CreateIndex.py may repeat a word)
+            long[] starts = lines[part];
+            for (int line = firstLine(part, term); line < starts.length && compareWord(files[part], starts[line], term) == 0; line++)
+            {
+                found.add(parse(files[part], starts[line], term.length));
+            }
+        }
+        return merge(found);
+    }
+
+    @Override
+    public List<String> terms(byte[] from, byte[] to, int limit)
+    {
+        TreeSet<String> terms = new TreeSet<>();
+        for (int part = 0; part < files.length; part++)
+        {
+            if (dictionaries[part] != null)
+            {
+                FrontCodedDictionary.Cursor cursor = dictionaries[part].cursor();
+                int taken = 0;
+                for (boolean more = cursor.seek(from); more && taken < limit; more = cursor.next(), taken++)
+                {
+                    if (to != null && FrontCodedDictionary.compare(cursor.term(), 0, cursor.termLength(),
+                            to, to.length) >= 0) { break; }
+                    terms.add(new String(cursor.term(), 0, cursor.termLength(), StandardCharsets.UTF_8));
+                }
+                continue;
+            }
+
+            long[] starts = lines[part];
+            int line = firstLine(part, from);
+            for (int taken = 0; line < starts.length && taken < limit; line++)
+            {
+                if (to != null && compareWord(files[part], starts[line], to) >= 0) { break; }
+                String word = readWord(files[part], starts[line]);
+                if (terms.add(word)) { taken++; }
+            }
+        }
+        List<String> sorted = new ArrayList<>(terms);
+        return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+    }
+
+    // Where the line after the one starting at line starts
+    private static long nextLine(MappedFile file, long line)
+    {
+        while (line < file.length() && file.get(line) != '\n') { line++; }
+        return line + 1;
+    }
+
+    private static String readWord(MappedFile file, long line)
+    {
+        int length = 0;
+        while (wordByte(file, line + length) >= 0) { length++; }
+        ByteBuffer buffer = file.slice(line, length);
+        byte[] word = new byte[length];
+        buffer.get(word);
+        return new String(word, StandardCharsets.UTF_8);
+    }
+
+    // Parses the filename:count pairs of a line into sorted arrays
+    private PostingIterator parse(MappedFile file, long start, int wordLength) throws IOException
+    {
+        long end = start;
+        while (end < file.length() && file.get(end) != '\n') { end++; }
+        ByteBuffer buffer = file.slice(start, (int) (end - start));
+        byte[] line = new byte[buffer.remaining()];
+        buffer.get(line);
+
+        long[] postings = new long[16];  // (docId << 32) | count, to sort them together
+        int size = 0;
+        int position = wordLength;
+        while (position < line.length)
+        {
+            int from = position + 1;
+            int to = from;
+            while (to < line.length && line[to] != '\t') { to++; }
+            int colon = to - 1;
+            while (colon >= from && line[colon] != ':') { colon--; }
+            position = to;
+            if (colon < from) { continue; }
+
+            int docId = getDocId(new String(line, from, colon - from, StandardCharsets.UTF_8));
+            int count = Integer.parseInt(new String(line, colon + 1, to - colon - 1, StandardCharsets.US_ASCII).trim());
+            if (size == postings.length) { postings = Arrays.copyOf(postings, size * 2); }
+            postings[size++] = ((long) docId << 32) | count;
+        }
+        Arrays.sort(postings, 0, size);
+
+        // Same document twice in a line: sum the counts
+        int[] docIds = new int[size];
+        int[] counts = new int[size];
+        int distinct = 0;
+        for (int i = 0; i < size; i++)
+        {
+            int docId = (int) (postings[i] >>> 32);
+            if (distinct > 0 && docIds[distinct - 1] == docId) { counts[distinct - 1] += (int) postings[i]; }
+            else
+            {
+                docIds[distinct] = docId;
+                counts[distinct++] = (int) postings[i];
+            }
+        }
+        return new ArrayPostingIterator(docIds, counts, distinct);
+    }
+}
@@ -0,0 +1,198 @@
+package it.unipi.hadoop;
+
+import it.unipi.hadoop.search.Index;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The aliases found before indexing a corpus with exact copies, near copies on both sides of
+ *  the threshold and a chain of near copies, whose ends are not similar to each other but
+ *  must still be in the same group. The canonical document of a group is its smallest filename,
+ *  wherever it is in the chain, and it is the only one of the group that gets indexed
+ */
+public class DuplicateDetectorTest
+{
+    private static final int WORDS_PER_DOCUMENT = 1500;
+    private static final int VOCABULARY = 100000;
+    private static final float THRESHOLD = 0.85f;
+
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    private final Random random = new Random(13);
+    private File corpus;
+
+    // The letters of the number in base 26, since the tokenizer drops the digits
+    private static String toWord(int number)
+    {
+        StringBuilder word = new StringBuilder();
+        do
+        {
+            word.append((char) ('a' + number % 26));
+            number /= 26;
+        }
+        while (number > 0);
+        return word.toString();
+    }
+
+    private List<String> randomDocument()
+    {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < WORDS_PER_DOCUMENT; i++) { words.add(toWord(random.nextInt(VOCABULARY))); }
+        return words;
+    }
+
+    // A copy with the given share of its words replaced, each one changing the shingles around it
+    private List<String> mutate(List<String> document, double share)
+    {
+        List<String> copy = new ArrayList<>(document);
+        for (int i = 0; i < copy.size(); i++)
+        {
+            if (random.nextDouble() < share) { copy.set(i, toWord(random.nextInt(VOCABULARY))); }
+        }
+        return copy;
+    }
+
+    // The exact Jaccard similarity of the shingles of two documents, which the signatures estimate
+    private static double jaccard(List<String> a, List<String> b)
+    {
+        Set<List<String>> shinglesA = new HashSet<>();
+        Set<List<String>> shinglesB = new HashSet<>();
+        for (int i = 0; i + DocumentSignature.SHINGLE <= a.size(); i++) { shinglesA.add(a.subList(i, i + DocumentSignature.SHINGLE)); }
+        for (int i = 0; i + DocumentSignature.SHINGLE <= b.size(); i++) { shinglesB.add(b.subList(i, i + DocumentSignature.SHINGLE)); }
+        Set<List<String>> union = new HashSet<>(shinglesA);
+        union.addAll(shinglesB);
+        shinglesA.retainAll(shinglesB);
+        return (double) shinglesA.size() / union.size();
+    }
+
+    private void write(String name, List<String> words) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(new File(corpus, name).toPath(), StandardCharsets.UTF_8)))
+        {
+            for (int i = 0; i < words.size(); i++) { out.print(words.get(i) + (i % 12 == 11 ? "\n" : " ")); }
+        }
+    }
+
+    /**
+     * Writes the corpus
+     * @return the aliases expected in "near" mode (alias -> canonical); the ones in "exact" mode
+     *  are the ones of the copies of a.txt
+     */
+    private SortedMap<String, String> generateCorpus() throws IOException
+    {
+        corpus = temporary.newFolder("corpus");
+        SortedMap<String, String> aliases = new TreeMap<>();
+
+        // Exact copies: the canonical one is the smallest name, not the original
+        List<String> a = randomDocument();
+        for (String name : new String[] {"a.txt", "a-copy2.txt", "a-copy1.txt"}) { write(name, a); }
+        aliases.put("a.txt", "a-copy1.txt");
+        aliases.put("a-copy2.txt", "a-copy1.txt");
+
+        // A near copy above the threshold, and one below
+        List<String> b = randomDocument();
+        List<String> above = mutate(b, 0.01);
+        List<String> below = mutate(b, 0.08);
+        assertTrue(jaccard(b, above) > THRESHOLD + 0.05);
+        assertTrue(jaccard(b, below) < THRESHOLD - 0.2);
+        write("b.txt", b);
+        write("b-above.txt", above);
+        write("b-below.txt", below);
+        aliases.put("b.txt", "b-above.txt");
+
+        // A chain: each link is a near copy of the previous one, its ends are far apart
+        String[] names = {"chain-3.txt", "chain-6.txt", "chain-1.txt", "chain-5.txt", "chain-0.txt", "chain-4.txt", "chain-2.txt"};
+        List<List<String>> chain = new ArrayList<>();
+        chain.add(randomDocument());
+        for (int link = 1; link < names.length; link++) { chain.add(mutate(chain.get(link - 1), 0.012)); }
+        for (int link = 0; link < names.length; link++)
+        {
+            if (link > 0) { assertTrue(jaccard(chain.get(link - 1), chain.get(link)) > THRESHOLD + 0.05); }
+            write(names[link], chain.get(link));
+            if (!names[link].equals("chain-0.txt")) { aliases.put(names[link], "chain-0.txt"); }
+        }
+        assertTrue(jaccard(chain.get(0), chain.get(names.length - 1)) < THRESHOLD - 0.1);
+
+        // Unrelated documents, and a short one (a single shingle)
+        for (int i = 0; i < 8; i++) { write("other-" + i + ".txt", randomDocument()); }
+        write("short.txt", Arrays.asList("alpha", "beta"));
+        return aliases;
+    }
+
+    private void detect(String mode, SortedMap<String, String> expected) throws Exception
+    {
+        Configuration conf = new Configuration();
+        conf.set(DuplicateDetector.MODE, mode);
+        conf.setFloat(DuplicateDetector.THRESHOLD, THRESHOLD);
+        Path output = new Path(temporary.getRoot().getPath(), "index-" + mode);
+        assertTrue(InvertedIndex.run(conf, new Path[] {new Path(corpus.getPath())}, output, 0, 2, 1));
+
+        FileSystem fs = output.getFileSystem(conf);
+        SortedMap<String, String> aliases;
+        try (InputStream in = fs.open(new Path(output, DuplicateDetector.FILENAME))) { aliases = DuplicateDetector.read(in); }
+        assertEquals(mode, expected, aliases);
+        assertFalse(fs.exists(new Path(output.toString() + DuplicateDetector.FILENAME)));
+
+        // Only the canonical documents are indexed, and each one lists its aliases
+        DocumentDictionary documents = DocumentDictionary.read(fs, new Path(output, DocumentDictionary.FILENAME));
+        Set<String> indexed = new TreeSet<>();
+        for (int docId = 0; docId < documents.size(); docId++) { indexed.add(documents.getFilename(docId)); }
+        Set<String> all = new TreeSet<>(Arrays.asList(corpus.list()));
+        all.removeAll(aliases.keySet());
+        assertEquals(mode, all, indexed);
+
+        Index index = Index.open(Paths.get(output.toString()));
+        Map<String, List<String>> groups = new TreeMap<>();
+        for (Map.Entry<String, String> alias : aliases.entrySet())
+        {
+            groups.computeIfAbsent(alias.getValue(), canonical -> new ArrayList<>()).add(alias.getKey());
+        }
+        for (int docId = 0; docId < documents.size(); docId++)
+        {
+            List<String> group = groups.getOrDefault(documents.getFilename(docId), Collections.emptyList());
+            assertEquals(documents.getFilename(docId), group, index.getAliases(docId));
+        }
+    }
+
+    @Test
+    public void nearDuplicates() throws Exception
+    {
+        detect("near", generateCorpus());
+    }
+
+    @Test
+    public void exactDuplicates() throws Exception
+    {
+        SortedMap<String, String> expected = new TreeMap<>(generateCorpus().headMap("a.txt\0"));
+        assertEquals(2, expected.size());
+        detect("exact", expected);
+    }
+}
@@ -0,0 +1,209 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Converting a text index to binary and back must not change its content: the text parts
+ *  written at the end are the same bytes as the original ones
+ */
+public class IndexConverterTest
+{
+    private static final int DOCUMENTS = 300;
+    private static final int BLOCK = BinaryPostingsOutputFormat.BLOCK_SIZE;
+
+    // The terms of each part, and their document frequencies: less than one, exactly one and several blocks
+    private static final String[][] TERMS = {
+            {"alpha", "block", "everywhere", "rare"},
+            {"blocks", "counts", "single", "zeta"},
+    };
+    private static final int[][] FREQUENCIES = {
+            {BLOCK - 1, BLOCK, DOCUMENTS, 3},
+            {BLOCK + 1, 2 * BLOCK + 7, 1, 50},
+    };
+
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    private final Configuration conf = new Configuration();
+
+    // A text index with the TERMS, each one in FREQUENCIES random documents
+    private Path generateIndex() throws IOException
+    {
+        Path folder = new Path(temporary.getRoot().getPath(), "text");
+        FileSystem fs = folder.getFileSystem(conf);
+        String[] filenames = new String[DOCUMENTS];
+        for (int docId = 0; docId < DOCUMENTS; docId++) { filenames[docId] = String.format("doc%04d.txt", docId); }
+        DocumentDictionary documents = new DocumentDictionary(filenames);
+        fs.mkdirs(folder);
+        documents.write(fs, new Path(folder, DocumentDictionary.FILENAME));
+
+        Random random = new Random(42);
+        for (int part = 0; part < TERMS.length; part++)
+        {
+            TextPostingsOutputFormat.TextPostingsWriter writer = new TextPostingsOutputFormat.TextPostingsWriter(
+                    fs.create(new Path(folder, String.format("part-r-%05d", part))), documents);
+            FilenameAndCount posting = new FilenameAndCount();
+            for (int term = 0; term < TERMS[part].length; term++)
+            {
+                Text word = new Text(TERMS[part][term]);
+                for (int docId = 0, left = FREQUENCIES[part][term]; left > 0; docId++)
+                {
+                    // Pick the documents at random, keeping them sorted
+                    if (random.nextInt(DOCUMENTS - docId) >= left) { continue; }
+                    posting.setDocId(docId);
+                    // Mostly small counts, with a few large ones for the multi-byte encodings
+                    posting.setCount(random.nextInt(10) == 0 ? 1 + random.nextInt(100000) : 1 + random.nextInt(5));
+                    writer.write(word, posting);
+                    left--;
+                }
+            }
+            writer.close(null);
+        }
+        return folder;
+    }
+
+    // Every (term, document, count) of the index, part by part
+    private List<String> readPostings(Path folder) throws IOException
+    {
+        IndexFolder index = new IndexFolder(conf, folder);
+        DocumentDictionary documents = index.readDocuments();
+        List<String> postings = new ArrayList<>();
+        for (Path part : index.getParts())
+        {
+            postings.add(index.getPartName(part));
+            try (PostingsReader reader = index.openPart(part, documents))
+            {
+                while (reader.nextTerm())
+                {
+                    int read = 0;
+                    while (reader.nextPosting())
+                    {
+                        postings.add(reader.getTerm() + " " + reader.getDocId() + " " + reader.getCount());
+                        read++;
+                    }
+                    assertEquals(reader.getTerm().toString(), reader.getDocumentFrequency(), read);
+                }
+            }
+        }
+        return postings;
+    }
+
+    private static byte[] read(Path file) throws IOException { return Files.readAllBytes(Paths.get(file.toString())); }
+
+    @Test
+    public void textToBinaryToText() throws Exception
+    {
+        Path text = generateIndex();
+        Path binary = new Path(temporary.getRoot().getPath(), "binary");
+        Path back = new Path(temporary.getRoot().getPath(), "back");
+
+        IndexConverter.convert(conf, text, binary, true);
+        IndexConverter.convert(conf, binary, back, false);
+
+        assertFalse(new IndexFolder(conf, text).isBinary());
+        assertTrue(new IndexFolder(conf, binary).isBinary());
+        assertFalse(new IndexFolder(conf, back).isBinary());
+
+        List<String> original = readPostings(text);
+        assertEquals(original, readPostings(binary));
+        assertEquals(original, readPostings(back));
+
+        for (String part : new String[] {"part-r-00000", "part-r-00001"})
+        {
+            assertArrayEquals(part, read(new Path(text, part)), read(new Path(back, part)));
+        }
+        assertArrayEquals(read(new Path(text, DocumentDictionary.FILENAME)),
+                read(new Path(back, DocumentDictionary.FILENAME)));
+    }
+
+    @Test
+    public void termsSpanningSeveralBlocks() throws Exception
+    {
+        Path binary = new Path(temporary.getRoot().getPath(), "binary");
+        IndexConverter.convert(conf, generateIndex(), binary, true);
+
+        IndexFolder index = new IndexFolder(conf, binary);
+        DocumentDictionary documents = index.readDocuments();
+        Path[] parts = index.getParts();
+        assertEquals(TERMS.length, parts.length);
+        for (int part = 0; part < parts.length; part++)
+        {
+            try (PostingsReader reader = index.openPart(parts[part], documents))
+            {
+                for (int term = 0; term < TERMS[part].length; term++)
+                {
+                    assertTrue(reader.nextTerm());
+                    assertEquals(TERMS[part][term], reader.getTerm().toString());
+                    assertEquals(TERMS[part][term], FREQUENCIES[part][term], reader.getDocumentFrequency());
+                    int previous = -1;
+                    while (reader.nextPosting())
+                    {
+                        assertTrue(reader.getDocId() > previous);
+                        previous = reader.getDocId();
+                    }
+                }
+                assertFalse(reader.nextTerm());
+            }
+        }
+    }
+
+    // A text index without a _documents dictionary, like the ones of CreateIndex.py
+    private Path writeWithoutDocuments(String part) throws IOException
+    {
+        Path folder = new Path(temporary.getRoot().getPath(), "python");
+        FileSystem fs = folder.getFileSystem(conf);
+        fs.mkdirs(folder);
+        Files.write(Paths.get(folder.toString(), "part-r-00000"), part.getBytes(StandardCharsets.UTF_8));
+        return folder;
+    }
+
+    @Test
+    public void collectsTheDocumentsFromThePostings() throws Exception
+    {
+        Path text = writeWithoutDocuments("alpha\ta.txt:1\tb:c.txt:2\nbeta\tb:c.txt:1\td.txt:4\n");
+        Path binary = new Path(temporary.getRoot().getPath(), "binary");
+        IndexConverter.convert(conf, text, binary, true);
+
+        DocumentDictionary documents = new IndexFolder(conf, binary).readDocuments();
+        assertEquals(3, documents.size());
+        assertEquals("a.txt", documents.getFilename(0));
+        assertEquals("b:c.txt", documents.getFilename(1));
+        assertEquals("d.txt", documents.getFilename(2));
+    }
+
+    @Test
+    public void postingWithoutCount() throws Exception
+    {
+        Path text = writeWithoutDocuments("alpha\ta.txt:1\nbeta\ta.txt:2\tb.txt\n");
+        Path binary = new Path(temporary.getRoot().getPath(), "binary");
+        try
+        {
+            IndexConverter.convert(conf, text, binary, true);
+            fail("A posting without a count should be rejected");
+        }
+        catch (IOException e)
+        {
+            assertEquals("Malformed posting \"b.txt\" in part-r-00000, line 2", e.getMessage());
+        }
+    }
+}
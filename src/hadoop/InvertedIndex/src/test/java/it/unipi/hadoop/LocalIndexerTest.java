@@ -0,0 +1,125 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * With as many parts as the reducers of the job, LocalIndexer must write the very same files
+ *  as the InvertedIndex job, in both output formats. The corpus has a file larger than a chunk,
+ *  a compressed file and a subfolder (only indexed if the input is recursive, like the job
+ *  does), and the budget is small enough for the tables to spill
+ */
+public class LocalIndexerTest
+{
+    private static final int PARTS = 3;
+
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    private final Random random = new Random(5);
+
+    // Lines of random words from a skewed vocabulary, with some punctuation and uppercase letters
+    private void writeLines(OutputStream file, long bytes) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8)))
+        {
+            for (long written = 0; written < bytes; )
+            {
+                StringBuilder line = new StringBuilder();
+                for (int word = 1 + random.nextInt(12); word > 0; word--)
+                {
+                    int rank = (int) Math.pow(50000, random.nextDouble());
+                    for (; rank > 0; rank /= 26) { line.append((char) ('a' + rank % 26)); }
+                    line.append(random.nextInt(20) == 0 ? ", " : random.nextInt(30) == 0 ? " X" : " ");
+                }
+                out.println(line);
+                written += line.length() + 1;
+            }
+        }
+    }
+
+    private File generateCorpus() throws IOException
+    {
+        File corpus = temporary.newFolder("corpus");
+        File nested = new File(corpus, "nested");
+        nested.mkdir();
+        for (int i = 0; i < 30; i++)
+        {
+            File folder = i % 5 == 0 ? nested : corpus;
+            writeLines(Files.newOutputStream(new File(folder, String.format("doc%03d.txt", i)).toPath()),
+                    random.nextInt(40000));
+        }
+        // More than two chunks of 1 MB, so that lines are cut at the chunk boundaries
+        writeLines(Files.newOutputStream(new File(corpus, "large.txt").toPath()), 2500000);
+        writeLines(new GZIPOutputStream(Files.newOutputStream(new File(corpus, "compressed.txt.gz").toPath())), 200000);
+        return corpus;
+    }
+
+    // The files of an index folder, but the ones that depend on the job (metrics, checksums)
+    private static TreeMap<String, byte[]> readFiles(File folder) throws IOException
+    {
+        TreeMap<String, byte[]> files = new TreeMap<>();
+        for (File file : folder.listFiles())
+        {
+            String name = file.getName();
+            if (name.startsWith(".") || name.equals(JobMetrics.FILENAME)) { continue; }
+            files.put(name, Files.readAllBytes(file.toPath()));
+        }
+        return files;
+    }
+
+    private void sameFilesAsTheJob(String format, boolean recursive) throws Exception
+    {
+        File corpus = generateCorpus();
+        Configuration conf = new Configuration();
+        conf.set(InvertedIndex.OUTPUT_FORMAT, format);
+        conf.setBoolean(FileInputFormat.INPUT_DIR_RECURSIVE, recursive);
+
+        Path job = new Path(temporary.getRoot().getPath(), "job");
+        assertTrue(InvertedIndex.run(conf, new Path[] {new Path(corpus.getPath())}, job, 0, PARTS, 1));
+
+        Configuration local = new Configuration(conf);
+        local.setInt(LocalIndexer.THREADS, 2);
+        local.setInt(LocalIndexer.PARTS, PARTS);
+        local.setInt(LocalIndexer.CHUNK_MB, 1);
+        local.setInt(LocalIndexer.BUDGET_MB, 1);
+        Path output = new Path(temporary.getRoot().getPath(), "local");
+        LocalIndexer indexer = new LocalIndexer(local, output);
+        indexer.run(new Path[] {new Path(corpus.getPath())}, output);
+        assertTrue("The budget must force spills", indexer.getSpills() > 0);
+
+        TreeMap<String, byte[]> expected = readFiles(new File(job.toString()));
+        TreeMap<String, byte[]> actual = readFiles(new File(output.toString()));
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String name : expected.keySet()) { assertArrayEquals(name, expected.get(name), actual.get(name)); }
+    }
+
+    @Test
+    public void sameTextFilesAsTheJob() throws Exception { sameFilesAsTheJob("text", false); }
+
+    @Test
+    public void sameBinaryFilesAsTheJob() throws Exception { sameFilesAsTheJob("binary", false); }
+
+    // The files of the subfolder are indexed too
+    @Test
+    public void sameFilesAsARecursiveJob() throws Exception { sameFilesAsTheJob("text", true); }
+}
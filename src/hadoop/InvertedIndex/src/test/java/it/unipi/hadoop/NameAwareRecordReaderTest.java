@@ -0,0 +1,123 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The readers of the job must give each file the ID it has in the document dictionary, and
+ *  refuse a file that is not in it (e.g., one added to the input folder once the job started)
+ *  instead of passing its words on with an invalid document ID
+ */
+public class NameAwareRecordReaderTest
+{
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    private File corpus;
+    private TaskAttemptContext context;
+
+    // The dictionary of a job over a.txt and b.txt, then c.txt shows up
+    private void prepare() throws IOException
+    {
+        corpus = temporary.newFolder("corpus");
+        for (String name : new String[] {"a.txt", "b.txt"})
+        {
+            Files.write(new File(corpus, name).toPath(), ("the words of " + name + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Job job = Job.getInstance(new Configuration());
+        FileInputFormat.setInputPaths(job, new Path(corpus.getPath()));
+        DocumentDictionary.prepare(job, new Path(temporary.getRoot().getPath(), "output"));
+        Files.write(new File(corpus, "c.txt").toPath(), "late\n".getBytes(StandardCharsets.UTF_8));
+        context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+    }
+
+    private CombineFileSplit split(String... names)
+    {
+        Path[] paths = new Path[names.length];
+        long[] lengths = new long[names.length];
+        for (int i = 0; i < names.length; i++)
+        {
+            File file = new File(corpus, names[i]);
+            paths[i] = new Path(file.getPath());
+            lengths[i] = file.length();
+        }
+        return new CombineFileSplit(paths, new long[names.length], lengths, new String[0]);
+    }
+
+    // The "filename docId" of the records of the split
+    private static List<String> read(RecordReader<FilenameAndOffset, Text> reader, CombineFileSplit split,
+                                     TaskAttemptContext context) throws Exception
+    {
+        List<String> records = new ArrayList<>();
+        reader.initialize(split, context);
+        while (reader.nextKeyValue())
+        {
+            records.add(reader.getCurrentKey().getFilename() + " " + reader.getCurrentKey().getDocId());
+        }
+        reader.close();
+        return records;
+    }
+
+    private void assertUnknown(RecordReader<FilenameAndOffset, Text> reader, CombineFileSplit split) throws Exception
+    {
+        try
+        {
+            read(reader, split, context);
+            fail("c.txt is not in the dictionary");
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // CombineFileRecordReader wraps what the readers of the files after the first one throw
+            Throwable cause = e instanceof RuntimeException ? e.getCause() : e;
+            assertTrue(String.valueOf(cause), cause instanceof IOException);
+            assertTrue(cause.getMessage(), cause.getMessage().startsWith("Unknown document \"c.txt\""));
+            assertTrue(cause.getMessage(), cause.getMessage().contains(new File(corpus, "c.txt").getPath()));
+        }
+    }
+
+    @Test
+    public void lineByLine() throws Exception
+    {
+        prepare();
+        CombineFileSplit split = split("b.txt", "a.txt");
+        assertEquals("[b.txt 1, a.txt 0]", read(new CombineFileRecordReader<>(split, context, NameAwareRecordReader.class),
+                split, context).toString());
+
+        // Whether the unknown file comes first (initialized by the task) or later (by CombineFileRecordReader)
+        split = split("c.txt", "a.txt");
+        assertUnknown(new CombineFileRecordReader<>(split, context, NameAwareRecordReader.class), split);
+        split = split("a.txt", "c.txt");
+        assertUnknown(new CombineFileRecordReader<>(split, context, NameAwareRecordReader.class), split);
+    }
+
+    @Test
+    public void wholeFiles() throws Exception
+    {
+        prepare();
+        assertEquals("[b.txt 1, a.txt 0]", read(new WholeFileRecordReader(), split("b.txt", "a.txt"), context).toString());
+        assertUnknown(new WholeFileRecordReader(), split("a.txt", "c.txt"));
+    }
+}
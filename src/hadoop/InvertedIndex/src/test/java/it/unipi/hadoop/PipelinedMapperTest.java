@@ -0,0 +1,136 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A PipelinedMapper must emit the same (word, document, count) records as a CombinerMapper,
+ *  whatever the number of its workers. The budget is the smallest one, so that every table
+ *  is flushed several times: the records of a pair may then be split differently, but they
+ *  must add up to the same counts
+ */
+public class PipelinedMapperTest
+{
+    private static final int DOCUMENTS = 30;
+    private static final int WORDS_PER_DOCUMENT = 3000;
+    private static final int VOCABULARY = 20000;
+
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    // Random words from a skewed vocabulary, a few per line, so that pairs repeat within a document
+    private Path generateCorpus() throws IOException
+    {
+        java.nio.file.Path folder = temporary.newFolder("corpus").toPath();
+        Random random = new Random(7);
+        for (int document = 0; document < DOCUMENTS; document++)
+        {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(
+                    folder.resolve(String.format("doc%03d.txt", document)), StandardCharsets.UTF_8)))
+            {
+                for (int word = 0; word < WORDS_PER_DOCUMENT; word++)
+                {
+                    int rank = (int) Math.pow(VOCABULARY, random.nextDouble());
+                    out.print(toWord(rank) + (word % 12 == 11 ? "\n" : " "));
+                }
+            }
+        }
+        return new Path(folder.toString());
+    }
+
+    // The letters of the number in base 26, since the tokenizer drops the digits
+    private static String toWord(int number)
+    {
+        StringBuilder word = new StringBuilder();
+        do
+        {
+            word.append((char) ('a' + number % 26));
+            number /= 26;
+        }
+        while (number > 0);
+        return word.toString();
+    }
+
+    // Runs the mappers of the given configuration alone, and adds up the counts of each (word, document)
+    private Map<String, Long> map(Path corpus, int configuration, int threads) throws Exception
+    {
+        Configuration conf = new Configuration();
+        conf.setInt(InvertedIndex.CombinerMapper.BUDGET_MB, 1);
+        if (threads > 0) { conf.setInt(PipelinedMapper.THREADS, threads); }
+        Path output = new Path(temporary.getRoot().getPath(), "output-" + configuration + "-" + threads);
+
+        Job job = InvertedIndex.createJob(conf, new Path[] {corpus}, output, configuration, 0, 1);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job.setOutputKeyClass(WordAndDocument.class);
+        job.setOutputValueClass(VIntWritable.class);
+        assertTrue(job.waitForCompletion(false));
+        DocumentDictionary.discard(job.getConfiguration(), output);
+        assertTrue("The budget must force flushes", job.getCounters().findCounter("Memory Management",
+                "Number of in-mapper combiner flushes").getValue() > 0);
+
+        Map<String, Long> counts = new TreeMap<>();
+        FileSystem fs = output.getFileSystem(conf);
+        WordAndDocument key = new WordAndDocument();
+        VIntWritable value = new VIntWritable();
+        for (FileStatus status : fs.listStatus(output))
+        {
+            if (!status.getPath().getName().startsWith("part-")) { continue; }
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(status.getPath())))
+            {
+                while (reader.next(key, value))
+                {
+                    counts.merge(key.getWord() + " " + key.getDocId(), (long) value.get(), Long::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    @Test
+    public void sameRecordsAsCombinerMapper() throws Exception
+    {
+        Path corpus = generateCorpus();
+        Map<String, Long> expected = map(corpus, 2, 0);
+        assertTrue(expected.size() > DOCUMENTS * 1000);
+        long total = 0;
+        for (long count : expected.values()) { total += count; }
+        assertEquals((long) DOCUMENTS * WORDS_PER_DOCUMENT, total);
+
+        for (int threads : new int[] {1, 2, 3, 4})
+        {
+            assertEquals(threads + " threads", expected, map(corpus, 4, threads));
+        }
+    }
+
+    @Test
+    public void defaultWorkers()
+    {
+        int cores = Runtime.getRuntime().availableProcessors();
+        Configuration conf = new Configuration();
+        assertEquals(cores, PipelinedMapper.getWorkers(conf));
+        conf.setInt("mapreduce.map.cpu.vcores", cores + 1);
+        assertEquals(cores, PipelinedMapper.getWorkers(conf));
+        conf.setInt(PipelinedMapper.THREADS, 3);
+        assertEquals(3, PipelinedMapper.getWorkers(conf));
+    }
+}
@@ -0,0 +1,140 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The four configurations of a positional job must build the same index, including the
+ *  PositionalCombinerMapper when its smallest budget makes it flush in the middle of a
+ *  file, and its tasks must report their metrics like the ones of a non-positional job
+ */
+public class PositionalIndexTest
+{
+    private static final int DOCUMENTS = 12;
+    private static final int VOCABULARY = 20000;
+
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    private long words;
+
+    // The letters of the number in base 26, since the tokenizer drops the digits
+    private static String toWord(int number)
+    {
+        StringBuilder word = new StringBuilder();
+        do
+        {
+            word.append((char) ('a' + number % 26));
+            number /= 26;
+        }
+        while (number > 0);
+        return word.toString();
+    }
+
+    // Small documents, and a large one with more distinct words than a 1 MB budget can hold
+    private Path generateCorpus() throws IOException
+    {
+        File corpus = temporary.newFolder("corpus");
+        Random random = new Random(3);
+        for (int document = 0; document < DOCUMENTS; document++)
+        {
+            int length = document == 0 ? 60000 : 200 + random.nextInt(2000);
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(
+                    new File(corpus, String.format("doc%03d.txt", document)).toPath(), StandardCharsets.UTF_8)))
+            {
+                for (int word = 0; word < length; word++)
+                {
+                    out.print(toWord((int) Math.pow(VOCABULARY, random.nextDouble())) + (word % 12 == 11 ? "\n" : " "));
+                }
+            }
+            words += length;
+        }
+        return new Path(corpus.getPath());
+    }
+
+    // The files of the index, but the ones that depend on the job
+    private static TreeMap<String, byte[]> readFiles(Path folder) throws IOException
+    {
+        TreeMap<String, byte[]> files = new TreeMap<>();
+        for (File file : new File(folder.toString()).listFiles())
+        {
+            String name = file.getName();
+            if (name.startsWith(".") || name.equals("_SUCCESS") || name.equals(JobMetrics.FILENAME)) { continue; }
+            files.put(name, Files.readAllBytes(file.toPath()));
+        }
+        return files;
+    }
+
+    private Counters index(Path corpus, Path output, int configuration) throws Exception
+    {
+        Configuration conf = new Configuration();
+        conf.set(InvertedIndex.OUTPUT_FORMAT, "binary");
+        conf.setBoolean(InvertedIndex.POSITIONS, true);
+        conf.setInt(InvertedIndex.CombinerMapper.BUDGET_MB, 1);
+        Job job = InvertedIndex.createJob(conf, new Path[] {corpus}, output, configuration, 2, 1);
+        boolean succeeded = job.waitForCompletion(false);
+        InvertedIndex.commit(job, output, succeeded);
+        assertTrue(succeeded);
+        assertTrue(new File(output.toString(), JobMetrics.FILENAME).exists());
+        return job.getCounters();
+    }
+
+    @Test
+    public void configurationsBuildTheSameIndex() throws Exception
+    {
+        Path corpus = generateCorpus();
+        TreeMap<String, byte[]> expected = null;
+        for (int configuration = 0; configuration < 4; configuration++)
+        {
+            Path output = new Path(temporary.getRoot().getPath(), "index-" + configuration);
+            Counters counters = index(corpus, output, configuration);
+            String name = "configuration " + configuration;
+
+            assertEquals(name, words, counters.findCounter(JobMetrics.GROUP, JobMetrics.TOKENS).getValue());
+            assertTrue(name, counters.findCounter(JobMetrics.GROUP, JobMetrics.LINES).getValue() > 0);
+            assertTrue(name, counters.findCounter(JobMetrics.GROUP, JobMetrics.POSTINGS).getValue() > 0);
+            assertTrue(name, counters.getGroup(JobMetrics.POSTINGS_HISTOGRAM).size() > 0);
+            if (configuration == 1 || configuration == 3)
+            {
+                assertTrue(name, counters.getGroup(JobMetrics.COMBINE_HISTOGRAM).size() > 0);
+            }
+            if (configuration >= 2)
+            {
+                // Only the large document fills the budget
+                assertTrue(name, counters.findCounter("Memory Management", "Number of in-mapper combiner flushes").getValue() > 0);
+                assertTrue(name, counters.getGroup(JobMetrics.FLUSH_HISTOGRAM).size() > 0);
+            }
+            else
+            {
+                assertEquals(name, words, counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue());
+            }
+
+            TreeMap<String, byte[]> files = readFiles(output);
+            if (expected == null)
+            {
+                expected = files;
+                continue;
+            }
+            assertEquals(name, expected.keySet(), files.keySet());
+            for (String file : expected.keySet()) { assertArrayEquals(name + ": " + file, expected.get(file), files.get(file)); }
+        }
+    }
+}
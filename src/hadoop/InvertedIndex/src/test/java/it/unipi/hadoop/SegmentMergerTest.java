@@ -0,0 +1,177 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Merging all the segments of an incrementally built index must give the same files as
+ *  a full rebuild of the input folder as it is at the end: the postings of the deleted and
+ *  modified documents left in the old segments (tombstones) must all be dropped
+ */
+public class SegmentMergerTest
+{
+    private static final String[] WORDS = {
+            "alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta", "iota", "kappa",
+            "lambda", "mu", "nu", "xi", "omicron", "pi", "rho", "sigma", "tau", "upsilon",
+    };
+
+    @Rule
+    public TemporaryFolder temporary = new TemporaryFolder();
+
+    private final Random random = new Random(11);
+
+    // A few lines of random words, of a random length
+    private void writeDocument(File corpus, String name) throws IOException
+    {
+        File file = new File(corpus, name);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)))
+        {
+            for (int line = 1 + random.nextInt(20); line > 0; line--)
+            {
+                for (int word = 1 + random.nextInt(15); word > 0; word--)
+                {
+                    out.print(WORDS[(int) Math.pow(WORDS.length, random.nextDouble())] + " ");
+                }
+                out.println();
+            }
+        }
+        // A new version must look modified even within the resolution of the modification times
+        file.setLastModified(file.lastModified() + random.nextInt(1000) * 1000L);
+    }
+
+    private Configuration configuration(String format, boolean positions)
+    {
+        Configuration conf = new Configuration();
+        conf.set(InvertedIndex.OUTPUT_FORMAT, format);
+        conf.setBoolean(InvertedIndex.POSITIONS, positions);
+        conf.setInt(SegmentMerger.MERGE_FACTOR, 0);  // The test merges by itself
+        return conf;
+    }
+
+    /**
+     * Three incremental runs, each one adding, modifying and deleting files
+     * @return the index, with three segments and their tombstones
+     */
+    private Path buildSegments(Configuration conf, File corpus) throws Exception
+    {
+        Path index = new Path(temporary.getRoot().getPath(), "index");
+        List<String> names = new ArrayList<>();
+        for (int run = 0; run < 3; run++)
+        {
+            for (int i = 0; i < 12; i++)
+            {
+                String name = String.format("doc%03d.txt", names.size());
+                names.add(name);
+                writeDocument(corpus, name);
+            }
+            if (run > 0)
+            {
+                for (int i = 0; i < 4; i++) { writeDocument(corpus, names.get(random.nextInt(names.size()))); }
+                for (int i = 0; i < 3; i++) { new File(corpus, names.remove(random.nextInt(names.size()))).delete(); }
+            }
+            assertTrue(IncrementalIndexer.run(conf, new Path(corpus.getPath()), index, 0, 1, 1));
+        }
+        return index;
+    }
+
+    // The files of an index folder, but the ones that depend on the job (metrics, checksums, markers)
+    private static TreeMap<String, byte[]> readFiles(Path folder) throws IOException
+    {
+        TreeMap<String, byte[]> files = new TreeMap<>();
+        for (File file : new File(folder.toString()).listFiles())
+        {
+            String name = file.getName();
+            if (name.startsWith(".") || name.equals("_SUCCESS") || name.equals(JobMetrics.FILENAME)) { continue; }
+            files.put(name, Files.readAllBytes(file.toPath()));
+        }
+        return files;
+    }
+
+    private void mergeEqualsRebuild(String format, boolean positions) throws Exception
+    {
+        Configuration conf = configuration(format, positions);
+        File corpus = temporary.newFolder("corpus");
+        Path index = buildSegments(conf, corpus);
+        FileSystem fs = index.getFileSystem(conf);
+        Manifest manifest = Manifest.read(fs, index);
+        assertEquals(3, manifest.getSegments().size());
+        assertTrue(manifest.hasTombstones());
+
+        String merged = SegmentMerger.merge(conf, index, manifest, manifest.getSegments());
+        assertEquals(1, manifest.getSegments().size());
+        assertFalse(Manifest.read(fs, index).hasTombstones());
+
+        Path rebuilt = new Path(temporary.getRoot().getPath(), "rebuilt");
+        assertTrue(InvertedIndex.run(conf, new Path[] {new Path(corpus.getPath())}, rebuilt, 0, 1, 1));
+
+        TreeMap<String, byte[]> expected = readFiles(rebuilt);
+        TreeMap<String, byte[]> actual = readFiles(new Path(index, merged));
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String name : expected.keySet()) { assertArrayEquals(name, expected.get(name), actual.get(name)); }
+    }
+
+    @Test
+    public void textMergeEqualsRebuild() throws Exception { mergeEqualsRebuild("text", false); }
+
+    @Test
+    public void binaryMergeEqualsRebuild() throws Exception { mergeEqualsRebuild("binary", false); }
+
+    @Test
+    public void positionalMergeEqualsRebuild() throws Exception { mergeEqualsRebuild("binary", true); }
+
+    @Test
+    public void failedMergeLeavesNothingBehind() throws Exception
+    {
+        Configuration conf = configuration("binary", false);
+        Path index = buildSegments(conf, temporary.newFolder("corpus"));
+        FileSystem fs = index.getFileSystem(conf);
+        Manifest manifest = Manifest.read(fs, index);
+        List<String> segments = manifest.getSegments();
+        byte[] before = Files.readAllBytes(Paths.get(index.toString(), Manifest.FILENAME));
+
+        // Cut the postings of the last segment short
+        File postings = new File(new Path(index, segments.get(segments.size() - 1)).toString(),
+                "part-r-00000" + BinaryPostingsOutputFormat.POSTINGS_EXTENSION);
+        try (RandomAccessFile file = new RandomAccessFile(postings, "rw")) { file.setLength(file.length() / 2); }
+
+        try
+        {
+            SegmentMerger.merge(conf, index, manifest, segments);
+            fail("The merge of a truncated segment should fail");
+        }
+        catch (IOException expected)
+        {
+            // The merged segment is gone, and the manifest is the same
+        }
+        List<String> folders = new ArrayList<>();
+        for (File file : new File(index.toString()).listFiles())
+        {
+            if (file.getName().startsWith(Manifest.SEGMENT_PREFIX)) { folders.add(file.getName()); }
+        }
+        folders.sort(null);
+        assertEquals(segments, folders);
+        assertArrayEquals(before, Files.readAllBytes(Paths.get(index.toString(), Manifest.FILENAME)));
+    }
+}
@@ -0,0 +1,159 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tokenizer must produce exactly the words of the String-based pipeline it replaced in the mappers
+ */
+public class TokenizerTest
+{
+    // Characters that are delimiters, letters, or that lowercase into (or next to) one
+    private static final String TRICKY = " \t\n\r\f\u000b Aaz Z09_-'\u0130\u0131\u212A\u017F\u00C0\u00DF\u0307\u20AC\uFFFF";
+
+    // The original pipeline: Text decoding (malformed input becomes U+FFFD), then Strings all the way
+    private static List<String> expected(byte[] bytes, int start, int length)
+    {
+        Text text = new Text();
+        text.set(bytes, start, length);
+        List<String> words = new ArrayList<>();
+        StringTokenizer itr = new StringTokenizer(text.toString());
+        while (itr.hasMoreTokens())
+        {
+            // The mappers ran with a non-Turkish default locale
+            String word = itr.nextToken().toLowerCase(Locale.ROOT).replaceAll("[^A-Za-z]+", "");
+            if (!word.isEmpty()) { words.add(word); }
+        }
+        return words;
+    }
+
+    private static List<String> actual(Tokenizer tokenizer, byte[] bytes, int start, int length)
+    {
+        tokenizer.reset(bytes, start, length);
+        List<String> words = new ArrayList<>();
+        Text word = new Text();
+        while (tokenizer.next(word)) { words.add(word.toString()); }
+        return words;
+    }
+
+    private static void check(Tokenizer tokenizer, byte[] bytes)
+    {
+        assertEquals(describe(bytes), expected(bytes, 0, bytes.length), actual(tokenizer, bytes, 0, bytes.length));
+    }
+
+    private static void check(String line)
+    {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        check(new Tokenizer(), bytes);
+        assertArrayEquals(line, expected(bytes, 0, bytes.length).toArray(new String[0]), Tokenizer.normalize(line));
+    }
+
+    private static String describe(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) { hex.append(String.format("%02x ", b)); }
+        return hex.toString().trim();
+    }
+
+    @Test
+    public void fixedLines()
+    {
+        check("Hello, World!");
+        check("  The quick\tbrown\r\nfox\fjumps  ");
+        check("don't stop-me now_42 x2y");
+        check("\u0130stanbul \u0130 I\u0307 \u0131");
+        check("Kelvin 300\u212A \u212A");
+        check("\u00C0 la carte, na\u00EFve caf\u00E9 stra\u00DFe");
+        check("emoji \uD83D\uDE00ok \uD83D\uDE00");
+        check("non\u00A0breaking\u000bvertical");
+        check("");
+    }
+
+    @Test
+    public void delimiterOnlyLines()
+    {
+        check(" ");
+        check(" \t\n\r\f");
+        check("\t\t\t");
+        check("... --- !!! 123");
+    }
+
+    @Test
+    public void malformedUtf8()
+    {
+        Tokenizer tokenizer = new Tokenizer();
+        int[][] lines = {
+                {0xC4}, {0xC4, 'A'}, {0xC4, 0xC4, 0xB0}, {'a', 0xB0, 'b'},
+                {0xE2, 0x84}, {0xE2, 0x84, 'K'}, {0xE2, 0xC4, 0xB0}, {0xE2, 0xE2, 0x84, 0xAA},
+                {0xFF, 'a', 0xFE, ' ', 'B'}, {0xED, 0xA0, 0x80, 'x'}, {0xF0, 0x9F, 'z'}, {0xC0, 0xAF, 'q'},
+        };
+        for (int[] line : lines)
+        {
+            byte[] bytes = new byte[line.length];
+            for (int i = 0; i < line.length; i++) { bytes[i] = (byte) line[i]; }
+            check(tokenizer, bytes);
+        }
+    }
+
+    @Test
+    public void randomStrings()
+    {
+        Random random = new Random(42);
+        Tokenizer tokenizer = new Tokenizer();
+        for (int i = 0; i < 20000; i++)
+        {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++)
+            {
+                switch (random.nextInt(4))
+                {
+                    case 0: line.append(TRICKY.charAt(random.nextInt(TRICKY.length()))); break;
+                    case 1: line.append((char) (' ' + random.nextInt(95))); break;
+                    case 2: line.appendCodePoint(random.nextInt(0x3000)); break;
+                    default: line.appendCodePoint(0x10000 + random.nextInt(0x2000)); break;
+                }
+            }
+            check(tokenizer, line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void randomBytes()
+    {
+        Random random = new Random(7);
+        Tokenizer tokenizer = new Tokenizer();
+        // Delimiters, letters, and the bytes of U+0130 and U+212A
+        byte[] interesting = {' ', '\t', '\n', 'A', 'z', '0',
+                (byte) 0xC4, (byte) 0xB0, (byte) 0xE2, (byte) 0x84, (byte) 0xAA};
+        for (int i = 0; i < 20000; i++)
+        {
+            byte[] bytes = new byte[random.nextInt(32)];
+            for (int j = 0; j < bytes.length; j++)
+            {
+                bytes[j] = random.nextBoolean()
+                        ? interesting[random.nextInt(interesting.length)] : (byte) random.nextInt(256);
+            }
+            check(tokenizer, bytes);
+        }
+    }
+
+    @Test
+    public void lineInsideALargerBuffer()
+    {
+        byte[] buffer = "Skipped \u0130t Is kept\u212A NOT".getBytes(StandardCharsets.UTF_8);
+        int start = "Skipped ".length();
+        int length = buffer.length - start - " NOT".length();
+        assertEquals(expected(buffer, start, length), actual(new Tokenizer(), buffer, start, length));
+    }
+}
@@ -0,0 +1,196 @@
+package it.unipi.hadoop;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The keys and values of the job must read back what they wrote, and their raw comparators
+ *  must order the serialized keys like compareTo() orders the objects
+ */
+public class WritablesTest
+{
+    private final Random random = new Random(42);
+
+    private static byte[] serialize(Writable writable) throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        writable.write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    private static <T extends Writable> T deserialize(byte[] bytes, T writable) throws IOException
+    {
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        writable.readFields(in);
+        assertEquals("bytes left after readFields()", 0, in.available());
+        return writable;
+    }
+
+    // Names mixing ASCII, 2-byte characters, characters above the surrogates (U+E000...) and surrogate pairs
+    private String randomName()
+    {
+        StringBuilder name = new StringBuilder();
+        int length = random.nextInt(6);
+        for (int i = 0; i < length; i++)
+        {
+            switch (random.nextInt(5))
+            {
+                case 0: name.append((char) ('a' + random.nextInt(3))); break;
+                case 1: name.append((char) (0x80 + random.nextInt(0x700))); break;
+                case 2: name.append((char) (0xE000 + random.nextInt(0x1FFE))); break;
+                case 3: name.appendCodePoint(0x10000 + random.nextInt(0x1000)); break;
+                default: name.append('/'); break;
+            }
+        }
+        return name.toString();
+    }
+
+    private long randomOffset()
+    {
+        switch (random.nextInt(3))
+        {
+            case 0: return random.nextInt(300);
+            case 1: return random.nextLong() & Long.MAX_VALUE;
+            default: return random.nextInt(1 << 20);
+        }
+    }
+
+    private static FilenameAndOffset filenameAndOffset(String filename, int docId, long offset)
+    {
+        FilenameAndOffset key = new FilenameAndOffset();
+        key.setFilename(filename);
+        key.setDocId(docId);
+        key.setOffset(offset);
+        return key;
+    }
+
+    private static WordAndDocument wordAndDocument(String word, int docId)
+    {
+        WordAndDocument key = new WordAndDocument();
+        key.setWord(new Text(word));
+        key.setDocId(docId);
+        return key;
+    }
+
+    private static void assertSameOrder(FilenameAndOffset a, FilenameAndOffset b) throws IOException
+    {
+        byte[] x = serialize(a);
+        byte[] y = serialize(b);
+        WritableComparator comparator = WritableComparator.get(FilenameAndOffset.class);
+        assertEquals(a + " vs " + b, Integer.signum(a.compareTo(b)),
+                Integer.signum(comparator.compare(x, 0, x.length, y, 0, y.length)));
+    }
+
+    private static void assertSameOrder(WordAndDocument a, WordAndDocument b) throws IOException
+    {
+        byte[] x = serialize(a);
+        byte[] y = serialize(b);
+        WritableComparator comparator = WritableComparator.get(WordAndDocument.class);
+        assertEquals(a + " vs " + b, Integer.signum(a.compareTo(b)),
+                Integer.signum(comparator.compare(x, 0, x.length, y, 0, y.length)));
+    }
+
+    @Test
+    public void rawComparatorsAreRegistered()
+    {
+        assertTrue(WritableComparator.get(FilenameAndOffset.class) instanceof FilenameAndOffset.Comparator);
+        assertTrue(WritableComparator.get(WordAndDocument.class) instanceof WordAndDocument.Comparator);
+    }
+
+    @Test
+    public void filenameAndOffsetRoundTrip() throws IOException
+    {
+        for (int i = 0; i < 10000; i++)
+        {
+            FilenameAndOffset key = filenameAndOffset(randomName(), random.nextInt(Integer.MAX_VALUE), randomOffset());
+            FilenameAndOffset copy = deserialize(serialize(key), new FilenameAndOffset());
+            assertEquals(key, copy);
+            assertEquals(key.getDocId(), copy.getDocId());
+        }
+
+        // Longer than what writeUTF() could encode
+        char[] name = new char[70000];
+        Arrays.fill(name, 'x');
+        FilenameAndOffset key = filenameAndOffset(new String(name), 0, 0);
+        assertEquals(key, deserialize(serialize(key), new FilenameAndOffset()));
+    }
+
+    @Test
+    public void filenameAndOffsetRawOrder() throws IOException
+    {
+        for (int i = 0; i < 50000; i++)
+        {
+            FilenameAndOffset a = filenameAndOffset(randomName(), random.nextInt(1 << 20), randomOffset());
+            FilenameAndOffset b = filenameAndOffset(random.nextInt(4) == 0 ? a.getFilename() : randomName(),
+                    random.nextInt(1 << 20), random.nextInt(3) == 0 ? a.getOffset() : randomOffset());
+            assertSameOrder(a, b);
+        }
+    }
+
+    @Test
+    public void filenameAndOffsetEdgeCases() throws IOException
+    {
+        // A surrogate pair (U+1F600) is after U+E000..U+FFFF in UTF-8, but before them in UTF-16
+        assertSameOrder(filenameAndOffset("\uD83D\uDE00", 1, 0), filenameAndOffset("\uFFFD", 2, 0));
+        assertSameOrder(filenameAndOffset("a", 1, 0), filenameAndOffset("a\uD800\uDC00", 2, 0));
+        assertTrue(filenameAndOffset("\uD83D\uDE00", 1, 0).compareTo(filenameAndOffset("\uFFFD", 2, 0)) > 0);
+
+        // The document ID is not part of the order: the same file at the same offset is the same key
+        assertSameOrder(filenameAndOffset("doc.txt", 1, 10), filenameAndOffset("doc.txt", 2, 10));
+        assertEquals(0, filenameAndOffset("doc.txt", 1, 10).compareTo(filenameAndOffset("doc.txt", 2, 10)));
+        assertSameOrder(filenameAndOffset("doc.txt", 300, 10), filenameAndOffset("doc.txt", 1, 200));
+        assertSameOrder(filenameAndOffset("doc", 1, Long.MAX_VALUE), filenameAndOffset("doc.txt", 1, 0));
+        assertSameOrder(filenameAndOffset("", 0, 5), filenameAndOffset("", 0, 5));
+    }
+
+    @Test
+    public void wordAndDocumentRoundTripAndRawOrder() throws IOException
+    {
+        for (int i = 0; i < 50000; i++)
+        {
+            WordAndDocument a = wordAndDocument(randomName(), random.nextInt(Integer.MAX_VALUE));
+            WordAndDocument b = wordAndDocument(random.nextInt(3) == 0 ? a.getWord().toString() : randomName(),
+                    random.nextInt(4) == 0 ? a.getDocId() : random.nextInt(Integer.MAX_VALUE));
+            WordAndDocument copy = deserialize(serialize(a), new WordAndDocument());
+            assertEquals(a, copy);
+            assertEquals(a.getDocId(), copy.getDocId());
+            assertSameOrder(a, b);
+        }
+    }
+
+    @Test
+    public void wordAndDocumentGrouping() throws IOException
+    {
+        WordAndDocument.GroupingComparator grouping = new WordAndDocument.GroupingComparator();
+        byte[] x = serialize(wordAndDocument("word", 1));
+        byte[] y = serialize(wordAndDocument("word", 1 << 20));
+        byte[] z = serialize(wordAndDocument("words", 1));
+        assertEquals(0, grouping.compare(x, 0, x.length, y, 0, y.length));
+        assertTrue(grouping.compare(x, 0, x.length, z, 0, z.length) < 0);
+    }
+
+    @Test
+    public void filenameAndCountRoundTrip() throws IOException
+    {
+        for (int i = 0; i < 10000; i++)
+        {
+            FilenameAndCount value = new FilenameAndCount(random.nextInt(Integer.MAX_VALUE));
+            value.setDocId(random.nextInt(Integer.MAX_VALUE));
+            FilenameAndCount copy = deserialize(serialize(value), new FilenameAndCount());
+            assertEquals(value.getDocId(), copy.getDocId());
+            assertEquals(value.getCount(), copy.getCount());
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package it.unipi.hadoop.search;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The query language: how queries are parsed, their canonical form, and the documents
+ *  SearchIndex plans them into, checked against a plain evaluation of the tree over sets
+ */
+public class BooleanQueryTest
+{
+    private static final int DOCUMENTS = 200;
+    private static final String[] TERMS = {"a", "ab", "abc", "b", "ba", "c", "d", "e"};
+
+    // An index held in memory: each term is in a random subset of the documents
+    private static class MemoryIndex extends Index
+    {
+        private final TreeMap<String, int[]> postings = new TreeMap<>();
+
+        MemoryIndex(Random random)
+        {
+            for (String term : TERMS)
+            {
+                // From very rare to very common
+                int percent = 1 + random.nextInt(90);
+                List<Integer> docIds = new ArrayList<>();
+                for (int docId = 0; docId < DOCUMENTS; docId++)
+                {
+                    if (random.nextInt(100) < percent) { docIds.add(docId); }
+                }
+                int[] array = new int[docIds.size()];
+                for (int i = 0; i < array.length; i++) { array[i] = docIds.get(i); }
+                postings.put(term, array);
+            }
+        }
+
+        TreeSet<Integer> documents(String term)
+        {
+            TreeSet<Integer> documents = new TreeSet<>();
+            int[] docIds = postings.get(term);
+            if (docIds != null) { for (int docId : docIds) { documents.add(docId); } }
+            return documents;
+        }
+
+        @Override
+        public String getFilename(int docId) { return "doc" + docId; }
+
+        @Override
+        public PostingIterator postings(byte[] term)
+        {
+            int[] docIds = postings.get(new String(term, StandardCharsets.UTF_8));
+            if (docIds == null) { return null; }
+            int[] counts = new int[docIds.length];
+            Arrays.fill(counts, 1);
+            return new ArrayPostingIterator(docIds, counts, docIds.length);
+        }
+
+        @Override
+        public List<String> terms(byte[] from, byte[] to, int limit)
+        {
+            // The terms are ASCII: the String order is the byte order
+            String start = new String(from, StandardCharsets.UTF_8);
+            Map<String, int[]> range = to == null ? postings.tailMap(start)
+                    : postings.subMap(start, new String(to, StandardCharsets.UTF_8));
+            List<String> terms = new ArrayList<>(range.keySet());
+            return terms.size() > limit ? terms.subList(0, limit) : terms;
+        }
+    }
+
+    // The tree, with the operands in the order they were parsed
+    private static String tree(BooleanQuery.Node node)
+    {
+        if (node == null) { return "null"; }
+        if (node instanceof BooleanQuery.Not) { return "not(" + tree(((BooleanQuery.Not) node).clause) + ")"; }
+        if (node instanceof BooleanQuery.And) { return "and" + trees(((BooleanQuery.And) node).clauses); }
+        if (node instanceof BooleanQuery.Or) { return "or" + trees(((BooleanQuery.Or) node).clauses); }
+        return node.canonical();
+    }
+
+    private static String trees(List<BooleanQuery.Node> nodes)
+    {
+        List<String> trees = new ArrayList<>();
+        for (BooleanQuery.Node node : nodes) { trees.add(tree(node)); }
+        return "(" + String.join(", ", trees) + ")";
+    }
+
+    private static void assertTree(String expected, String query)
+    {
+        assertEquals(query, expected, tree(BooleanQuery.parse(query)));
+    }
+
+    private static void assertInvalid(String query)
+    {
+        try
+        {
+            BooleanQuery.parse(query);
+            fail(query + " should be invalid");
+        }
+        catch (IllegalArgumentException e) { /* expected */ }
+    }
+
+    @Test
+    public void parsing()
+    {
+        assertTree("and(cloud, computing)", "cloud computing");
+        assertTree("and(cloud, computing)", "cloud AND computing");
+        assertTree("or(and(a, b), c)", "a b OR c");
+        assertTree("and(a, or(b, c))", "a (b OR c)");
+        assertTree("and(a, not(b))", "a NOT b");
+        assertTree("and(a, not(or(b, c)))", "a NOT (b OR c)");
+        assertTree("and(hello, world)", "Hello, World!");
+        assertTree("and(a, and, b, or, c, not)", "a and b or c not");
+        assertTree("comput*", "comput*");
+        assertTree("\"cloud computing\"", "\"Cloud, computing!\"");
+        assertTree("\"cloud computing\"~3", "\"cloud computing\"~3");
+        assertTree("cloud", "\"cloud\"");
+        assertTree("null", "");
+        assertTree("null", "123 ... ()");
+        assertTree("null", "AND OR NOT");
+    }
+
+    @Test
+    public void malformedQueriesEndWithTheQuery()
+    {
+        assertTree("and(a, or(b, c))", "a (b OR c");
+        assertTree("and(a, b)", "a ) b");
+        assertTree("and(a, \"b c\")", "a \"b c");
+        assertTree("a", "a NOT");
+        assertTree("a", "a OR");
+        assertTree("and(a, b)", "a AND AND b");
+    }
+
+    @Test
+    public void duplicatesAreRemoved()
+    {
+        assertTree("a", "a a");
+        assertTree("a", "a OR a");
+        assertTree("and(a, b)", "a b a");
+        assertTree("or(a, b)", "a OR b OR A");
+        assertTree("and(a, b)", "a (a b)");
+    }
+
+    @Test
+    public void doubleNegation()
+    {
+        assertTree("and(a, b)", "a NOT NOT b");
+        assertTree("and(a, b)", "a NOT (NOT b)");
+        assertTree("and(a, not(b))", "a NOT NOT NOT b");
+        assertTree("a", "NOT NOT a");
+    }
+
+    @Test
+    public void negationsWithNothingToRemoveFromAreInvalid()
+    {
+        assertInvalid("NOT a");
+        assertInvalid("(NOT a)");
+        assertInvalid("NOT a NOT b");
+        assertInvalid("a OR NOT b");
+        assertInvalid("a OR (NOT b)");
+        assertInvalid("c (a OR NOT b)");
+        assertInvalid("a OR NOT NOT NOT b");
+        assertInvalid("NOT NOT NOT a");
+    }
+
+    @Test
+    public void canonicalForm()
+    {
+        String[][] equivalent = {
+                {"a b", "b a", "a AND b", "b a b"},
+                {"a OR b", "b OR a", "(a OR b)", "a OR b OR a"},
+                {"(a OR b) c", "c (b OR a)", "c AND (a OR b)"},
+                {"a NOT b", "NOT b a", "a NOT NOT NOT b"},
+                {"a NOT (b OR c)", "NOT (c OR b) a"},
+                {"a b OR c", "c OR b a", "c OR (a b)"},
+        };
+        for (String[] queries : equivalent)
+        {
+            String canonical = BooleanQuery.parse(queries[0]).canonical();
+            for (String query : queries) { assertEquals(query, canonical, BooleanQuery.parse(query).canonical()); }
+        }
+        assertEquals("NOT b a", BooleanQuery.parse("a NOT b").canonical());
+        assertEquals("\"cloud computing\"~2 comput*", BooleanQuery.parse("comput* \"cloud computing\"~2").canonical());
+    }
+
+    // A random query, that may be invalid
+    private static String randomQuery(Random random, int depth)
+    {
+        int clauses = 1 + random.nextInt(3);
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < clauses; i++)
+        {
+            StringBuilder clause = new StringBuilder();
+            while (random.nextInt(4) == 0) { clause.append("NOT "); }
+            int kind = random.nextInt(depth > 2 ? 3 : 4);
+            if (kind == 0) { clause.append(TERMS[random.nextInt(TERMS.length)]); }
+            else if (kind == 1) { clause.append(random.nextBoolean() ? "a*" : random.nextBoolean() ? "b*" : "z*"); }
+            else if (kind == 2) { clause.append(random.nextBoolean() ? "missing" : "e"); }
+            else { clause.append("(").append(randomQuery(random, depth + 1)).append(")"); }
+            parts.add(clause.toString());
+        }
+        String operator = random.nextBoolean() ? " OR " : random.nextBoolean() ? " AND " : " ";
+        return String.join(operator, parts);
+    }
+
+    @Test
+    public void canonicalFormParsesBackToItself()
+    {
+        Random random = new Random(42);
+        int valid = 0;
+        for (int i = 0; i < 5000; i++)
+        {
+            String query = randomQuery(random, 0);
+            BooleanQuery.Node root;
+            try { root = BooleanQuery.parse(query); }
+            catch (IllegalArgumentException e) { continue; }
+            valid++;
+            String canonical = root.canonical();
+            assertEquals(query, canonical, BooleanQuery.parse(canonical).canonical());
+            assertEquals(query, tree(root).length(), tree(BooleanQuery.parse(canonical)).length());
+        }
+        assertTrue(valid > 1000);
+    }
+
+    // The documents that match a clause, computed naively: all the documents minus the negated ones, and so on
+    private static TreeSet<Integer> evaluate(MemoryIndex index, BooleanQuery.Node node)
+    {
+        TreeSet<Integer> result = new TreeSet<>();
+        if (node instanceof BooleanQuery.Term) { return index.documents(((BooleanQuery.Term) node).term); }
+        if (node instanceof BooleanQuery.Prefix)
+        {
+            for (String term : TERMS)
+            {
+                if (term.startsWith(((BooleanQuery.Prefix) node).prefix)) { result.addAll(index.documents(term)); }
+            }
+            return result;
+        }
+        if (node instanceof BooleanQuery.Or)
+        {
+            for (BooleanQuery.Node clause : ((BooleanQuery.Or) node).clauses) { result.addAll(evaluate(index, clause)); }
+            return result;
+        }
+        if (node instanceof BooleanQuery.Not)
+        {
+            for (int docId = 0; docId < DOCUMENTS; docId++) { result.add(docId); }
+            result.removeAll(evaluate(index, ((BooleanQuery.Not) node).clause));
+            return result;
+        }
+        for (int docId = 0; docId < DOCUMENTS; docId++) { result.add(docId); }
+        for (BooleanQuery.Node clause : ((BooleanQuery.And) node).clauses) { result.retainAll(evaluate(index, clause)); }
+        return result;
+    }
+
+    private static int[] toArray(TreeSet<Integer> documents)
+    {
+        int[] array = new int[documents.size()];
+        int i = 0;
+        for (int docId : documents) { array[i++] = docId; }
+        return array;
+    }
+
+    @Test
+    public void plannedQueriesMatchTheirTree() throws IOException
+    {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++)
+        {
+            MemoryIndex index = new MemoryIndex(random);
+            SearchIndex searcher = new SearchIndex(index);
+            for (int i = 0; i < 500; i++)
+            {
+                String query = randomQuery(random, 0);
+                BooleanQuery.Node root;
+                try { root = BooleanQuery.parse(query); }
+                catch (IllegalArgumentException e)
+                {
+                    // The planner refuses the same queries
+                    try
+                    {
+                        searcher.search(query);
+                        fail(query + " should be invalid");
+                    }
+                    catch (IllegalArgumentException expected) { /* expected */ }
+                    continue;
+                }
+                int[] expected = root == null ? new int[0] : toArray(evaluate(index, root));
+                assertArrayEquals(query, expected, searcher.search(query));
+            }
+        }
+    }
+
+    @Test
+    public void plannerOnFixedQueries() throws IOException
+    {
+        MemoryIndex index = new MemoryIndex(new Random(3));
+        SearchIndex searcher = new SearchIndex(index);
+
+        TreeSet<Integer> aNotB = index.documents("a");
+        aNotB.removeAll(index.documents("b"));
+        assertArrayEquals(toArray(aNotB), searcher.search("a NOT b"));
+
+        // A double negation is the clause itself, not all of a
+        TreeSet<Integer> aAndB = index.documents("a");
+        aAndB.retainAll(index.documents("b"));
+        assertArrayEquals(toArray(aAndB), searcher.search("a NOT NOT b"));
+
+        // A missing word empties its AND, and is dropped from its OR; a prefix expands to every term
+        assertArrayEquals(new int[0], searcher.search("a missing"));
+        assertArrayEquals(toArray(index.documents("a")), searcher.search("a OR missing"));
+        TreeSet<Integer> prefix = index.documents("a");
+        prefix.addAll(index.documents("ab"));
+        prefix.addAll(index.documents("abc"));
+        assertArrayEquals(toArray(prefix), searcher.search("a*"));
+        assertArrayEquals(new int[0], searcher.search("z*"));
+        assertArrayEquals(new int[0], searcher.search(""));
+        assertEquals(Collections.emptyList(), index.getAliases(0));
+        assertNull(BooleanQuery.parse("..."));
+    }
+}
@@ -0,0 +1,255 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.TermDictionary;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lookups and range enumerations on a dictionary written by TermDictionary.Writer, checked
+ *  against the sorted list of its terms. The terms share long prefixes, and some have
+ *  non-ASCII letters, whose UTF-8 bytes must be compared as unsigned
+ */
+public class FrontCodedDictionaryTest
+{
+    private static final int B = TermDictionary.TERMS_PER_BLOCK;
+    private static final String[] LETTERS = {"a", "b", "c", "é", "中"};
+
+    private final List<byte[]> terms = new ArrayList<>();
+    private final List<Long> offsets = new ArrayList<>();  // One more than the terms: where the last postings end
+    private final List<Integer> frequencies = new ArrayList<>();
+
+    // Random sorted terms (a few blocks and a partial one), with their postings offsets and frequencies
+    private FrontCodedDictionary generate(int size, boolean positional) throws IOException
+    {
+        Random random = new Random(size);
+        TreeSet<byte[]> sorted = new TreeSet<>((a, b) -> FrontCodedDictionary.compare(a, 0, a.length, b, b.length));
+        while (sorted.size() < size)
+        {
+            StringBuilder term = new StringBuilder("pre");
+            for (int length = 1 + random.nextInt(6); length > 0; length--) { term.append(LETTERS[random.nextInt(LETTERS.length)]); }
+            sorted.add(term.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        terms.addAll(sorted);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TermDictionary.Writer writer = new TermDictionary.Writer(bytes, positional);
+        long offset = 0;
+        for (byte[] term : terms)
+        {
+            offsets.add(offset);
+            frequencies.add(1 + random.nextInt(1000));
+            writer.add(term, term.length, offset, frequencies.get(frequencies.size() - 1), 3 * offset);
+            offset += 1 + random.nextInt(5000);
+        }
+        offsets.add(offset);
+        writer.finish(offset, 3 * offset);
+        return new FrontCodedDictionary(new MappedFile(ByteBuffer.wrap(bytes.toByteArray())));
+    }
+
+    private static byte[] bytes(String term) { return term.getBytes(StandardCharsets.UTF_8); }
+
+    private static String string(FrontCodedDictionary.Cursor cursor)
+    {
+        return new String(cursor.term(), 0, cursor.termLength(), StandardCharsets.UTF_8);
+    }
+
+    // The terms in [from, to), to null for no end, like Index.terms()
+    private static List<String> range(FrontCodedDictionary dictionary, byte[] from, byte[] to)
+    {
+        List<String> found = new ArrayList<>();
+        FrontCodedDictionary.Cursor cursor = dictionary.cursor();
+        for (boolean more = cursor.seek(from); more; more = cursor.next())
+        {
+            if (to != null && FrontCodedDictionary.compare(cursor.term(), 0, cursor.termLength(), to, to.length) >= 0) { break; }
+            found.add(string(cursor));
+        }
+        return found;
+    }
+
+    private List<String> expectedRange(byte[] from, byte[] to)
+    {
+        List<String> expected = new ArrayList<>();
+        for (byte[] term : terms)
+        {
+            if (FrontCodedDictionary.compare(term, 0, term.length, from, from.length) < 0) { continue; }
+            if (to != null && FrontCodedDictionary.compare(term, 0, term.length, to, to.length) >= 0) { continue; }
+            expected.add(new String(term, StandardCharsets.UTF_8));
+        }
+        return expected;
+    }
+
+    private void assertFound(FrontCodedDictionary dictionary, int ordinal)
+    {
+        byte[] term = terms.get(ordinal);
+        FrontCodedDictionary.Cursor cursor = dictionary.cursor();
+        assertTrue(cursor.seek(term));
+        assertTrue(cursor.matches(term));
+        assertEquals(ordinal, cursor.ordinal());
+        assertArrayEquals(term, Arrays.copyOf(cursor.term(), cursor.termLength()));
+        assertEquals((int) frequencies.get(ordinal), cursor.documentFrequency());
+        assertEquals((long) offsets.get(ordinal), cursor.postingsOffset());
+        assertEquals(offsets.get(ordinal + 1) - offsets.get(ordinal), cursor.postingsLength());
+        if (dictionary.isPositional())
+        {
+            assertEquals(3 * offsets.get(ordinal), cursor.positionsOffset());
+            assertEquals(3 * (offsets.get(ordinal + 1) - offsets.get(ordinal)), cursor.positionsLength());
+        }
+    }
+
+    @Test
+    public void exactLookups() throws IOException
+    {
+        FrontCodedDictionary dictionary = generate(10 * B + 17, false);
+        assertEquals(terms.size(), dictionary.size());
+        assertFalse(dictionary.isPositional());
+        for (int ordinal = 0; ordinal < terms.size(); ordinal++) { assertFound(dictionary, ordinal); }
+    }
+
+    @Test
+    public void positionalLookups() throws IOException
+    {
+        FrontCodedDictionary dictionary = generate(3 * B + 5, true);
+        assertTrue(dictionary.isPositional());
+        for (int ordinal = 0; ordinal < terms.size(); ordinal++) { assertFound(dictionary, ordinal); }
+    }
+
+    @Test
+    public void firstAndLastTermOfEachBlock() throws IOException
+    {
+        FrontCodedDictionary dictionary = generate(6 * B + 1, false);
+        for (int block = 0; block * B < terms.size(); block++)
+        {
+            assertFound(dictionary, block * B);
+            assertFound(dictionary, Math.min(terms.size(), (block + 1) * B) - 1);
+        }
+    }
+
+    @Test
+    public void missingTerms() throws IOException
+    {
+        FrontCodedDictionary dictionary = generate(5 * B, false);
+        FrontCodedDictionary.Cursor cursor = dictionary.cursor();
+
+        // Between the last term of a block and the first one of the next: the cursor lands on the latter
+        for (int block = 1; block < 5; block++)
+        {
+            byte[] last = terms.get(block * B - 1);
+            byte[] between = Arrays.copyOf(last, last.length + 1);  // last + "\0" < the next term
+            assertTrue(cursor.seek(between));
+            assertFalse(cursor.matches(between));
+            assertEquals(block * B, cursor.ordinal());
+        }
+
+        // Within a block, before all the terms and after all of them
+        byte[] inside = Arrays.copyOf(terms.get(B + 10), terms.get(B + 10).length + 1);
+        assertTrue(cursor.seek(inside));
+        assertFalse(cursor.matches(inside));
+        assertEquals(B + 11, cursor.ordinal());
+        assertTrue(cursor.seek(bytes("a")));
+        assertEquals(0, cursor.ordinal());
+        assertFalse(cursor.seek(bytes("zzz")));
+        assertFalse(cursor.matches(bytes("zzz")));
+    }
+
+    @Test
+    public void prefixes() throws IOException
+    {
+        FrontCodedDictionary dictionary = generate(8 * B + 3, false);
+
+        // The empty prefix enumerates everything, in order
+        assertNull(Index.prefixEnd(new byte[0]));
+        assertEquals(expectedRange(new byte[0], null), range(dictionary, new byte[0], null));
+        assertEquals(terms.size(), range(dictionary, new byte[0], null).size());
+
+        // Prefixes matching nothing: before, after and between the terms
+        for (String prefix : new String[] {"a", "zz", "prf", "pred", "preê"})
+        {
+            assertEquals(prefix, 0, range(dictionary, bytes(prefix), Index.prefixEnd(bytes(prefix))).size());
+        }
+
+        // Every prefix of every term, across the blocks
+        for (byte[] term : terms)
+        {
+            for (int length = 3; length <= term.length; length++)
+            {
+                byte[] prefix = Arrays.copyOf(term, length);
+                List<String> found = range(dictionary, prefix, Index.prefixEnd(prefix));
+                assertEquals(expectedRange(prefix, Index.prefixEnd(prefix)), found);
+                assertFalse(found.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void ranges() throws IOException
+    {
+        FrontCodedDictionary dictionary = generate(7 * B + 30, false);
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++)
+        {
+            byte[] from = terms.get(random.nextInt(terms.size()));
+            byte[] to = terms.get(random.nextInt(terms.size()));
+            if (random.nextBoolean()) { from = Arrays.copyOf(from, from.length + 1); }
+            if (random.nextInt(10) == 0) { to = null; }
+            assertEquals(expectedRange(from, to), range(dictionary, from, to));
+        }
+    }
+
+    @Test
+    public void emptyDictionary() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new TermDictionary.Writer(bytes, false).finish(0, 0);
+        FrontCodedDictionary dictionary = new FrontCodedDictionary(new MappedFile(ByteBuffer.wrap(bytes.toByteArray())));
+        assertEquals(0, dictionary.size());
+        FrontCodedDictionary.Cursor cursor = dictionary.cursor();
+        assertFalse(cursor.seek(new byte[0]));
+        assertFalse(cursor.next());
+    }
+
+    // The dictionary of a text part points at its lines, and a repeated word at all of its lines
+    @Test
+    public void textPart() throws IOException
+    {
+        String part = "apple\td1:2\td2:1\napple\td3:1\nbanana\td1:1\n\ncherry\td2:5";
+        byte[] bytes = bytes(part);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(TermDictionary.writeText(new ByteArrayInputStream(bytes), bytes.length, out));
+        FrontCodedDictionary dictionary = new FrontCodedDictionary(new MappedFile(ByteBuffer.wrap(out.toByteArray())));
+        assertTrue(dictionary.isText());
+        assertEquals(3, dictionary.size());
+
+        String[] words = {"apple", "banana", "cherry"};
+        String[] lines = {"apple\td1:2\td2:1\napple\td3:1\n", "banana\td1:1\n\n", "cherry\td2:5"};
+        int[] postings = {3, 1, 1};
+        FrontCodedDictionary.Cursor cursor = dictionary.cursor();
+        for (int i = 0; i < words.length; i++)
+        {
+            assertTrue(cursor.seek(bytes(words[i])));
+            assertTrue(cursor.matches(bytes(words[i])));
+            assertEquals(postings[i], cursor.documentFrequency());
+            assertEquals(lines[i], new String(bytes, (int) cursor.postingsOffset(), (int) cursor.postingsLength(),
+                    StandardCharsets.UTF_8));
+        }
+
+        // Unsorted lines get no dictionary
+        byte[] unsorted = bytes("zeta\td1:1\nalpha\td2:2\n");
+        assertFalse(TermDictionary.writeText(new ByteArrayInputStream(unsorted), unsorted.length, new ByteArrayOutputStream()));
+    }
+}
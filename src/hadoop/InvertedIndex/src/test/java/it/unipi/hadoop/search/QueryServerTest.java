@@ -0,0 +1,211 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.DocumentDictionary;
+import it.unipi.hadoop.FilenameAndCount;
+import it.unipi.hadoop.IndexFolder;
+import it.unipi.hadoop.TermDictionary;
+import it.unipi.hadoop.TextPostingsOutputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.Text;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Many clients querying a QueryServer at once must get the same answers as a plain SearchIndex,
+ *  whether the caches are off, so small that they keep evicting, or large enough for everything
+ */
+public class QueryServerTest
+{
+    private static final int DOCUMENTS = 300;
+    private static final int PARTS = 2;
+    private static final int WORDS = 120;
+    private static final int CLIENTS = 8;
+    private static final int QUERIES_PER_CLIENT = 150;
+
+    @ClassRule
+    public static TemporaryFolder temporary = new TemporaryFolder();
+
+    private static Path folder;
+    private static List<String> words = new ArrayList<>();
+    private static List<String> queries = new ArrayList<>();
+
+    // A text index of WORDS random words, each one in a random number of random documents
+    @BeforeClass
+    public static void generateIndex() throws IOException
+    {
+        folder = temporary.newFolder("index").toPath();
+        Configuration conf = new Configuration();
+        org.apache.hadoop.fs.Path index = new org.apache.hadoop.fs.Path(folder.toString());
+        FileSystem fs = index.getFileSystem(conf);
+        String[] filenames = new String[DOCUMENTS];
+        for (int docId = 0; docId < DOCUMENTS; docId++) { filenames[docId] = String.format("doc%04d.txt", docId); }
+        DocumentDictionary documents = new DocumentDictionary(filenames);
+        documents.write(fs, new org.apache.hadoop.fs.Path(index, DocumentDictionary.FILENAME));
+
+        Random random = new Random(3);
+        while (words.size() < WORDS)
+        {
+            StringBuilder word = new StringBuilder();
+            for (int length = 1 + random.nextInt(4); length > 0; length--) { word.append((char) ('a' + random.nextInt(6))); }
+            if (!words.contains(word.toString())) { words.add(word.toString()); }
+        }
+        Collections.sort(words);
+
+        // Each part gets the words in its hash range, like the reducers do
+        for (int part = 0; part < PARTS; part++)
+        {
+            TextPostingsOutputFormat.TextPostingsWriter writer = new TextPostingsOutputFormat.TextPostingsWriter(
+                    fs.create(new org.apache.hadoop.fs.Path(index, String.format("part-r-%05d", part))), documents);
+            FilenameAndCount posting = new FilenameAndCount();
+            for (String word : words)
+            {
+                if ((word.hashCode() & Integer.MAX_VALUE) % PARTS != part) { continue; }
+                int frequency = 1 + random.nextInt(random.nextBoolean() ? 10 : DOCUMENTS);
+                for (int docId = 0, left = frequency; left > 0; docId++)
+                {
+                    if (random.nextInt(DOCUMENTS - docId) >= left) { continue; }
+                    posting.setDocId(docId);
+                    posting.setCount(1 + random.nextInt(5));
+                    writer.write(new Text(word), posting);
+                    left--;
+                }
+            }
+            writer.close(null);
+        }
+        TermDictionary.build(new IndexFolder(conf, index));
+
+        // Valid queries of every kind, plus some the server must answer with a 400
+        for (int i = 0; i < 200; i++)
+        {
+            String a = pick(random);
+            String b = pick(random);
+            String c = pick(random);
+            switch (random.nextInt(7))
+            {
+                case 0: queries.add(a); break;
+                case 1: queries.add(a + " " + b); break;
+                case 2: queries.add(a + " OR " + b + " OR " + c); break;
+                case 3: queries.add(a + " (" + b + " OR " + c + ")"); break;
+                case 4: queries.add(a + " NOT " + b); break;
+                case 5: queries.add(a.substring(0, 1) + "* " + b); break;
+                default: queries.add(random.nextBoolean() ? "NOT " + a : "\"" + a + " " + b + "\"");
+            }
+        }
+    }
+
+    // A word of the index, or now and then one that is not
+    private static String pick(Random random)
+    {
+        return random.nextInt(10) == 0 ? "zzz" : words.get(random.nextInt(words.size()));
+    }
+
+    // The status and body that the server must return, computed without it
+    private static String expected(SearchIndex searcher, String query) throws IOException
+    {
+        try
+        {
+            StringBuilder body = new StringBuilder("200 ");
+            for (int docId : searcher.search(query)) { body.append(searcher.getIndex().getFilename(docId)).append('\n'); }
+            return body.toString();
+        }
+        catch (IllegalArgumentException | UnsupportedOperationException e)
+        {
+            return "400 " + e.getMessage() + "\n";
+        }
+    }
+
+    private static String get(String url) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        int status = connection.getResponseCode();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream())
+        {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) >= 0; ) { body.write(buffer, 0, read); }
+        }
+        return status + " " + new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void concurrentClients(long cacheBytes) throws Exception
+    {
+        Index index = Index.open(Paths.get(folder.toString()));
+        SearchIndex searcher = new SearchIndex(index);
+        List<String> answers = new ArrayList<>();
+        int invalid = 0;
+        for (String query : queries)
+        {
+            answers.add(expected(searcher, query));
+            if (answers.get(answers.size() - 1).startsWith("400 ")) { invalid++; }
+        }
+        assertTrue(invalid > 0 && invalid < queries.size() / 2);
+
+        QueryServer server = new QueryServer(index, new InetSocketAddress("localhost", 0), 4, cacheBytes);
+        server.start();
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+        try
+        {
+            String base = "http://localhost:" + server.getPort() + "/search?q=";
+            List<Thread> clients = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++)
+            {
+                Random random = new Random(i);
+                Thread client = new Thread(() ->
+                {
+                    for (int j = 0; j < QUERIES_PER_CLIENT; j++)
+                    {
+                        int query = random.nextInt(queries.size());
+                        try
+                        {
+                            String answer = get(base + URLEncoder.encode(queries.get(query), "UTF-8"));
+                            if (!answer.equals(answers.get(query)))
+                            {
+                                errors.add(queries.get(query) + ": got " + answer + " instead of " + answers.get(query));
+                            }
+                        }
+                        catch (IOException e) { errors.add(queries.get(query) + ": " + e); }
+                    }
+                });
+                client.start();
+                clients.add(client);
+            }
+            for (Thread client : clients) { client.join(); }
+        }
+        finally
+        {
+            server.stop();
+        }
+        assertEquals("", String.join("\n", errors));
+    }
+
+    @Test
+    public void withoutCaches() throws Exception { concurrentClients(0); }
+
+    @Test
+    public void withSmallCaches() throws Exception { concurrentClients(8 * 1024); }
+
+    @Test
+    public void withLargeCaches() throws Exception { concurrentClients(16 * 1024 * 1024); }
+}
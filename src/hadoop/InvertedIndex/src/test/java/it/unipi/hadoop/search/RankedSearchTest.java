@@ -0,0 +1,171 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.CorpusStatistics;
+import it.unipi.hadoop.DocumentDictionary;
+import it.unipi.hadoop.FilenameAndCount;
+import it.unipi.hadoop.IndexConverter;
+import it.unipi.hadoop.IndexFolder;
+import it.unipi.hadoop.TermDictionary;
+import it.unipi.hadoop.TextPostingsOutputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The top k of RankedSearch with MaxScore pruning must be exactly the one of the exhaustive
+ *  evaluation (same documents, same scores, same order), on random queries over a text index
+ *  and its binary conversion, which also has the maximum scores of the terms.
+ * A third of the documents have a clone, with the same words and counts, so that their scores
+ *  tie; k goes from 1 to more than the documents that match
+ */
+public class RankedSearchTest
+{
+    private static final int DOCUMENTS = 400;
+    private static final int TERMS = 40;
+    private static final int PARTS = 2;
+
+    @ClassRule
+    public static TemporaryFolder temporary = new TemporaryFolder();
+
+    private static Path text;
+    private static Path binary;
+    private static final List<String> terms = new ArrayList<>();
+
+    @BeforeClass
+    public static void generateIndexes() throws Exception
+    {
+        Random random = new Random(17);
+        List<TreeMap<Integer, Integer>> postings = new ArrayList<>();
+        for (int term = 0; term < TERMS; term++)
+        {
+            // From a handful of documents to all of them, some lists spanning several blocks
+            int frequency = 1 + (int) Math.pow(DOCUMENTS, random.nextDouble());
+            TreeMap<Integer, Integer> list = new TreeMap<>();
+            while (list.size() < frequency) { list.put(random.nextInt(DOCUMENTS), 1 + random.nextInt(random.nextBoolean() ? 3 : 20)); }
+            terms.add(String.format("t%c%c", 'a' + term / 26, 'a' + term % 26));
+            postings.add(list);
+        }
+        for (int original = 0; original < DOCUMENTS / 2; original += 3)
+        {
+            int clone = original + DOCUMENTS / 2;
+            for (TreeMap<Integer, Integer> list : postings)
+            {
+                list.remove(clone);
+                if (list.containsKey(original)) { list.put(clone, list.get(original)); }
+            }
+        }
+
+        Configuration conf = new Configuration();
+        text = new Path(temporary.getRoot().getPath(), "text");
+        FileSystem fs = text.getFileSystem(conf);
+        String[] filenames = new String[DOCUMENTS];
+        for (int docId = 0; docId < DOCUMENTS; docId++) { filenames[docId] = String.format("doc%04d.txt", docId); }
+        DocumentDictionary documents = new DocumentDictionary(filenames);
+        documents.write(fs, new Path(text, DocumentDictionary.FILENAME));
+        for (int part = 0; part < PARTS; part++)
+        {
+            TextPostingsOutputFormat.TextPostingsWriter writer = new TextPostingsOutputFormat.TextPostingsWriter(
+                    fs.create(new Path(text, String.format("part-r-%05d", part))), documents);
+            FilenameAndCount posting = new FilenameAndCount();
+            for (int term = part; term < TERMS; term += PARTS)
+            {
+                for (Map.Entry<Integer, Integer> entry : postings.get(term).entrySet())
+                {
+                    posting.setDocId(entry.getKey());
+                    posting.setCount(entry.getValue());
+                    writer.write(new Text(terms.get(term)), posting);
+                }
+            }
+            writer.close(null);
+        }
+        IndexFolder index = new IndexFolder(conf, text);
+        CorpusStatistics.build(index);
+        TermDictionary.build(index);
+
+        binary = new Path(temporary.getRoot().getPath(), "binary");
+        IndexConverter.convert(conf, text, binary, true);
+    }
+
+    // The documents that contain any of the words
+    private static int matches(Index index, String query) throws IOException
+    {
+        Set<Integer> documents = new HashSet<>();
+        for (String term : query.split(" "))
+        {
+            PostingIterator postings = index.postings(term);
+            if (postings == null) { continue; }
+            for (int docId = postings.nextDoc(); docId != PostingIterator.NO_MORE_DOCS; docId = postings.nextDoc())
+            {
+                documents.add(docId);
+            }
+        }
+        return documents.size();
+    }
+
+    private void prunedEqualsExhaustive(Path folder) throws IOException
+    {
+        Index index = Index.open(Paths.get(folder.toString()));
+        RankedSearch searcher = new RankedSearch(index);
+        Random random = new Random(23);
+        int ties = 0;
+        long prunedScored = 0;
+        long exhaustiveScored = 0;
+        for (int i = 0; i < 1000; i++)
+        {
+            StringBuilder query = new StringBuilder();
+            for (int words = 1 + random.nextInt(5); words > 0; words--)
+            {
+                query.append(random.nextInt(20) == 0 ? "missing" : terms.get(random.nextInt(TERMS))).append(' ');
+            }
+            int[] ks = {1, 3, 10, 50, DOCUMENTS + 1};
+            int k = ks[random.nextInt(ks.length)];
+
+            RankedSearch.ScoredDocument[] expected = searcher.searchExhaustive(query.toString(), k);
+            exhaustiveScored += searcher.getLastScoredDocuments();
+            RankedSearch.ScoredDocument[] actual = searcher.search(query.toString(), k);
+            prunedScored += searcher.getLastScoredDocuments();
+            assertArrayEquals(query + "(k = " + k + ")", expected, actual);
+
+            // The first k of the whole ranking, even when the k-th document ties with the next one
+            RankedSearch.ScoredDocument[] all = searcher.searchExhaustive(query.toString(), DOCUMENTS + 1);
+            assertArrayEquals(query + "(k = " + k + ")", Arrays.copyOf(all, Math.min(k, all.length)), actual);
+
+            assertEquals(query.toString(), Math.min(k, matches(index, query.toString().trim())), actual.length);
+            for (int j = 1; j < actual.length; j++)
+            {
+                // Best first, and a tie goes to the lower document ID
+                assertTrue(query.toString(), actual[j - 1].score > actual[j].score
+                        || actual[j - 1].score == actual[j].score && actual[j - 1].docId < actual[j].docId);
+                if (actual[j - 1].score == actual[j].score) { ties++; }
+            }
+        }
+        assertTrue("The clones must tie", ties > 0);
+        assertTrue("Pruning must skip documents", prunedScored < exhaustiveScored);
+    }
+
+    @Test
+    public void textIndex() throws IOException { prunedEqualsExhaustive(text); }
+
+    @Test
+    public void binaryIndex() throws IOException { prunedEqualsExhaustive(binary); }
+}
@@ -0,0 +1,229 @@
+package it.unipi.hadoop.search;
+
+import it.unipi.hadoop.InvertedIndex;
+import it.unipi.hadoop.ShardedIndexer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A sharded index must answer every query with the same files as the index of the whole corpus,
+ *  and a shard that does not answer in time must be left out of the result instead of holding it up
+ */
+public class ShardedSearchTest
+{
+    private static final int SHARDS = 3;
+    private static final int DOCUMENTS = 60;
+    private static final String[] WORDS = {
+            "alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta", "iota", "kappa",
+            "lambda", "mu", "nu", "xi", "omicron", "pi", "rho", "sigma", "tau", "upsilon",
+    };
+
+    @ClassRule
+    public static TemporaryFolder temporary = new TemporaryFolder();
+
+    private static java.nio.file.Path single;
+    private static java.nio.file.Path sharded;
+    private static final List<String> queries = new ArrayList<>();
+
+    // The same positional corpus, indexed as a whole and in shards
+    @BeforeClass
+    public static void buildIndexes() throws Exception
+    {
+        Random random = new Random(5);
+        File corpus = temporary.newFolder("corpus");
+        for (int document = 0; document < DOCUMENTS; document++)
+        {
+            File file = new File(corpus, String.format("doc%03d.txt", document));
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)))
+            {
+                for (int word = 5 + random.nextInt(60); word > 0; word--)
+                {
+                    out.print(WORDS[(int) Math.pow(WORDS.length, random.nextDouble())] + (word % 10 == 0 ? "\n" : " "));
+                }
+            }
+        }
+
+        Configuration conf = new Configuration();
+        conf.set(InvertedIndex.OUTPUT_FORMAT, "binary");
+        conf.setBoolean(InvertedIndex.POSITIONS, true);
+        Path[] inputs = {new Path(corpus.getPath())};
+        single = Paths.get(temporary.getRoot().getPath(), "single");
+        assertTrue(InvertedIndex.run(conf, inputs, new Path(single.toString()), 0, 2, 1));
+        conf.setInt(ShardedIndexer.SHARDS, SHARDS);
+        sharded = Paths.get(temporary.getRoot().getPath(), "sharded");
+        assertTrue(ShardedIndexer.run(conf, inputs, new Path(sharded.toString()), 0, 2, 1));
+
+        for (int i = 0; i < 300; i++)
+        {
+            String a = WORDS[random.nextInt(WORDS.length)];
+            String b = WORDS[random.nextInt(WORDS.length)];
+            String c = random.nextInt(10) == 0 ? "missing" : WORDS[random.nextInt(WORDS.length)];
+            switch (random.nextInt(7))
+            {
+                case 0: queries.add(a); break;
+                case 1: queries.add(a + " " + b); break;
+                case 2: queries.add(a + " OR " + b + " OR " + c); break;
+                case 3: queries.add(a + " (" + b + " OR " + c + ")"); break;
+                case 4: queries.add(a + " NOT " + b); break;
+                case 5: queries.add(a.substring(0, 1) + "* " + c); break;
+                default: queries.add(random.nextBoolean() ? "NOT " + a : "\"" + a + " " + b + "\"");
+            }
+        }
+    }
+
+    // The files that match the query on the whole index, or the message of the error it raises
+    private static List<String> expected(SearchIndex searcher, String query) throws IOException
+    {
+        List<String> filenames = new ArrayList<>();
+        try
+        {
+            for (int docId : searcher.search(query)) { filenames.add(searcher.getIndex().getFilename(docId)); }
+        }
+        catch (IllegalArgumentException | UnsupportedOperationException e)
+        {
+            filenames.add("error: " + e.getMessage());
+        }
+        return filenames;
+    }
+
+    @Test
+    public void sameResultsAsSingleIndex() throws IOException
+    {
+        SearchIndex searcher = new SearchIndex(Index.open(single));
+        List<Index> shards = ShardedSearch.openShards(sharded);
+        assertEquals(SHARDS, shards.size());
+        int nonEmpty = 0;
+        try (ShardedSearch shardedSearcher = new ShardedSearch(shards, 2, 60000))
+        {
+            for (String query : queries)
+            {
+                List<String> expected = expected(searcher, query);
+                List<String> actual = new ArrayList<>();
+                try
+                {
+                    ShardedSearch.Result result = shardedSearcher.search(query);
+                    assertTrue(query, result.isComplete());
+                    actual.addAll(result.getFilenames());
+                }
+                catch (IllegalArgumentException | UnsupportedOperationException e)
+                {
+                    actual.add("error: " + e.getMessage());
+                }
+                assertEquals(query, expected, actual);
+                if (!expected.isEmpty() && !expected.get(0).startsWith("error: ")) { nonEmpty++; }
+            }
+        }
+        assertTrue(nonEmpty > queries.size() / 2);
+    }
+
+    /**
+     * A shard whose postings lookups wait until the test lets them go
+     *  (or until they are interrupted, when the search gives up on the shard)
+     */
+    private static final class SlowIndex extends Index
+    {
+        private final Index index;
+        private final CountDownLatch release;
+
+        SlowIndex(Index index, CountDownLatch release)
+        {
+            this.index = index;
+            this.release = release;
+        }
+
+        private void await() throws IOException
+        {
+            try { release.await(30, TimeUnit.SECONDS); }
+            catch (InterruptedException e) { throw new IOException("Interrupted", e); }
+        }
+
+        @Override
+        public String getFilename(int docId) { return index.getFilename(docId); }
+
+        @Override
+        public PostingIterator postings(byte[] term) throws IOException
+        {
+            await();
+            return index.postings(term);
+        }
+
+        @Override
+        public List<String> terms(byte[] from, byte[] to, int limit) throws IOException
+        {
+            await();
+            return index.terms(from, to, limit);
+        }
+
+        @Override
+        public boolean hasPositions() { return index.hasPositions(); }
+
+        @Override
+        public PositionIterator positions(String term) throws IOException
+        {
+            await();
+            return index.positions(term);
+        }
+    }
+
+    @Test
+    public void slowShardGivesPartialResult() throws IOException
+    {
+        SearchIndex searcher = new SearchIndex(Index.open(single));
+        List<Index> shards = new ArrayList<>(ShardedSearch.openShards(sharded));
+        int slow = 1;
+        CountDownLatch release = new CountDownLatch(1);
+        shards.set(slow, new SlowIndex(shards.get(slow), release));
+        try (ShardedSearch shardedSearcher = new ShardedSearch(shards, SHARDS, 200))
+        {
+            for (String query : new String[] {"alpha", "beta OR gamma", "alpha NOT beta", "\"alpha beta\""})
+            {
+                long start = System.nanoTime();
+                ShardedSearch.Result result = shardedSearcher.search(query);
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue(query + " took " + elapsed + " ms", elapsed < 5000);
+
+                assertFalse(query, result.isComplete());
+                assertEquals(query, Integer.valueOf(slow), result.getMissingShards().get(0));
+                assertEquals(query, 1, result.getMissingShards().size());
+
+                // Everything but the documents of the slow shard
+                List<String> expected = new ArrayList<>();
+                for (String filename : expected(searcher, query))
+                {
+                    if (ShardedIndexer.getShard(filename, SHARDS) != slow) { expected.add(filename); }
+                }
+                assertEquals(query, expected, result.getFilenames());
+            }
+
+            // Once the shard is back, the results are complete again
+            release.countDown();
+            ShardedSearch.Result result = shardedSearcher.search("alpha");
+            assertTrue(result.isComplete());
+            assertEquals(expected(searcher, "alpha"), result.getFilenames());
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+}
@@ -49,7 +49,9 @@ if isfile(dir):
         handleFile(f)
 else:
     for file in listdir(path=dir):
-        if isfile(dir+file):
+        # Skip Hadoop's metadata files (e.g., _SUCCESS, _documents and the .crc checksums)
+        # and the term dictionaries of the parts (.dict)
+        if isfile(dir+file) and not file.startswith(("_", ".")) and not file.endswith(".dict"):
             with open(dir+file) as f:
                 handleFile(f)
 